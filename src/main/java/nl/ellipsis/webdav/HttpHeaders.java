@@ -18,4 +18,8 @@ public class HttpHeaders {
     public static final String CONTENT_LENGTH = "Content-Length";
     public static final String RANGE = "Range";
     public static final String CONTENT_RANGE = "Content-Range";
+    public static final String LOCATION = "Location";
+    public static final String PREFER = "Prefer";
+    public static final String PREFERENCE_APPLIED = "Preference-Applied";
+    public static final String RETRY_AFTER = "Retry-After";
 }
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that remembers paths found
+ * missing, so methods can answer 404 before taking any lock.
+ */
+public interface IExistenceAwareStore {
+
+	/**
+	 * Must not touch the underlying storage. A <code>false</code> result means
+	 * the path may or may not exist.
+	 *
+	 * @param uri
+	 *      URI
+	 * @return <code>true</code> if the path is known not to exist
+	 */
+	boolean isKnownMissing(String uri);
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that copies a resource
+ * without streaming its content through the server, used by COPY and MOVE.
+ */
+public interface INativeCopyStore {
+
+	/**
+	 * Creates a resource with the content of another one.
+	 *
+	 * @param transaction
+	 *      indicates that the method is within the scope of a WebDAV
+	 *      transaction
+	 * @param sourceUri
+	 *      URI of the resource to copy
+	 * @param destinationUri
+	 *      URI of the resource to create
+	 * @return <code>false</code> if nothing was done because the store cannot
+	 *         copy these resources itself, the caller then streams the content
+	 */
+	boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri);
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+import java.util.Set;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that can skip computing
+ * attributes nobody asked for, used by PROPFIND.
+ */
+public interface IPropertyAwareStore {
+
+	/**
+	 * Like {@link IWebDAVStore#getStoredObject(ITransaction, String)}, but only
+	 * the attributes needed for the given properties have to be filled in.
+	 * Whether the object is a folder is always set.
+	 *
+	 * @param transaction
+	 *      indicates that the method is within the scope of a WebDAV
+	 *      transaction
+	 * @param uri
+	 *      URI
+	 * @param properties
+	 *      local names of the requested DAV: properties, e.g.
+	 *      {@link WebDAVConstants.XMLTag#GET_CONTENTTYPE}, <code>null</code>
+	 *      for all
+	 * @return StoredObject
+	 */
+	StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties);
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+import java.io.InputStream;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that reads part of the
+ * content of a resource for less than the whole, used by GET with a
+ * <code>Range</code> header.
+ */
+public interface IRangeAwareStore {
+
+	/**
+	 * Like {@link IWebDAVStore#getResourceContent(ITransaction, String)}, but
+	 * the stream starts at <code>start</code> and only the bytes before
+	 * <code>end</code> have to be provided.
+	 *
+	 * @param transaction
+	 *      indicates that the method is within the scope of a WebDAV
+	 *      transaction
+	 * @param resourceUri
+	 *      URI of the resource
+	 * @param start
+	 *      offset of the first byte
+	 * @param end
+	 *      offset after the last byte needed
+	 * @return the content from start on
+	 */
+	InputStream getResourceContent(ITransaction transaction, String resourceUri, long start, long end);
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that takes a snapshot when
+ * a collection is created in a snapshot collection. The source is not
+ * locked while the snapshot is taken, writes go on; the store makes the
+ * snapshot consistent itself, as far as it can. MKCOL holds its temporary lock
+ * on the new collection for as long as a snapshot may take.
+ */
+public interface ISnapshotStore {
+
+	/**
+	 * @param folderUri
+	 *      URI of the collection to create
+	 * @return path of the collection whose snapshot creating the folder
+	 *         takes, <code>null</code> if it is an ordinary collection
+	 */
+	String getSnapshotSource(String folderUri);
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+/**
+ * Optional capability of an {@link IWebDAVStore} that can take a whole
+ * collection out of the tree at once and remove its content later, used by
+ * DELETE.
+ */
+public interface ITrashStore {
+
+	/**
+	 * Removes an object and everything below it from the tree in one step.
+	 *
+	 * @param transaction
+	 *      indicates that the method is within the scope of a WebDAV
+	 *      transaction
+	 * @param uri
+	 *      URI
+	 * @return <code>false</code> if nothing was done because the store cannot
+	 *         trash this object, the caller then removes it member by member
+	 */
+	boolean moveToTrash(ITransaction transaction, String uri);
+
+}
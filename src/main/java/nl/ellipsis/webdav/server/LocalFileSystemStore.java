@@ -25,38 +25,169 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.CharsetUtil;
+import nl.ellipsis.webdav.server.util.MimeTypeResolver;
+import nl.ellipsis.webdav.server.util.TrashPurger;
 import nl.ellipsis.webdav.server.util.URLUtil;
 
 /**
  * Reference Implementation of WebdavStore
+ * <p>
+ * When {@link #WEBDAV_SNAPSHOT_PATH_PROPERTY} names a folder, point-in-time
+ * copies of the tree can be taken with {@link #createSnapshot(String)} or by
+ * creating a collection in {@link #WEBDAV_SNAPSHOT_COLLECTION_PROPERTY}. A
+ * snapshot is a tree of hard links, so it takes seconds even for very large
+ * trees and no extra space until files change. To keep the links intact,
+ * content is then always written to a new file that replaces the old one.
+ * The tree is not locked while a snapshot is taken; a second walk verifies
+ * that nothing changed meanwhile and the snapshot is taken again if it did.
+ * Snapshots are served read-only below the snapshot collection and removed
+ * by deleting them there. The walk leaves out the snapshots, the trash and
+ * the folders of the store itself.
+ * <p>
+ * When {@link #WEBDAV_TRASH_PATH_PROPERTY} names a folder, deleted
+ * collections are renamed into it and purged in the background by a
+ * {@link TrashPurger}. A trash folder inside the root is hidden from the
+ * tree.
  * 
  * @author joa
  * @author re
  */
-public class LocalFileSystemStore implements IWebDAVStore {
+public class LocalFileSystemStore implements IWebDAVStore, IPropertyAwareStore, ITrashStore, INativeCopyStore, ISnapshotStore {
+
+	/**
+	 * folder holding the snapshots, snapshots are disabled if not set. Hard
+	 * links need it on the same file system as the root.
+	 */
+	public static final String WEBDAV_SNAPSHOT_PATH_PROPERTY = "webdavSnapshotPath";
+	/**
+	 * path of the read-only collection listing the snapshots
+	 */
+	public static final String WEBDAV_SNAPSHOT_COLLECTION_PROPERTY = "webdavSnapshotCollection";
+	/**
+	 * folder deleted collections are moved to, deletes are done in place if
+	 * not set. Renaming needs it on the same file system as the root.
+	 */
+	public static final String WEBDAV_TRASH_PATH_PROPERTY = "webdavTrashPath";
+	/**
+	 * milliseconds deleted collections are kept in the trash
+	 */
+	public static final String WEBDAV_TRASH_RETENTION_PROPERTY = "webdavTrashRetention";
+	/**
+	 * maximum number of files purged from the trash per second
+	 */
+	public static final String WEBDAV_TRASH_PURGE_RATE_PROPERTY = "webdavTrashPurgeRate";
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(LocalFileSystemStore.class);
 
 	private static int BUF_SIZE = 65536;
 
+	/**
+	 * prefix of files being written and snapshots being built, both are
+	 * hidden from listings
+	 */
+	private static final String TEMP_PREFIX = ".webdav-";
+
+	/**
+	 * number of times a snapshot is taken before one that the tree changed
+	 * under is kept
+	 */
+	private static final int SNAPSHOT_ATTEMPTS = 3;
+
 	private File _root = null;
+	private final File _snapshotDir;
+	private final String _snapshotCollection;
+	private TrashPurger _trash;
+	/**
+	 * path of the trash folder in the tree, <code>null</code> if it is
+	 * outside the root
+	 */
+	private String _trashPath;
 
 	public LocalFileSystemStore(File root) {
+		this(root, System.getProperty(WEBDAV_SNAPSHOT_PATH_PROPERTY) != null ? new File(System.getProperty(WEBDAV_SNAPSHOT_PATH_PROPERTY)) : null,
+				System.getProperty(WEBDAV_SNAPSHOT_COLLECTION_PROPERTY, "/.snapshots"));
+		String trashPath = System.getProperty(WEBDAV_TRASH_PATH_PROPERTY);
+		if (trashPath != null) {
+			initTrash(new File(trashPath), Long.getLong(WEBDAV_TRASH_RETENTION_PROPERTY, 0),
+					Integer.getInteger(WEBDAV_TRASH_PURGE_RATE_PROPERTY, 1000));
+		}
+	}
+
+	/**
+	 * @param root
+	 *            folder holding the resources
+	 * @param snapshotDir
+	 *            folder holding the snapshots, <code>null</code> disables
+	 *            snapshots
+	 * @param snapshotCollection
+	 *            path of the read-only collection listing the snapshots
+	 */
+	public LocalFileSystemStore(File root, File snapshotDir, String snapshotCollection) {
 		_root = root;
+		_snapshotDir = snapshotDir;
+		_snapshotCollection = URLUtil.getCleanPath(snapshotCollection);
+		if (_snapshotDir != null && !_snapshotDir.isDirectory() && !_snapshotDir.mkdirs()) {
+			LOG.error("LocalFileSystemStore could not create snapshot folder " + _snapshotDir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Makes deleted collections go to a trash folder.
+	 *
+	 * @param trashDir
+	 *            folder deleted collections are moved to
+	 * @param retention
+	 *            milliseconds deleted collections are kept
+	 * @param purgeRate
+	 *            maximum number of files purged per second
+	 */
+	public void setTrash(File trashDir, long retention, int purgeRate) {
+		initTrash(trashDir, retention, purgeRate);
+	}
+
+	private void initTrash(File trashDir, long retention, int purgeRate) {
+		try {
+			_trash = new TrashPurger(trashDir, retention, purgeRate);
+			Path root = _root.toPath().toAbsolutePath().normalize();
+			Path trash = trashDir.toPath().toAbsolutePath().normalize();
+			_trashPath = trash.startsWith(root) && !trash.equals(root)
+					? URLUtil.getCleanPath(root.relativize(trash).toString().replace(File.separatorChar, '/'))
+					: null;
+		} catch (IOException e) {
+			LOG.error("LocalFileSystemStore could not use trash folder " + trashDir.getAbsolutePath(), e);
+		}
 	}
 
 	@Override
 	public void destroy() {
 		LOG.debug("LocalFileSystemStore.destroy()");
+		if (_trash != null) {
+			_trash.close();
+		}
 	}
 
 	@Override
@@ -69,7 +200,7 @@ public class LocalFileSystemStore implements IWebDAVStore {
 				throw new WebDAVException(msg);
 			}
 		}
-		return null;
+		return new Transaction(principal);
 	}
 
 	@Override
@@ -80,19 +211,29 @@ public class LocalFileSystemStore implements IWebDAVStore {
 
 	@Override
 	public void commit(ITransaction transaction) throws WebDAVException {
-		// do nothing
 		LOG.debug("LocalFileSystemStore.commit()");
+		if (transaction instanceof Transaction) {
+			((Transaction) transaction).clear();
+		}
 	}
 
 	@Override
 	public void rollback(ITransaction transaction) throws WebDAVException {
-		// do nothing
 		LOG.debug("LocalFileSystemStore.rollback()");
+		if (transaction instanceof Transaction) {
+			((Transaction) transaction).clear();
+		}
 	}
 
 	@Override
 	public void createFolder(ITransaction transaction, String uri) throws WebDAVException {
 		LOG.debug("LocalFileSystemStore.createFolder(" + uri + ")");
+		forget(transaction, uri);
+		if (isSnapshotPath(uri) && _snapshotCollection.equals(URLUtil.getParentPath(URLUtil.getCleanPath(uri)))) {
+			createSnapshot(URLUtil.getCleanPath(uri).substring(_snapshotCollection.length() + 1));
+			return;
+		}
+		checkWritable(uri);
 		File file = new File(_root, uri);
 		if (!file.mkdir()) {
 			LOG.error("LocalFileSystemStore.createFolder(" + uri + ") failed");
@@ -103,6 +244,8 @@ public class LocalFileSystemStore implements IWebDAVStore {
 	@Override
 	public void createResource(ITransaction transaction, String uri) throws WebDAVException {
 		LOG.debug("LocalFileSystemStore.createResource(" + uri + ")");
+		forget(transaction, uri);
+		checkWritable(uri);
 		File file = new File(_root, uri);
 		try {
 			if (!file.createNewFile()) {
@@ -118,8 +261,15 @@ public class LocalFileSystemStore implements IWebDAVStore {
 	public long setResourceContent(ITransaction transaction, String uri, InputStream is, String contentType,
 			String characterEncoding) throws WebDAVException {
 		LOG.debug("LocalFileSystemStore.setResourceContent(" + uri + ")");
+		forget(transaction, uri);
+		checkWritable(uri);
 		File file = new File(_root, uri);
+		// a file linked into a snapshot must not change, write a new one
+		File target = file;
 		try {
+			if (_snapshotDir != null) {
+				file = new File(target.getAbsoluteFile().getParentFile(), TEMP_PREFIX + UUID.randomUUID() + ".tmp");
+			}
 			OutputStream os = new BufferedOutputStream(new FileOutputStream(file), BUF_SIZE);
 			try {
 				int read;
@@ -135,17 +285,23 @@ public class LocalFileSystemStore implements IWebDAVStore {
 					os.close();
 				}
 			}
+			if (file != target) {
+				Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
 		} catch (IOException e) {
 			LOG.error("LocalFileSystemStore.setResourceContent(" + uri + ") failed");
+			if (file != target && !file.delete()) {
+				LOG.warn("LocalFileSystemStore.setResourceContent(" + uri + ") could not remove " + file.getAbsolutePath());
+			}
 			throw new WebDAVException(e);
 		}
-		return getResourceLength(file);
+		return getResourceLength(target);
 	}
 
 	@Override
 	public String[] getChildrenNames(ITransaction transaction, String uri) throws WebDAVException {
 		LOG.debug("LocalFileSystemStore.getChildrenNames(" + uri + ")");
-		File file = new File(_root, uri);
+		File file = getFile(uri);
 		String[] childrenNames = null;
 		if (file.isDirectory()) {
 			File[] children = file.listFiles();
@@ -153,9 +309,19 @@ public class LocalFileSystemStore implements IWebDAVStore {
 				List<String> childList = new ArrayList<>();
 				for (int i = 0; i < children.length; i++) {
 					String name = children[i].getName();
+					if (_snapshotDir != null && name.startsWith(TEMP_PREFIX)) {
+						continue;
+					}
+					if (isTrashPath(URLUtil.getCleanPath(uri, name))) {
+						continue;
+					}
 					childList.add(name);
 					LOG.debug("\tChild " + i + ": " + name);
 				}
+				if (_snapshotDir != null && _snapshotCollection.equals(URLUtil.getCleanPath(uri, getSnapshotCollectionName()))
+						&& !childList.contains(getSnapshotCollectionName())) {
+					childList.add(getSnapshotCollectionName());
+				}
 				childrenNames = new String[childList.size()];
 				childrenNames = (String[]) childList.toArray(childrenNames);
 			}
@@ -165,6 +331,10 @@ public class LocalFileSystemStore implements IWebDAVStore {
 
 	@Override
 	public void removeObject(ITransaction transaction, String uri) throws WebDAVException {
+		if (transaction instanceof Transaction) {
+			((Transaction) transaction).forgetSubtree(URLUtil.getCleanPath(uri));
+		}
+		checkWritable(uri);
 		File file = new File(_root, uri);
 		boolean success = file.delete();
 		LOG.debug("LocalFileSystemStore.removeObject(" + uri + ")=" + success);
@@ -173,10 +343,51 @@ public class LocalFileSystemStore implements IWebDAVStore {
 		}
 	}
 
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) throws WebDAVException {
+		LOG.debug("LocalFileSystemStore.copyResource(" + sourceUri + ", " + destinationUri + ")");
+		forget(transaction, destinationUri);
+		checkWritable(destinationUri);
+		try {
+			// the file system may clone or copy in the kernel
+			Files.copy(getFile(sourceUri).toPath(), new File(_root, destinationUri).toPath());
+		} catch (IOException e) {
+			LOG.error("LocalFileSystemStore.copyResource(" + sourceUri + ", " + destinationUri + ") failed");
+			throw new WebDAVException("cannot copy '" + sourceUri + "' to '" + destinationUri + "'", e);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		if (getSnapshotSource(path) != null) {
+			forget(transaction, path);
+			deleteSnapshot(path.substring(_snapshotCollection.length() + 1));
+			return true;
+		}
+		if (_trash == null) {
+			return false;
+		}
+		checkWritable(uri);
+		if ("/".equals(path)) {
+			return false;
+		}
+		if (transaction instanceof Transaction) {
+			((Transaction) transaction).forgetSubtree(path);
+		}
+		boolean success = _trash.trash(new File(_root, path).toPath(), path);
+		LOG.debug("LocalFileSystemStore.moveToTrash(" + uri + ")=" + success);
+		return success;
+	}
+
 	@Override
 	public InputStream getResourceContent(ITransaction transaction, String uri) throws WebDAVException {
 		LOG.debug("LocalFileSystemStore.getResourceContent(" + uri + ")");
-		File file = new File(_root, uri);
+		if (isTrashPath(URLUtil.getCleanPath(uri))) {
+			throw new AccessDeniedException("the trash is not part of the tree: '" + uri + "'");
+		}
+		File file = getFile(uri);
 
 		InputStream in;
 		try {
@@ -191,36 +402,337 @@ public class LocalFileSystemStore implements IWebDAVStore {
 	@Override
 	public long getResourceLength(ITransaction transaction, String uri) {
 		LOG.debug("LocalFileSystemStore.getResourceLength(" + uri + ")");
-		File file = new File(_root, uri);
+		if (transaction instanceof Transaction) {
+			StoredObject so = ((Transaction) transaction).getMemoized(URLUtil.getCleanPath(uri));
+			if (so != null && so.isResource()) {
+				return so.getResourceLength();
+			}
+		}
+		File file = getFile(uri);
 		return getResourceLength(file);
 	}
 
 	@Override
 	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		if (transaction instanceof Transaction) {
+			return ((Transaction) transaction).getStoredObject(URLUtil.getCleanPath(uri), path -> lookup(path, null));
+		}
+		return lookup(uri, null);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		if (transaction instanceof Transaction) {
+			Transaction t = (Transaction) transaction;
+			String path = URLUtil.getCleanPath(uri);
+			if (properties == null) {
+				return t.getStoredObject(path, p -> lookup(p, null));
+			}
+			// partial metadata is not memoized, but complete metadata serves
+			StoredObject so = t.getMemoized(path);
+			if (so != null || t.isMemoizedMissing(path)) {
+				return so;
+			}
+		}
+		return lookup(uri, properties);
+	}
+
+	private StoredObject lookup(String uri, Set<String> properties) {
 		uri = URLUtil.getCleanPath(uri);
 		if(uri.contains("//")) {
 			LOG.debug("ERROR: LocalFileSystemStore.getStoredObject(" + uri + ")");
 		}
+		if (isTrashPath(uri)) {
+			return null;
+		}
 		LOG.debug("LocalFileSystemStore.getStoredObject(" + uri + ")");
 		StoredObject so = null;
-		File file = new File(_root, uri);
-		if (file.exists()) {
-			try {
+		File file = getFile(uri);
+		try {
+			// a single stat provides everything but the MIME type
+			BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			so = new StoredObject(uri);
+			so.setFolder(attr.isDirectory());
+			so.setResourceLength(attr.size());
+			so.setLastModified(new Date(attr.lastModifiedTime().toMillis()));
+			if (properties == null || properties.contains(WebDAVConstants.XMLTag.CREATIONDATE)) {
+				so.setCreationDate(new Date(attr.creationTime().toMillis()));
+			}
+			// derived from the name only, a metadata lookup never reads the content
+			if (!so.isFolder() && (properties == null || properties.contains(WebDAVConstants.XMLTag.GET_CONTENTTYPE))) {
+				so.setMimeType(MimeTypeResolver.getDefault().getMimeType(uri));
+			}
+		} catch (NoSuchFileException e) {
+			// does not exist
+		} catch (IOException e) {
+			LOG.error("LocalFileSystemStore.getStoredObject(" + uri + ") failed",e);
+			if (file.exists()) {
 				so = new StoredObject(uri);
 				so.setFolder(file.isDirectory());
 				so.setResourceLength(getResourceLength(file));
 				so.setLastModified(new Date(file.lastModified()));
-				// set as many attributes as possible using nio
-				BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-				so.setCreationDate(new Date(attr.creationTime().toMillis()));
-				so.setMimeType(Files.probeContentType(Paths.get(file.toURI())));
-			} catch (IOException e) {
-				LOG.error("LocalFileSystemStore.getStoredObject(" + uri + ") failed",e);
 			}
 		}
 		return so;
 	}
 	
+	@Override
+	public String getSnapshotSource(String folderUri) {
+		if (isSnapshotPath(folderUri) && _snapshotCollection.equals(URLUtil.getParentPath(URLUtil.getCleanPath(folderUri)))) {
+			return CharsetUtil.FORWARD_SLASH;
+		}
+		return null;
+	}
+
+	/**
+	 * Takes a snapshot of the whole tree, the snapshot becomes visible under
+	 * the snapshot collection once it is complete. The tree is not locked:
+	 * the snapshot is walked a second time and taken again if anything
+	 * changed, so it shows the tree at the moment the links were complete.
+	 * If the tree keeps changing for {@link #SNAPSHOT_ATTEMPTS} attempts the
+	 * last snapshot is kept, each file then is as it was at some moment while
+	 * it was taken.
+	 *
+	 * @param name
+	 *            name of the snapshot
+	 */
+	public void createSnapshot(String name) throws WebDAVException {
+		LOG.debug("LocalFileSystemStore.createSnapshot(" + name + ")");
+		if (_snapshotDir == null) {
+			throw new AccessDeniedException("snapshots are not enabled");
+		}
+		if (name.isEmpty() || name.startsWith(".") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+			throw new WebDAVException("invalid snapshot name '" + name + "'");
+		}
+		Path target = _snapshotDir.toPath().resolve(name);
+		if (Files.exists(target)) {
+			throw new ObjectAlreadyExistsException("snapshot '" + name + "' exists");
+		}
+		Path source = _root.toPath().toAbsolutePath();
+		Path snapshots = _snapshotDir.toPath().toAbsolutePath();
+		Path building = snapshots.resolve(TEMP_PREFIX + name);
+		long start = System.currentTimeMillis();
+		int[] counts = new int[2];
+		try {
+			for (int attempt = 1;; attempt++) {
+				deleteTree(building);
+				counts[0] = 0;
+				counts[1] = 0;
+				byte[] linked = walkSnapshot(source, snapshots, building, counts);
+				if (Arrays.equals(linked, walkSnapshot(source, snapshots, null, null))) {
+					break;
+				}
+				if (attempt == SNAPSHOT_ATTEMPTS) {
+					LOG.warn("LocalFileSystemStore.createSnapshot(" + name + ") the tree kept changing, keeping a snapshot that is not point-in-time");
+					break;
+				}
+				LOG.debug("LocalFileSystemStore.createSnapshot(" + name + ") the tree changed, attempt " + (attempt + 1));
+			}
+			Files.move(building, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.error("LocalFileSystemStore.createSnapshot(" + name + ") failed", e);
+			try {
+				deleteTree(building);
+			} catch (IOException e2) {
+				LOG.warn("LocalFileSystemStore.createSnapshot(" + name + ") could not clean up " + building, e2);
+			}
+			throw new WebDAVException("cannot create snapshot '" + name + "'", e);
+		}
+		if (counts[1] > 0) {
+			LOG.warn("LocalFileSystemStore.createSnapshot(" + name + ") copied " + counts[1]
+					+ " files that could not be linked, is the snapshot folder on another file system?");
+		}
+		LOG.info("Snapshot " + name + " of " + counts[0] + " files taken in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Walks the tree the way a snapshot sees it.
+	 *
+	 * @param building
+	 *            folder the tree is linked into, <code>null</code> to only
+	 *            walk it
+	 * @param counts
+	 *            incremented by the number of linked and copied files
+	 * @return digest of the paths, identities and modification times walked
+	 */
+	private byte[] walkSnapshot(Path source, Path snapshots, Path building, int[] counts) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (dir.equals(snapshots) || !dir.equals(source) && isInternalFolder(source.relativize(dir))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (building != null) {
+					Files.createDirectory(building.resolve(source.relativize(dir).toString()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isRegularFile() || file.getFileName().toString().startsWith(TEMP_PREFIX)) {
+					return FileVisitResult.CONTINUE;
+				}
+				// new content is a new file, its identity changes
+				update(file, attrs.fileKey() + "," + attrs.size() + "," + attrs.lastModifiedTime().toMillis());
+				if (building == null) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path link = building.resolve(source.relativize(file).toString());
+				try {
+					Files.createLink(link, file);
+					counts[0]++;
+				} catch (UnsupportedOperationException | FileSystemException e) {
+					if (e instanceof NoSuchFileException) {
+						// removed while walking
+						return FileVisitResult.CONTINUE;
+					}
+					Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+					counts[1]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if (e instanceof NoSuchFileException) {
+					return FileVisitResult.CONTINUE;
+				}
+				throw e;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				// changes when members are added or removed
+				FileTime lastModified = Files.getLastModifiedTime(dir);
+				update(dir, Long.toString(lastModified.toMillis()));
+				if (building != null) {
+					Files.setLastModifiedTime(building.resolve(source.relativize(dir).toString()), lastModified);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			private void update(Path path, String state) {
+				digest.update((source.relativize(path) + "\0" + state + "\0").getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		return digest.digest();
+	}
+
+	/**
+	 * Removes a snapshot, the resources it shares with the tree are not
+	 * affected. Deleting a snapshot in the snapshot collection calls this.
+	 */
+	public void deleteSnapshot(String name) throws WebDAVException {
+		LOG.debug("LocalFileSystemStore.deleteSnapshot(" + name + ")");
+		if (_snapshotDir == null || name.isEmpty() || name.startsWith(".") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+			throw new WebDAVException("invalid snapshot name '" + name + "'");
+		}
+		try {
+			deleteTree(_snapshotDir.toPath().resolve(name));
+		} catch (IOException e) {
+			throw new WebDAVException("cannot remove snapshot '" + name + "'", e);
+		}
+	}
+
+	/**
+	 * @return the names of the complete snapshots
+	 */
+	public String[] getSnapshotNames() {
+		if (_snapshotDir == null) {
+			return new String[0];
+		}
+		String[] names = getChildrenNames(null, _snapshotCollection);
+		return names != null ? names : new String[0];
+	}
+
+	/**
+	 * @return the file backing a path, the snapshot collection maps onto the
+	 *         snapshot folder
+	 */
+	protected File getFile(String uri) {
+		if (isSnapshotPath(uri)) {
+			return new File(_snapshotDir, URLUtil.getCleanPath(uri).substring(_snapshotCollection.length()));
+		}
+		return new File(_root, uri);
+	}
+
+	private boolean isSnapshotPath(String uri) {
+		if (_snapshotDir == null) {
+			return false;
+		}
+		String path = URLUtil.getCleanPath(uri);
+		return path.equals(_snapshotCollection) || path.startsWith(_snapshotCollection + "/");
+	}
+
+	private void checkWritable(String uri) {
+		if (isSnapshotPath(uri)) {
+			throw new AccessDeniedException("snapshots are read-only: '" + uri + "'");
+		}
+		if (isTrashPath(URLUtil.getCleanPath(uri))) {
+			throw new AccessDeniedException("the trash is not part of the tree: '" + uri + "'");
+		}
+	}
+
+	/**
+	 * @param path
+	 *            folder relative to the root
+	 * @return whether the folder holds data of the store rather than
+	 *         resources and is left out of snapshots
+	 */
+	private boolean isInternalFolder(Path path) {
+		return path.getFileName().toString().startsWith(TEMP_PREFIX)
+				|| isTrashPath(URLUtil.getCleanPath(path.toString().replace(File.separatorChar, '/')));
+	}
+
+	private boolean isTrashPath(String path) {
+		return _trashPath != null && (path.equals(_trashPath) || path.startsWith(_trashPath + "/"));
+	}
+
+	private String getSnapshotCollectionName() {
+		return _snapshotCollection.substring(_snapshotCollection.lastIndexOf('/') + 1);
+	}
+
+	private static void deleteTree(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Makes the transaction read a changed path and its parent again.
+	 */
+	protected static void forget(ITransaction transaction, String uri) {
+		if (transaction instanceof Transaction) {
+			((Transaction) transaction).forget(URLUtil.getCleanPath(uri));
+		}
+	}
+
 	private long getResourceLength(File file) {
 		long length = -1;
 		try {
@@ -24,7 +24,7 @@ import nl.ellipsis.webdav.server.util.CharsetUtil;
 public class StoredObject {
 	
 	private final String url;
-	private final String name;
+	private String name;
 
     private boolean isFolder;
     private Date lastModified;
@@ -36,7 +36,22 @@ public class StoredObject {
     
     public StoredObject(String relativeUrl) {
     	this.url = relativeUrl;
-    	this.name = getResourceName(relativeUrl);
+    }
+
+    /**
+     * Creates an independent copy of another StoredObject
+     *
+     * @param other
+     *      the object to copy
+     */
+    public StoredObject(StoredObject other) {
+    	this.url = other.getUrl();
+    	this.isFolder = other.isFolder();
+    	this.lastModified = other.getLastModified() != null ? new Date(other.getLastModified().getTime()) : null;
+    	this.creationDate = other.getCreationDate() != null ? new Date(other.getCreationDate().getTime()) : null;
+    	this.contentLength = other.getResourceLength();
+    	this.mimeType = other.getMimeType();
+    	this.isNullRessource = other.isNullResource();
     }
 
     /**
@@ -75,6 +90,10 @@ public class StoredObject {
 	 * @return name of the resource
 	 */
 	public String getName() {
+		// derived on demand, most objects never need it
+		if (name == null) {
+			name = getResourceName(url);
+		}
 	    return name;
 	}
 
@@ -192,9 +211,12 @@ public class StoredObject {
 	private static String getResourceName(String relativeUrl) {
 		String retval = null;
 		if(relativeUrl != null && (! relativeUrl.trim().isEmpty())) {
-			String[] s = relativeUrl.split(CharsetUtil.FORWARD_SLASH);
-			if(s.length>0) {
-				retval = s[s.length-1];
+			int end = relativeUrl.length();
+			while(end > 0 && relativeUrl.charAt(end - 1) == CharsetUtil.CHAR_FORWARD_SLASH) {
+				end--;
+			}
+			if(end > 0) {
+				retval = relativeUrl.substring(relativeUrl.lastIndexOf(CharsetUtil.CHAR_FORWARD_SLASH, end - 1) + 1, end);
 			}
 		}
 		return retval;
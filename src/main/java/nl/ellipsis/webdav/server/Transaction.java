@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link ITransaction} that remembers the metadata a store looked up during
+ * one request, so a path is read from storage at most once no matter how
+ * many methods ask for it. The store forgets paths it changes, and nothing is
+ * kept beyond the transaction, so there is no staleness across requests.
+ */
+public class Transaction implements ITransaction {
+
+	/**
+	 * memoized marker for paths that do not exist
+	 */
+	private static final StoredObject MISSING = new StoredObject((String) null);
+
+	private final Principal _principal;
+
+	/**
+	 * keys: path value: metadata or {@link #MISSING}
+	 */
+	private final Map<String, StoredObject> _lookups = new HashMap<>();
+
+	public Transaction(Principal principal) {
+		_principal = principal;
+	}
+
+	@Override
+	public Principal getPrincipal() {
+		return _principal;
+	}
+
+	/**
+	 * @param path
+	 *            clean path
+	 * @param lookup
+	 *            reads the metadata of a path from storage
+	 * @return a copy of the metadata, read at most once per transaction
+	 */
+	public StoredObject getStoredObject(String path, Function<String, StoredObject> lookup) {
+		StoredObject so;
+		synchronized (_lookups) {
+			so = _lookups.get(path);
+		}
+		if (so == null) {
+			so = lookup.apply(path);
+			synchronized (_lookups) {
+				_lookups.put(path, so != null ? new StoredObject(so) : MISSING);
+			}
+			return so;
+		}
+		return so == MISSING ? null : new StoredObject(so);
+	}
+
+	/**
+	 * @return a copy of the memoized metadata, <code>null</code> if the path
+	 *         was not looked up yet
+	 */
+	public StoredObject getMemoized(String path) {
+		synchronized (_lookups) {
+			StoredObject so = _lookups.get(path);
+			return so == null || so == MISSING ? null : new StoredObject(so);
+		}
+	}
+
+	/**
+	 * @return whether the path was looked up and found missing
+	 */
+	public boolean isMemoizedMissing(String path) {
+		synchronized (_lookups) {
+			return _lookups.get(path) == MISSING;
+		}
+	}
+
+	/**
+	 * Forgets a changed path and its parent, whose modification date changed
+	 * with it.
+	 */
+	public void forget(String path) {
+		String parent = URLUtil.getParentPath(path);
+		synchronized (_lookups) {
+			_lookups.remove(path);
+			if (parent != null) {
+				_lookups.remove(parent);
+			}
+		}
+	}
+
+	/**
+	 * Forgets a path, its parent and everything below it.
+	 */
+	public void forgetSubtree(String path) {
+		String prefix = "/".equals(path) ? path : path + "/";
+		forget(path);
+		synchronized (_lookups) {
+			_lookups.keySet().removeIf(key -> key.startsWith(prefix));
+		}
+	}
+
+	/**
+	 * Forgets everything, e.g. when the transaction ends.
+	 */
+	public void clear() {
+		synchronized (_lookups) {
+			_lookups.clear();
+		}
+	}
+}
@@ -17,10 +17,21 @@
 package nl.ellipsis.webdav.server;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
 import jakarta.servlet.ServletException;
 
+import nl.ellipsis.webdav.server.cache.CachingStore;
+import nl.ellipsis.webdav.server.cache.CoalescingStore;
+import nl.ellipsis.webdav.server.cache.ContentCachingStore;
+import nl.ellipsis.webdav.server.cache.FileSystemChangeTracker;
+import nl.ellipsis.webdav.server.cache.NegativeLookupStore;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.jobs.JobManager;
+import nl.ellipsis.webdav.server.locking.HierarchicalResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.StringUtils;
 
@@ -42,10 +53,19 @@ public class WebDAVServlet extends WebDAVServletBean {
 	
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(WebDAVServlet.class);
 
+	private static final String INIT_PARAM_ASYNC_JOBS = "asyncJobs";
+	private static final String INIT_PARAM_COALESCE_READS = "coalesceReads";
+	private static final String INIT_PARAM_CONTENT_CACHE = "contentCache";
 	private static final String INIT_PARAM_CREATE_ROOT_IF_NOT_EXISTS = "createRootIfNotExists";
 	private static final String INIT_PARAM_DEFAULT_INDEX_FILE = "default-index-file";
+	private static final String INIT_PARAM_HIERARCHICAL_LOCKS = "hierarchicalLocks";
 	private static final String INIT_PARAM_INSTEAD_OF_404 = "instead-of-404";
 	private static final String INIT_PARAM_LAZY_FOLDER_CREATION_ON_PUT = "lazyFolderCreationOnPut";
+	private static final String INIT_PARAM_METADATA_CACHE = "metadataCache";
+	private static final String INIT_PARAM_METADATA_CACHE_SNAPSHOT = "metadataCacheSnapshot";
+	private static final String INIT_PARAM_METADATA_CACHE_WARMUP = "metadataCacheWarmUp";
+	private static final String INIT_PARAM_METADATA_CACHE_WATCH_TTL = "metadataCacheWatchTtl";
+	private static final String INIT_PARAM_NEGATIVE_CACHE = "negativeCache";
 	private static final String INIT_PARAM_NO_CONTENT_LENGTH_HEADERS = "no-content-length-headers";
 	private static final String INIT_PARAM_RESOURCE_HANDLER_IMPL = "ResourceHandlerImplementation";
 	private static final String INIT_PARAM_ROOTPATH = "rootpath";
@@ -63,13 +83,44 @@ public class WebDAVServlet extends WebDAVServletBean {
 		File root = getFileRoot(createRootIfNotExists);
 
 		IWebDAVStore webdavStore = constructStore(clazzName, root);
+		if (getBooleanInitParameter(INIT_PARAM_COALESCE_READS, false)) {
+			// innermost, only reads the caches cannot answer are coalesced
+			webdavStore = new CoalescingStore(webdavStore);
+		}
+		FileSystemChangeTracker tracker = null;
+		if (getBooleanInitParameter(INIT_PARAM_METADATA_CACHE, false)) {
+			CachingStore cachingStore = constructCachingStore(webdavStore, root);
+			tracker = cachingStore.getChangeTracker();
+			webdavStore = cachingStore;
+		}
+		if (getBooleanInitParameter(INIT_PARAM_CONTENT_CACHE, false)) {
+			webdavStore = new ContentCachingStore(webdavStore);
+		}
+		if (getBooleanInitParameter(INIT_PARAM_NEGATIVE_CACHE, false)) {
+			// outermost, methods look for it to answer 404 before locking
+			NegativeLookupStore negativeLookupStore = new NegativeLookupStore(webdavStore);
+			if (tracker != null) {
+				tracker.addListener(negativeLookupStore);
+			}
+			webdavStore = negativeLookupStore;
+		}
 
 		boolean lazyFolderCreationOnPut = getBooleanInitParameter(INIT_PARAM_LAZY_FOLDER_CREATION_ON_PUT, false);
 		String dftIndexFile = getInitParameter(INIT_PARAM_DEFAULT_INDEX_FILE);
 		String insteadOf404 = getInitParameter(INIT_PARAM_INSTEAD_OF_404);
 		int noContentLengthHeader = getIntInitParameter(INIT_PARAM_NO_CONTENT_LENGTH_HEADERS, -1);
 
+		int partitionDepth = getIntInitParameter(INIT_PARAM_HIERARCHICAL_LOCKS, 0);
+		if (partitionDepth > 0) {
+			// requests in different collections at that depth do not wait for each other
+			_resLocks = new HierarchicalResourceLocks(partitionDepth);
+		}
+
 		super.init(webdavStore, dftIndexFile, insteadOf404, noContentLengthHeader, lazyFolderCreationOnPut);
+
+		if (getBooleanInitParameter(INIT_PARAM_ASYNC_JOBS, false)) {
+			_jobs = new JobManager(webdavStore);
+		}
 	}
 
 	protected IWebDAVStore constructStore(String clazzName, File root) {
@@ -87,6 +138,39 @@ public class WebDAVServlet extends WebDAVServletBean {
 		return webdavStore;
 	}
 
+	private CachingStore constructCachingStore(IWebDAVStore webdavStore, File root) {
+		CachingStore cachingStore = new CachingStore(webdavStore);
+		// milliseconds entries of folders watched for external changes stay valid
+		int watchTtl = getIntInitParameter(INIT_PARAM_METADATA_CACHE_WATCH_TTL, -1);
+		if (watchTtl > 0 && root != null) {
+			try {
+				cachingStore.setChangeTracker(new FileSystemChangeTracker(root), watchTtl);
+			} catch (IOException e) {
+				LOG.error("Unable to watch " + root.getAbsolutePath() + " for changes", e);
+			}
+		}
+		// entries of the previous run, saved when the store is destroyed
+		String snapshot = getInitParameter(INIT_PARAM_METADATA_CACHE_SNAPSHOT);
+		if (StringUtils.isNotEmpty(snapshot)) {
+			cachingStore.setSnapshotFile(new File(snapshot));
+		}
+		// comma separated subtrees loaded in the background
+		String warmUp = getInitParameter(INIT_PARAM_METADATA_CACHE_WARMUP);
+		if (StringUtils.isNotEmpty(warmUp)) {
+			List<String> paths = new ArrayList<>();
+			for (String path : warmUp.split(",")) {
+				if (!path.trim().isEmpty()) {
+					paths.add(path.trim());
+				}
+			}
+			int parallelism = Integer.getInteger(CachingStore.WEBDAV_METADATA_CACHE_WARMUP_PARALLELISM_PROPERTY, 4);
+			Thread thread = new Thread(() -> cachingStore.warmUp(paths, parallelism), "webdav-metadata-warmup");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return cachingStore;
+	}
+
 	private boolean getBooleanInitParameter(String key, boolean defaultValue) {
 		String value = getInitParameter(key);
 		return value == null ? defaultValue : ("1".equals(value) || Boolean.getBoolean(value));
@@ -17,12 +17,15 @@
  */
 package nl.ellipsis.webdav.server;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
@@ -31,6 +34,9 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import nl.ellipsis.webdav.server.exceptions.UnauthenticatedException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.jobs.Job;
+import nl.ellipsis.webdav.server.jobs.JobManager;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.locking.ResourceLocks;
 import nl.ellipsis.webdav.server.methods.DoCopy;
 import nl.ellipsis.webdav.server.methods.DoDelete;
@@ -46,6 +52,8 @@ import nl.ellipsis.webdav.server.methods.DoProppatch;
 import nl.ellipsis.webdav.server.methods.DoPut;
 import nl.ellipsis.webdav.server.methods.DoUnlock;
 import nl.ellipsis.webdav.server.util.MD5Encoder;
+import nl.ellipsis.webdav.server.util.MimeTypeResolver;
+import nl.ellipsis.webdav.server.util.URLUtil;
 
 public class WebDAVServletBean extends HttpServlet {
 
@@ -66,9 +74,22 @@ public class WebDAVServletBean extends HttpServlet {
 	 */
 	protected static final MD5Encoder MD5_ENCODER = new MD5Encoder();
 
+	/**
+	 * set to <code>true</code> to look at the content of resources whose MIME
+	 * type is not known from their name
+	 */
+	public static final String WEBDAV_MIME_SNIFFING_PROPERTY = "webdavMimeSniffing";
+
+	private static final boolean MIME_SNIFFING = Boolean.getBoolean(WEBDAV_MIME_SNIFFING_PROPERTY);
+
 	private static final boolean READ_ONLY = false;
-	protected ResourceLocks _resLocks;
+	protected IResourceLocks _resLocks;
 	protected IWebDAVStore _store;
+	/**
+	 * runs requests preferring an asynchronous response, <code>null</code>
+	 * answers them synchronously
+	 */
+	protected JobManager _jobs;
 	private HashMap<String, IMethodExecutor> _methodMap = new HashMap<>();
 
 	public WebDAVServletBean() {
@@ -86,12 +107,20 @@ public class WebDAVServletBean extends HttpServlet {
 
 		_store = store;
 
+		MimeTypeResolver mimeTypeResolver = new MimeTypeResolver(name -> getServletContext().getMimeType(name));
 		IMimeTyper mimeTyper = new IMimeTyper() {
 			@Override
 			public String getMimeType(ITransaction transaction, String path) {
-				String retVal = _store.getStoredObject(transaction, path).getMimeType();
+				// the name decides, the store is only asked when it is unknown
+				String retVal = mimeTypeResolver.getMimeType(path);
 				if (retVal == null) {
-					retVal = getServletContext().getMimeType(path);
+					StoredObject so = _store.getStoredObject(transaction, path);
+					if (so != null) {
+						retVal = so.getMimeType();
+						if (retVal == null && MIME_SNIFFING && so.isResource()) {
+							retVal = sniffMimeType(transaction, path);
+						}
+					}
 				}
 				return retVal;
 			}
@@ -112,8 +141,29 @@ public class WebDAVServletBean extends HttpServlet {
 		register("*NO*IMPL*", new DoNotImplemented(READ_ONLY));
 	}
 
+	private String sniffMimeType(ITransaction transaction, String path) {
+		try (InputStream in = _store.getResourceContent(transaction, path)) {
+			return in != null ? MimeTypeResolver.sniff(in) : null;
+		} catch (IOException | WebDAVException e) {
+			LOG.debug("Unable to sniff MIME type of " + path + ": " + e);
+			return null;
+		}
+	}
+
 	@Override
 	public void destroy() {
+		if (_jobs != null) {
+			_jobs.close();
+		}
+		for (IMethodExecutor method : _methodMap.values()) {
+			if (method instanceof Closeable) {
+				try {
+					((Closeable) method).close();
+				} catch (IOException e) {
+					LOG.warn("Unable to close " + method.getClass().getSimpleName() + ": " + e);
+				}
+			}
+		}
 		if (_store != null) {
 			_store.destroy();
 		}
@@ -152,6 +202,13 @@ public class WebDAVServletBean extends HttpServlet {
 					methodExecutor = (IMethodExecutor) _methodMap.get("*NO*IMPL*");
 				}
 
+				if (_jobs != null && serviceJob(methodName, methodExecutor, userPrincipal, req, resp)) {
+					// a job runs in a transaction of its own, this one did not change anything
+					_store.commit(transaction);
+					needRollback = false;
+					return;
+				}
+
 				methodExecutor.execute(transaction, req, resp);
 
 				_store.commit(transaction);
@@ -175,7 +232,10 @@ public class WebDAVServletBean extends HttpServlet {
 				java.io.PrintWriter pw = new java.io.PrintWriter(sw);
 				e.printStackTrace(pw);
 				LOG.error("IOException: " + sw.toString(), e);
-				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				if (!resp.isCommitted()) {
+					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
+				// with the response under way the container aborts the connection
 				_store.rollback(transaction);
 				throw new ServletException(e);
 			}
@@ -201,6 +261,39 @@ public class WebDAVServletBean extends HttpServlet {
 
 	}
 
+	/**
+	 * Queues a request preferring an asynchronous response as a job, and
+	 * answers requests for the status of a job.
+	 * 
+	 * @return whether the request was answered
+	 */
+	private boolean serviceJob(String methodName, IMethodExecutor methodExecutor, Principal userPrincipal,
+			HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		if (_jobs.isAsyncMethod(methodName) && JobManager.isAsyncRequested(req)) {
+			Job job;
+			try {
+				job = _jobs.submit(methodExecutor, req, userPrincipal);
+			} catch (RejectedExecutionException e) {
+				LOG.warn("No room for a job running " + methodName + " " + req.getRequestURI());
+				_jobs.sendQueueFull(resp);
+				return true;
+			}
+			_jobs.sendAccepted(job, req, resp);
+			return true;
+		}
+		String jobId = _jobs.getJobId(URLUtil.getRelativePath(req.getPathInfo()));
+		if (jobId == null || !"GET".equals(methodName)) {
+			return false;
+		}
+		Job job = _jobs.getJob(jobId, userPrincipal);
+		if (job == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		} else {
+			_jobs.sendStatus(job, resp);
+		}
+		return true;
+	}
+
 	/**
 	 * Method that permit to customize the way user information are extracted from
 	 * the request, default use JAAS
@@ -0,0 +1,661 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.ellipsis.webdav.server.IPropertyAwareStore;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.WebDAVConstants;
+import nl.ellipsis.webdav.server.locking.VersionStamps;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link IWebDAVStore} decorator that caches the result of
+ * {@link IWebDAVStore#getStoredObject(ITransaction, String)}.
+ * <p>
+ * Entries expire after {@link #WEBDAV_METADATA_CACHE_TTL_PROPERTY}
+ * milliseconds and the cache holds at most
+ * {@link #WEBDAV_METADATA_CACHE_SIZE_PROPERTY} entries. When it is full, the
+ * least often read of the least recently used entries is evicted, so a burst
+ * of one-off lookups does not push out hot folders.
+ * <p>
+ * Mutations made through this store invalidate the affected path and its
+ * parent collection. Changes made to the underlying storage by other means
+ * are seen once the entry expired or after {@link #invalidate(String)} was
+ * called. With a {@link FileSystemChangeTracker} set, such changes are
+ * reported as they happen and entries of watched folders may use a much
+ * longer time to live, see {@link #setChangeTracker(FileSystemChangeTracker, long)}.
+ * <p>
+ * A restarted server does not have to start cold: {@link #warmUp(Collection, int)}
+ * loads hot subtrees in parallel, and with a snapshot file set the entries
+ * are written on {@link #destroy()} and read back at startup. Entries read
+ * from a snapshot are validated against the last modification time in the
+ * underlying store when they are first read.
+ * <p>
+ * Cached objects are never handed out, callers always get a copy they may
+ * modify.
+ */
+public class CachingStore extends ForwardingStore implements IInvalidationListener {
+
+	/**
+	 * maximum number of cached entries
+	 */
+	public static final String WEBDAV_METADATA_CACHE_SIZE_PROPERTY = "webdavMetadataCacheSize";
+	/**
+	 * milliseconds an entry stays valid
+	 */
+	public static final String WEBDAV_METADATA_CACHE_TTL_PROPERTY = "webdavMetadataCacheTtl";
+	/**
+	 * number of threads loading subtrees during {@link #warmUp(Collection, int)}
+	 */
+	public static final String WEBDAV_METADATA_CACHE_WARMUP_PARALLELISM_PROPERTY = "webdavMetadataCacheWarmUpParallelism";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(CachingStore.class);
+
+	/**
+	 * number of least recently used entries considered when evicting
+	 */
+	private static final int EVICTION_WINDOW = 8;
+
+	private static final int SNAPSHOT_MAGIC = 0x57444d43;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	/**
+	 * all a snapshot entry is validated against
+	 */
+	private static final Set<String> VALIDATION_PROPERTIES = Collections
+			.singleton(WebDAVConstants.XMLTag.GET_LASTMODIFIED);
+
+	private final int _maxEntries;
+	private final long _ttl;
+
+	/**
+	 * keys: path value: cached metadata, ordered by last access
+	 */
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * touched by every invalidation, a lookup that raced with one on its path,
+	 * a parent or a member is not cached
+	 */
+	private final VersionStamps _versions = new VersionStamps();
+
+	/**
+	 * cache hits since the read counts were last aged
+	 */
+	private long _reads = 0;
+
+	private volatile FileSystemChangeTracker _tracker;
+	private long _watchedTtl;
+
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+	private final LongAdder _evictions = new LongAdder();
+	private final LongAdder _expirations = new LongAdder();
+
+	private volatile File _snapshotFile;
+	private volatile boolean _destroyed = false;
+
+	public CachingStore(IWebDAVStore store) {
+		this(store, Integer.getInteger(WEBDAV_METADATA_CACHE_SIZE_PROPERTY, 100000),
+				Long.getLong(WEBDAV_METADATA_CACHE_TTL_PROPERTY, 5000));
+	}
+
+	/**
+	 * @param store
+	 *            the store to cache
+	 * @param maxEntries
+	 *            maximum number of cached entries
+	 * @param ttl
+	 *            milliseconds an entry stays valid
+	 */
+	public CachingStore(IWebDAVStore store, int maxEntries, long ttl) {
+		super(store);
+		_maxEntries = Math.max(1, maxEntries);
+		_ttl = ttl;
+	}
+
+	/**
+	 * Lets the cache learn about changes made to the underlying file system by
+	 * other processes. The folders of cached entries are watched, entries of a
+	 * watched folder stay valid for <code>watchedTtl</code> milliseconds.
+	 */
+	public void setChangeTracker(FileSystemChangeTracker tracker, long watchedTtl) {
+		_watchedTtl = watchedTtl;
+		tracker.addListener(this);
+		_tracker = tracker;
+	}
+
+	/**
+	 * @return the tracker reporting external changes or <code>null</code>
+	 */
+	public FileSystemChangeTracker getChangeTracker() {
+		return _tracker;
+	}
+
+	/**
+	 * Reads the entries saved by the previous run from the file, if it exists,
+	 * and saves the entries to it on {@link #destroy()}.
+	 */
+	public void setSnapshotFile(File file) {
+		if (file.exists()) {
+			try {
+				int loaded = loadSnapshot(file);
+				LOG.info("CachingStore restored " + loaded + " entries from " + file.getAbsolutePath());
+			} catch (IOException e) {
+				LOG.error("CachingStore could not restore " + file.getAbsolutePath() + ", starting cold", e);
+			}
+		}
+		_snapshotFile = file;
+	}
+
+	@Override
+	public void destroy() {
+		_destroyed = true;
+		LOG.info("CachingStore statistics: " + getStatistics());
+		File snapshotFile = _snapshotFile;
+		if (snapshotFile != null) {
+			try {
+				saveSnapshot(snapshotFile);
+			} catch (IOException e) {
+				LOG.error("CachingStore could not save " + snapshotFile.getAbsolutePath(), e);
+			}
+		}
+		if (_tracker != null) {
+			_tracker.close();
+		}
+		super.destroy();
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) {
+		try {
+			_store.createFolder(transaction, folderUri);
+		} finally {
+			invalidateWithParent(folderUri);
+		}
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		try {
+			_store.createResource(transaction, resourceUri);
+		} finally {
+			invalidateWithParent(resourceUri);
+		}
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		try {
+			return _store.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+		} finally {
+			invalidateWithParent(resourceUri);
+		}
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String path) {
+		StoredObject so = getStoredObject(transaction, path);
+		if (so != null && so.isResource()) {
+			return so.getResourceLength();
+		}
+		return _store.getResourceLength(transaction, path);
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		try {
+			_store.removeObject(transaction, uri);
+		} finally {
+			// a removed folder takes its members with it
+			invalidateSubtree(uri);
+			invalidate(URLUtil.getParentPath(URLUtil.getCleanPath(uri)));
+		}
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) {
+		try {
+			return super.copyResource(transaction, sourceUri, destinationUri);
+		} finally {
+			invalidateWithParent(destinationUri);
+		}
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) {
+		try {
+			return super.moveToTrash(transaction, uri);
+		} finally {
+			// a removed folder takes its members with it
+			invalidateSubtree(uri);
+			invalidate(URLUtil.getParentPath(URLUtil.getCleanPath(uri)));
+		}
+	}
+
+	/**
+	 * Serves a complete cached entry if there is one, otherwise passes the
+	 * lookup on. Partial objects are not cached, they lack what other callers
+	 * need.
+	 */
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		if (properties == null || !(_store instanceof IPropertyAwareStore)) {
+			return getStoredObject(transaction, uri);
+		}
+		String path = URLUtil.getCleanPath(uri);
+		synchronized (_entries) {
+			Entry entry = _entries.get(path);
+			if (entry != null && !entry.restored && entry.expires > System.currentTimeMillis()) {
+				entry.hits++;
+				_hits.increment();
+				return new StoredObject(entry.storedObject);
+			}
+		}
+		return super.getStoredObject(transaction, path, properties);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		long now = System.currentTimeMillis();
+		Entry restored = null;
+		synchronized (_entries) {
+			Entry entry = _entries.get(path);
+			if (entry != null) {
+				if (entry.expires > now) {
+					entry.hits++;
+					if (++_reads >= _maxEntries * 10L) {
+						age();
+					}
+					if (!entry.restored) {
+						_hits.increment();
+						return new StoredObject(entry.storedObject);
+					}
+					restored = entry;
+				} else {
+					_entries.remove(path);
+					_expirations.increment();
+				}
+			}
+		}
+		FileSystemChangeTracker tracker = _tracker;
+		String parent = URLUtil.getParentPath(path);
+		// watched before reading, a change made after the read is reported
+		boolean watched = tracker != null && (parent == null || tracker.watch(parent));
+		long stamp = _versions.getStamp(path);
+		StoredObject so;
+		if (restored != null) {
+			so = validate(transaction, path, restored.storedObject);
+		} else {
+			_misses.increment();
+			so = _store.getStoredObject(transaction, path);
+		}
+		if (so == null) {
+			if (restored != null) {
+				synchronized (_entries) {
+					_entries.remove(path, restored);
+				}
+			}
+			return null;
+		}
+		if (watched && so.isFolder() && !tracker.isWatched(path)) {
+			// members changing during the read would go unnoticed this time
+			tracker.watch(path);
+			watched = false;
+		}
+		Entry entry = new Entry(new StoredObject(so), now + (watched ? _watchedTtl : _ttl), false);
+		if (restored != null) {
+			entry.hits = restored.hits;
+		}
+		synchronized (_entries) {
+			if (_versions.validate(path, stamp)) {
+				_entries.put(path, entry);
+				if (_entries.size() > _maxEntries) {
+					evict();
+				}
+			}
+		}
+		return so;
+	}
+
+	/**
+	 * Reads the metadata of the subtrees below the paths into the cache, using
+	 * <code>parallelism</code> threads. Stops when the cache is full or the
+	 * store is destroyed.
+	 *
+	 * @return number of paths read
+	 */
+	public int warmUp(Collection<String> paths, int parallelism) {
+		long start = System.currentTimeMillis();
+		AtomicInteger count = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			List<WarmUpTask> tasks = new ArrayList<>();
+			for (String path : paths) {
+				tasks.add(new WarmUpTask(URLUtil.getCleanPath(path), count));
+			}
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		LOG.info("CachingStore warmed up " + count.get() + " entries below " + paths + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return count.get();
+	}
+
+	/**
+	 * Writes all entries to a file, least recently used first.
+	 */
+	public void saveSnapshot(File file) throws IOException {
+		List<Map.Entry<String, Entry>> entries;
+		synchronized (_entries) {
+			entries = new ArrayList<>(_entries.size());
+			for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+				entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+			}
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			for (Map.Entry<String, Entry> e : entries) {
+				StoredObject so = e.getValue().storedObject;
+				out.writeBoolean(true);
+				out.writeUTF(e.getKey());
+				out.writeBoolean(so.isFolder());
+				out.writeBoolean(so.isNullResource());
+				out.writeLong(so.getResourceLength());
+				out.writeLong(so.getLastModified() != null ? so.getLastModified().getTime() : -1);
+				out.writeLong(so.getCreationDate() != null ? so.getCreationDate().getTime() : -1);
+				out.writeUTF(so.getMimeType() != null ? so.getMimeType() : "");
+				out.writeInt(e.getValue().hits);
+			}
+			out.writeBoolean(false);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOG.debug("CachingStore.saveSnapshot(" + file.getAbsolutePath() + ") wrote " + entries.size() + " entries");
+	}
+
+	/**
+	 * Reads the entries written by {@link #saveSnapshot(File)}. They are
+	 * validated when first read, entries already cached are kept.
+	 *
+	 * @return number of entries read
+	 */
+	public int loadSnapshot(File file) throws IOException {
+		int count = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new IOException("unsupported snapshot " + file.getAbsolutePath());
+			}
+			while (in.readBoolean()) {
+				String path = in.readUTF();
+				StoredObject so = new StoredObject(path);
+				so.setFolder(in.readBoolean());
+				so.setNullResource(in.readBoolean());
+				so.setResourceLength(in.readLong());
+				long lastModified = in.readLong();
+				so.setLastModified(lastModified != -1 ? new Date(lastModified) : null);
+				long creationDate = in.readLong();
+				so.setCreationDate(creationDate != -1 ? new Date(creationDate) : null);
+				String mimeType = in.readUTF();
+				so.setMimeType(mimeType.isEmpty() ? null : mimeType);
+				// valid until read, reading validates it
+				Entry entry = new Entry(so, Long.MAX_VALUE, true);
+				entry.hits = in.readInt();
+				synchronized (_entries) {
+					if (_entries.putIfAbsent(path, entry) == null) {
+						count++;
+						if (_entries.size() > _maxEntries) {
+							evict();
+						}
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Drops the cached metadata of a path.
+	 */
+	@Override
+	public void invalidate(String uri) {
+		if (uri == null) {
+			return;
+		}
+		String path = URLUtil.getCleanPath(uri);
+		synchronized (_entries) {
+			_versions.touch(path);
+			_entries.remove(path);
+		}
+	}
+
+	/**
+	 * Drops the cached metadata of a path and everything below it.
+	 */
+	@Override
+	public void invalidateSubtree(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		String prefix = "/".equals(path) ? path : path + "/";
+		synchronized (_entries) {
+			_versions.touch(path);
+			_entries.remove(path);
+			_entries.keySet().removeIf(key -> key.startsWith(prefix));
+		}
+	}
+
+	/**
+	 * Drops all cached metadata.
+	 */
+	public void clear() {
+		synchronized (_entries) {
+			_versions.touch("/");
+			_entries.clear();
+		}
+	}
+
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	public long getEvictions() {
+		return _evictions.sum();
+	}
+
+	public long getExpirations() {
+		return _expirations.sum();
+	}
+
+	public int getSize() {
+		synchronized (_entries) {
+			return _entries.size();
+		}
+	}
+
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public String getStatistics() {
+		return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", expirations="
+				+ getExpirations() + ", size=" + getSize() + "/" + _maxEntries;
+	}
+
+	/**
+	 * @return a copy of the restored metadata if the underlying store reports
+	 *         the same modification time, its current metadata if not
+	 */
+	private StoredObject validate(ITransaction transaction, String path, StoredObject restored) {
+		boolean partial = _store instanceof IPropertyAwareStore;
+		StoredObject current = partial
+				? ((IPropertyAwareStore) _store).getStoredObject(transaction, path, VALIDATION_PROPERTIES)
+				: _store.getStoredObject(transaction, path);
+		if (current == null) {
+			_misses.increment();
+			return null;
+		}
+		if (current.isFolder() == restored.isFolder()
+				&& Objects.equals(current.getLastModified(), restored.getLastModified())
+				&& (current.isFolder() || current.getResourceLength() == restored.getResourceLength())) {
+			_hits.increment();
+			return new StoredObject(restored);
+		}
+		LOG.debug("CachingStore.validate(" + path + ") restored entry is stale");
+		_misses.increment();
+		// a partial lookup lacks attributes the entry has to provide
+		return partial ? _store.getStoredObject(transaction, path) : current;
+	}
+
+	private void invalidateWithParent(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		invalidate(path);
+		invalidate(URLUtil.getParentPath(path));
+	}
+
+	/**
+	 * Evicts the least often read entry among the least recently used ones,
+	 * must be called with the cache lock held.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator();
+		String victim = null;
+		int victimHits = Integer.MAX_VALUE;
+		for (int i = 0; i < EVICTION_WINDOW && it.hasNext(); i++) {
+			Map.Entry<String, Entry> e = it.next();
+			Entry entry = e.getValue();
+			if (entry.hits < victimHits) {
+				victim = e.getKey();
+				victimHits = entry.hits;
+			}
+		}
+		if (victim != null) {
+			_entries.remove(victim);
+			_evictions.increment();
+		}
+	}
+
+	/**
+	 * Halves all read counts, an entry that stopped being read loses its
+	 * advantage eventually. Must be called with the cache lock held.
+	 */
+	private void age() {
+		_reads = 0;
+		for (Entry entry : _entries.values()) {
+			entry.hits >>= 1;
+		}
+	}
+
+	private static class Entry {
+		final StoredObject storedObject;
+		final long expires;
+		/**
+		 * read from a snapshot and not validated yet
+		 */
+		final boolean restored;
+		int hits = 0;
+
+		Entry(StoredObject storedObject, long expires, boolean restored) {
+			this.storedObject = storedObject;
+			this.expires = expires;
+			this.restored = restored;
+		}
+	}
+
+	/**
+	 * Reads a path and, if it is a folder, its members into the cache.
+	 */
+	private class WarmUpTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String _path;
+		private final AtomicInteger _count;
+
+		WarmUpTask(String path, AtomicInteger count) {
+			_path = path;
+			_count = count;
+		}
+
+		@Override
+		protected void compute() {
+			if (_destroyed || _count.get() >= _maxEntries) {
+				return;
+			}
+			StoredObject so;
+			String[] children;
+			try {
+				so = getStoredObject(null, _path);
+				_count.incrementAndGet();
+				children = so != null && so.isFolder() ? getChildrenNames(null, _path) : null;
+			} catch (RuntimeException e) {
+				LOG.debug("CachingStore.warmUp(" + _path + ") skipped: " + e);
+				return;
+			}
+			if (children == null) {
+				return;
+			}
+			List<WarmUpTask> tasks = new ArrayList<>(children.length);
+			String prefix = "/".equals(_path) ? _path : _path + "/";
+			for (String child : children) {
+				tasks.add(new WarmUpTask(prefix + child, _count));
+			}
+			invokeAll(tasks);
+		}
+	}
+}
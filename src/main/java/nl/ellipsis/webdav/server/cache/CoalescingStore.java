@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import nl.ellipsis.webdav.server.IPropertyAwareStore;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.Transaction;
+import nl.ellipsis.webdav.server.locking.VersionStamps;
+import nl.ellipsis.webdav.server.util.SingleFlight;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link IWebDAVStore} decorator that lets concurrent identical reads share
+ * one call to the underlying store: metadata lookups, folder listings and the
+ * content of resources of at most
+ * {@link #WEBDAV_COALESCE_MAX_FILE_SIZE_PROPERTY} bytes. A caller arriving
+ * while the same read is in flight waits for it instead of starting another
+ * one, so a crowd of clients asking for the same folder costs the store a
+ * single lookup.
+ * <p>
+ * Nothing is kept after the read finished, put a {@link CachingStore} in
+ * front of this store to also serve later reads. Results are shared between
+ * transactions: a shared read is made without a transaction, so the store
+ * must not answer differently depending on the principal of the transaction.
+ * A {@link Transaction} still sees the metadata it looked up before.
+ * <p>
+ * Writes through this store change the version of the written path, which
+ * is part of the key of every read. A read that started before a write
+ * finished is never joined by a caller arriving after it, and nothing is
+ * coalesced while a write on the path, a parent or a member is running.
+ */
+public class CoalescingStore extends ForwardingStore {
+
+	/**
+	 * resources larger than this number of bytes are read by every caller
+	 */
+	public static final String WEBDAV_COALESCE_MAX_FILE_SIZE_PROPERTY = "webdavCoalesceMaxFileSize";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(CoalescingStore.class);
+
+	private final int _maxFileSize;
+
+	/**
+	 * keys: path, version and for lookups the requested properties
+	 */
+	private final SingleFlight<Object, StoredObject> _lookups = new SingleFlight<>();
+	private final SingleFlight<Object, String[]> _listings = new SingleFlight<>();
+	private final SingleFlight<Object, byte[]> _contents = new SingleFlight<>();
+
+	private final VersionStamps _versions = new VersionStamps();
+
+	private final LongAdder _calls = new LongAdder();
+	private final LongAdder _flights = new LongAdder();
+
+	public CoalescingStore(IWebDAVStore store) {
+		this(store, Integer.getInteger(WEBDAV_COALESCE_MAX_FILE_SIZE_PROPERTY, 64 * 1024));
+	}
+
+	/**
+	 * @param store
+	 *            the store to read from
+	 * @param maxFileSize
+	 *            resources larger than this number of bytes are read by every
+	 *            caller
+	 */
+	public CoalescingStore(IWebDAVStore store, int maxFileSize) {
+		super(store);
+		_maxFileSize = maxFileSize;
+	}
+
+	@Override
+	public void destroy() {
+		LOG.info("CoalescingStore statistics: calls=" + getCalls() + ", store calls=" + getStoreCalls());
+		super.destroy();
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) {
+		String path = URLUtil.getCleanPath(folderUri);
+		_versions.beginWrite(path);
+		try {
+			_store.createFolder(transaction, folderUri);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		String path = URLUtil.getCleanPath(resourceUri);
+		_versions.beginWrite(path);
+		try {
+			_store.createResource(transaction, resourceUri);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) {
+		String path = URLUtil.getCleanPath(resourceUri);
+		long version = _versions.getStamp(path);
+		StoredObject so = getStoredObject(transaction, path, null, false);
+		if (so == null || !so.isResource() || so.getResourceLength() > _maxFileSize || version == VersionStamps.WRITING) {
+			return _store.getResourceContent(transaction, path);
+		}
+		_calls.increment();
+		byte[] content = _contents.execute(Arrays.asList(path, version), () -> {
+			_flights.increment();
+			return ContentCachingStore.read(_store.getResourceContent(null, path), so.getResourceLength());
+		});
+		return content != null ? new ByteArrayInputStream(content) : null;
+	}
+
+	/**
+	 * Content that is coalesced is read whole, ranges included.
+	 */
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri, long start, long end) {
+		StoredObject so = getStoredObject(transaction, URLUtil.getCleanPath(resourceUri), null, false);
+		if (so != null && so.isResource() && so.getResourceLength() <= _maxFileSize) {
+			return skip(getResourceContent(transaction, resourceUri), start);
+		}
+		return super.getResourceContent(transaction, resourceUri, start, end);
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		String path = URLUtil.getCleanPath(resourceUri);
+		_versions.beginWrite(path);
+		try {
+			return _store.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String folderUri) {
+		String path = URLUtil.getCleanPath(folderUri);
+		long version = _versions.getStamp(path);
+		if (version == VersionStamps.WRITING) {
+			return _store.getChildrenNames(transaction, path);
+		}
+		_calls.increment();
+		String[] children = _listings.execute(Arrays.asList(path, version), () -> {
+			_flights.increment();
+			return _store.getChildrenNames(null, path);
+		});
+		return children != null ? children.clone() : null;
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		_versions.beginWrite(path);
+		try {
+			_store.removeObject(transaction, uri);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) {
+		String path = URLUtil.getCleanPath(destinationUri);
+		_versions.beginWrite(path);
+		try {
+			return super.copyResource(transaction, sourceUri, destinationUri);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		_versions.beginWrite(path);
+		try {
+			return super.moveToTrash(transaction, uri);
+		} finally {
+			_versions.endWrite(path);
+		}
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		return getStoredObject(transaction, URLUtil.getCleanPath(uri), null, true);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		if (properties == null || !(_store instanceof IPropertyAwareStore)) {
+			return getStoredObject(transaction, uri);
+		}
+		return getStoredObject(transaction, URLUtil.getCleanPath(uri), properties, true);
+	}
+
+	/**
+	 * @return number of coalesced reads asked for
+	 */
+	public long getCalls() {
+		return _calls.sum();
+	}
+
+	/**
+	 * @return number of coalesced reads passed on to the store
+	 */
+	public long getStoreCalls() {
+		return _flights.sum();
+	}
+
+	/**
+	 * @param properties
+	 *            requested properties, <code>null</code> for complete metadata
+	 * @param counted
+	 *            <code>false</code> for a lookup that is part of another read
+	 */
+	private StoredObject getStoredObject(ITransaction transaction, String path, Set<String> properties,
+			boolean counted) {
+		if (properties == null && transaction instanceof Transaction) {
+			// what the caller looked up before stays as it saw it
+			return ((Transaction) transaction).getStoredObject(path, p -> lookup(p, null, counted));
+		}
+		return lookup(path, properties, counted);
+	}
+
+	private StoredObject lookup(String path, Set<String> properties, boolean counted) {
+		long version = _versions.getStamp(path);
+		Supplier<StoredObject> computation = properties == null ? () -> _store.getStoredObject(null, path)
+				: () -> ((IPropertyAwareStore) _store).getStoredObject(null, path, properties);
+		if (version == VersionStamps.WRITING) {
+			return computation.get();
+		}
+		if (counted) {
+			_calls.increment();
+		}
+		StoredObject so = _lookups.execute(Arrays.asList(path, properties, version), () -> {
+			if (counted) {
+				_flights.increment();
+			}
+			return computation.get();
+		});
+		// every caller gets its own copy to modify
+		return so != null ? new StoredObject(so) : null;
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.locking.VersionStamps;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link IWebDAVStore} decorator that keeps the content of small resources in
+ * memory.
+ * <p>
+ * Resources of at most {@link #WEBDAV_CONTENT_CACHE_MAX_FILE_SIZE_PROPERTY}
+ * bytes are copied to the heap when they are read, up to
+ * {@link #WEBDAV_CONTENT_CACHE_SIZE_PROPERTY} bytes in total, the least
+ * recently read content is dropped first. A cached copy is tagged with the
+ * length and last modification date of the resource and only served while
+ * {@link IWebDAVStore#getStoredObject(ITransaction, String)} still reports
+ * the same, so the content is never staler than the metadata. Put a
+ * {@link CachingStore} behind this store to serve repeated reads, ranges
+ * included, without touching the underlying storage at all.
+ * <p>
+ * Content written, created or removed through this store is dropped right
+ * away.
+ */
+public class ContentCachingStore extends ForwardingStore implements IInvalidationListener {
+
+	/**
+	 * maximum number of cached content bytes
+	 */
+	public static final String WEBDAV_CONTENT_CACHE_SIZE_PROPERTY = "webdavContentCacheSize";
+	/**
+	 * resources larger than this number of bytes are not cached
+	 */
+	public static final String WEBDAV_CONTENT_CACHE_MAX_FILE_SIZE_PROPERTY = "webdavContentCacheMaxFileSize";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ContentCachingStore.class);
+
+	private final long _maxBytes;
+	private final int _maxFileSize;
+
+	/**
+	 * keys: path value: cached content, ordered by last access
+	 */
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * touched by every invalidation, content read while racing with one on its
+	 * path or a parent is not cached
+	 */
+	private final VersionStamps _versions = new VersionStamps();
+
+	private long _bytes = 0;
+
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+	private final LongAdder _evictions = new LongAdder();
+
+	public ContentCachingStore(IWebDAVStore store) {
+		this(store, Long.getLong(WEBDAV_CONTENT_CACHE_SIZE_PROPERTY, 64L * 1024 * 1024),
+				Integer.getInteger(WEBDAV_CONTENT_CACHE_MAX_FILE_SIZE_PROPERTY, 64 * 1024));
+	}
+
+	/**
+	 * @param store
+	 *            the store to cache
+	 * @param maxBytes
+	 *            maximum number of cached content bytes
+	 * @param maxFileSize
+	 *            resources larger than this number of bytes are not cached
+	 */
+	public ContentCachingStore(IWebDAVStore store, long maxBytes, int maxFileSize) {
+		super(store);
+		_maxBytes = maxBytes;
+		_maxFileSize = (int) Math.min(maxFileSize, maxBytes);
+	}
+
+	@Override
+	public void destroy() {
+		LOG.info("ContentCachingStore statistics: " + getStatistics());
+		super.destroy();
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		try {
+			_store.createResource(transaction, resourceUri);
+		} finally {
+			invalidate(resourceUri);
+		}
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) {
+		String path = URLUtil.getCleanPath(resourceUri);
+		StoredObject so = _store.getStoredObject(transaction, path);
+		if (so == null || !so.isResource() || so.getResourceLength() > _maxFileSize) {
+			return _store.getResourceContent(transaction, path);
+		}
+		long lastModified = so.getLastModified() != null ? so.getLastModified().getTime() : 0;
+		synchronized (_entries) {
+			Entry entry = _entries.get(path);
+			if (entry != null) {
+				if (entry.length == so.getResourceLength() && entry.lastModified == lastModified) {
+					_hits.increment();
+					return new ByteArrayInputStream(entry.content);
+				}
+				remove(path);
+			}
+		}
+		_misses.increment();
+		long stamp = _versions.getStamp(path);
+		byte[] content = read(_store.getResourceContent(transaction, path), so.getResourceLength());
+		if (content != null && content.length == so.getResourceLength()) {
+			synchronized (_entries) {
+				if (_versions.validate(path, stamp)) {
+					put(path, new Entry(content, lastModified));
+				}
+			}
+		}
+		return content != null ? new ByteArrayInputStream(content) : _store.getResourceContent(transaction, path);
+	}
+
+	/**
+	 * Content that is cached is served from memory, ranges included.
+	 */
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri, long start, long end) {
+		StoredObject so = _store.getStoredObject(transaction, URLUtil.getCleanPath(resourceUri));
+		if (so != null && so.isResource() && so.getResourceLength() <= _maxFileSize) {
+			return skip(getResourceContent(transaction, resourceUri), start);
+		}
+		return super.getResourceContent(transaction, resourceUri, start, end);
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		try {
+			return _store.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+		} finally {
+			invalidate(resourceUri);
+		}
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		try {
+			_store.removeObject(transaction, uri);
+		} finally {
+			invalidateSubtree(uri);
+		}
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) {
+		try {
+			return super.copyResource(transaction, sourceUri, destinationUri);
+		} finally {
+			invalidate(destinationUri);
+		}
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) {
+		try {
+			return super.moveToTrash(transaction, uri);
+		} finally {
+			invalidateSubtree(uri);
+		}
+	}
+
+	/**
+	 * Drops the cached content of a path.
+	 */
+	@Override
+	public void invalidate(String uri) {
+		if (uri == null) {
+			return;
+		}
+		String path = URLUtil.getCleanPath(uri);
+		synchronized (_entries) {
+			_versions.touch(path);
+			remove(path);
+		}
+	}
+
+	/**
+	 * Drops the cached content of a path and everything below it.
+	 */
+	@Override
+	public void invalidateSubtree(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		String prefix = "/".equals(path) ? path : path + "/";
+		synchronized (_entries) {
+			_versions.touch(path);
+			remove(path);
+			Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Entry> e = it.next();
+				if (e.getKey().startsWith(prefix)) {
+					_bytes -= e.getValue().content.length;
+					it.remove();
+				}
+			}
+		}
+	}
+
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	public long getEvictions() {
+		return _evictions.sum();
+	}
+
+	/**
+	 * @return number of cached content bytes
+	 */
+	public long getBytes() {
+		synchronized (_entries) {
+			return _bytes;
+		}
+	}
+
+	public int getSize() {
+		synchronized (_entries) {
+			return _entries.size();
+		}
+	}
+
+	public String getStatistics() {
+		return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", size="
+				+ getSize() + ", bytes=" + getBytes() + "/" + _maxBytes;
+	}
+
+	/**
+	 * Must be called with the cache lock held.
+	 */
+	private void put(String path, Entry entry) {
+		remove(path);
+		_entries.put(path, entry);
+		_bytes += entry.content.length;
+		Iterator<Entry> it = _entries.values().iterator();
+		while (_bytes > _maxBytes && it.hasNext()) {
+			_bytes -= it.next().content.length;
+			it.remove();
+			_evictions.increment();
+		}
+	}
+
+	/**
+	 * Must be called with the cache lock held.
+	 */
+	private void remove(String path) {
+		Entry entry = _entries.remove(path);
+		if (entry != null) {
+			_bytes -= entry.content.length;
+		}
+	}
+
+	/**
+	 * Reads and closes the content of a resource.
+	 *
+	 * @return the content or <code>null</code> if the stream was missing
+	 */
+	static byte[] read(InputStream in, long length) {
+		if (in == null) {
+			return null;
+		}
+		try (InputStream is = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+			byte[] buffer = new byte[(int) Math.max(1, Math.min(length + 1, 8192))];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new WebDAVException(e);
+		}
+	}
+
+	private static class Entry {
+		final byte[] content;
+		final long length;
+		final long lastModified;
+
+		Entry(byte[] content, long lastModified) {
+			this.content = content;
+			this.length = content.length;
+			this.lastModified = lastModified;
+		}
+	}
+}
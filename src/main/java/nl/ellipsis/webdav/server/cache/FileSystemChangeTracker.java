@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * Watches directories below a root for changes made by other processes and
+ * passes them on to {@link IInvalidationListener}s, typically caches in front
+ * of a {@link nl.ellipsis.webdav.server.LocalFileSystemStore}.
+ * <p>
+ * Directories are only watched after {@link #watch(String)} was called for
+ * them, caches do this for the folders they hold entries of. At most
+ * {@link #WEBDAV_WATCH_MAX_DIRECTORIES_PROPERTY} directories are watched,
+ * entries of other directories have to rely on expiry.
+ * <p>
+ * Events are collected until none arrived for
+ * {@link #WEBDAV_WATCH_DEBOUNCE_PROPERTY} milliseconds, so a burst of writes
+ * to the same files causes a single invalidation per path. When the
+ * operating system dropped events for a directory, the whole directory is
+ * invalidated.
+ */
+public final class FileSystemChangeTracker {
+
+	/**
+	 * maximum number of directories watched
+	 */
+	public static final String WEBDAV_WATCH_MAX_DIRECTORIES_PROPERTY = "webdavWatchMaxDirectories";
+	/**
+	 * milliseconds without events before collected changes are published
+	 */
+	public static final String WEBDAV_WATCH_DEBOUNCE_PROPERTY = "webdavWatchDebounce";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(FileSystemChangeTracker.class);
+
+	/**
+	 * collected changes are published at the latest after this many debounce
+	 * intervals, even if events keep arriving
+	 */
+	private static final int MAX_DEBOUNCE_INTERVALS = 10;
+
+	private final File _root;
+	private final WatchService _watchService;
+	private final int _maxDirectories;
+	private final long _debounce;
+	private final Thread _thread;
+
+	private final List<IInvalidationListener> _listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * keys: path of a watched directory value: its watch key
+	 */
+	private final Map<String, WatchKey> _watched = new ConcurrentHashMap<>();
+
+	/**
+	 * keys: changed path value: <code>true</code> if the whole subtree changed,
+	 * only accessed by the tracker thread
+	 */
+	private final Map<String, Boolean> _pending = new LinkedHashMap<>();
+
+	private volatile boolean _closed = false;
+
+	public FileSystemChangeTracker(File root) throws IOException {
+		this(root, Integer.getInteger(WEBDAV_WATCH_MAX_DIRECTORIES_PROPERTY, 8192),
+				Long.getLong(WEBDAV_WATCH_DEBOUNCE_PROPERTY, 100));
+	}
+
+	/**
+	 * @param root
+	 *            root of the watched tree
+	 * @param maxDirectories
+	 *            maximum number of directories watched
+	 * @param debounce
+	 *            milliseconds without events before changes are published
+	 */
+	public FileSystemChangeTracker(File root, int maxDirectories, long debounce) throws IOException {
+		_root = root;
+		_watchService = root.toPath().getFileSystem().newWatchService();
+		_maxDirectories = maxDirectories;
+		_debounce = Math.max(1, debounce);
+		_thread = new Thread(this::run, "webdav-change-tracker");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	public void addListener(IInvalidationListener listener) {
+		_listeners.add(listener);
+	}
+
+	public void removeListener(IInvalidationListener listener) {
+		_listeners.remove(listener);
+	}
+
+	/**
+	 * Starts watching a directory if it is not watched yet.
+	 *
+	 * @return <code>true</code> if the directory is watched
+	 */
+	public boolean watch(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		if (_watched.containsKey(path)) {
+			return true;
+		}
+		if (_closed || _watched.size() >= _maxDirectories) {
+			return false;
+		}
+		File dir = new File(_root, path);
+		if (!dir.isDirectory()) {
+			return false;
+		}
+		synchronized (_watched) {
+			if (_watched.containsKey(path)) {
+				return true;
+			}
+			try {
+				WatchKey key = dir.toPath().register(_watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				_watched.put(path, key);
+				LOG.debug("FileSystemChangeTracker.watch(" + path + ")");
+				return true;
+			} catch (IOException | ClosedWatchServiceException e) {
+				LOG.warn("FileSystemChangeTracker could not watch " + dir.getAbsolutePath() + ": " + e);
+				return false;
+			}
+		}
+	}
+
+	public boolean isWatched(String uri) {
+		return _watched.containsKey(URLUtil.getCleanPath(uri));
+	}
+
+	public int getWatchedCount() {
+		return _watched.size();
+	}
+
+	public void close() {
+		_closed = true;
+		try {
+			_watchService.close();
+		} catch (IOException e) {
+			LOG.warn("FileSystemChangeTracker.close() failed", e);
+		}
+		_thread.interrupt();
+		try {
+			_thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		long firstEvent = 0;
+		long lastEvent = 0;
+		while (!_closed) {
+			WatchKey key;
+			try {
+				key = _pending.isEmpty() ? _watchService.take() : _watchService.poll(_debounce, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (key != null) {
+				if (_pending.isEmpty()) {
+					firstEvent = now;
+				}
+				lastEvent = now;
+				collect(key);
+			}
+			if (!_pending.isEmpty()
+					&& (now - lastEvent >= _debounce || now - firstEvent >= _debounce * MAX_DEBOUNCE_INTERVALS)) {
+				publish();
+			}
+		}
+	}
+
+	private void collect(WatchKey key) {
+		String dir = pathOf(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, anything in this directory may have changed
+				_pending.put(dir, Boolean.TRUE);
+				continue;
+			}
+			String path = URLUtil.getCleanPath(dir, ((Path) event.context()).toString());
+			// a deleted or replaced entry may have been a directory
+			boolean subtree = event.kind() != StandardWatchEventKinds.ENTRY_MODIFY;
+			_pending.merge(path, subtree, Boolean::logicalOr);
+			// the directory's own modification time changed too
+			_pending.putIfAbsent(dir, Boolean.FALSE);
+		}
+		if (!key.reset() && dir != null) {
+			// the directory is gone or no longer accessible
+			_watched.remove(dir, key);
+			_pending.put(dir, Boolean.TRUE);
+		}
+	}
+
+	private void publish() {
+		for (Map.Entry<String, Boolean> e : _pending.entrySet()) {
+			String path = e.getKey();
+			if (e.getValue()) {
+				unwatchSubtree(path);
+			}
+			for (IInvalidationListener listener : _listeners) {
+				try {
+					if (e.getValue()) {
+						listener.invalidateSubtree(path);
+					} else {
+						listener.invalidate(path);
+					}
+				} catch (RuntimeException ex) {
+					LOG.error("FileSystemChangeTracker listener failed for " + path, ex);
+				}
+			}
+		}
+		LOG.debug("FileSystemChangeTracker published " + _pending.size() + " changes");
+		_pending.clear();
+	}
+
+	/**
+	 * Drops the watches of directories that may have been replaced, they are
+	 * registered again when they are cached again.
+	 */
+	private void unwatchSubtree(String path) {
+		String prefix = "/".equals(path) ? path : path + "/";
+		_watched.entrySet().removeIf(e -> {
+			if (!e.getKey().equals(path) && !e.getKey().startsWith(prefix)) {
+				return false;
+			}
+			if (new File(_root, e.getKey()).isDirectory() && e.getValue().isValid()) {
+				return false;
+			}
+			e.getValue().cancel();
+			return true;
+		});
+	}
+
+	private String pathOf(WatchKey key) {
+		Path dir = (Path) key.watchable();
+		String relative = _root.toPath().relativize(dir).toString().replace(File.separatorChar, '/');
+		String path = URLUtil.getCleanPath(relative);
+		return _watched.get(path) == key ? path : null;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.Set;
+
+import nl.ellipsis.webdav.server.INativeCopyStore;
+import nl.ellipsis.webdav.server.IPropertyAwareStore;
+import nl.ellipsis.webdav.server.IRangeAwareStore;
+import nl.ellipsis.webdav.server.ISnapshotStore;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.ITrashStore;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+
+/**
+ * Base of the {@link IWebDAVStore} decorators: passes every call on to the
+ * decorated store, the optional capabilities included. Where the decorated
+ * store lacks a capability the answer is the one the methods expect from a
+ * store without it, so a decorator never hides a capability nor invents one.
+ * <p>
+ * Subclasses override the calls they intercept and pass them on with the
+ * super method.
+ */
+public abstract class ForwardingStore implements IWebDAVStore, IPropertyAwareStore, IRangeAwareStore, ITrashStore, INativeCopyStore, ISnapshotStore {
+
+	protected final IWebDAVStore _store;
+
+	/**
+	 * @param store
+	 *            the store calls are passed on to
+	 */
+	protected ForwardingStore(IWebDAVStore store) {
+		_store = store;
+	}
+
+	@Override
+	public void destroy() {
+		_store.destroy();
+	}
+
+	@Override
+	public ITransaction begin(Principal principal) {
+		return _store.begin(principal);
+	}
+
+	@Override
+	public void checkAuthentication(ITransaction transaction) {
+		_store.checkAuthentication(transaction);
+	}
+
+	@Override
+	public void commit(ITransaction transaction) {
+		_store.commit(transaction);
+	}
+
+	@Override
+	public void rollback(ITransaction transaction) {
+		_store.rollback(transaction);
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) {
+		_store.createFolder(transaction, folderUri);
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		_store.createResource(transaction, resourceUri);
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) {
+		return _store.getResourceContent(transaction, resourceUri);
+	}
+
+	/**
+	 * Without a decorated store reading ranges this skips to the start of
+	 * {@link #getResourceContent(ITransaction, String)}.
+	 */
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri, long start, long end) {
+		if (_store instanceof IRangeAwareStore) {
+			return ((IRangeAwareStore) _store).getResourceContent(transaction, resourceUri, start, end);
+		}
+		return skip(getResourceContent(transaction, resourceUri), start);
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		return _store.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String folderUri) {
+		return _store.getChildrenNames(transaction, folderUri);
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String path) {
+		return _store.getResourceLength(transaction, path);
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		_store.removeObject(transaction, uri);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		return _store.getStoredObject(transaction, uri);
+	}
+
+	/**
+	 * Without properties, or if the decorated store always looks up complete
+	 * metadata, this is {@link #getStoredObject(ITransaction, String)}.
+	 */
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		if (properties == null || !(_store instanceof IPropertyAwareStore)) {
+			return getStoredObject(transaction, uri);
+		}
+		return ((IPropertyAwareStore) _store).getStoredObject(transaction, uri, properties);
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) {
+		return _store instanceof INativeCopyStore
+				&& ((INativeCopyStore) _store).copyResource(transaction, sourceUri, destinationUri);
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) {
+		return _store instanceof ITrashStore && ((ITrashStore) _store).moveToTrash(transaction, uri);
+	}
+
+	@Override
+	public String getSnapshotSource(String folderUri) {
+		return _store instanceof ISnapshotStore ? ((ISnapshotStore) _store).getSnapshotSource(folderUri) : null;
+	}
+
+	/**
+	 * @return the stream, advanced by <code>start</code> bytes
+	 */
+	protected static InputStream skip(InputStream in, long start) {
+		if (in == null || start <= 0) {
+			return in;
+		}
+		try {
+			in.skipNBytes(start);
+		} catch (IOException e) {
+			try {
+				in.close();
+			} catch (IOException e2) {
+				e.addSuppressed(e2);
+			}
+			throw new WebDAVException(e);
+		}
+		return in;
+	}
+
+	/**
+	 * @return the store calls are passed on to
+	 */
+	public IWebDAVStore getStore() {
+		return _store;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+/**
+ * Receives notice of paths whose cached state is no longer valid.
+ */
+public interface IInvalidationListener {
+
+	/**
+	 * The metadata or content of path changed.
+	 */
+	void invalidate(String path);
+
+	/**
+	 * Anything at or below path may have changed.
+	 */
+	void invalidateSubtree(String path);
+
+}
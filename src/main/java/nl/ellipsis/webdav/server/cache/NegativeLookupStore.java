@@ -0,0 +1,285 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.cache;
+
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.ellipsis.webdav.server.IExistenceAwareStore;
+import nl.ellipsis.webdav.server.IPropertyAwareStore;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.locking.VersionStamps;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link IWebDAVStore} decorator that remembers which names were found
+ * missing in a folder, so the probes clients keep sending for
+ * <code>desktop.ini</code>, <code>Thumbs.db</code>, <code>._*</code> and the
+ * like are answered without asking the underlying store again.
+ * <p>
+ * The names are kept per folder. Anything created in a folder through this
+ * store forgets all of its missing names, as does a change reported through
+ * {@link IInvalidationListener}. Otherwise a folder's names are forgotten
+ * after {@link #WEBDAV_NEGATIVE_CACHE_TTL_PROPERTY} milliseconds, which
+ * bounds how long a file created by other means stays invisible. At most
+ * {@link #WEBDAV_NEGATIVE_CACHE_FOLDERS_PROPERTY} folders with
+ * {@link #MAX_NAMES_PER_FOLDER} names each are remembered, the least
+ * recently probed folder is dropped first.
+ * <p>
+ * The names are held exactly: a probabilistic filter would turn its false
+ * positives into 404 responses for files that do exist.
+ */
+public class NegativeLookupStore extends ForwardingStore implements IExistenceAwareStore, IInvalidationListener {
+
+	/**
+	 * maximum number of folders whose missing names are remembered
+	 */
+	public static final String WEBDAV_NEGATIVE_CACHE_FOLDERS_PROPERTY = "webdavNegativeCacheFolders";
+	/**
+	 * milliseconds the missing names of a folder are remembered
+	 */
+	public static final String WEBDAV_NEGATIVE_CACHE_TTL_PROPERTY = "webdavNegativeCacheTtl";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(NegativeLookupStore.class);
+
+	/**
+	 * a folder probed for more names than this is not worth remembering
+	 * exactly, its names are started over
+	 */
+	static final int MAX_NAMES_PER_FOLDER = 256;
+
+	private final int _maxFolders;
+	private final long _ttl;
+
+	/**
+	 * keys: folder path value: names missing in it, ordered by last access
+	 */
+	private final LinkedHashMap<String, Folder> _folders = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * touched by every invalidation, a lookup that raced with one on its path
+	 * or a parent is not remembered
+	 */
+	private final VersionStamps _versions = new VersionStamps();
+
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+
+	public NegativeLookupStore(IWebDAVStore store) {
+		this(store, Integer.getInteger(WEBDAV_NEGATIVE_CACHE_FOLDERS_PROPERTY, 10000),
+				Long.getLong(WEBDAV_NEGATIVE_CACHE_TTL_PROPERTY, 5000));
+	}
+
+	/**
+	 * @param store
+	 *            the store to cache
+	 * @param maxFolders
+	 *            maximum number of folders whose missing names are remembered
+	 * @param ttl
+	 *            milliseconds the missing names of a folder are remembered
+	 */
+	public NegativeLookupStore(IWebDAVStore store, int maxFolders, long ttl) {
+		super(store);
+		_maxFolders = Math.max(1, maxFolders);
+		_ttl = ttl;
+	}
+
+	@Override
+	public void destroy() {
+		LOG.info("NegativeLookupStore statistics: hits=" + getHits() + ", misses=" + getMisses());
+		super.destroy();
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) {
+		try {
+			_store.createFolder(transaction, folderUri);
+		} finally {
+			invalidate(folderUri);
+		}
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		try {
+			_store.createResource(transaction, resourceUri);
+		} finally {
+			invalidate(resourceUri);
+		}
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		try {
+			return _store.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+		} finally {
+			invalidate(resourceUri);
+		}
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		// removing only adds missing names, nothing remembered becomes wrong
+		_store.removeObject(transaction, uri);
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) {
+		try {
+			return super.copyResource(transaction, sourceUri, destinationUri);
+		} finally {
+			invalidate(destinationUri);
+		}
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		if (isKnownMissing(path)) {
+			return null;
+		}
+		_misses.increment();
+		long stamp = _versions.getStamp(path);
+		StoredObject so = _store.getStoredObject(transaction, path);
+		if (so == null) {
+			remember(path, stamp);
+		}
+		return so;
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		if (properties == null || !(_store instanceof IPropertyAwareStore)) {
+			return getStoredObject(transaction, uri);
+		}
+		String path = URLUtil.getCleanPath(uri);
+		if (isKnownMissing(path)) {
+			return null;
+		}
+		_misses.increment();
+		long stamp = _versions.getStamp(path);
+		StoredObject so = super.getStoredObject(transaction, path, properties);
+		if (so == null) {
+			remember(path, stamp);
+		}
+		return so;
+	}
+
+	@Override
+	public boolean isKnownMissing(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		String parent = URLUtil.getParentPath(path);
+		if (parent == null) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (_folders) {
+			Folder folder = _folders.get(parent);
+			if (folder == null) {
+				return false;
+			}
+			if (folder.expires <= now) {
+				_folders.remove(parent);
+				return false;
+			}
+			if (folder.names.contains(getName(parent, path))) {
+				_hits.increment();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets the missing names of the folder a path was created in, and of
+	 * the path itself in case it is a folder that was moved in.
+	 */
+	@Override
+	public void invalidate(String uri) {
+		if (uri == null) {
+			return;
+		}
+		String path = URLUtil.getCleanPath(uri);
+		String parent = URLUtil.getParentPath(path);
+		synchronized (_folders) {
+			_versions.touch(path);
+			_folders.remove(path);
+			if (parent != null) {
+				_folders.remove(parent);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the missing names of a path, its folder and every folder below
+	 * it.
+	 */
+	@Override
+	public void invalidateSubtree(String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		String prefix = "/".equals(path) ? path : path + "/";
+		invalidate(path);
+		synchronized (_folders) {
+			_folders.keySet().removeIf(key -> key.startsWith(prefix));
+		}
+	}
+
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	private void remember(String path, long stamp) {
+		String parent = URLUtil.getParentPath(path);
+		if (parent == null) {
+			return;
+		}
+		synchronized (_folders) {
+			if (!_versions.validate(path, stamp)) {
+				return;
+			}
+			Folder folder = _folders.get(parent);
+			if (folder == null || folder.names.size() >= MAX_NAMES_PER_FOLDER) {
+				folder = new Folder(System.currentTimeMillis() + _ttl);
+				_folders.put(parent, folder);
+				if (_folders.size() > _maxFolders) {
+					_folders.remove(_folders.keySet().iterator().next());
+				}
+			}
+			folder.names.add(getName(parent, path));
+		}
+	}
+
+	private static String getName(String parent, String path) {
+		return path.substring("/".equals(parent) ? 1 : parent.length() + 1);
+	}
+
+	private static class Folder {
+		final Set<String> names = new HashSet<>();
+		final long expires;
+
+		Folder(long expires) {
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.ellipsis.webdav.server.exceptions;
+
+/**
+ * Thrown to stop the work for a request whose client can no longer be
+ * written to, there is nobody left to send an error to.
+ */
+public class ClientDisconnectedException extends WebDAVException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2877345127652530491L;
+
+	public ClientDisconnectedException() {
+		super();
+	}
+
+	public ClientDisconnectedException(String message) {
+		super(message);
+	}
+
+	public ClientDisconnectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public ClientDisconnectedException(Throwable cause) {
+		super(cause);
+	}
+}
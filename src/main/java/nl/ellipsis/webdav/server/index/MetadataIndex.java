@@ -0,0 +1,486 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+
+/**
+ * Persistent path to {@link MetadataRecord} index.
+ * <p>
+ * The index is held in memory in a {@link MetadataTrie} and made durable with a write-ahead log: every
+ * mutation is appended to <code>index.wal</code> before it becomes visible.
+ * When the log grows beyond a limit it is rotated and the whole index is
+ * written to <code>index.snapshot</code> by a background thread, after which
+ * the rotated log is deleted. The snapshot is synced to disk before that.
+ * Opening the index loads the snapshot and replays the logs, a torn last log
+ * entry is ignored. An unreadable snapshot is discarded together with the
+ * logs, the index then starts empty and incomplete.
+ * <p>
+ * An index is <i>complete</i> once a full scan of the underlying store has
+ * been recorded with {@link #setComplete(boolean)}; only then is a missing
+ * path known not to exist.
+ */
+public final class MetadataIndex {
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(MetadataIndex.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x57444958;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REMOVE = 2;
+	private static final byte OP_COMPLETE = 3;
+
+	private final File _folder;
+	private final File _snapshotFile;
+	private final File _walFile;
+	private final File _rotatedWalFile;
+	private final int _checkpointInterval;
+
+	private final MetadataTrie _records = new MetadataTrie();
+
+	private final Object _walLock = new Object();
+	private FileOutputStream _walFileOut;
+	private DataOutputStream _wal;
+	private int _walEntries = 0;
+	private boolean _checkpointRunning = false;
+	private boolean _checkpointScheduled = false;
+	private boolean _closed = false;
+
+	/**
+	 * writes the snapshots, mutations never wait for it
+	 */
+	private final ExecutorService _checkpointer = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "webdav-metadata-index-checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile boolean _complete = false;
+
+	/**
+	 * @param folder
+	 *            folder holding the snapshot and log files
+	 * @param checkpointInterval
+	 *            number of log entries after which a snapshot is written
+	 */
+	public MetadataIndex(File folder, int checkpointInterval) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new WebDAVException("index folder '" + folder.getAbsolutePath() + "' could not be created");
+		}
+		_folder = folder;
+		_snapshotFile = new File(folder, "index.snapshot");
+		_walFile = new File(folder, "index.wal");
+		_rotatedWalFile = new File(folder, "index.wal.old");
+		_checkpointInterval = checkpointInterval;
+		try {
+			load();
+			openWal();
+		} catch (IOException e) {
+			LOG.error("MetadataIndex could not be opened in " + folder.getAbsolutePath());
+			throw new WebDAVException(e);
+		}
+		LOG.info("MetadataIndex opened with " + _records.size() + " entries, complete=" + _complete);
+	}
+
+	/**
+	 * @return the metadata of path or <code>null</code> if it is not indexed
+	 */
+	public MetadataRecord get(String path) {
+		return _records.get(path);
+	}
+
+	/**
+	 * @return a copy of the metadata of path or <code>null</code> if it is not
+	 *         indexed
+	 */
+	public StoredObject getStoredObject(String path) {
+		return _records.getStoredObject(path);
+	}
+
+	/**
+	 * @return the indexed children names of a folder, <code>null</code> if the
+	 *         folder is not indexed
+	 */
+	public String[] getChildrenNames(String path) {
+		MetadataRecord record = _records.get(path);
+		if (record == null || !record.isFolder()) {
+			return null;
+		}
+		return _records.getChildrenNames(path);
+	}
+
+	public int size() {
+		return _records.size();
+	}
+
+	/**
+	 * @return <code>true</code> if a full scan has been recorded, a path that is
+	 *         not indexed does not exist
+	 */
+	public boolean isComplete() {
+		return _complete;
+	}
+
+	public void setComplete(boolean complete) {
+		synchronized (_walLock) {
+			if (_complete != complete) {
+				log(OP_COMPLETE, null, complete ? 1 : 0, null);
+				_complete = complete;
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces the metadata of path.
+	 */
+	public void put(String path, MetadataRecord record) {
+		synchronized (_walLock) {
+			if (record.equals(_records.get(path))) {
+				return;
+			}
+			log(OP_PUT, path, 0, record);
+			apply(path, record);
+		}
+		checkpointIfNeeded();
+	}
+
+	/**
+	 * Adds or replaces the metadata of path without logging it, used to build
+	 * the index from a scan. The entry only becomes durable with the next
+	 * {@link #checkpoint()}; until then the index must not be marked complete.
+	 */
+	public void bulkPut(String path, MetadataRecord record) {
+		synchronized (_walLock) {
+			if (!record.equals(_records.get(path))) {
+				apply(path, record);
+			}
+		}
+	}
+
+	/**
+	 * Removes path and everything below it.
+	 */
+	public void remove(String path) {
+		synchronized (_walLock) {
+			if (!_records.contains(path)) {
+				return;
+			}
+			log(OP_REMOVE, path, 0, null);
+			apply(path, null);
+		}
+		checkpointIfNeeded();
+	}
+
+	/**
+	 * Visits all entries, entries modified concurrently may or may not be
+	 * visited.
+	 */
+	public void forEach(BiConsumer<String, MetadataRecord> action) {
+		_records.forEach(action);
+	}
+
+	/**
+	 * Writes a snapshot and truncates the log.
+	 */
+	public void checkpoint() {
+		synchronized (_walLock) {
+			if (_checkpointRunning) {
+				return;
+			}
+			_checkpointRunning = true;
+			try {
+				// new mutations go to a fresh log while the snapshot is written
+				closeWal();
+				if (_rotatedWalFile.exists()) {
+					appendFile(_walFile, _rotatedWalFile);
+					Files.delete(_walFile.toPath());
+				} else {
+					Files.move(_walFile.toPath(), _rotatedWalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}
+				openWal();
+				_walEntries = 0;
+			} catch (IOException e) {
+				_checkpointRunning = false;
+				LOG.error("MetadataIndex.checkpoint() could not rotate log");
+				throw new WebDAVException(e);
+			}
+		}
+		try {
+			// the copy is not consistent, replaying the log on top of it is
+			File tmp = new File(_snapshotFile.getPath() + ".tmp");
+			try (FileOutputStream file = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 65536))) {
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(SNAPSHOT_VERSION);
+				out.writeBoolean(_complete);
+				_records.forEach((path, record) -> {
+					try {
+						out.writeBoolean(true);
+						out.writeUTF(path);
+						writeRecord(out, record);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				out.writeBoolean(false);
+				out.flush();
+				file.getFD().sync();
+			}
+			Files.move(tmp.toPath(), _snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			// the rename has to be durable before the log it replaces is gone
+			syncFolder(_folder);
+			Files.deleteIfExists(_rotatedWalFile.toPath());
+			LOG.debug("MetadataIndex.checkpoint() wrote " + _records.size() + " entries");
+		} catch (IOException | UncheckedIOException e) {
+			LOG.error("MetadataIndex.checkpoint() failed", e);
+		} finally {
+			synchronized (_walLock) {
+				_checkpointRunning = false;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a running background checkpoint, writes a snapshot and closes
+	 * the log.
+	 */
+	public void close() {
+		synchronized (_walLock) {
+			_closed = true;
+		}
+		_checkpointer.shutdown();
+		try {
+			_checkpointer.awaitTermination(60, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		checkpoint();
+		synchronized (_walLock) {
+			try {
+				closeWal();
+			} catch (IOException e) {
+				LOG.warn("MetadataIndex.close() failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Hands the checkpoint to the background thread once the log is long
+	 * enough, the mutating request does not wait for it.
+	 */
+	private void checkpointIfNeeded() {
+		synchronized (_walLock) {
+			if (_walEntries < _checkpointInterval || _checkpointRunning || _checkpointScheduled || _closed) {
+				return;
+			}
+			_checkpointScheduled = true;
+		}
+		_checkpointer.execute(() -> {
+			synchronized (_walLock) {
+				_checkpointScheduled = false;
+			}
+			try {
+				checkpoint();
+			} catch (WebDAVException e) {
+				// already logged, retried once the log grows further
+			}
+		});
+	}
+
+	private void apply(String path, MetadataRecord record) {
+		if (record != null) {
+			_records.put(path, record);
+		} else {
+			_records.remove(path);
+		}
+	}
+
+	/**
+	 * Appends an entry to the log, must be called with the log lock held.
+	 */
+	private void log(byte op, String path, int flag, MetadataRecord record) {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(buffer);
+			out.writeByte(op);
+			if (op == OP_COMPLETE) {
+				out.writeBoolean(flag != 0);
+			} else {
+				out.writeUTF(path);
+				if (op == OP_PUT) {
+					writeRecord(out, record);
+				}
+			}
+			byte[] entry = buffer.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(entry);
+			_wal.writeInt(entry.length);
+			_wal.writeInt((int) crc.getValue());
+			_wal.write(entry);
+			_wal.flush();
+			_walEntries++;
+		} catch (IOException e) {
+			LOG.error("MetadataIndex could not write log entry for " + path);
+			throw new WebDAVException(e);
+		}
+	}
+
+	private void load() throws IOException {
+		if (_snapshotFile.exists()) {
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(_snapshotFile), 65536))) {
+				if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+					throw new IOException("unsupported snapshot " + _snapshotFile.getAbsolutePath());
+				}
+				_complete = in.readBoolean();
+				while (in.readBoolean()) {
+					String path = in.readUTF();
+					apply(path, readRecord(in));
+				}
+			} catch (IOException e) {
+				// the logs only make sense on top of the snapshot, a rescan rebuilds both
+				LOG.error("MetadataIndex discarding unreadable snapshot " + _snapshotFile.getAbsolutePath(), e);
+				_records.remove("/");
+				_complete = false;
+				Files.delete(_snapshotFile.toPath());
+				Files.deleteIfExists(_rotatedWalFile.toPath());
+				Files.deleteIfExists(_walFile.toPath());
+				return;
+			}
+		}
+		replay(_rotatedWalFile);
+		replay(_walFile);
+	}
+
+	private void replay(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] entry = new byte[length];
+				int crcValue;
+				try {
+					crcValue = in.readInt();
+					in.readFully(entry);
+				} catch (EOFException e) {
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(entry);
+				if ((int) crc.getValue() != crcValue) {
+					break;
+				}
+				DataInputStream entryIn = new DataInputStream(new ByteArrayInputStream(entry));
+				byte op = entryIn.readByte();
+				if (op == OP_COMPLETE) {
+					_complete = entryIn.readBoolean();
+				} else {
+					String path = entryIn.readUTF();
+					apply(path, op == OP_PUT ? readRecord(entryIn) : null);
+				}
+				valid += 8 + length;
+			}
+		}
+		if (valid < file.length()) {
+			LOG.warn("MetadataIndex ignoring torn log tail of " + file.getName());
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(valid);
+			}
+		}
+	}
+
+	private void openWal() throws IOException {
+		_walFileOut = new FileOutputStream(_walFile, true);
+		_wal = new DataOutputStream(new BufferedOutputStream(_walFileOut, 65536));
+	}
+
+	/**
+	 * Syncs and closes the log, must be called with the log lock held.
+	 */
+	private void closeWal() throws IOException {
+		try {
+			_wal.flush();
+			_walFileOut.getFD().sync();
+		} finally {
+			_wal.close();
+		}
+	}
+
+	private static void appendFile(File source, File target) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(target, true)) {
+			Files.copy(source.toPath(), out);
+			out.getFD().sync();
+		}
+	}
+
+	private static void syncFolder(File folder) {
+		try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// not every platform can sync a directory
+			LOG.debug("MetadataIndex could not sync " + folder.getAbsolutePath() + ": " + e);
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, MetadataRecord record) throws IOException {
+		out.writeBoolean(record.isFolder());
+		out.writeLong(record.getLength());
+		out.writeLong(record.getLastModified());
+		out.writeLong(record.getCreationDate());
+		out.writeUTF(record.getMimeType() != null ? record.getMimeType() : "");
+	}
+
+	private static MetadataRecord readRecord(DataInputStream in) throws IOException {
+		boolean folder = in.readBoolean();
+		long length = in.readLong();
+		long lastModified = in.readLong();
+		long creationDate = in.readLong();
+		String mimeType = in.readUTF();
+		return new MetadataRecord(folder, length, lastModified, creationDate, mimeType.isEmpty() ? null : mimeType);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.index;
+
+import java.util.Date;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.util.CharsetUtil;
+
+/**
+ * Immutable metadata of a single path as held by the {@link MetadataIndex}.
+ */
+public final class MetadataRecord {
+
+	private final boolean _folder;
+	private final long _length;
+	private final long _lastModified;
+	private final long _creationDate;
+	private final String _mimeType;
+
+	public MetadataRecord(boolean folder, long length, long lastModified, long creationDate, String mimeType) {
+		_folder = folder;
+		_length = length;
+		_lastModified = lastModified;
+		_creationDate = creationDate;
+		_mimeType = mimeType;
+	}
+
+	public boolean isFolder() {
+		return _folder;
+	}
+
+	public long getLength() {
+		return _length;
+	}
+
+	public long getLastModified() {
+		return _lastModified;
+	}
+
+	public long getCreationDate() {
+		return _creationDate;
+	}
+
+	public String getMimeType() {
+		return _mimeType;
+	}
+
+	/**
+	 * @return the same weak ETag the WebDAV methods derive from a
+	 *         {@link StoredObject}
+	 */
+	public String getETag() {
+		String resourceLength = "";
+		String lastModified = "";
+		if (!_folder) {
+			resourceLength = Long.toString(_length);
+			lastModified = Long.toString(_lastModified);
+		}
+		return "W/" + CharsetUtil.DQUOTE + resourceLength + CharsetUtil.CHAR_DASH + lastModified + CharsetUtil.DQUOTE;
+	}
+
+	/**
+	 * @return a new {@link StoredObject} for path holding this metadata
+	 */
+	public StoredObject toStoredObject(String path) {
+		StoredObject so = new StoredObject(path);
+		so.setFolder(_folder);
+		so.setResourceLength(_length);
+		so.setLastModified(new Date(_lastModified));
+		so.setCreationDate(new Date(_creationDate));
+		so.setMimeType(_mimeType);
+		return so;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MetadataRecord)) {
+			return false;
+		}
+		MetadataRecord other = (MetadataRecord) obj;
+		return _folder == other._folder && _length == other._length && _lastModified == other._lastModified
+				&& _creationDate == other._creationDate
+				&& (_mimeType == null ? other._mimeType == null : _mimeType.equals(other._mimeType));
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Boolean.hashCode(_folder);
+		result = 31 * result + Long.hashCode(_length);
+		result = 31 * result + Long.hashCode(_lastModified);
+		result = 31 * result + Long.hashCode(_creationDate);
+		return 31 * result + (_mimeType != null ? _mimeType.hashCode() : 0);
+	}
+}
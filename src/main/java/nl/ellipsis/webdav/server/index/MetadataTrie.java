@@ -0,0 +1,599 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.util.CharsetUtil;
+
+/**
+ * Compact in-memory map of paths to metadata.
+ * <p>
+ * Paths are stored as a trie of path components, so a folder name is held
+ * once no matter how many entries live below it. Nodes are plain int ids
+ * into parallel primitive arrays: the component label is a UTF-8 slice of a
+ * shared byte arena, size and times are <code>long</code> columns and MIME
+ * types are interned to an int id. Children are found through one open
+ * addressing table keyed by parent id and label. An entry costs roughly 80
+ * bytes plus its label, against several hundred for a {@link StoredObject}
+ * with its dates and strings.
+ * <p>
+ * {@link #getStoredObject(String)} copies the columns of an entry under a
+ * single read lock, the object it returns never mixes two versions of the
+ * entry and is not affected by later updates.
+ * <p>
+ * Reads run concurrently, mutations are exclusive.
+ */
+public class MetadataTrie {
+
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+	private static final int FREE = -2;
+
+	private static final byte EXISTS = 1;
+	private static final byte FOLDER = 2;
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final Lock _readLock = _lock.readLock();
+	private final Lock _writeLock = _lock.writeLock();
+
+	// node columns, indexed by node id
+	private int[] _parent;
+	private int[] _firstChild;
+	private int[] _nextSibling;
+	private int[] _prevSibling;
+	private int[] _labelOffset;
+	private int[] _labelLength;
+	private int[] _hash;
+	private int[] _mime;
+	private long[] _length;
+	private long[] _lastModified;
+	private long[] _creationDate;
+	private byte[] _flags;
+
+	private int _nodeCount = 1;
+	private int _liveNodes = 1;
+	private int _freeHead = NONE;
+	private int _size = 0;
+
+	private byte[] _labels;
+	private int _labelsUsed = 0;
+	private int _labelGarbage = 0;
+
+	/**
+	 * open addressing table of node id + 1, <code>0</code> marks a free slot
+	 */
+	private int[] _table;
+
+	private final List<String> _mimeTypes = new ArrayList<>();
+	private final Map<String, Integer> _mimeIds = new HashMap<>();
+
+	public MetadataTrie() {
+		this(1024);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of entries to size the arrays for
+	 */
+	public MetadataTrie(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		_parent = new int[capacity];
+		_firstChild = new int[capacity];
+		_nextSibling = new int[capacity];
+		_prevSibling = new int[capacity];
+		_labelOffset = new int[capacity];
+		_labelLength = new int[capacity];
+		_hash = new int[capacity];
+		_mime = new int[capacity];
+		_length = new long[capacity];
+		_lastModified = new long[capacity];
+		_creationDate = new long[capacity];
+		_flags = new byte[capacity];
+		_labels = new byte[capacity * 8];
+		_table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+		_mimeTypes.add(null);
+		_parent[ROOT] = NONE;
+		_firstChild[ROOT] = NONE;
+		_nextSibling[ROOT] = NONE;
+		_prevSibling[ROOT] = NONE;
+	}
+
+	/**
+	 * @return the metadata of path or <code>null</code> if it is not present
+	 */
+	public MetadataRecord get(String path) {
+		_readLock.lock();
+		try {
+			int node = find(path);
+			return node != NONE && (_flags[node] & EXISTS) != 0 ? toRecord(node) : null;
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	public boolean contains(String path) {
+		_readLock.lock();
+		try {
+			int node = find(path);
+			return node != NONE && (_flags[node] & EXISTS) != 0;
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return a copy of the metadata of path or <code>null</code> if it is not
+	 *         present
+	 */
+	public StoredObject getStoredObject(String path) {
+		_readLock.lock();
+		try {
+			int node = find(path);
+			if (node == NONE || (_flags[node] & EXISTS) == 0) {
+				return null;
+			}
+			StoredObject so = new StoredObject(path);
+			so.setFolder((_flags[node] & FOLDER) != 0);
+			so.setResourceLength(_length[node]);
+			so.setLastModified(new Date(_lastModified[node]));
+			so.setCreationDate(new Date(_creationDate[node]));
+			so.setMimeType(_mimeTypes.get(_mime[node]));
+			return so;
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the names of the children of path that are present,
+	 *         <code>null</code> if path has no children
+	 */
+	public String[] getChildrenNames(String path) {
+		_readLock.lock();
+		try {
+			int node = find(path);
+			if (node == NONE) {
+				return null;
+			}
+			List<String> names = new ArrayList<>();
+			for (int child = _firstChild[node]; child != NONE; child = _nextSibling[child]) {
+				if ((_flags[child] & EXISTS) != 0) {
+					names.add(label(child));
+				}
+			}
+			return names.toArray(new String[names.size()]);
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of paths present
+	 */
+	public int size() {
+		_readLock.lock();
+		try {
+			return _size;
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds or replaces the metadata of path. Missing ancestors are created as
+	 * structural nodes that are not reported as present.
+	 */
+	public void put(String path, MetadataRecord record) {
+		byte[][] labels = split(path);
+		_writeLock.lock();
+		try {
+			int node = ROOT;
+			for (byte[] label : labels) {
+				int hash = hash(node, label);
+				int child = findChild(node, label, hash);
+				node = child != NONE ? child : allocate(node, label, hash);
+			}
+			if ((_flags[node] & EXISTS) == 0) {
+				_size++;
+			}
+			_flags[node] = (byte) (EXISTS | (record.isFolder() ? FOLDER : 0));
+			_length[node] = record.getLength();
+			_lastModified[node] = record.getLastModified();
+			_creationDate[node] = record.getCreationDate();
+			_mime[node] = internMimeType(record.getMimeType());
+		} finally {
+			_writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes path and everything below it.
+	 *
+	 * @return <code>true</code> if anything was removed
+	 */
+	public boolean remove(String path) {
+		_writeLock.lock();
+		try {
+			int node = find(path);
+			if (node == NONE) {
+				return false;
+			}
+			if (node == ROOT) {
+				if ((_flags[ROOT] & EXISTS) != 0) {
+					_size--;
+				}
+				_flags[ROOT] = 0;
+				while (_firstChild[ROOT] != NONE) {
+					removeSubtree(_firstChild[ROOT]);
+				}
+				return true;
+			}
+			int parent = _parent[node];
+			removeSubtree(node);
+			prune(parent);
+			return true;
+		} finally {
+			_writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Visits all present paths. The trie is read in batches, entries modified
+	 * while iterating may or may not be visited; the action may modify the
+	 * trie.
+	 */
+	public void forEach(BiConsumer<String, MetadataRecord> action) {
+		List<String> paths = new ArrayList<>(1024);
+		List<MetadataRecord> records = new ArrayList<>(1024);
+		int next = 0;
+		while (true) {
+			_readLock.lock();
+			try {
+				for (; next < _nodeCount && paths.size() < 1024; next++) {
+					if (_parent[next] != FREE && (_flags[next] & EXISTS) != 0) {
+						paths.add(path(next));
+						records.add(toRecord(next));
+					}
+				}
+			} finally {
+				_readLock.unlock();
+			}
+			if (paths.isEmpty()) {
+				return;
+			}
+			for (int i = 0; i < paths.size(); i++) {
+				action.accept(paths.get(i), records.get(i));
+			}
+			paths.clear();
+			records.clear();
+		}
+	}
+
+	/**
+	 * @return approximate number of heap bytes held by the trie
+	 */
+	public long estimateMemoryBytes() {
+		_readLock.lock();
+		try {
+			long capacity = _parent.length;
+			return capacity * (8 * 4 + 3 * 8 + 1) + _labels.length + _table.length * 4L;
+		} finally {
+			_readLock.unlock();
+		}
+	}
+
+	/**
+	 * Looks up the node of path, must be called with a lock held.
+	 */
+	private int find(String path) {
+		int node = ROOT;
+		int start = 0;
+		int length = path.length();
+		while (true) {
+			while (start < length && path.charAt(start) == CharsetUtil.CHAR_FORWARD_SLASH) {
+				start++;
+			}
+			if (start >= length) {
+				return node;
+			}
+			int end = path.indexOf(CharsetUtil.CHAR_FORWARD_SLASH, start);
+			if (end < 0) {
+				end = length;
+			}
+			byte[] label = path.substring(start, end).getBytes(StandardCharsets.UTF_8);
+			node = findChild(node, label, hash(node, label));
+			if (node == NONE) {
+				return NONE;
+			}
+			start = end;
+		}
+	}
+
+	private int findChild(int parent, byte[] label, int hash) {
+		int mask = _table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = _table[slot];
+			if (entry == 0) {
+				return NONE;
+			}
+			int node = entry - 1;
+			if (_hash[node] == hash && _parent[node] == parent && labelEquals(node, label)) {
+				return node;
+			}
+		}
+	}
+
+	private int allocate(int parent, byte[] label, int hash) {
+		int node;
+		if (_freeHead != NONE) {
+			node = _freeHead;
+			_freeHead = _nextSibling[node];
+		} else {
+			if (_nodeCount == _parent.length) {
+				growNodes();
+			}
+			node = _nodeCount++;
+		}
+		_parent[node] = parent;
+		_labelOffset[node] = storeLabel(label);
+		_labelLength[node] = label.length;
+		_hash[node] = hash;
+		_firstChild[node] = NONE;
+		_prevSibling[node] = NONE;
+		_nextSibling[node] = _firstChild[parent];
+		if (_firstChild[parent] != NONE) {
+			_prevSibling[_firstChild[parent]] = node;
+		}
+		_firstChild[parent] = node;
+		_flags[node] = 0;
+		_liveNodes++;
+		if (_liveNodes * 2 > _table.length) {
+			resizeTable();
+		}
+		tableInsert(node);
+		return node;
+	}
+
+	/**
+	 * Frees node and its descendants after unlinking node from its parent.
+	 */
+	private void removeSubtree(int node) {
+		unlink(node);
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = node;
+		while (top > 0) {
+			int current = stack[--top];
+			for (int child = _firstChild[current]; child != NONE; child = _nextSibling[child]) {
+				if (top == stack.length) {
+					stack = Arrays.copyOf(stack, top * 2);
+				}
+				stack[top++] = child;
+			}
+			free(current);
+		}
+	}
+
+	/**
+	 * Frees structural nodes that no longer lead to a present path.
+	 */
+	private void prune(int node) {
+		while (node != ROOT && (_flags[node] & EXISTS) == 0 && _firstChild[node] == NONE) {
+			int parent = _parent[node];
+			unlink(node);
+			free(node);
+			node = parent;
+		}
+	}
+
+	private void unlink(int node) {
+		int prev = _prevSibling[node];
+		int next = _nextSibling[node];
+		if (prev != NONE) {
+			_nextSibling[prev] = next;
+		} else {
+			_firstChild[_parent[node]] = next;
+		}
+		if (next != NONE) {
+			_prevSibling[next] = prev;
+		}
+	}
+
+	private void free(int node) {
+		tableRemove(node);
+		if ((_flags[node] & EXISTS) != 0) {
+			_size--;
+		}
+		_labelGarbage += _labelLength[node];
+		_flags[node] = 0;
+		_parent[node] = FREE;
+		_firstChild[node] = NONE;
+		_nextSibling[node] = _freeHead;
+		_freeHead = node;
+		_liveNodes--;
+	}
+
+	private void tableInsert(int node) {
+		int mask = _table.length - 1;
+		int slot = _hash[node] & mask;
+		while (_table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		_table[slot] = node + 1;
+	}
+
+	private void tableRemove(int node) {
+		int mask = _table.length - 1;
+		int slot = _hash[node] & mask;
+		while (_table[slot] != node + 1) {
+			slot = (slot + 1) & mask;
+		}
+		// shift back following entries that would become unreachable
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			int entry = _table[next];
+			if (entry == 0) {
+				break;
+			}
+			int home = _hash[entry - 1] & mask;
+			boolean movable = next > slot ? (home <= slot || home > next) : (home <= slot && home > next);
+			if (movable) {
+				_table[slot] = entry;
+				slot = next;
+			}
+		}
+		_table[slot] = 0;
+	}
+
+	private void resizeTable() {
+		_table = new int[_table.length * 2];
+		for (int node = 1; node < _nodeCount; node++) {
+			if (_parent[node] != FREE) {
+				tableInsert(node);
+			}
+		}
+	}
+
+	private void growNodes() {
+		int capacity = _parent.length + (_parent.length >> 1);
+		_parent = Arrays.copyOf(_parent, capacity);
+		_firstChild = Arrays.copyOf(_firstChild, capacity);
+		_nextSibling = Arrays.copyOf(_nextSibling, capacity);
+		_prevSibling = Arrays.copyOf(_prevSibling, capacity);
+		_labelOffset = Arrays.copyOf(_labelOffset, capacity);
+		_labelLength = Arrays.copyOf(_labelLength, capacity);
+		_hash = Arrays.copyOf(_hash, capacity);
+		_mime = Arrays.copyOf(_mime, capacity);
+		_length = Arrays.copyOf(_length, capacity);
+		_lastModified = Arrays.copyOf(_lastModified, capacity);
+		_creationDate = Arrays.copyOf(_creationDate, capacity);
+		_flags = Arrays.copyOf(_flags, capacity);
+	}
+
+	private int storeLabel(byte[] label) {
+		if (_labelsUsed + label.length > _labels.length) {
+			if (_labelGarbage > _labelsUsed / 2) {
+				compactLabels();
+			}
+			if (_labelsUsed + label.length > _labels.length) {
+				_labels = Arrays.copyOf(_labels,
+						Math.max(_labelsUsed + label.length, _labels.length + (_labels.length >> 1)));
+			}
+		}
+		int offset = _labelsUsed;
+		System.arraycopy(label, 0, _labels, offset, label.length);
+		_labelsUsed += label.length;
+		return offset;
+	}
+
+	private void compactLabels() {
+		byte[] labels = new byte[_labels.length];
+		int used = 0;
+		for (int node = 1; node < _nodeCount; node++) {
+			if (_parent[node] != FREE) {
+				System.arraycopy(_labels, _labelOffset[node], labels, used, _labelLength[node]);
+				_labelOffset[node] = used;
+				used += _labelLength[node];
+			}
+		}
+		_labels = labels;
+		_labelsUsed = used;
+		_labelGarbage = 0;
+	}
+
+	private boolean labelEquals(int node, byte[] label) {
+		if (_labelLength[node] != label.length) {
+			return false;
+		}
+		int offset = _labelOffset[node];
+		for (int i = 0; i < label.length; i++) {
+			if (_labels[offset + i] != label[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String label(int node) {
+		return new String(_labels, _labelOffset[node], _labelLength[node], StandardCharsets.UTF_8);
+	}
+
+	private String path(int node) {
+		if (node == ROOT) {
+			return "/";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (; node != ROOT; node = _parent[node]) {
+			sb.insert(0, label(node)).insert(0, CharsetUtil.CHAR_FORWARD_SLASH);
+		}
+		return sb.toString();
+	}
+
+	private int internMimeType(String mimeType) {
+		if (mimeType == null) {
+			return 0;
+		}
+		Integer id = _mimeIds.get(mimeType);
+		if (id == null) {
+			id = _mimeTypes.size();
+			_mimeTypes.add(mimeType);
+			_mimeIds.put(mimeType, id);
+		}
+		return id;
+	}
+
+	private MetadataRecord toRecord(int node) {
+		return new MetadataRecord((_flags[node] & FOLDER) != 0, _length[node], _lastModified[node],
+				_creationDate[node], _mimeTypes.get(_mime[node]));
+	}
+
+	private static byte[][] split(String path) {
+		List<byte[]> labels = new ArrayList<>();
+		int start = 0;
+		int length = path.length();
+		while (start < length) {
+			int end = path.indexOf(CharsetUtil.CHAR_FORWARD_SLASH, start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				labels.add(path.substring(start, end).getBytes(StandardCharsets.UTF_8));
+			}
+			start = end + 1;
+		}
+		return labels.toArray(new byte[labels.size()][]);
+	}
+
+	private static int hash(int parent, byte[] label) {
+		int h = parent;
+		for (byte b : label) {
+			h = 31 * h + b;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		return h ^ (h >>> 13);
+	}
+}
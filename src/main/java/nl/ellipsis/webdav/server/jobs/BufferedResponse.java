@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.jobs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import nl.ellipsis.webdav.server.WebDAVConstants;
+
+/**
+ * Records the response of a method run by a {@link Job}, so it can be sent
+ * to the client polling for the result.
+ */
+class BufferedResponse extends HttpServletResponseWrapper {
+
+	private int _status = HttpServletResponse.SC_OK;
+	private String _message = null;
+	private boolean _error = false;
+	private String _contentType = null;
+	private String _characterEncoding = WebDAVConstants.ENCODING_UTF8;
+
+	/**
+	 * keys: header name, ignoring case value: header values
+	 */
+	private final Map<String, List<String>> _headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	private final ByteArrayOutputStream _body = new ByteArrayOutputStream();
+	private ServletOutputStream _outputStream = null;
+	private PrintWriter _writer = null;
+
+	BufferedResponse() {
+		super(DetachedRequest.stub(HttpServletResponse.class));
+	}
+
+	@Override
+	public synchronized void setStatus(int status) {
+		if (!_error) {
+			_status = status;
+		}
+	}
+
+	@Override
+	public synchronized int getStatus() {
+		return _status;
+	}
+
+	@Override
+	public synchronized void sendError(int status) {
+		sendError(status, null);
+	}
+
+	@Override
+	public synchronized void sendError(int status, String message) {
+		if (_error) {
+			// the first error is the response
+			return;
+		}
+		_status = status;
+		_message = message;
+		_error = true;
+	}
+
+	@Override
+	public synchronized boolean isCommitted() {
+		return _error;
+	}
+
+	@Override
+	public synchronized void setHeader(String name, String value) {
+		List<String> values = new ArrayList<>();
+		values.add(value);
+		_headers.put(name, values);
+	}
+
+	@Override
+	public synchronized void addHeader(String name, String value) {
+		_headers.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		setHeader(name, Integer.toString(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		addHeader(name, Integer.toString(value));
+	}
+
+	@Override
+	public synchronized boolean containsHeader(String name) {
+		return _headers.containsKey(name);
+	}
+
+	@Override
+	public synchronized String getHeader(String name) {
+		List<String> values = _headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	public synchronized Collection<String> getHeaders(String name) {
+		List<String> values = _headers.get(name);
+		return values != null ? new ArrayList<>(values) : new ArrayList<>();
+	}
+
+	@Override
+	public synchronized Collection<String> getHeaderNames() {
+		return new ArrayList<>(_headers.keySet());
+	}
+
+	@Override
+	public synchronized void setContentType(String type) {
+		_contentType = type;
+	}
+
+	@Override
+	public synchronized String getContentType() {
+		return _contentType;
+	}
+
+	@Override
+	public synchronized void setCharacterEncoding(String characterEncoding) {
+		_characterEncoding = characterEncoding;
+	}
+
+	@Override
+	public synchronized String getCharacterEncoding() {
+		return _characterEncoding;
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		// the length of the recorded body is sent
+	}
+
+	@Override
+	public void setContentLengthLong(long length) {
+		// the length of the recorded body is sent
+	}
+
+	@Override
+	public synchronized ServletOutputStream getOutputStream() {
+		if (_outputStream == null) {
+			_outputStream = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					_body.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					_body.write(b, off, len);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+					throw new IllegalStateException("responses of asynchronous jobs are blocking");
+				}
+			};
+		}
+		return _outputStream;
+	}
+
+	@Override
+	public synchronized PrintWriter getWriter() throws UnsupportedEncodingException {
+		if (_writer == null) {
+			_writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), _characterEncoding));
+		}
+		return _writer;
+	}
+
+	@Override
+	public synchronized void flushBuffer() {
+		if (_writer != null) {
+			_writer.flush();
+		}
+	}
+
+	/**
+	 * Sends the recorded response.
+	 */
+	synchronized void replay(HttpServletResponse resp) throws IOException {
+		flushBuffer();
+		for (Map.Entry<String, List<String>> header : _headers.entrySet()) {
+			for (String value : header.getValue()) {
+				resp.addHeader(header.getKey(), value);
+			}
+		}
+		if (_error) {
+			if (_message != null) {
+				resp.sendError(_status, _message);
+			} else {
+				resp.sendError(_status);
+			}
+			return;
+		}
+		resp.setStatus(_status);
+		if (_body.size() > 0) {
+			if (_contentType != null) {
+				resp.setContentType(_contentType);
+			}
+			resp.setCharacterEncoding(_characterEncoding);
+			resp.setContentLength(_body.size());
+			_body.writeTo(resp.getOutputStream());
+		}
+	}
+}
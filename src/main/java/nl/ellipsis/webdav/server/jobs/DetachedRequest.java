@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.jobs;
+
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Copy of the parts of a request a method needs, which stays valid after the
+ * container recycled the request it was made from. Anything else throws an
+ * {@link IllegalStateException}.
+ */
+class DetachedRequest extends HttpServletRequestWrapper {
+
+	private final String _id;
+	private final String _method;
+	private final String _requestUri;
+	private final String _contextPath;
+	private final String _servletPath;
+	private final String _pathInfo;
+	private final String _serverName;
+	private final Principal _principal;
+
+	/**
+	 * keys: header name, ignoring case value: header values
+	 */
+	private final Map<String, List<String>> _headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 * keys: attribute name value: attribute value, only text is copied
+	 */
+	private final Map<String, Object> _attributes = new HashMap<>();
+
+	DetachedRequest(String id, HttpServletRequest req, Principal principal) {
+		super(stub(HttpServletRequest.class));
+		_id = id;
+		_method = req.getMethod();
+		_requestUri = req.getRequestURI();
+		_contextPath = req.getContextPath();
+		_servletPath = req.getServletPath();
+		_pathInfo = req.getPathInfo();
+		_serverName = req.getServerName();
+		_principal = principal;
+		for (String name : Collections.list(req.getHeaderNames())) {
+			_headers.put(name, Collections.list(req.getHeaders(name)));
+		}
+		for (String name : Collections.list(req.getAttributeNames())) {
+			Object value = req.getAttribute(name);
+			if (value instanceof String) {
+				_attributes.put(name, value);
+			}
+		}
+	}
+
+	@Override
+	public String getMethod() {
+		return _method;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return _requestUri;
+	}
+
+	@Override
+	public String getContextPath() {
+		return _contextPath;
+	}
+
+	@Override
+	public String getServletPath() {
+		return _servletPath;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return _pathInfo;
+	}
+
+	@Override
+	public String getServerName() {
+		return _serverName;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return _principal;
+	}
+
+	@Override
+	public String getHeader(String name) {
+		List<String> values = _headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name) {
+		List<String> values = _headers.get(name);
+		return Collections.enumeration(values != null ? values : Collections.<String>emptyList());
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(new ArrayList<>(_headers.keySet()));
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		synchronized (_attributes) {
+			return _attributes.get(name);
+		}
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		synchronized (_attributes) {
+			return Collections.enumeration(new ArrayList<>(_attributes.keySet()));
+		}
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+		synchronized (_attributes) {
+			_attributes.put(name, value);
+		}
+	}
+
+	@Override
+	public void removeAttribute(String name) {
+		synchronized (_attributes) {
+			_attributes.remove(name);
+		}
+	}
+
+	@Override
+	public int getContentLength() {
+		return 0;
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return 0;
+	}
+
+	/**
+	 * Methods use this to name the owner of their temporary locks.
+	 */
+	@Override
+	public String toString() {
+		return "job-" + _id;
+	}
+
+	/**
+	 * @return an implementation of <code>type</code> refusing every call
+	 */
+	static <T> T stub(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "toString":
+						return type.getSimpleName() + " of an asynchronous job";
+					default:
+						throw new IllegalStateException(method.getName() + " is not available to asynchronous jobs");
+					}
+				}));
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.jobs;
+
+import java.security.Principal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A method running in the background on behalf of a request that asked for
+ * an asynchronous response. The job keeps a copy of the request and records
+ * the response, which is handed out once the job finished.
+ */
+public class Job {
+
+	public enum State {
+		QUEUED, RUNNING, FINISHED
+	}
+
+	/**
+	 * the job run by the current thread
+	 */
+	private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+	private final String _id;
+	private final Principal _principal;
+	private final DetachedRequest _request;
+	private final BufferedResponse _response = new BufferedResponse();
+	private final int _lockTimeout;
+	private volatile long _started = 0;
+	private volatile long _finished = 0;
+	private volatile State _state = State.QUEUED;
+	private final LongAdder _processed = new LongAdder();
+
+	Job(String id, Principal principal, DetachedRequest request, int lockTimeout) {
+		_id = id;
+		_principal = principal;
+		_request = request;
+		_lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * @return the job run by the current thread, <code>null</code> when it is
+	 *         serving a request
+	 */
+	public static Job current() {
+		return CURRENT.get();
+	}
+
+	public String getId() {
+		return _id;
+	}
+
+	public Principal getPrincipal() {
+		return _principal;
+	}
+
+	public String getMethod() {
+		return _request.getMethod();
+	}
+
+	public State getState() {
+		return _state;
+	}
+
+	/**
+	 * @return seconds the temporary locks taken by the job are held at most
+	 */
+	public int getLockTimeout() {
+		return _lockTimeout;
+	}
+
+	/**
+	 * @return number of resources and collections processed so far
+	 */
+	public long getProcessed() {
+		return _processed.sum();
+	}
+
+	/**
+	 * Counts a processed resource or collection.
+	 */
+	public void processed() {
+		_processed.increment();
+	}
+
+	/**
+	 * @return milliseconds the job has been running, or ran
+	 */
+	public long getElapsed() {
+		long started = _started;
+		if (started == 0) {
+			return 0;
+		}
+		long finished = _finished;
+		return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+	}
+
+	/**
+	 * @return time the job finished, 0 if it did not
+	 */
+	public long getFinished() {
+		return _finished;
+	}
+
+	DetachedRequest getRequest() {
+		return _request;
+	}
+
+	BufferedResponse getResponse() {
+		return _response;
+	}
+
+	void start() {
+		_started = System.currentTimeMillis();
+		_state = State.RUNNING;
+		CURRENT.set(this);
+	}
+
+	void finish() {
+		CURRENT.remove();
+		_finished = System.currentTimeMillis();
+		_state = State.FINISHED;
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.jobs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import nl.ellipsis.webdav.HttpHeaders;
+import nl.ellipsis.webdav.server.IMethodExecutor;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.WebDAVConstants;
+import nl.ellipsis.webdav.server.exceptions.UnauthenticatedException;
+import nl.ellipsis.webdav.server.util.CharsetUtil;
+import nl.ellipsis.webdav.server.util.XMLWriter;
+
+/**
+ * Runs COPY, MOVE, DELETE and MKCOL requests carrying
+ * <code>Prefer: respond-async</code> (RFC 7240) in the background, so clients
+ * and proxies do not time out on large trees or while a snapshot is taken.
+ * <p>
+ * Such a request is answered with 202 Accepted and a <code>Location</code>
+ * below {@link #WEBDAV_JOB_COLLECTION_PROPERTY}. A GET of that location
+ * answers 202 with the progress of the job while it runs, and the response of
+ * the method, e.g. its multistatus report, once it finished. At most
+ * {@link #WEBDAV_JOB_QUEUE_SIZE_PROPERTY} jobs wait for a thread, a request
+ * arriving when the queue is full is answered 503. Finished jobs are
+ * forgotten after {@link #WEBDAV_JOB_RETENTION_PROPERTY} milliseconds. Only
+ * the principal that submitted a job sees it, and job ids are random UUIDs,
+ * so the jobs of unauthenticated requests cannot be guessed either.
+ * <p>
+ * A job runs the method in a transaction of its own. The temporary locks the
+ * method takes are held until the method finished, for at most
+ * {@link #WEBDAV_JOB_TIMEOUT_PROPERTY} seconds, rather than for the usual
+ * temporary lock timeout.
+ */
+public class JobManager implements Closeable {
+
+	/**
+	 * collection the status of jobs is found in
+	 */
+	public static final String WEBDAV_JOB_COLLECTION_PROPERTY = "webdavJobCollection";
+	/**
+	 * milliseconds the status of a finished job can be asked for
+	 */
+	public static final String WEBDAV_JOB_RETENTION_PROPERTY = "webdavJobRetention";
+	/**
+	 * number of jobs running at the same time, more are queued
+	 */
+	public static final String WEBDAV_JOB_THREADS_PROPERTY = "webdavJobThreads";
+	/**
+	 * seconds the temporary locks of a job are held at most
+	 */
+	public static final String WEBDAV_JOB_TIMEOUT_PROPERTY = "webdavJobTimeout";
+	/**
+	 * number of jobs waiting for a thread at most, more are refused
+	 */
+	public static final String WEBDAV_JOB_QUEUE_SIZE_PROPERTY = "webdavJobQueueSize";
+
+	public static final String RESPOND_ASYNC = "respond-async";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(JobManager.class);
+
+	private static final String NS_JOB_PREFIX = "J";
+	private static final String NS_JOB_FULLNAME = "urn:nl.ellipsis.webdav:job";
+
+	private final IWebDAVStore _store;
+	private final String _collection;
+	private final long _retention;
+	private final int _lockTimeout;
+	private final ExecutorService _executor;
+
+	/**
+	 * keys: job id value: queued, running or retained job
+	 */
+	private final Map<String, Job> _jobs = new ConcurrentHashMap<>();
+
+	public JobManager(IWebDAVStore store) {
+		this(store, System.getProperty(WEBDAV_JOB_COLLECTION_PROPERTY, "/.jobs"),
+				Long.getLong(WEBDAV_JOB_RETENTION_PROPERTY, 3600000),
+				Integer.getInteger(WEBDAV_JOB_THREADS_PROPERTY, 2),
+				Integer.getInteger(WEBDAV_JOB_QUEUE_SIZE_PROPERTY, 100),
+				Integer.getInteger(WEBDAV_JOB_TIMEOUT_PROPERTY, 86400));
+	}
+
+	/**
+	 * @param store
+	 *            the store the methods work on
+	 * @param collection
+	 *            collection the status of jobs is found in
+	 * @param retention
+	 *            milliseconds the status of a finished job can be asked for
+	 * @param threads
+	 *            number of jobs running at the same time
+	 * @param queueSize
+	 *            number of jobs waiting for a thread at most
+	 * @param lockTimeout
+	 *            seconds the temporary locks of a job are held at most
+	 */
+	public JobManager(IWebDAVStore store, String collection, long retention, int threads, int queueSize,
+			int lockTimeout) {
+		_store = store;
+		_collection = collection.endsWith(CharsetUtil.FORWARD_SLASH)
+				? collection.substring(0, collection.length() - 1) : collection;
+		_retention = retention;
+		_lockTimeout = lockTimeout;
+		AtomicInteger count = new AtomicInteger();
+		threads = Math.max(1, threads);
+		// a full queue rejects the job, the client is told to come back later
+		_executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+					Thread thread = new Thread(runnable, "webdav-job-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * @return whether the request prefers an asynchronous response
+	 */
+	public static boolean isAsyncRequested(HttpServletRequest req) {
+		for (String prefer : Collections.list(req.getHeaders(HttpHeaders.PREFER))) {
+			for (String preference : prefer.split(",")) {
+				String token = preference.split(";")[0].trim();
+				if (RESPOND_ASYNC.equalsIgnoreCase(token)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether requests of the method can be run as a job
+	 */
+	public boolean isAsyncMethod(String methodName) {
+		return "COPY".equals(methodName) || "MOVE".equals(methodName) || "DELETE".equals(methodName)
+				|| "MKCOL".equals(methodName);
+	}
+
+	/**
+	 * @param path
+	 *            path of a request
+	 * @return the id of the job whose status is at the path, <code>null</code>
+	 *         if the path is not in the job collection
+	 */
+	public String getJobId(String path) {
+		if (path == null || !path.startsWith(_collection + CharsetUtil.FORWARD_SLASH)) {
+			return null;
+		}
+		return path.substring(_collection.length() + 1);
+	}
+
+	/**
+	 * @param id
+	 *            id of the job
+	 * @param principal
+	 *            principal asking for the job, <code>null</code> if
+	 *            unauthenticated
+	 * @return the job, <code>null</code> if it is unknown, was forgotten or
+	 *         was submitted by another principal
+	 */
+	public Job getJob(String id, Principal principal) {
+		prune();
+		Job job = _jobs.get(id);
+		if (job == null) {
+			return null;
+		}
+		String owner = job.getPrincipal() != null ? job.getPrincipal().getName() : null;
+		return Objects.equals(owner, principal != null ? principal.getName() : null) ? job : null;
+	}
+
+	/**
+	 * Queues a method to run on a copy of the request.
+	 *
+	 * @return the queued job
+	 * @throws RejectedExecutionException
+	 *             if the queue is full or the manager was closed
+	 */
+	public Job submit(IMethodExecutor methodExecutor, HttpServletRequest req, Principal principal) {
+		prune();
+		String id = UUID.randomUUID().toString();
+		Job job = new Job(id, principal, new DetachedRequest(id, req, principal), _lockTimeout);
+		_jobs.put(id, job);
+		try {
+			_executor.execute(() -> run(job, methodExecutor));
+		} catch (RejectedExecutionException e) {
+			_jobs.remove(id);
+			throw e;
+		}
+		LOG.debug("JobManager.submit(" + job.getMethod() + " " + req.getRequestURI() + ") queued job " + id);
+		return job;
+	}
+
+	/**
+	 * Answers a request that was queued as a job: 202 with the location of
+	 * its status.
+	 */
+	public void sendAccepted(Job job, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		resp.setHeader(HttpHeaders.PREFERENCE_APPLIED, RESPOND_ASYNC);
+		resp.setHeader(HttpHeaders.LOCATION, getLocation(job, req));
+		sendProgress(job, resp);
+	}
+
+	/**
+	 * Answers a request for the status of a job: 202 with its progress while
+	 * it did not finish, the response of its method when it did.
+	 */
+	public void sendStatus(Job job, HttpServletResponse resp) throws IOException {
+		if (job.getState() == Job.State.FINISHED) {
+			job.getResponse().replay(resp);
+		} else {
+			resp.setHeader(HttpHeaders.RETRY_AFTER, "1");
+			sendProgress(job, resp);
+		}
+	}
+
+	/**
+	 * Answers a request that could not be queued as a job: 503 until the
+	 * queue has room again.
+	 */
+	public void sendQueueFull(HttpServletResponse resp) throws IOException {
+		resp.setHeader(HttpHeaders.RETRY_AFTER, "10");
+		resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+
+	/**
+	 * @return number of queued, running and retained jobs
+	 */
+	public int getSize() {
+		return _jobs.size();
+	}
+
+	/**
+	 * Stops taking jobs and interrupts the running ones. Queued jobs never
+	 * run. A method that gives up when interrupted rolls its transaction back
+	 * and releases its temporary locks as usual, one that does not runs on
+	 * until it finished.
+	 */
+	@Override
+	public void close() {
+		_executor.shutdownNow();
+	}
+
+	private void run(Job job, IMethodExecutor methodExecutor) {
+		BufferedResponse resp = job.getResponse();
+		ITransaction transaction = null;
+		boolean needRollback = false;
+		job.start();
+		try {
+			transaction = _store.begin(job.getPrincipal());
+			needRollback = true;
+			_store.checkAuthentication(transaction);
+			methodExecutor.execute(transaction, job.getRequest(), resp);
+			_store.commit(transaction);
+			needRollback = false;
+		} catch (UnauthenticatedException e) {
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Job " + job.getId() + " failed", e);
+			resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		} finally {
+			try {
+				if (needRollback) {
+					_store.rollback(transaction);
+				}
+			} finally {
+				job.finish();
+				LOG.debug("JobManager.run(" + job.getId() + ") finished with " + resp.getStatus());
+			}
+		}
+	}
+
+	private void prune() {
+		long now = System.currentTimeMillis();
+		_jobs.values().removeIf(job -> job.getFinished() != 0 && job.getFinished() + _retention < now);
+	}
+
+	private String getLocation(Job job, HttpServletRequest req) {
+		StringBuilder location = new StringBuilder();
+		if (req.getContextPath() != null) {
+			location.append(req.getContextPath());
+		}
+		if (req.getServletPath() != null) {
+			location.append(req.getServletPath());
+		}
+		return location.append(_collection).append(CharsetUtil.FORWARD_SLASH).append(job.getId()).toString();
+	}
+
+	private void sendProgress(Job job, HttpServletResponse resp) throws IOException {
+		resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+		resp.setContentType(WebDAVConstants.CONTENTTYPE_XML_UTF8);
+
+		XMLWriter generatedXML = new XMLWriter();
+		generatedXML.writeXMLHeader();
+		generatedXML.writeElement(NS_JOB_PREFIX, NS_JOB_FULLNAME, "job", XMLWriter.OPENING);
+		generatedXML.writeProperty(NS_JOB_PREFIX, "id", job.getId());
+		generatedXML.writeProperty(NS_JOB_PREFIX, "method", job.getMethod());
+		generatedXML.writeProperty(NS_JOB_PREFIX, "state", job.getState().name().toLowerCase());
+		generatedXML.writeProperty(NS_JOB_PREFIX, "processed", Long.toString(job.getProcessed()));
+		generatedXML.writeProperty(NS_JOB_PREFIX, "elapsed", Long.toString(job.getElapsed()));
+		generatedXML.writeElement(NS_JOB_PREFIX, "job", XMLWriter.CLOSING);
+
+		Writer writer = resp.getWriter();
+		writer.write(generatedXML.toString());
+		writer.close();
+	}
+}
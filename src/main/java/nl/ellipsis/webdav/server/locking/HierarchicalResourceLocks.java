@@ -0,0 +1,323 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.locking;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.exceptions.LockFailedException;
+import nl.ellipsis.webdav.server.methods.AbstractMethod;
+import nl.ellipsis.webdav.server.util.CharsetUtil;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link IResourceLocks} that keeps a separate {@link ResourceLocks} for every
+ * collection at the partition depth, so requests in different collections do
+ * not wait for each other. With depth 1 these are the top level collections,
+ * a tree of home folders like <code>/home/alice</code> and
+ * <code>/home/bob</code> wants depth 2.
+ * <p>
+ * Locks at or below the partition depth are taken holding the shared side of
+ * an intention lock, locks above it hold its exclusive side: such a lock has
+ * to look at the locks in all collections below it, and nothing may change
+ * there meanwhile. Like {@link ResourceLocks}, an exclusive lock above the
+ * partition depth keeps others from locking below it, the shared side of the
+ * intention lock keeps these locks still while a collection looks at them.
+ * Paths above the partition depth should be rare in requests: every lock on
+ * them waits for all collections.
+ * <p>
+ * A collection gets its {@link ResourceLocks} with its first lock and loses it
+ * once it holds no locks anymore. Both happen in an atomic update of the map,
+ * so a lock is never taken in a {@link ResourceLocks} that was just dropped.
+ */
+public class HierarchicalResourceLocks implements IResourceLocks {
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(HierarchicalResourceLocks.class);
+
+	/**
+	 * shared by all collections, a write below one is seen by a read of the
+	 * root
+	 */
+	private final VersionStamps _stamps = new VersionStamps();
+
+	/**
+	 * locks above the partition depth
+	 */
+	private final ResourceLocks _upperLocks = new ResourceLocks(_stamps);
+
+	/**
+	 * keys: path of a collection at the partition depth value: locks in that
+	 * collection
+	 */
+	private final Map<String, ResourceLocks> _partitions = new ConcurrentHashMap<>();
+
+	private final ReentrantReadWriteLock _intention = new ReentrantReadWriteLock();
+
+	/**
+	 * number of path segments of the collections with their own locks
+	 */
+	private final int _depth;
+
+	/**
+	 * Keeps the locks of every top level collection apart.
+	 */
+	public HierarchicalResourceLocks() {
+		this(1);
+	}
+
+	/**
+	 * @param depth
+	 *            number of path segments of the collections whose locks are
+	 *            kept apart, at least 1
+	 */
+	public HierarchicalResourceLocks(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("partition depth " + depth);
+		}
+		_depth = depth;
+	}
+
+	@Override
+	public boolean lock(ITransaction transaction, String path, String owner, boolean exclusive, int depth,
+			int timeout, boolean temporary) throws LockFailedException {
+		path = URLUtil.getCleanPath(path);
+		String name = getPartitionKey(path);
+		if (name != null) {
+			Lock intention = _intention.readLock();
+			intention.lock();
+			try {
+				for (String parent = URLUtil.getParentPath(name); parent != null; parent = URLUtil.getParentPath(parent)) {
+					LockedObject upper = temporary ? _upperLocks.getTempLockedObjectByPath(transaction, parent)
+							: _upperLocks.getLockedObjectByPath(transaction, parent);
+					if (upper != null && upper._owners != null && (upper._exclusive || exclusive)) {
+						LOG.debug("Lock resource at '" + path + "' failed because '" + parent + "' is currently locked");
+						return Boolean.getBoolean(AbstractMethod.IS_WEBDAV_LOCKING_IGNORED_PROPERTY);
+					}
+				}
+				boolean[] locked = new boolean[1];
+				String lockPath = path;
+				_partitions.compute(name, (key, partition) -> {
+					if (partition == null) {
+						partition = new ResourceLocks(_stamps);
+					}
+					locked[0] = partition.lock(transaction, lockPath, owner, exclusive, depth, timeout, temporary);
+					return partition.isEmpty() ? null : partition;
+				});
+				return locked[0];
+			} finally {
+				intention.unlock();
+			}
+		}
+		Lock intention = _intention.writeLock();
+		intention.lock();
+		try {
+			if (depth != 0) {
+				String prefix = CharsetUtil.FORWARD_SLASH.equals(path) ? path : path + CharsetUtil.FORWARD_SLASH;
+				for (Map.Entry<String, ResourceLocks> entry : _partitions.entrySet()) {
+					if (!entry.getKey().startsWith(prefix)) {
+						continue;
+					}
+					ResourceLocks partition = entry.getValue();
+					partition.checkTimeouts(transaction, temporary);
+					// by path, ResourceLocks keeps temporary locks below _root and real ones below _tempRoot
+					LockedObject upper = temporary ? partition.getTempLockedObjectByPath(transaction, path)
+							: partition.getLockedObjectByPath(transaction, path);
+					if (upper != null && !upper.checkLocks(exclusive, depth)) {
+						LOG.debug("Lock resource at '" + path + "' failed because a child resource is currently locked");
+						return Boolean.getBoolean(AbstractMethod.IS_WEBDAV_LOCKING_IGNORED_PROPERTY);
+					}
+				}
+				// nothing else changes the collections meanwhile
+				_partitions.values().removeIf(ResourceLocks::isEmpty);
+			}
+			return _upperLocks.lock(transaction, path, owner, exclusive, depth, timeout, temporary);
+		} finally {
+			intention.unlock();
+		}
+	}
+
+	@Override
+	public boolean unlock(ITransaction transaction, String id, String owner) {
+		if (_upperLocks._locksByID.containsKey(id)) {
+			Lock intention = _intention.writeLock();
+			intention.lock();
+			try {
+				return _upperLocks.unlock(transaction, id, owner);
+			} finally {
+				intention.unlock();
+			}
+		}
+		for (Map.Entry<String, ResourceLocks> entry : _partitions.entrySet()) {
+			if (entry.getValue()._locksByID.containsKey(id)) {
+				Lock intention = _intention.readLock();
+				intention.lock();
+				try {
+					boolean[] unlocked = { true };
+					_partitions.computeIfPresent(entry.getKey(), (key, partition) -> {
+						unlocked[0] = partition.unlock(transaction, id, owner);
+						return partition.isEmpty() ? null : partition;
+					});
+					return unlocked[0];
+				} finally {
+					intention.unlock();
+				}
+			}
+		}
+		LOG.debug("HierarchicalResourceLocks.unlock(): no lock with id '" + id + "'");
+		return true;
+	}
+
+	@Override
+	public void unlockTemporaryLockedObjects(ITransaction transaction, String path, String owner) {
+		path = URLUtil.getCleanPath(path);
+		String name = getPartitionKey(path);
+		Lock intention = name != null ? _intention.readLock() : _intention.writeLock();
+		intention.lock();
+		try {
+			if (name == null) {
+				_upperLocks.unlockTemporaryLockedObjects(transaction, path, owner);
+				return;
+			}
+			String lockPath = path;
+			_partitions.computeIfPresent(name, (key, partition) -> {
+				partition.unlockTemporaryLockedObjects(transaction, lockPath, owner);
+				return partition.isEmpty() ? null : partition;
+			});
+		} finally {
+			intention.unlock();
+		}
+	}
+
+	/**
+	 * Every lock and unlock already removes the expired locks of its
+	 * collection, this also reaches the collections nobody asked for since.
+	 * Collections are done one at a time, holding the shared side of the
+	 * intention lock: removing expired locks above the partition depth only
+	 * ever lets more locks through, so collections may look at them
+	 * meanwhile.
+	 */
+	@Override
+	public void checkTimeouts(ITransaction transaction, boolean temporary) {
+		Lock intention = _intention.readLock();
+		intention.lock();
+		try {
+			_upperLocks.checkTimeouts(transaction, temporary);
+			for (String name : _partitions.keySet()) {
+				_partitions.computeIfPresent(name, (key, partition) -> {
+					partition.checkTimeouts(transaction, temporary);
+					return partition.isEmpty() ? null : partition;
+				});
+			}
+		} finally {
+			intention.unlock();
+		}
+	}
+
+	@Override
+	public boolean exclusiveLock(ITransaction transaction, String path, String owner, int depth, int timeout)
+			throws LockFailedException {
+		return lock(transaction, path, owner, true, depth, timeout, false);
+	}
+
+	@Override
+	public boolean sharedLock(ITransaction transaction, String path, String owner, int depth, int timeout)
+			throws LockFailedException {
+		return lock(transaction, path, owner, false, depth, timeout, false);
+	}
+
+	@Override
+	public LockedObject getLockedObjectByID(ITransaction transaction, String id) {
+		LockedObject lo = _upperLocks.getLockedObjectByID(transaction, id);
+		if (lo == null) {
+			for (ResourceLocks partition : _partitions.values()) {
+				lo = partition.getLockedObjectByID(transaction, id);
+				if (lo != null) {
+					break;
+				}
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public LockedObject getLockedObjectByPath(ITransaction transaction, String path) {
+		path = URLUtil.getCleanPath(path);
+		ResourceLocks partition = getPartitionIfExists(path);
+		return partition != null ? partition.getLockedObjectByPath(transaction, path) : null;
+	}
+
+	@Override
+	public LockedObject getTempLockedObjectByID(ITransaction transaction, String id) {
+		LockedObject lo = _upperLocks.getTempLockedObjectByID(transaction, id);
+		if (lo == null) {
+			for (ResourceLocks partition : _partitions.values()) {
+				lo = partition.getTempLockedObjectByID(transaction, id);
+				if (lo != null) {
+					break;
+				}
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public LockedObject getTempLockedObjectByPath(ITransaction transaction, String path) {
+		path = URLUtil.getCleanPath(path);
+		ResourceLocks partition = getPartitionIfExists(path);
+		return partition != null ? partition.getTempLockedObjectByPath(transaction, path) : null;
+	}
+
+	@Override
+	public long getReadStamp(String path) {
+		return _stamps.getStamp(path);
+	}
+
+	@Override
+	public boolean validateReadStamp(String path, long stamp) {
+		return _stamps.validate(path, stamp);
+	}
+
+	/**
+	 * @return number of collections at the partition depth holding locks
+	 */
+	public int getPartitionCount() {
+		return _partitions.size();
+	}
+
+	private ResourceLocks getPartitionIfExists(String path) {
+		String name = getPartitionKey(path);
+		return name != null ? _partitions.get(name) : _upperLocks;
+	}
+
+	/**
+	 * @return path of the collection at the partition depth the path is in,
+	 *         <code>null</code> for a path above the partition depth
+	 */
+	private String getPartitionKey(String path) {
+		int end = 0;
+		for (int i = 0; i < _depth; i++) {
+			if (end + 1 >= path.length()) {
+				return null;
+			}
+			end = path.indexOf(CharsetUtil.CHAR_FORWARD_SLASH, end + 1);
+			if (end < 0) {
+				return i == _depth - 1 ? path : null;
+			}
+		}
+		return path.substring(0, end);
+	}
+}
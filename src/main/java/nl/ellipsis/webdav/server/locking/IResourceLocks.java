@@ -156,4 +156,23 @@ public interface IResourceLocks {
 	 */
 	LockedObject getTempLockedObjectByPath(ITransaction transaction, String path);
 
+	/**
+	 * Starts a read of the resource at "path" that takes no lock, see
+	 * {@link VersionStamps}. Temporary locks count as writes.
+	 * 
+	 * @param path
+	 *            what resource is read, including its members
+	 * @return stamp to validate the read with
+	 */
+	long getReadStamp(String path);
+
+	/**
+	 * @param path
+	 *            what resource was read
+	 * @param stamp
+	 *            stamp taken before the read
+	 * @return true if no write touched the resource during the read
+	 */
+	boolean validateReadStamp(String path, long stamp);
+
 }
@@ -16,6 +16,10 @@
 
 package nl.ellipsis.webdav.server.locking;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import nl.ellipsis.webdav.server.util.CharsetUtil;
@@ -35,6 +39,8 @@ public class LockedObject {
 
 	private String _id;
 
+	private boolean _temporary;
+
 	/**
 	 * Describing the depth of a locked collection. If the locked resource is not a
 	 * collection, depth is 0 / doesn't matter.
@@ -47,16 +53,23 @@ public class LockedObject {
 	protected long _expiresAt;
 
 	/**
-	 * owner of the lock. shared locks can have multiple owners. is null if no owner
-	 * is present
+	 * entry of the deadline in the queue of ResourceLocks, <code>null</code>
+	 * if none is queued
+	 */
+	ResourceLocks.Expiry _expiry;
+
+	/**
+	 * owners of the lock. shared locks can have multiple owners. is null if no
+	 * owner is present
 	 */
-	// protected String[] _owner = null;
-	protected String[] _owner = null;
+	protected Set<String> _owners = null;
 
 	/**
-	 * children of that lock
+	 * keys: path value: child lock. is null if there are no children. Together
+	 * with the owners they keep this lock in the tree, without either it is
+	 * removed.
 	 */
-	protected LockedObject[] _children = null;
+	protected Map<String, LockedObject> _children = null;
 
 	protected LockedObject _parent = null;
 
@@ -84,6 +97,7 @@ public class LockedObject {
 		_path = URLUtil.getCleanPath(path);
 		_id = UUID.randomUUID().toString();
 		_resourceLocks = resLocks;
+		_temporary = temporary;
 
 		if (!temporary) {
 			_resourceLocks._locks.put(path, this);
@@ -92,7 +106,6 @@ public class LockedObject {
 			_resourceLocks._tempLocks.put(path, this);
 			_resourceLocks._tempLocksByID.put(_id, this);
 		}
-		_resourceLocks._cleanupCounter++;
 	}
 
 	/**
@@ -103,28 +116,12 @@ public class LockedObject {
 	 * @return true if the owner was added, false otherwise
 	 */
 	public boolean addLockedObjectOwner(String owner) {
-
-		if (_owner == null) {
-			_owner = new String[1];
-		} else {
-
-			int size = _owner.length;
-			String[] newLockObjectOwner = new String[size + 1];
-
-			// check if the owner is already here (that should actually not
-			// happen)
-			for (int i = 0; i < size; i++) {
-				if (_owner[i].equals(owner)) {
-					return false;
-				}
+		synchronized (_resourceLocks) {
+			if (_owners == null) {
+				_owners = new LinkedHashSet<>(2);
 			}
-
-			System.arraycopy(_owner, 0, newLockObjectOwner, 0, size);
-			_owner = newLockObjectOwner;
+			return _owners.add(owner);
 		}
-
-		_owner[_owner.length - 1] = owner;
-		return true;
 	}
 
 	/**
@@ -132,39 +129,31 @@ public class LockedObject {
 	 * 
 	 * @param owner
 	 *            string that represents the owner
+	 * @return true if the owner was removed
 	 */
-	public void removeLockedObjectOwner(String owner) {
-
-		try {
-			if (_owner != null) {
-				int size = _owner.length;
-				for (int i = 0; i < size; i++) {
-					// check every owner if it is the requested one
-					if (_owner[i].equals(owner)) {
-						// remove the owner
-						size -= 1;
-						String[] newLockedObjectOwner = new String[size];
-						for (int j = 0; j < size; j++) {
-							if (j < i) {
-								newLockedObjectOwner[j] = _owner[j];
-							} else {
-								newLockedObjectOwner[j] = _owner[j + 1];
-							}
-						}
-						_owner = newLockedObjectOwner;
-
-					}
-				}
-				if (_owner.length == 0) {
-					_owner = null;
-				}
+	public boolean removeLockedObjectOwner(String owner) {
+		synchronized (_resourceLocks) {
+			if (_owners == null || !_owners.remove(owner)) {
+				return false;
+			}
+			if (_owners.isEmpty()) {
+				_owners = null;
 			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			System.out.println("LockedObject.removeLockedObjectOwner()");
-			System.out.println(e.toString());
+			return true;
 		}
 	}
 
+	/**
+	 * removes all owners from the lock
+	 * 
+	 * @return number of owners removed
+	 */
+	int removeLockedObjectOwners() {
+		int removed = _owners != null ? _owners.size() : 0;
+		_owners = null;
+		return removed;
+	}
+
 	/**
 	 * adds a new child lock to this lock
 	 * 
@@ -173,13 +162,10 @@ public class LockedObject {
 	 */
 	public void addChild(LockedObject newChild) {
 		if (_children == null) {
-			_children = new LockedObject[0];
+			_children = new HashMap<>(4);
 		}
-		int size = _children.length;
-		LockedObject[] newChildren = new LockedObject[size + 1];
-		System.arraycopy(_children, 0, newChildren, 0, size);
-		newChildren[size] = newChild;
-		_children = newChildren;
+		_children.put(newChild.getPath(), newChild);
+		newChild._parent = this;
 	}
 
 	/**
@@ -188,33 +174,8 @@ public class LockedObject {
 	 * 
 	 */
 	public void removeLockedObject() {
-		if (this != _resourceLocks._root && !this.getPath().equals(CharsetUtil.FORWARD_SLASH)) {
-
-			int size = _parent._children.length;
-			for (int i = 0; i < size; i++) {
-				if (_parent._children[i].equals(this)) {
-					LockedObject[] newChildren = new LockedObject[size - 1];
-					for (int i2 = 0; i2 < (size - 1); i2++) {
-						if (i2 < i) {
-							newChildren[i2] = _parent._children[i2];
-						} else {
-							newChildren[i2] = _parent._children[i2 + 1];
-						}
-					}
-					if (newChildren.length != 0) {
-						_parent._children = newChildren;
-					} else {
-						_parent._children = null;
-					}
-					break;
-				}
-			}
-
-			// removing from hashtable
-			_resourceLocks._locksByID.remove(getID());
-			_resourceLocks._locks.remove(getPath());
-
-			// now the garbage collector has some work to do
+		if (!_temporary) {
+			remove();
 		}
 	}
 
@@ -224,36 +185,46 @@ public class LockedObject {
 	 * 
 	 */
 	public void removeTempLockedObject() {
-		if (this != _resourceLocks._tempRoot) {
-			// removing from tree
-			if (_parent != null && _parent._children != null) {
-				int size = _parent._children.length;
-				for (int i = 0; i < size; i++) {
-					if (_parent._children[i].equals(this)) {
-						LockedObject[] newChildren = new LockedObject[size - 1];
-						for (int i2 = 0; i2 < (size - 1); i2++) {
-							if (i2 < i) {
-								newChildren[i2] = _parent._children[i2];
-							} else {
-								newChildren[i2] = _parent._children[i2 + 1];
-							}
-						}
-						if (newChildren.length != 0) {
-							_parent._children = newChildren;
-						} else {
-							_parent._children = null;
-						}
-						break;
-					}
-				}
+		if (_temporary) {
+			remove();
+		}
+	}
 
-				// removing from hashtable
-				_resourceLocks._tempLocksByID.remove(getID());
-				_resourceLocks._tempLocks.remove(getPath());
+	/**
+	 * deletes this Lock object if it has no owners and no children, then its
+	 * parents as long as that left them without owners and children. The root
+	 * is kept.
+	 */
+	void removeIfUnused() {
+		LockedObject lo = this;
+		while (lo._parent != null && lo._owners == null && lo._children == null) {
+			LockedObject parent = lo._parent;
+			lo.remove();
+			lo = parent;
+		}
+	}
 
-				// now the garbage collector has some work to do
+	private void remove() {
+		if (_parent == null) {
+			// the root stays
+			return;
+		}
+		if (_parent._children != null) {
+			_parent._children.remove(_path);
+			if (_parent._children.isEmpty()) {
+				_parent._children = null;
 			}
 		}
+		_parent = null;
+		_resourceLocks.unschedule(this);
+
+		if (!_temporary) {
+			_resourceLocks._locksByID.remove(_id);
+			_resourceLocks._locks.remove(_path, this);
+		} else {
+			_resourceLocks._tempLocksByID.remove(_id);
+			_resourceLocks._tempLocks.remove(_path, this);
+		}
 	}
 
 	/**
@@ -281,13 +252,13 @@ public class LockedObject {
 	 * @return true if no locks at the parent path are forbidding a new lock
 	 */
 	private boolean checkParents(boolean exclusive) {
-		// return true when there is no parent possible because we are at the first level of tree
+		// the root has no parent, only its own owners count
 		if (_path.equals(CharsetUtil.FORWARD_SLASH)
 				|| (_path.lastIndexOf(CharsetUtil.CHAR_FORWARD_SLASH) == -1)
 			) {
-			return true;
+			return _owners == null || !(_exclusive || exclusive);
 		} else {
-			if (_owner == null) {
+			if (_owners == null) {
 				// no owner, checking parents
 				return _parent != null && _parent.checkParents(exclusive);
 			} else {
@@ -310,22 +281,20 @@ public class LockedObject {
 		if (_children == null) {
 			// a file
 
-			return _owner == null || !(_exclusive || exclusive);
+			return _owners == null || !(_exclusive || exclusive);
 		} else {
 			// a folder
 
-			if (_owner == null) {
+			if (_owners == null) {
 				// no owner, checking children
 
 				if (depth != 0) {
-					boolean canLock = true;
-					int limit = _children.length;
-					for (int i = 0; i < limit; i++) {
-						if (!_children[i].checkChildren(exclusive, depth - 1)) {
-							canLock = false;
+					for (LockedObject child : _children.values()) {
+						if (!child.checkChildren(exclusive, depth - 1)) {
+							return false;
 						}
 					}
-					return canLock;
+					return true;
 				} else {
 					// depth == 0 -> we don't care for children
 					return true;
@@ -345,6 +314,7 @@ public class LockedObject {
 	 */
 	public void refreshTimeout(int timeout) {
 		_expiresAt = System.currentTimeMillis() + (timeout * 1000);
+		_resourceLocks.schedule(this);
 	}
 
 	/**
@@ -384,7 +354,9 @@ public class LockedObject {
 	 * @return owners
 	 */
 	public String[] getOwner() {
-		return _owner;
+		synchronized (_resourceLocks) {
+			return _owners != null ? _owners.toArray(new String[_owners.size()]) : null;
+		}
 	}
 
 	/**
@@ -16,8 +16,8 @@
 
 package nl.ellipsis.webdav.server.locking;
 
-import java.util.ArrayList;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 
 import nl.ellipsis.webdav.server.ITransaction;
@@ -38,14 +38,6 @@ public class ResourceLocks implements IResourceLocks {
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ResourceLocks.class);
 
-	/**
-	 * after creating this much LockedObjects, a cleanup deletes unused
-	 * LockedObjects
-	 */
-	private final int _cleanupLimit = 100000;
-
-	protected int _cleanupCounter = 0;
-
 	/**
 	 * keys: path value: LockedObject from that path
 	 */
@@ -66,7 +58,26 @@ public class ResourceLocks implements IResourceLocks {
 	 */
 	protected Map<String, LockedObject> _tempLocksByID = new ConcurrentHashMap<>();
 
-	// REMEMBER TO REMOVE UNUSED LOCKS FROM THE HASHTABLE AS WELL
+	/**
+	 * deadlines of the locks, soonest first. A lock whose timeout changed is
+	 * queued again; its outdated entry, like the entry of a lock that was
+	 * removed, lets go of the lock and is skipped when it comes up.
+	 */
+	private final PriorityQueue<Expiry> _expiries = new PriorityQueue<>();
+
+	/**
+	 * number of entries in _expiries that let go of their lock
+	 */
+	private int _staleExpiries = 0;
+
+	/**
+	 * lets reads run without temporary locks, every temporary lock owner
+	 * counts as a running write
+	 */
+	private final VersionStamps _stamps;
+
+	// a LockedObject without owners and children is removed right away, from
+	// the tree and from the hashtables
 
 	protected LockedObject _root = null;
 
@@ -75,6 +86,11 @@ public class ResourceLocks implements IResourceLocks {
 	private boolean _temporary = true;
 
 	public ResourceLocks() {
+		this(new VersionStamps());
+	}
+
+	ResourceLocks(VersionStamps stamps) {
+		_stamps = stamps;
 		_root = new LockedObject(this, CharsetUtil.FORWARD_SLASH, true);
 		_tempRoot = new LockedObject(this, CharsetUtil.FORWARD_SLASH, false);
 	}
@@ -84,7 +100,7 @@ public class ResourceLocks implements IResourceLocks {
 			int timeout, boolean temporary) throws LockFailedException {
 
 		// Before we take any new locks we want any exipred ones to be removed
-		checkTimeouts(transaction, temporary);
+		removeExpired();
 
 		LockedObject lo;
 		
@@ -100,27 +116,22 @@ public class ResourceLocks implements IResourceLocks {
 
 		if (lo.checkLocks(exclusive, depth)) {
 
-			lo._exclusive = exclusive;
-			lo._lockDepth = depth;
-			lo._expiresAt = System.currentTimeMillis() + (timeout * 1000);
-			if (lo._parent != null) {
-				lo._parent._expiresAt = lo._expiresAt;
-				if (lo._parent.equals(_root)) {
-					LockedObject rootLo = getLockedObjectByPath(transaction, _root.getPath());
-					rootLo._expiresAt = lo._expiresAt;
-				} else if (lo._parent.equals(_tempRoot)) {
-					LockedObject tempRootLo = getTempLockedObjectByPath(transaction, _tempRoot.getPath());
-					tempRootLo._expiresAt = lo._expiresAt;
-				}
-			}
 			if (lo.addLockedObjectOwner(owner)) {
+				lo._exclusive = exclusive;
+				lo._lockDepth = depth;
+				lo._expiresAt = System.currentTimeMillis() + (timeout * 1000);
+				schedule(lo);
+				if (temporary) {
+					_stamps.beginWrite(path);
+				}
 				return true;
 			} else {
 				LOG.debug("Could not set owner '" + owner + "' to resource at '" + path + "'");
 				return (Boolean.getBoolean(AbstractMethod.IS_WEBDAV_LOCKING_IGNORED_PROPERTY));
 			}
 		} else {
-			// cannot lock
+			// cannot lock, drop the LockedObjects generated for it
+			lo.removeIfUnused();
 			LOG.debug("Lock resource at '" + path + "' failed because a parent or child resource is currently locked");
 			return (Boolean.getBoolean(AbstractMethod.IS_WEBDAV_LOCKING_IGNORED_PROPERTY));
 		}
@@ -134,21 +145,15 @@ public class ResourceLocks implements IResourceLocks {
 			if (_locks.containsKey(path)) {
 				LockedObject lo = _locks.get(path);
 				lo.removeLockedObjectOwner(owner);
-				if (lo._children == null && lo._owner == null) {
-					lo.removeLockedObject();
-				}
+				lo.removeIfUnused();
 			} else {
 				// there is no lock at that path. someone tried to unlock it
 				// anyway. could point to a problem
 				LOG.debug("ResourceLocks.unlock(): no lock for path '" + path+"'");
 				return (Boolean.getBoolean(AbstractMethod.IS_WEBDAV_LOCKING_IGNORED_PROPERTY));
 			}
-			if (_cleanupCounter > _cleanupLimit) {
-				_cleanupCounter = 0;
-				cleanLockedObjects(transaction, _root, !_temporary);
-			}
 		}
-		checkTimeouts(transaction, !_temporary);
+		removeExpired();
 		return true;
 	}
 
@@ -158,35 +163,95 @@ public class ResourceLocks implements IResourceLocks {
 
 		if (_tempLocks.containsKey(path)) {
 			LockedObject lo = _tempLocks.get(path);
-			lo.removeLockedObjectOwner(owner);
-
+			if (lo.removeLockedObjectOwner(owner)) {
+				_stamps.endWrite(path);
+			}
+			lo.removeIfUnused();
 		} else {
 			// there is no lock at that path. someone tried to unlock it
 			// anyway. could point to a problem
 			LOG.debug("ResourceLocks.unlock(): no lock for path " + path);
 		}
 
-		if (_cleanupCounter > _cleanupLimit) {
-			_cleanupCounter = 0;
-			cleanLockedObjects(transaction, _tempRoot, _temporary);
-		}
+		removeExpired();
+	}
 
-		checkTimeouts(transaction, _temporary);
+	/**
+	 * Only looks at the locks whose deadline passed, temporary and real ones
+	 * alike.
+	 */
+	@Override
+	public synchronized void checkTimeouts(ITransaction transaction, boolean temporary) {
+		removeExpired();
 	}
 
 	@Override
-	public void checkTimeouts(ITransaction transaction, boolean temporary) {
-		if (!temporary) {
-			for(LockedObject currentLockedObject: new ArrayList<>(_locks.values())) {
-				if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-					currentLockedObject.removeLockedObject();
-				}
+	public long getReadStamp(String path) {
+		return _stamps.getStamp(path);
+	}
+
+	@Override
+	public boolean validateReadStamp(String path, long stamp) {
+		return _stamps.validate(path, stamp);
+	}
+
+	/**
+	 * @return whether no locks are held, only the roots of the trees are left
+	 */
+	synchronized boolean isEmpty() {
+		return _locks.size() <= 1 && _tempLocks.size() <= 1;
+	}
+
+	/**
+	 * Queues the current deadline of a lock, replacing the one queued before.
+	 */
+	synchronized void schedule(LockedObject lo) {
+		unschedule(lo);
+		lo._expiry = new Expiry(lo, lo._expiresAt);
+		_expiries.add(lo._expiry);
+		if (_staleExpiries > 64 && _staleExpiries > _expiries.size() / 2) {
+			// mostly outdated, e.g. by a client refreshing often
+			_expiries.removeIf(expiry -> expiry.lockedObject == null);
+			_staleExpiries = 0;
+		}
+	}
+
+	/**
+	 * Drops the queued deadline of a lock, if any.
+	 */
+	synchronized void unschedule(LockedObject lo) {
+		if (lo._expiry != null) {
+			lo._expiry.lockedObject = null;
+			lo._expiry = null;
+			_staleExpiries++;
+		}
+	}
+
+	/**
+	 * Removes the locks whose deadline passed, must be called with the monitor
+	 * held.
+	 */
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Expiry expiry;
+		while ((expiry = _expiries.peek()) != null && expiry.expiresAt < now) {
+			_expiries.poll();
+			LockedObject lo = expiry.lockedObject;
+			if (lo == null) {
+				// refreshed or removed since
+				_staleExpiries--;
+				continue;
 			}
-		} else {
-			for(LockedObject currentLockedObject: new ArrayList<>(_tempLocks.values())) {
-				if (currentLockedObject._expiresAt < System.currentTimeMillis()) {
-					currentLockedObject.removeTempLockedObject();
+			lo._expiry = null;
+			if (_tempLocks.get(lo.getPath()) == lo) {
+				// the owners never unlocked, their writes end here
+				for (int i = lo.removeLockedObjectOwners(); i > 0; i--) {
+					_stamps.endWrite(lo.getPath());
 				}
+				lo.removeIfUnused();
+			} else if (_locks.get(lo.getPath()) == lo) {
+				lo.removeLockedObjectOwners();
+				lo.removeIfUnused();
 			}
 		}
 	}
@@ -256,9 +321,7 @@ public class ResourceLocks implements IResourceLocks {
 			LockedObject returnObject = new LockedObject(this, path, !_temporary);
 			String parentPath = URLUtil.getParentPath(path);
 			if (parentPath != null) {
-				LockedObject parentLockedObject = generateLockedObjects(transaction, parentPath);
-				parentLockedObject.addChild(returnObject);
-				returnObject._parent = parentLockedObject;
+				generateLockedObjects(transaction, parentPath).addChild(returnObject);
 			}
 			return returnObject;
 		} else {
@@ -282,9 +345,7 @@ public class ResourceLocks implements IResourceLocks {
 			LockedObject returnObject = new LockedObject(this, path, _temporary);
 			String parentPath = URLUtil.getParentPath(path);
 			if (parentPath != null) {
-				LockedObject parentLockedObject = generateTempLockedObjects(transaction, parentPath);
-				parentLockedObject.addChild(returnObject);
-				returnObject._parent = parentLockedObject;
+				generateTempLockedObjects(transaction, parentPath).addChild(returnObject);
 			}
 			return returnObject;
 		} else {
@@ -293,60 +354,21 @@ public class ResourceLocks implements IResourceLocks {
 		}
 	}
 
-	/**
-	 * deletes unused LockedObjects and resets the counter. works recursively
-	 * starting at the given LockedObject
-	 * 
-	 * @param transaction
-	 * @param lo
-	 *            LockedObject
-	 * @param temporary
-	 *            Clean temporary or real locks
-	 * 
-	 * @return if cleaned
-	 */
-	private boolean cleanLockedObjects(ITransaction transaction, LockedObject lo, boolean temporary) {
+	static final class Expiry implements Comparable<Expiry> {
+		/**
+		 * <code>null</code> once the lock was queued again or removed
+		 */
+		LockedObject lockedObject;
+		final long expiresAt;
 
-		if (lo._children == null) {
-			if (lo._owner == null) {
-				if (temporary) {
-					lo.removeTempLockedObject();
-				} else {
-					lo.removeLockedObject();
-				}
+		Expiry(LockedObject lockedObject, long expiresAt) {
+			this.lockedObject = lockedObject;
+			this.expiresAt = expiresAt;
+		}
 
-				return true;
-			} else {
-				return false;
-			}
-		} else {
-			boolean canDelete = true;
-			int limit = lo._children.length;
-			for (int i = 0; i < limit; i++) {
-				if (!cleanLockedObjects(transaction, lo._children[i], temporary)) {
-					canDelete = false;
-				} else {
-
-					// because the deleting shifts the array
-					i--;
-					limit--;
-				}
-			}
-			if (canDelete) {
-				if (lo._owner == null) {
-					if (temporary) {
-						lo.removeTempLockedObject();
-					} else {
-						lo.removeLockedObject();
-					}
-					return true;
-				} else {
-					return false;
-				}
-			} else {
-				return false;
-			}
+		@Override
+		public int compareTo(Expiry other) {
+			return Long.compare(expiresAt, other.expiresAt);
 		}
 	}
-
 }
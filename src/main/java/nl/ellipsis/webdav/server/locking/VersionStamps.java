@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.locking;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * Version counters letting reads run without locks: a read takes a stamp
+ * before it starts and validates it when it is done, it saw a consistent
+ * state if no write touched the path, something below it or one of its
+ * parents meanwhile.
+ * <p>
+ * A write counts as running on its path and all parents until it ended. The
+ * counters are striped by the hash of the path, a collision makes a read
+ * fail validation needlessly but never lets a conflicting write through.
+ */
+public class VersionStamps {
+
+	public static final long WRITING = -1;
+
+	private static final int STRIPES = 4096;
+
+	/**
+	 * running and completed writes on a path or below it
+	 */
+	private final AtomicIntegerArray _subtreeWriters = new AtomicIntegerArray(STRIPES);
+	private final AtomicLongArray _subtreeVersions = new AtomicLongArray(STRIPES);
+
+	/**
+	 * running and completed writes on the path itself
+	 */
+	private final AtomicIntegerArray _writers = new AtomicIntegerArray(STRIPES);
+	private final AtomicLongArray _versions = new AtomicLongArray(STRIPES);
+
+	public void beginWrite(String path) {
+		path = URLUtil.getCleanPath(path);
+		_writers.incrementAndGet(stripe(path));
+		for (String p = path; p != null; p = URLUtil.getParentPath(p)) {
+			_subtreeWriters.incrementAndGet(stripe(p));
+		}
+	}
+
+	public void endWrite(String path) {
+		path = URLUtil.getCleanPath(path);
+		// the version changes before the write stops counting as running
+		_versions.incrementAndGet(stripe(path));
+		_writers.decrementAndGet(stripe(path));
+		for (String p = path; p != null; p = URLUtil.getParentPath(p)) {
+			_subtreeVersions.incrementAndGet(stripe(p));
+			_subtreeWriters.decrementAndGet(stripe(p));
+		}
+	}
+
+	/**
+	 * Counts a write that is done already, e.g. the invalidation of a cache
+	 * entry: reads of the path, its parents and its members that started
+	 * before fail validation.
+	 */
+	public void touch(String path) {
+		beginWrite(path);
+		endWrite(path);
+	}
+
+	/**
+	 * @return stamp of the path, {@link #WRITING} while a write is running
+	 */
+	public long getStamp(String path) {
+		path = URLUtil.getCleanPath(path);
+		return isWriting(path) ? WRITING : getVersion(path);
+	}
+
+	/**
+	 * @return whether nothing was written since the stamp was taken
+	 */
+	public boolean validate(String path, long stamp) {
+		path = URLUtil.getCleanPath(path);
+		// running writes before versions, a write ends the other way round
+		return stamp != WRITING && !isWriting(path) && getVersion(path) == stamp;
+	}
+
+	private boolean isWriting(String path) {
+		if (_subtreeWriters.get(stripe(path)) > 0) {
+			return true;
+		}
+		for (String p = URLUtil.getParentPath(path); p != null; p = URLUtil.getParentPath(p)) {
+			if (_writers.get(stripe(p)) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return sum of the counters, they only grow so an unchanged sum means
+	 *         no counter changed
+	 */
+	private long getVersion(String path) {
+		long version = _subtreeVersions.get(stripe(path));
+		for (String p = URLUtil.getParentPath(path); p != null; p = URLUtil.getParentPath(p)) {
+			version += _versions.get(stripe(p));
+		}
+		return version;
+	}
+
+	private static int stripe(String path) {
+		int h = path.hashCode();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+}
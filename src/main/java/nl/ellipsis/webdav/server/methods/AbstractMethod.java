@@ -45,7 +45,12 @@ import nl.ellipsis.webdav.server.IMethodExecutor;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.WebDAVConstants;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
+import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
+import nl.ellipsis.webdav.server.exceptions.ObjectNotFoundException;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.jobs.Job;
 import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.locking.LockedObject;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
@@ -142,10 +147,48 @@ public abstract class AbstractMethod implements IMethodExecutor {
 	protected static final boolean TEMPORARY = true;
 
 	/**
-	 * Timeout for temporary locks (in seconds).
+	 * times a read without temporary lock is done before its response is sent
+	 * even though a write raced with it
+	 */
+	protected static final int READ_ATTEMPTS = 3;
+
+	/**
+	 * Timeout for temporary locks (in seconds), a method run as a job holds
+	 * them until the job finished.
 	 */
 	public static int getTempTimeout() {
-		return Integer.getInteger(WEBDAV_TEMP_TIMEOUT_PROPERTY, 10);
+		Job job = Job.current();
+		return job != null ? job.getLockTimeout() : Integer.getInteger(WEBDAV_TEMP_TIMEOUT_PROPERTY, 10);
+	}
+
+	/**
+	 * Counts a resource or collection processed by the job running the method,
+	 * if any.
+	 */
+	protected static void processed(Job job) {
+		if (job != null) {
+			job.processed();
+		}
+	}
+
+	/**
+	 * Puts the status for an exception of the store into an error report.
+	 *
+	 * @return <code>false</code> if the exception is not one of the store
+	 */
+	protected static boolean recordException(String path, Map<String, Integer> errorList, Exception e) {
+		if (e instanceof AccessDeniedException) {
+			errorList.put(path, HttpServletResponse.SC_FORBIDDEN);
+		} else if (e instanceof ObjectNotFoundException) {
+			errorList.put(path, HttpServletResponse.SC_NOT_FOUND);
+		} else if (e instanceof ObjectAlreadyExistsException) {
+			errorList.put(path, HttpServletResponse.SC_CONFLICT);
+		} else if (e instanceof WebDAVException) {
+			errorList.put(path, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		} else {
+			return false;
+		}
+		return true;
 	}
 
 	public static String lastModifiedDateFormat(final Date date) {
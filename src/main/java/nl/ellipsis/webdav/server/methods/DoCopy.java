@@ -15,9 +15,14 @@
  */
 package nl.ellipsis.webdav.server.methods;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -25,6 +30,7 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import nl.ellipsis.webdav.HttpHeaders;
 import nl.ellipsis.webdav.HttpStatus;
+import nl.ellipsis.webdav.server.INativeCopyStore;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
@@ -33,21 +39,29 @@ import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
 import nl.ellipsis.webdav.server.exceptions.ObjectNotFoundException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.jobs.Job;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.RequestUtil;
 import nl.ellipsis.webdav.server.util.URLUtil;
 
-public class DoCopy extends AbstractMethod {
+public class DoCopy extends AbstractMethod implements Closeable {
+
+	/**
+	 * number of threads copying the members of a collection, 1 copies them one
+	 * by one on the request thread
+	 */
+	public static final String WEBDAV_COPY_PARALLELISM_PROPERTY = "webdavCopyParallelism";
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoCopy.class);
 
 	private IWebDAVStore _store;
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 	private DoDelete _doDelete;
 	private boolean _readOnly;
+	private final LazyForkJoinPool _pool = new LazyForkJoinPool(Integer.getInteger(WEBDAV_COPY_PARALLELISM_PROPERTY, 1));
 
-	public DoCopy(IWebDAVStore store, ResourceLocks resourceLocks, DoDelete doDelete, boolean readOnly) {
+	public DoCopy(IWebDAVStore store, IResourceLocks resourceLocks, DoDelete doDelete, boolean readOnly) {
 		_store = store;
 		_resourceLocks = resourceLocks;
 		_doDelete = doDelete;
@@ -233,14 +247,7 @@ public class DoCopy extends AbstractMethod {
 
 		StoredObject sourceSo = _store.getStoredObject(transaction, sourcePath);
 		if (sourceSo.isResource()) {
-			_store.createResource(transaction, destinationPath);
-			long resourceLength = _store.setResourceContent(transaction, destinationPath,
-					_store.getResourceContent(transaction, sourcePath), null, null);
-
-			if (resourceLength != -1) {
-				StoredObject destinationSo = _store.getStoredObject(transaction, destinationPath);
-				destinationSo.setResourceLength(resourceLength);
-			}
+			copyContent(transaction, sourcePath, destinationPath, Job.current());
 		} else {
 			if (sourceSo.isFolder()) {
 				copyFolder(transaction, sourcePath, destinationPath, errorList, req, resp);
@@ -275,6 +282,7 @@ public class DoCopy extends AbstractMethod {
 			throws WebDAVException {
 
 		_store.createFolder(transaction, destinationPath);
+		processed(Job.current());
 		boolean infiniteDepth = true;
 		String depth = req.getHeader(HttpHeaders.DEPTH);
 		if (depth != null) {
@@ -282,7 +290,10 @@ public class DoCopy extends AbstractMethod {
 				infiniteDepth = false;
 			}
 		}
-		if (infiniteDepth) {
+		if (infiniteDepth && _pool.isParallel()) {
+			_pool.get().invoke(new CopyTask(transaction, sourcePath, destinationPath, true,
+					Collections.synchronizedMap(errorList), Job.current()));
+		} else if (infiniteDepth) {
 			String[] children = _store.getChildrenNames(transaction, sourcePath);
 			children = children == null ? new String[] {} : children;
 
@@ -292,15 +303,12 @@ public class DoCopy extends AbstractMethod {
 				String destinationSourcePath = URLUtil.getCleanPath(destinationPath,  children[i]);
 				try {
 					childSo = _store.getStoredObject(transaction, childSourcePath);
+					if (childSo == null) {
+						// removed meanwhile
+						continue;
+					}
 					if (childSo.isResource()) {
-						_store.createResource(transaction, destinationSourcePath);
-						long resourceLength = _store.setResourceContent(transaction,destinationSourcePath,
-								_store.getResourceContent(transaction, childSourcePath), null, null);
-
-						if (resourceLength != -1) {
-							StoredObject destinationSo = _store.getStoredObject(transaction,destinationSourcePath);
-							destinationSo.setResourceLength(resourceLength);
-						}
+						copyContent(transaction, childSourcePath, destinationSourcePath, Job.current());
 					} else {
 						copyFolder(transaction, childSourcePath, destinationSourcePath, errorList, req, resp);
 					}
@@ -317,6 +325,112 @@ public class DoCopy extends AbstractMethod {
 		}
 	}
 
+	/**
+	 * Creates a resource with the content of another one, natively if the
+	 * store can.
+	 */
+	private void copyContent(ITransaction transaction, String sourcePath, String destinationPath, Job job)
+			throws WebDAVException {
+		if (_store instanceof INativeCopyStore
+				&& ((INativeCopyStore) _store).copyResource(transaction, sourcePath, destinationPath)) {
+			processed(job);
+			return;
+		}
+		_store.createResource(transaction, destinationPath);
+		long resourceLength = _store.setResourceContent(transaction, destinationPath,
+				_store.getResourceContent(transaction, sourcePath), null, null);
+
+		if (resourceLength != -1) {
+			StoredObject destinationSo = _store.getStoredObject(transaction, destinationPath);
+			destinationSo.setResourceLength(resourceLength);
+		}
+		processed(job);
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of threads copying the members of a collection
+	 */
+	public void setParallelism(int parallelism) {
+		_pool.setParallelism(parallelism);
+	}
+
+	/**
+	 * Stops the threads copying members, a later COPY starts new ones.
+	 */
+	@Override
+	public void close() {
+		_pool.close();
+	}
+
+	/**
+	 * Copies a resource, or the members of a collection whose copy was
+	 * created already. Collections are created before their members are
+	 * forked, resources are copied concurrently.
+	 */
+	private class CopyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient ITransaction _transaction;
+		private final String _sourcePath;
+		private final String _destinationPath;
+		private final boolean _members;
+		private final transient Map<String, Integer> _errorList;
+		private final transient Job _job;
+
+		CopyTask(ITransaction transaction, String sourcePath, String destinationPath, boolean members,
+				Map<String, Integer> errorList, Job job) {
+			_transaction = transaction;
+			_sourcePath = sourcePath;
+			_destinationPath = destinationPath;
+			_members = members;
+			_errorList = errorList;
+			_job = job;
+		}
+
+		@Override
+		protected void compute() {
+			if (!_members) {
+				try {
+					copyContent(_transaction, _sourcePath, _destinationPath, _job);
+				} catch (WebDAVException e) {
+					recordException(_destinationPath, _errorList, e);
+				}
+				return;
+			}
+			String[] children;
+			try {
+				children = _store.getChildrenNames(_transaction, _sourcePath);
+			} catch (WebDAVException e) {
+				recordException(_destinationPath, _errorList, e);
+				return;
+			}
+			children = children == null ? new String[] {} : children;
+			List<CopyTask> tasks = new ArrayList<>(children.length);
+			for (int i = children.length - 1; i >= 0; i--) {
+				String childSourcePath = URLUtil.getCleanPath(_sourcePath, children[i]);
+				String childDestinationPath = URLUtil.getCleanPath(_destinationPath, children[i]);
+				try {
+					StoredObject childSo = _store.getStoredObject(_transaction, childSourcePath);
+					if (childSo == null) {
+						// removed meanwhile
+						continue;
+					}
+					if (!childSo.isResource()) {
+						_store.createFolder(_transaction, childDestinationPath);
+						processed(_job);
+					}
+					tasks.add(new CopyTask(_transaction, childSourcePath, childDestinationPath, !childSo.isResource(),
+							_errorList, _job));
+				} catch (WebDAVException e) {
+					recordException(childDestinationPath, _errorList, e);
+				}
+			}
+			invokeAll(tasks);
+		}
+	}
+
 	/**
 	 * Parses and normalizes the destination header.
 	 * 
@@ -15,9 +15,14 @@
  */
 package nl.ellipsis.webdav.server.methods;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RecursiveAction;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -25,25 +30,33 @@ import jakarta.servlet.http.HttpServletResponse;
 import nl.ellipsis.webdav.HttpStatus;
 
 import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.ITrashStore;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
-import nl.ellipsis.webdav.server.exceptions.ObjectNotFoundException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.jobs.Job;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.util.URLUtil;
 
-public class DoDelete extends AbstractMethod {
+public class DoDelete extends AbstractMethod implements Closeable {
+
+	/**
+	 * number of threads removing the members of a collection, 1 removes them
+	 * one by one on the request thread
+	 */
+	public static final String WEBDAV_DELETE_PARALLELISM_PROPERTY = "webdavDeleteParallelism";
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoDelete.class);
 
 	private IWebDAVStore _store;
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 	private boolean _readOnly;
+	private final LazyForkJoinPool _pool = new LazyForkJoinPool(Integer.getInteger(WEBDAV_DELETE_PARALLELISM_PROPERTY, 1));
 
-	public DoDelete(IWebDAVStore store, ResourceLocks resourceLocks, boolean readOnly) {
+	public DoDelete(IWebDAVStore store, IResourceLocks resourceLocks, boolean readOnly) {
 		_store = store;
 		_resourceLocks = resourceLocks;
 		_readOnly = readOnly;
@@ -125,11 +138,18 @@ public class DoDelete extends AbstractMethod {
 			if (so != null) {
 				if (so.isResource()) {
 					_store.removeObject(transaction, path);
+					processed(Job.current());
 				} else {
 					if (so.isFolder()) {
+						if (_store instanceof ITrashStore && ((ITrashStore) _store).moveToTrash(transaction, path)) {
+							// the members are removed in the background
+							processed(Job.current());
+							return;
+						}
 						deleteFolder(transaction, path, errorList, req, resp);
 						try {
 						    _store.removeObject(transaction, path);
+						    processed(Job.current());
 						} catch (Exception e) {
                             if(!recordException(path, errorList, e)) {
                                 throw e;
@@ -168,18 +188,27 @@ public class DoDelete extends AbstractMethod {
 	private void deleteFolder(ITransaction transaction, String path, Map<String, Integer> errorList,
 			HttpServletRequest req, HttpServletResponse resp) throws WebDAVException {
 
+		if (_pool.isParallel()) {
+			_pool.get().invoke(new DeleteTask(transaction, path, true, Collections.synchronizedMap(errorList), Job.current()));
+			return;
+		}
 		String[] children = _store.getChildrenNames(transaction, path);
 		children = children == null ? new String[] {} : children;
 		for (int i = children.length - 1; i >= 0; i--) {
 			String childPath = URLUtil.getCleanPath(path, children[i]);
 			try {
 				StoredObject so = _store.getStoredObject(transaction, childPath);
+				if (so == null) {
+					// removed meanwhile
+					continue;
+				}
 				if (so.isResource()) {
 					_store.removeObject(transaction, childPath);
 				} else {
 					deleteFolder(transaction, childPath, errorList, req, resp);
 					_store.removeObject(transaction, childPath);
 				}
+				processed(Job.current());
 			} catch (RuntimeException e) {
 			    if(!recordException(path + "/" + children[i], errorList, e)) {
 			        throw e;
@@ -188,18 +217,78 @@ public class DoDelete extends AbstractMethod {
 		}
 	}
 
-	private boolean recordException(String path, Map<String, Integer> errorList, Exception e) {
+	/**
+	 * @param parallelism
+	 *            number of threads removing the members of a collection
+	 */
+	public void setParallelism(int parallelism) {
+		_pool.setParallelism(parallelism);
+	}
+
+	/**
+	 * Stops the threads removing members, a later DELETE starts new ones.
+	 */
+	@Override
+	public void close() {
+		_pool.close();
+	}
 
-		if (e instanceof AccessDeniedException) {
-			errorList.put(path, HttpServletResponse.SC_FORBIDDEN);
-		} else if (e instanceof ObjectNotFoundException) {
-			errorList.put(path, HttpServletResponse.SC_NOT_FOUND);
-		} else if (e instanceof WebDAVException) {
-			errorList.put(path, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-		} else {
-			return false;
+	/**
+	 * Removes an object, the members of a collection are removed in parallel
+	 * before the collection itself.
+	 */
+	private class DeleteTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient ITransaction _transaction;
+		private final String _path;
+		private final boolean _membersOnly;
+		private final transient Map<String, Integer> _errorList;
+		private final transient Job _job;
+
+		DeleteTask(ITransaction transaction, String path, boolean membersOnly, Map<String, Integer> errorList,
+				Job job) {
+			_transaction = transaction;
+			_path = path;
+			_membersOnly = membersOnly;
+			_errorList = errorList;
+			_job = job;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (!_membersOnly) {
+					StoredObject so = _store.getStoredObject(_transaction, _path);
+					if (so == null) {
+						// removed meanwhile
+						return;
+					}
+					if (so.isResource()) {
+						_store.removeObject(_transaction, _path);
+						processed(_job);
+						return;
+					}
+				}
+				String[] children = _store.getChildrenNames(_transaction, _path);
+				if (children != null && children.length > 0) {
+					List<DeleteTask> tasks = new ArrayList<>(children.length);
+					for (int i = children.length - 1; i >= 0; i--) {
+						tasks.add(new DeleteTask(_transaction, URLUtil.getCleanPath(_path, children[i]), false, _errorList, _job));
+					}
+					invokeAll(tasks);
+				}
+				if (!_membersOnly) {
+					_store.removeObject(_transaction, _path);
+					processed(_job);
+				}
+			} catch (RuntimeException e) {
+				if (_membersOnly || !recordException(_path, _errorList, e)) {
+					throw e;
+				}
+			}
 		}
-		return true;
 	}
 
 }
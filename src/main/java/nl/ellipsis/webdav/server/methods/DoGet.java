@@ -30,10 +30,12 @@ import jakarta.servlet.http.HttpServletResponse;
 import nl.ellipsis.webdav.HttpHeaders;
 
 import nl.ellipsis.webdav.server.IMimeTyper;
+import nl.ellipsis.webdav.server.IRangeAwareStore;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.exceptions.ClientDisconnectedException;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.URLUtil;
 
@@ -42,7 +44,7 @@ public class DoGet extends DoHead {
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoGet.class);
 	private static Pattern RANGE_PATTERN = Pattern.compile("\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*");
 
-	public DoGet(IWebDAVStore store, String dftIndexFile, String insteadOf404, ResourceLocks resourceLocks,
+	public DoGet(IWebDAVStore store, String dftIndexFile, String insteadOf404, IResourceLocks resourceLocks,
 			IMimeTyper mimeTyper, int contentLengthHeader) {
 		super(store, dftIndexFile, insteadOf404, resourceLocks, mimeTyper, contentLengthHeader);
 	}
@@ -100,8 +102,12 @@ public class DoGet extends DoHead {
 					so.getResourceLength()));
 			}
 
-			try (OutputStream out = resp.getOutputStream(); InputStream in = _store.getResourceContent(transaction, path);) {
-				if(start != null) {
+			// a store reading ranges only fetches the requested bytes
+			boolean ranged = end != null && _store instanceof IRangeAwareStore;
+			try (OutputStream out = resp.getOutputStream(); InputStream in = ranged
+					? ((IRangeAwareStore) _store).getResourceContent(transaction, path, start != null ? start : 0, end)
+					: _store.getResourceContent(transaction, path);) {
+				if(start != null && !ranged) {
 					in.skip(start);
 				}
 
@@ -118,9 +124,16 @@ public class DoGet extends DoHead {
 					if(toWrite == 0) {
 						break;
 					}
-					out.write(copyBuffer, 0, toWrite);
+					try {
+						out.write(copyBuffer, 0, toWrite);
+					} catch (IOException e) {
+						// stop reading, nobody is waiting for the rest
+						throw new ClientDisconnectedException(path, e);
+					}
 				}
 			}
+		} catch (ClientDisconnectedException e) {
+			LOG.debug("GET of " + path + " abandoned by the client: " + e.getCause());
 		} catch (Exception e) {
 			LOG.error(e.toString(), e);
 		}
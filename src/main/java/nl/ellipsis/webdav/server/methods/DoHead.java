@@ -30,7 +30,7 @@ import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.URLUtil;
 
@@ -39,13 +39,13 @@ public class DoHead extends AbstractMethod {
 	protected String _dftIndexFile;
 	protected IWebDAVStore _store;
 	protected String _insteadOf404;
-	protected ResourceLocks _resourceLocks;
+	protected IResourceLocks _resourceLocks;
 	protected IMimeTyper _mimeTyper;
 	protected int _contentLength;
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoHead.class);
 
-	public DoHead(IWebDAVStore store, String dftIndexFile, String insteadOf404, ResourceLocks resourceLocks,
+	public DoHead(IWebDAVStore store, String dftIndexFile, String insteadOf404, IResourceLocks resourceLocks,
 			IMimeTyper mimeTyper, int contentLengthHeader) {
 		_store = store;
 		_dftIndexFile = dftIndexFile;
@@ -62,6 +62,24 @@ public class DoHead extends AbstractMethod {
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("-- " + this.getClass().getName()+" "+path);
 		}
+		// no temporary lock, a response that raced with a write is sent again
+		for (int attempt = 1;; attempt++) {
+			long stamp = _resourceLocks.getReadStamp(path);
+			serve(transaction, req, resp, path);
+			if (_resourceLocks.validateReadStamp(path, stamp) || attempt >= READ_ATTEMPTS) {
+				return;
+			}
+			if (resp.isCommitted()) {
+				LOG.debug("DoHead.execute(" + path + ") written while it was sent");
+				return;
+			}
+			LOG.debug("DoHead.execute(" + path + ") written while it was read, reading it again");
+			resp.reset();
+		}
+	}
+
+	private void serve(ITransaction transaction, HttpServletRequest req, HttpServletResponse resp, String path)
+			throws IOException {
 		// determines if the uri exists.
 		boolean bUriExists = false;
 
@@ -93,69 +111,59 @@ public class DoHead extends AbstractMethod {
 				return;
 			}
 
-			String tempLockOwner = "doGet" + System.currentTimeMillis() + req.toString();
-
-			if (_resourceLocks.lock(transaction, path, tempLockOwner, false, 0, AbstractMethod.getTempTimeout(), TEMPORARY)) {
-				try {
-
-					String eTagMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
-					if (eTagMatch != null) {
-						if (eTagMatch.equals(getETag(so))) {
-							resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-							return;
-						}
+			try {
+				String eTagMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+				if (eTagMatch != null) {
+					if (eTagMatch.equals(getETag(so))) {
+						resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+						return;
 					}
+				}
 
-					if (so.isResource()) {
-						// path points to a file but ends with / or \
-						if (path.endsWith(CharsetUtil.FORWARD_SLASH) || (path.endsWith(CharsetUtil.BACKSLASH))) {
-							resp.sendError(HttpServletResponse.SC_NOT_FOUND, req.getRequestURI());
-						} else {
+				if (so.isResource()) {
+					// path points to a file but ends with / or \
+					if (path.endsWith(CharsetUtil.FORWARD_SLASH) || (path.endsWith(CharsetUtil.BACKSLASH))) {
+						resp.sendError(HttpServletResponse.SC_NOT_FOUND, req.getRequestURI());
+					} else {
 
-							// setting headers
-							long lastModified = so.getLastModified().getTime();
-							resp.setDateHeader("last-modified", lastModified);
+						// setting headers
+						long lastModified = so.getLastModified().getTime();
+						resp.setDateHeader("last-modified", lastModified);
 
-							String eTag = getETag(so);
-							resp.addHeader(HttpHeaders.ETAG, eTag);
+						String eTag = getETag(so);
+						resp.addHeader(HttpHeaders.ETAG, eTag);
 
-							long resourceLength = so.getResourceLength();
+						long resourceLength = so.getResourceLength();
 
-							if (_contentLength == 1) {
-								if (resourceLength > 0) {
-									resp.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(resourceLength));
-									// is "content-length" the right header?
-									// is long a valid format?
-								}
+						if (_contentLength == 1) {
+							if (resourceLength > 0) {
+								resp.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(resourceLength));
+								// is "content-length" the right header?
+								// is long a valid format?
 							}
+						}
 
-							String mimeType = _mimeTyper.getMimeType(transaction, path);
-							if (mimeType != null) {
-								resp.setContentType(mimeType);
-							} else {
-								int lastSlash = path.replace(CharsetUtil.CHAR_BACKSLASH, CharsetUtil.CHAR_FORWARD_SLASH).lastIndexOf(CharsetUtil.CHAR_FORWARD_SLASH);
-								int lastDot = path.indexOf(CharsetUtil.CHAR_DOT, lastSlash);
-								if (lastDot == -1) {
-									resp.setContentType("text/html");
-								}
+						String mimeType = _mimeTyper.getMimeType(transaction, path);
+						if (mimeType != null) {
+							resp.setContentType(mimeType);
+						} else {
+							int lastSlash = path.replace(CharsetUtil.CHAR_BACKSLASH, CharsetUtil.CHAR_FORWARD_SLASH).lastIndexOf(CharsetUtil.CHAR_FORWARD_SLASH);
+							int lastDot = path.indexOf(CharsetUtil.CHAR_DOT, lastSlash);
+							if (lastDot == -1) {
+								resp.setContentType("text/html");
 							}
-							doBody(transaction, req, resp, path);
 						}
-					} else {
-						folderBody(transaction, path, resp, req);
+						doBody(transaction, req, resp, path);
 					}
-				} catch (AccessDeniedException e) {
-					resp.sendError(HttpServletResponse.SC_FORBIDDEN);
-				} catch (ObjectAlreadyExistsException e) {
-					resp.sendError(HttpServletResponse.SC_NOT_FOUND, req.getRequestURI());
-				} catch (WebDAVException e) {
-					LOG.error("Sending internal error!", e);
-					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-				} finally {
-					_resourceLocks.unlockTemporaryLockedObjects(transaction, path, tempLockOwner);
+				} else {
+					folderBody(transaction, path, resp, req);
 				}
-			} else {
-				LOG.error("Sending internal error - Failed to lock");
+			} catch (AccessDeniedException e) {
+				resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			} catch (ObjectAlreadyExistsException e) {
+				resp.sendError(HttpServletResponse.SC_NOT_FOUND, req.getRequestURI());
+			} catch (WebDAVException e) {
+				LOG.error("Sending internal error!", e);
 				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 			}
 		} else {
@@ -24,6 +24,7 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import nl.ellipsis.webdav.HttpHeaders;
 import nl.ellipsis.webdav.HttpStatus;
+import nl.ellipsis.webdav.server.ISnapshotStore;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
@@ -38,6 +39,12 @@ public class DoMkcol extends AbstractMethod {
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoMkcol.class);
 
+	/**
+	 * seconds the new collection of a snapshot stays locked at most, the
+	 * lock is released as soon as the snapshot is taken
+	 */
+	private static final int SNAPSHOT_TIMEOUT = 3600;
+
 	private IWebDAVStore _store;
 	private IResourceLocks _resourceLocks;
 	private boolean _readOnly;
@@ -70,7 +77,11 @@ public class DoMkcol extends AbstractMethod {
 
 			String tempLockOwner = "doMkcol" + System.currentTimeMillis() + req.toString();
 
-			if (_resourceLocks.lock(transaction, path, tempLockOwner, false, 0, AbstractMethod.getTempTimeout(), TEMPORARY)) {
+			// the source of a snapshot is not locked, taking it may just take long
+			boolean snapshot = _store instanceof ISnapshotStore && ((ISnapshotStore) _store).getSnapshotSource(path) != null;
+			int timeout = snapshot ? SNAPSHOT_TIMEOUT : AbstractMethod.getTempTimeout();
+
+			if (_resourceLocks.lock(transaction, path, tempLockOwner, false, 0, timeout, TEMPORARY)) {
 				try {
 					StoredObject parentSo = _store.getStoredObject(transaction, parentPath);
 					if (parentSo == null) {
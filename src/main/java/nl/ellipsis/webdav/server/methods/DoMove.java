@@ -29,18 +29,18 @@ import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.ObjectAlreadyExistsException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 
 public class DoMove extends AbstractMethod {
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoMove.class);
 
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 	private DoDelete _doDelete;
 	private DoCopy _doCopy;
 	private boolean _readOnly;
 
-	public DoMove(ResourceLocks resourceLocks, DoDelete doDelete, DoCopy doCopy, boolean readOnly) {
+	public DoMove(IResourceLocks resourceLocks, DoDelete doDelete, DoCopy doCopy, boolean readOnly) {
 		_resourceLocks = resourceLocks;
 		_doDelete = doDelete;
 		_doCopy = doCopy;
@@ -27,16 +27,16 @@ import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 
 public class DoOptions extends DeterminableMethod {
 
 	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(DoOptions.class);
 
 	private IWebDAVStore _store;
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 
-	public DoOptions(IWebDAVStore store, ResourceLocks resLocks) {
+	public DoOptions(IWebDAVStore store, IResourceLocks resLocks) {
 		_store = store;
 		_resourceLocks = resLocks;
 	}
@@ -17,9 +17,12 @@ package nl.ellipsis.webdav.server.methods;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import jakarta.servlet.ServletException;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -31,16 +34,19 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import nl.ellipsis.webdav.server.IExistenceAwareStore;
 import nl.ellipsis.webdav.server.IMimeTyper;
+import nl.ellipsis.webdav.server.IPropertyAwareStore;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.WebDAVConstants;
 import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.ClientDisconnectedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.locking.LockedObject;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.URLUtil;
 import nl.ellipsis.webdav.server.util.XMLHelper;
@@ -66,13 +72,19 @@ public class DoPropfind extends AbstractMethod {
 	 */
 	private static final int FIND_PROPERTY_NAMES = 2;
 
+	/**
+	 * number of characters of a multistatus response sent at once, in between
+	 * the walk stops if the client went away
+	 */
+	private static final int SEND_SIZE = 16 * 1024;
+
 	private IWebDAVStore _store;
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 	private IMimeTyper _mimeTyper;
 
 	private int _depth;
 
-	public DoPropfind(IWebDAVStore store, ResourceLocks resLocks, IMimeTyper mimeTyper) {
+	public DoPropfind(IWebDAVStore store, IResourceLocks resLocks, IMimeTyper mimeTyper) {
 		_store = store;
 		_resourceLocks = resLocks;
 		_mimeTyper = mimeTyper;
@@ -86,12 +98,22 @@ public class DoPropfind extends AbstractMethod {
 			LOG.debug("-- " + this.getClass().getName()+" "+path);
 		}
 
+		if (_store instanceof IExistenceAwareStore && ((IExistenceAwareStore) _store).isKnownMissing(path)) {
+			resp.setContentType("text/xml; charset=UTF-8");
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, req.getRequestURI());
+			return;
+		}
+
 		// Retrieve the resources
-		String tempLockOwner = "doPropfind" + System.currentTimeMillis() + req.toString();
 		_depth = getDepth(req);
 
-		if (_resourceLocks.lock(transaction, path, tempLockOwner, false, _depth, AbstractMethod.getTempTimeout(), TEMPORARY)) {
+		List<String> properties = null;
+		int propertyFindType = FIND_ALL_PROP;
 
+		// no temporary lock, a response that raced with a write is built again
+		for (int attempt = 1;; attempt++) {
+			long stamp = _resourceLocks.getReadStamp(path);
+			XMLWriter generatedXML = null;
 			try {
 				StoredObject so = _store.getStoredObject(transaction, path);
 				if (so == null) {
@@ -100,72 +122,86 @@ public class DoPropfind extends AbstractMethod {
 					return;
 				}
 
-				List<String> properties = null;
-				path = getRelativePath(req);
-
-				int propertyFindType = FIND_ALL_PROP;
-				Node propNode = null;
-
-				if (req.getContentLength() != 0) {
-					try {
-						Document document = getDocument(req);
-						// Get the root element of the document
-						Element rootElement = document.getDocumentElement();
-
-						propNode = XMLHelper.findSubElement(rootElement, "prop");
-						if (propNode != null) {
-							propertyFindType = FIND_BY_PROPERTY;
-						} else if (XMLHelper.findSubElement(rootElement, "propname") != null) {
-							propertyFindType = FIND_PROPERTY_NAMES;
-						} else if (XMLHelper.findSubElement(rootElement, "allprop") != null) {
-							propertyFindType = FIND_ALL_PROP;
+				// the body can be read only once, retries reuse what it asked for
+				if (attempt == 1) {
+					path = getRelativePath(req);
+
+					Node propNode = null;
+
+					if (req.getContentLength() != 0) {
+						try {
+							Document document = getDocument(req);
+							// Get the root element of the document
+							Element rootElement = document.getDocumentElement();
+
+							propNode = XMLHelper.findSubElement(rootElement, "prop");
+							if (propNode != null) {
+								propertyFindType = FIND_BY_PROPERTY;
+							} else if (XMLHelper.findSubElement(rootElement, "propname") != null) {
+								propertyFindType = FIND_PROPERTY_NAMES;
+							} else if (XMLHelper.findSubElement(rootElement, "allprop") != null) {
+								propertyFindType = FIND_ALL_PROP;
+							}
+						} catch (SAXException e) {
+							LOG.error("Failed to parse request", e);
+							resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+							return;
+						} catch (IOException | ParserConfigurationException | RuntimeException e) {
+							LOG.error("Sending internal error!", e);
+							resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+							return;
 						}
-					} catch (SAXException e) {
-						LOG.error("Failed to parse request", e);
-						resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
-						return;
-					} catch (IOException | ParserConfigurationException | RuntimeException e) {
-						LOG.error("Sending internal error!", e);
-						resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-						return;
+					} else {
+						// no content, which means it is a allprop request
+						propertyFindType = FIND_ALL_PROP;
 					}
-				} else {
-					// no content, which means it is a allprop request
-					propertyFindType = FIND_ALL_PROP;
-				}
 
-				if (propertyFindType == FIND_BY_PROPERTY) {
-					propertyFindType = 0;
-					properties = XMLHelper.getPropertiesFromXML(propNode);
+					if (propertyFindType == FIND_BY_PROPERTY) {
+						propertyFindType = 0;
+						properties = XMLHelper.getPropertiesFromXML(propNode);
+					}
 				}
 
 				resp.setStatus(HttpStatus.MULTI_STATUS.value());
 				resp.setContentType("text/xml; charset=UTF-8");
 
 				// Create multistatus object
-				XMLWriter generatedXML = new XMLWriter(resp.getWriter());
+				generatedXML = new XMLWriter(resp.getWriter());
 				generatedXML.writeXMLHeader();
 				generatedXML.writeElement(NS_DAV_PREFIX,NS_DAV_FULLNAME,WebDAVConstants.XMLTag.MULTISTATUS,XMLWriter.OPENING);
+				Set<String> storeProperties = getStoreProperties(propertyFindType, properties);
+				// the object looked up above serves the first response
 				if (_depth == 0) {
-					parseProperties(transaction, req, generatedXML, path, propertyFindType, properties);
+					parseProperties(transaction, req, generatedXML, path, so, propertyFindType, properties, storeProperties);
 				} else {
-					recursiveParseProperties(transaction, path, req, generatedXML, propertyFindType, properties, _depth);
+					recursiveParseProperties(transaction, path, so, req, generatedXML, propertyFindType, properties,
+							storeProperties, _depth);
 				}
 				generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.MULTISTATUS,XMLWriter.CLOSING);
 
+				if (attempt < READ_ATTEMPTS && !_resourceLocks.validateReadStamp(path, stamp)
+						&& !generatedXML.isPartiallySent() && !resp.isCommitted()) {
+					LOG.debug("DoPropfind.execute(" + path + ") written while it was read, reading it again");
+					resp.reset();
+					continue;
+				}
 				generatedXML.sendData("doPropfind.response "+path+"\n");
-			} catch (AccessDeniedException e) {
-				resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			} catch (ClientDisconnectedException e) {
+				LOG.debug("PROPFIND of " + path + " abandoned by the client at " + e.getMessage());
 			} catch (WebDAVException e) {
-				LOG.warn("Sending internal error!", e);
-				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			} finally {
-				_resourceLocks.unlockTemporaryLockedObjects(transaction, path, tempLockOwner);
+				if (generatedXML != null && generatedXML.isPartiallySent()) {
+					// too late for a status, a complete looking multistatus would hide the failure
+					LOG.error("PROPFIND of " + path + " failed after part of the response was sent, aborting it", e);
+					throw new IOException("PROPFIND of " + path + " aborted", e);
+				}
+				if (e instanceof AccessDeniedException) {
+					resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+				} else {
+					LOG.warn("Sending internal error!", e);
+					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
 			}
-		} else {
-			Map<String, Integer> errorList = new HashMap<>();
-			errorList.put(path, HttpStatus.LOCKED.value());
-			sendReport(req, resp, errorList);
+			return;
 		}
 	}
 
@@ -174,29 +210,40 @@ public class DoPropfind extends AbstractMethod {
 	 * 
 	 * @param currentPath
 	 *            the current path
+	 * @param so
+	 *            the object at currentPath or <code>null</code> to look it up
 	 * @param req
 	 *            HttpServletRequest
 	 * @param generatedXML
 	 * @param propertyFindType
 	 * @param properties
+	 * @param storeProperties
+	 *            the properties the store has to provide, <code>null</code> for all
 	 * @param depth
 	 *            depth of the propfind
 	 * @throws IOException
 	 *             if an error in the underlying store occurs
 	 */
-	private void recursiveParseProperties(ITransaction transaction, String currentPath, HttpServletRequest req,
-			XMLWriter generatedXML, int propertyFindType, List<String> properties, int depth)
-			throws WebDAVException {
-
-		parseProperties(transaction, req, generatedXML, currentPath, propertyFindType, properties);
+	private void recursiveParseProperties(ITransaction transaction, String currentPath, StoredObject so,
+			HttpServletRequest req, XMLWriter generatedXML, int propertyFindType, List<String> properties,
+			Set<String> storeProperties, int depth) throws WebDAVException {
+
+		parseProperties(transaction, req, generatedXML, currentPath, so, propertyFindType, properties, storeProperties);
+		try {
+			if (generatedXML.sendData(SEND_SIZE) && generatedXML.checkError()) {
+				throw new ClientDisconnectedException(currentPath);
+			}
+		} catch (IOException e) {
+			throw new ClientDisconnectedException(currentPath, e);
+		}
 
 		if (depth != 0) {
 			// no need to get name if depth is already zero
 			String[] names = _store.getChildrenNames(transaction, currentPath);
 			names = names == null ? new String[] {} : names;
 			for (String name : names) {
-				recursiveParseProperties(transaction, URLUtil.getCleanPath(currentPath, name), req, generatedXML, propertyFindType, properties,
-						depth - 1);
+				recursiveParseProperties(transaction, URLUtil.getCleanPath(currentPath, name), null, req, generatedXML,
+						propertyFindType, properties, storeProperties, depth - 1);
 			}
 		}
 	}
@@ -210,21 +257,30 @@ public class DoPropfind extends AbstractMethod {
 	 *            XML response to the Propfind request
 	 * @param path
 	 *            Path of the current resource
+	 * @param so
+	 *            the object at path or <code>null</code> to look it up
 	 * @param type
 	 *            Propfind type
 	 * @param propertiesVector
 	 *            If the propfind type is find properties by name, then this Vector
 	 *            contains those properties
+	 * @param storeProperties
+	 *            the properties the store has to provide, <code>null</code> for all
 	 */
 	private void parseProperties(ITransaction transaction, HttpServletRequest req, XMLWriter generatedXML, String path,
-			int type, List<String> propertiesVector) throws WebDAVException {
+			StoredObject so, int type, List<String> propertiesVector, Set<String> storeProperties)
+			throws WebDAVException {
 
-		StoredObject so = _store.getStoredObject(transaction, path);
+		if (so == null) {
+			so = getStoredObject(transaction, path, storeProperties);
+			if (so == null) {
+				// removed since its folder was listed
+				return;
+			}
+		}
 
+		// the remaining attributes are formatted when a property needs them
 		boolean isFolder = so.isFolder();
-		final String creationdate = creationDateFormat(so.getCreationDate());
-		final String lastModified = lastModifiedDateFormat(so.getLastModified());
-		String resourceLength = String.valueOf(so.getResourceLength());
 
 		// ResourceInfo resourceInfo = new ResourceInfo(path, resources);
 
@@ -257,13 +313,13 @@ public class DoPropfind extends AbstractMethod {
 			generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.PROPSTAT, XMLWriter.OPENING);
 			generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.PROP, XMLWriter.OPENING);
 
-			generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.CREATIONDATE, creationdate);
+			generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.CREATIONDATE, creationDateFormat(so.getCreationDate()));
 			generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.DISPLAYNAME, XMLWriter.OPENING);
 			generatedXML.writeData(resourceName);
 			generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.DISPLAYNAME, XMLWriter.CLOSING);
 			if (!isFolder) {
-				generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.GET_LASTMODIFIED, lastModified);
-				generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.GET_CONTENTLENGTH, resourceLength);
+				generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.GET_LASTMODIFIED, lastModifiedDateFormat(so.getLastModified()));
+				generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.GET_CONTENTLENGTH, String.valueOf(so.getResourceLength()));
 				String contentType = (so.getMimeType()!=null ? so.getMimeType() : _mimeTyper.getMimeType(transaction, path));
 				if (contentType != null) {
 					generatedXML.writeProperty(NS_DAV_PREFIX,WebDAVConstants.XMLTag.GET_CONTENTTYPE, contentType);
@@ -328,7 +384,7 @@ public class DoPropfind extends AbstractMethod {
 
 				switch (property) {
 				case WebDAVConstants.XMLTag.CREATIONDATE:
-					generatedXML.writeProperty(NS_DAV_PREFIX, WebDAVConstants.XMLTag.CREATIONDATE, creationdate);
+					generatedXML.writeProperty(NS_DAV_PREFIX, WebDAVConstants.XMLTag.CREATIONDATE, creationDateFormat(so.getCreationDate()));
 					break;
 				case "DAV::displayname":
 					generatedXML.writeElement(NS_DAV_PREFIX, WebDAVConstants.XMLTag.DISPLAYNAME, XMLWriter.OPENING);
@@ -346,7 +402,7 @@ public class DoPropfind extends AbstractMethod {
 					if (isFolder) {
 						propertiesNotFound.add(property);
 					} else {
-						generatedXML.writeProperty(NS_DAV_PREFIX, WebDAVConstants.XMLTag.GET_CONTENTLENGTH, resourceLength);
+						generatedXML.writeProperty(NS_DAV_PREFIX, WebDAVConstants.XMLTag.GET_CONTENTLENGTH, String.valueOf(so.getResourceLength()));
 					}
 					break;
 				case WebDAVConstants.XMLTag.GET_CONTENTTYPE:
@@ -365,6 +421,7 @@ public class DoPropfind extends AbstractMethod {
 					}
 					break;
 				case WebDAVConstants.XMLTag.GET_LASTMODIFIED:
+					String lastModified = lastModifiedDateFormat(so.getLastModified());
 					if (isFolder && lastModified == null) {
 						propertiesNotFound.add(property);
 					} else {
@@ -425,6 +482,34 @@ public class DoPropfind extends AbstractMethod {
 		generatedXML.writeElement(NS_DAV_PREFIX,WebDAVConstants.XMLTag.RESPONSE, XMLWriter.CLOSING);
 	}
 
+	/**
+	 * @return the properties the store has to provide for a request,
+	 *         <code>null</code> for all
+	 */
+	private static Set<String> getStoreProperties(int propertyFindType, List<String> properties) {
+		switch (propertyFindType) {
+		case FIND_BY_PROPERTY:
+			Set<String> storeProperties = new HashSet<>(properties);
+			if (storeProperties.contains(WebDAVConstants.XMLTag.GET_ETAG)) {
+				// derived from length and modification time
+				storeProperties.add(WebDAVConstants.XMLTag.GET_CONTENTLENGTH);
+				storeProperties.add(WebDAVConstants.XMLTag.GET_LASTMODIFIED);
+			}
+			return storeProperties;
+		case FIND_PROPERTY_NAMES:
+			return Collections.emptySet();
+		default:
+			return null;
+		}
+	}
+
+	private StoredObject getStoredObject(ITransaction transaction, String path, Set<String> storeProperties) {
+		if (storeProperties != null && _store instanceof IPropertyAwareStore) {
+			return ((IPropertyAwareStore) _store).getStoredObject(transaction, path, storeProperties);
+		}
+		return _store.getStoredObject(transaction, path);
+	}
+
 	private void writeSupportedLockElements(ITransaction transaction, XMLWriter generatedXML, String path) {
 
 		LockedObject lo = _resourceLocks.getLockedObjectByPath(transaction, path);
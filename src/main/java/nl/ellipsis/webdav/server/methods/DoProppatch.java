@@ -41,8 +41,8 @@ import nl.ellipsis.webdav.server.WebDAVConstants;
 import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.exceptions.LockFailedException;
 import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.locking.IResourceLocks;
 import nl.ellipsis.webdav.server.locking.LockedObject;
-import nl.ellipsis.webdav.server.locking.ResourceLocks;
 import nl.ellipsis.webdav.server.util.CharsetUtil;
 import nl.ellipsis.webdav.server.util.URLUtil;
 import nl.ellipsis.webdav.server.util.XMLHelper;
@@ -55,9 +55,9 @@ public class DoProppatch extends AbstractMethod {
 
 	private boolean _readOnly;
 	private IWebDAVStore _store;
-	private ResourceLocks _resourceLocks;
+	private IResourceLocks _resourceLocks;
 
-	public DoProppatch(IWebDAVStore store, ResourceLocks resLocks, boolean readOnly) {
+	public DoProppatch(IWebDAVStore store, IResourceLocks resLocks, boolean readOnly) {
 		_readOnly = readOnly;
 		_store = store;
 		_resourceLocks = resLocks;
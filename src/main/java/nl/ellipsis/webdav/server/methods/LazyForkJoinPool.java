@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.methods;
+
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link ForkJoinPool} of the methods that process the members of a
+ * collection in parallel. The threads are started by the first request that
+ * needs them, closing stops them until the next one.
+ */
+class LazyForkJoinPool implements Closeable {
+
+	private int _parallelism;
+	private ForkJoinPool _pool;
+
+	/**
+	 * @param parallelism
+	 *            number of threads, 1 or less processes members one by one
+	 */
+	LazyForkJoinPool(int parallelism) {
+		_parallelism = parallelism;
+	}
+
+	/**
+	 * @return <code>true</code> if members are processed by more than one
+	 *         thread
+	 */
+	synchronized boolean isParallel() {
+		return _parallelism > 1;
+	}
+
+	/**
+	 * Closes the current pool, the next request starts one with the new
+	 * number of threads.
+	 */
+	synchronized void setParallelism(int parallelism) {
+		_parallelism = parallelism;
+		close();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (_pool != null) {
+			_pool.shutdown();
+			_pool = null;
+		}
+	}
+
+	synchronized ForkJoinPool get() {
+		if (_pool == null) {
+			_pool = new ForkJoinPool(_parallelism);
+		}
+		return _pool;
+	}
+}
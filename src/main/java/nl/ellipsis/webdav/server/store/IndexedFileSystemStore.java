@@ -0,0 +1,387 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.index.MetadataIndex;
+import nl.ellipsis.webdav.server.index.MetadataRecord;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * {@link LocalFileSystemStore} that answers metadata lookups from a persistent
+ * {@link MetadataIndex} instead of the file system.
+ * <p>
+ * Every mutating call updates the index after the file system operation
+ * succeeded. A background thread scans the whole tree on startup to pick up
+ * changes made while the server was down, until it has completed the index
+ * restored from disk is not trusted. Once a scan has completed the
+ * index is authoritative and PROPFIND at any depth is served without
+ * touching the file system. Before that, lookups that miss the index fall
+ * back to the file system. Changes made to the tree by other processes are
+ * only picked up by a rescan, see {@link #WEBDAV_METADATA_INDEX_RESCAN_PROPERTY}.
+ */
+public final class IndexedFileSystemStore extends LocalFileSystemStore {
+
+	/**
+	 * folder holding the index files, defaults to <code>&lt;root&gt;/.webdav-index</code>
+	 */
+	public static final String WEBDAV_METADATA_INDEX_PATH_PROPERTY = "webdavMetadataIndexPath";
+	/**
+	 * number of log entries after which the index writes a snapshot
+	 */
+	public static final String WEBDAV_METADATA_INDEX_CHECKPOINT_PROPERTY = "webdavMetadataIndexCheckpoint";
+	/**
+	 * seconds between rescans of the tree, <code>0</code> scans only at startup
+	 */
+	public static final String WEBDAV_METADATA_INDEX_RESCAN_PROPERTY = "webdavMetadataIndexRescan";
+
+	public static final String INDEX_FOLDER = ".webdav-index";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(IndexedFileSystemStore.class);
+
+	private final File _root;
+	private final File _indexFolder;
+	private final MetadataIndex _index;
+	private final Thread _scanner;
+	private final long _rescanInterval;
+
+	/**
+	 * guards the scanner's check-and-put against concurrent mutations
+	 */
+	private final Object _mutationLock = new Object();
+
+	/**
+	 * paths mutated while a scan runs, <code>null</code> if no scan is running
+	 */
+	private Set<String> _touchedDuringScan;
+
+	private volatile boolean _destroyed = false;
+
+	public IndexedFileSystemStore(File root) {
+		this(root, getIndexFolderProperty(root), Integer.getInteger(WEBDAV_METADATA_INDEX_CHECKPOINT_PROPERTY, 100000),
+				Long.getLong(WEBDAV_METADATA_INDEX_RESCAN_PROPERTY, 0), true);
+	}
+
+	/**
+	 * @param scan
+	 *            <code>false</code> to skip the background scan, use
+	 *            {@link #scan()} to run it
+	 */
+	public IndexedFileSystemStore(File root, File indexFolder, int checkpointInterval, long rescanInterval,
+			boolean scan) {
+		super(root);
+		_root = root;
+		_indexFolder = indexFolder.toPath().toAbsolutePath().normalize().toFile();
+		_index = new MetadataIndex(indexFolder, checkpointInterval);
+		_rescanInterval = rescanInterval;
+		if (scan) {
+			// whatever was created while the server was down is not indexed yet
+			_index.setComplete(false);
+			_scanner = new Thread(this::scanLoop, "webdav-metadata-index-scan");
+			_scanner.setDaemon(true);
+			_scanner.start();
+		} else {
+			_scanner = null;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		_destroyed = true;
+		if (_scanner != null) {
+			_scanner.interrupt();
+			try {
+				_scanner.join(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		_index.close();
+		super.destroy();
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String uri) throws WebDAVException {
+		super.createFolder(transaction, uri);
+		update(URLUtil.getCleanPath(uri));
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String uri) throws WebDAVException {
+		super.createResource(transaction, uri);
+		update(URLUtil.getCleanPath(uri));
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String uri, InputStream is, String contentType,
+			String characterEncoding) throws WebDAVException {
+		try {
+			return super.setResourceContent(transaction, uri, is, contentType, characterEncoding);
+		} finally {
+			update(URLUtil.getCleanPath(uri));
+		}
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) throws WebDAVException {
+		try {
+			super.removeObject(transaction, uri);
+		} finally {
+			update(URLUtil.getCleanPath(uri));
+		}
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) throws WebDAVException {
+		try {
+			return super.copyResource(transaction, sourceUri, destinationUri);
+		} finally {
+			update(URLUtil.getCleanPath(destinationUri));
+		}
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) throws WebDAVException {
+		try {
+			return super.moveToTrash(transaction, uri);
+		} finally {
+			// drops the whole subtree from the index
+			update(URLUtil.getCleanPath(uri));
+		}
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		if (_index.isComplete()) {
+			String[] names = _index.getChildrenNames(path);
+			return "/".equals(path) ? hideIndexFolder(names) : names;
+		}
+		String[] names = super.getChildrenNames(transaction, path);
+		return "/".equals(path) ? hideIndexFolder(names) : names;
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String uri) {
+		MetadataRecord record = _index.get(URLUtil.getCleanPath(uri));
+		if (record != null) {
+			return record.getLength();
+		}
+		return super.getResourceLength(transaction, uri);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		return getStoredObject(transaction, uri);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		StoredObject indexed = _index.getStoredObject(path);
+		if (indexed != null) {
+			return indexed;
+		}
+		if (_index.isComplete() || isIndexPath(path)) {
+			return null;
+		}
+		synchronized (_mutationLock) {
+			// looked up under the lock, a concurrent removal must not be undone
+			StoredObject so = fileSystemLookup(path);
+			if (so != null) {
+				_index.put(path, toRecord(so));
+			}
+			return so;
+		}
+	}
+
+	/**
+	 * @return the index backing this store
+	 */
+	public MetadataIndex getIndex() {
+		return _index;
+	}
+
+	/**
+	 * Walks the whole tree, adds what is missing in the index and removes what
+	 * no longer exists. Marks the index complete when done. A scan of an
+	 * incomplete index bulk-loads it and writes a single snapshot at the end.
+	 *
+	 * @return <code>false</code> if the scan was interrupted
+	 */
+	public boolean scan() {
+		LOG.info("IndexedFileSystemStore scanning " + _root.getAbsolutePath());
+		long start = System.currentTimeMillis();
+		Set<String> seen = new HashSet<>();
+		boolean bulk = !_index.isComplete();
+		synchronized (_mutationLock) {
+			_touchedDuringScan = new HashSet<>();
+		}
+		try {
+			Files.walkFileTree(_root.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (dir.toAbsolutePath().normalize().equals(_indexFolder.toPath())) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return visit(dir) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					return visit(file) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					LOG.debug("IndexedFileSystemStore.scan() skipping " + file + ": " + exc);
+					return FileVisitResult.CONTINUE;
+				}
+
+				private boolean visit(Path file) {
+					if (_destroyed || Thread.currentThread().isInterrupted()) {
+						return false;
+					}
+					String path = toPath(file);
+					seen.add(path);
+					synchronized (_mutationLock) {
+						// re-checked under the lock, a concurrent removal wins
+						StoredObject so = fileSystemLookup(path);
+						if (so != null && bulk) {
+							_index.bulkPut(path, toRecord(so));
+						} else if (so != null) {
+							_index.put(path, toRecord(so));
+						}
+					}
+					return true;
+				}
+			});
+		} catch (IOException e) {
+			LOG.error("IndexedFileSystemStore.scan() failed", e);
+			return false;
+		} finally {
+			if (_destroyed || Thread.currentThread().isInterrupted()) {
+				synchronized (_mutationLock) {
+					_touchedDuringScan = null;
+				}
+			}
+		}
+		if (_destroyed || Thread.currentThread().isInterrupted()) {
+			return false;
+		}
+		List<String> stale = new ArrayList<>();
+		synchronized (_mutationLock) {
+			_index.forEach((path, record) -> {
+				if (!seen.contains(path) && !_touchedDuringScan.contains(path)) {
+					stale.add(path);
+				}
+			});
+			for (String path : stale) {
+				_index.remove(path);
+			}
+			_touchedDuringScan = null;
+			_index.setComplete(true);
+		}
+		_index.checkpoint();
+		LOG.info("IndexedFileSystemStore scanned " + seen.size() + " paths in " + (System.currentTimeMillis() - start)
+				+ "ms, removed " + stale.size() + " stale entries");
+		return true;
+	}
+
+	private void scanLoop() {
+		do {
+			if (!scan()) {
+				return;
+			}
+			if (_rescanInterval <= 0) {
+				return;
+			}
+			try {
+				Thread.sleep(_rescanInterval * 1000);
+			} catch (InterruptedException e) {
+				return;
+			}
+		} while (!_destroyed);
+	}
+
+	/**
+	 * Brings the index entry of path in line with the file system.
+	 */
+	private void update(String path) {
+		synchronized (_mutationLock) {
+			if (_touchedDuringScan != null) {
+				_touchedDuringScan.add(path);
+			}
+			StoredObject so = fileSystemLookup(path);
+			if (so == null) {
+				_index.remove(path);
+			} else {
+				_index.put(path, toRecord(so));
+			}
+		}
+	}
+
+	private StoredObject fileSystemLookup(String path) {
+		return super.getStoredObject(null, path);
+	}
+
+	private String toPath(Path file) {
+		String relative = _root.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+		return URLUtil.getCleanPath(relative);
+	}
+
+	private boolean isIndexPath(String path) {
+		return new File(_root, path).toPath().toAbsolutePath().normalize().startsWith(_indexFolder.toPath());
+	}
+
+	private String[] hideIndexFolder(String[] names) {
+		if (names == null || !_indexFolder.getParentFile().toPath().equals(_root.toPath().toAbsolutePath().normalize())) {
+			return names;
+		}
+		List<String> visible = new ArrayList<>(names.length);
+		for (String name : names) {
+			if (!name.equals(_indexFolder.getName())) {
+				visible.add(name);
+			}
+		}
+		return visible.toArray(new String[visible.size()]);
+	}
+
+	private static MetadataRecord toRecord(StoredObject so) {
+		return new MetadataRecord(so.isFolder(), so.getResourceLength(),
+				so.getLastModified() != null ? so.getLastModified().getTime() : 0,
+				so.getCreationDate() != null ? so.getCreationDate().getTime() : 0, so.getMimeType());
+	}
+
+	private static File getIndexFolderProperty(File root) {
+		String path = System.getProperty(WEBDAV_METADATA_INDEX_PATH_PROPERTY);
+		return path != null ? new File(path) : new File(root, INDEX_FOLDER);
+	}
+}
@@ -0,0 +1,792 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.MimeTypeResolver;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * File system store that packs small resources into large append-only
+ * segment files instead of giving each of them its own inode.
+ * <p>
+ * Resources up to {@link #WEBDAV_PACK_THRESHOLD_PROPERTY} bytes are appended
+ * to the active segment in <code>&lt;root&gt;/.segments</code>, larger
+ * resources and all collections stay regular files and directories. An
+ * in-memory index maps each packed path to its record, it is rebuilt by
+ * scanning the segments on startup. Overwritten and removed resources leave
+ * garbage behind, a background thread rewrites segments whose garbage exceeds
+ * {@link #WEBDAV_PACK_COMPACTION_PROPERTY} percent.
+ * <p>
+ * Record layout: magic, crc32, type, last modified, creation date, path
+ * length, data length, path (UTF-8), data. Every append is forced to disk
+ * before the call returns.
+ */
+public class PackedFileSystemStore extends LocalFileSystemStore {
+
+	public static final String WEBDAV_PACK_THRESHOLD_PROPERTY = "webdavPackThreshold";
+	public static final String WEBDAV_PACK_SEGMENT_SIZE_PROPERTY = "webdavPackSegmentSize";
+	public static final String WEBDAV_PACK_COMPACTION_PROPERTY = "webdavPackCompactionPercent";
+
+	public static final String SEGMENT_FOLDER = ".segments";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(PackedFileSystemStore.class);
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int MAGIC = 0x57445053;
+	private static final byte TYPE_DATA = 0;
+	private static final byte TYPE_TOMBSTONE = 1;
+	// magic, crc, type, lastModified, creationDate, path length, data length
+	private static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 4 + 4;
+
+	private final File _root;
+	private final File _segmentFolder;
+	private final int _threshold;
+	private final long _maxSegmentSize;
+	private final int _compactionPercent;
+
+	/**
+	 * keys: path value: location of the newest record
+	 */
+	private final Map<String, PackedEntry> _index = new ConcurrentHashMap<>();
+
+	/**
+	 * keys: parent path value: names of the packed children
+	 */
+	private final Map<String, Set<String>> _children = new ConcurrentHashMap<>();
+
+	private final ConcurrentSkipListMap<Long, Segment> _segments = new ConcurrentSkipListMap<>();
+
+	/**
+	 * guards appending and all index mutations
+	 */
+	private final Object _appendLock = new Object();
+
+	/**
+	 * one compaction at a time, it only takes the append lock to swap records
+	 */
+	private final Object _compactionLock = new Object();
+
+	/**
+	 * readers hold the read lock, compaction holds the write lock while closing
+	 * a segment
+	 */
+	private final ReentrantReadWriteLock _segmentLock = new ReentrantReadWriteLock();
+
+	private final Set<Long> _pendingCompactions = ConcurrentHashMap.newKeySet();
+	private final ExecutorService _compactor;
+
+	private Segment _activeSegment;
+
+	public PackedFileSystemStore(File root) {
+		this(root, Integer.getInteger(WEBDAV_PACK_THRESHOLD_PROPERTY, 4096),
+				Long.getLong(WEBDAV_PACK_SEGMENT_SIZE_PROPERTY, 64L * 1024 * 1024),
+				Integer.getInteger(WEBDAV_PACK_COMPACTION_PROPERTY, 50));
+	}
+
+	/**
+	 * @param root
+	 *            folder of the store
+	 * @param threshold
+	 *            resources up to this size are packed
+	 * @param maxSegmentSize
+	 *            size after which a new segment is started
+	 * @param compactionPercent
+	 *            percentage of garbage in a segment that triggers its compaction
+	 */
+	public PackedFileSystemStore(File root, int threshold, long maxSegmentSize, int compactionPercent) {
+		super(root);
+		_root = root;
+		_segmentFolder = new File(root, SEGMENT_FOLDER);
+		_threshold = threshold;
+		_maxSegmentSize = maxSegmentSize;
+		_compactionPercent = compactionPercent;
+		_compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "webdav-segment-compaction");
+			t.setDaemon(true);
+			return t;
+		});
+		openSegments();
+	}
+
+	@Override
+	public void destroy() {
+		LOG.debug("PackedFileSystemStore.destroy()");
+		_compactor.shutdown();
+		try {
+			_compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		_segmentLock.writeLock().lock();
+		try {
+			for (Segment segment : _segments.values()) {
+				segment.force();
+				segment.close();
+			}
+		} finally {
+			_segmentLock.writeLock().unlock();
+		}
+		super.destroy();
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String uri) throws WebDAVException {
+		if (_index.containsKey(URLUtil.getCleanPath(uri))) {
+			LOG.error("PackedFileSystemStore.createFolder(" + uri + ") failed");
+			throw new WebDAVException("cannot create folder '" + uri + "'");
+		}
+		super.createFolder(transaction, uri);
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		LOG.debug("PackedFileSystemStore.createResource(" + path + ")");
+		forget(transaction, path);
+		synchronized (_appendLock) {
+			if (_index.containsKey(path) || new File(_root, path).exists()) {
+				throw new WebDAVException("cannot create file '" + uri + "'");
+			}
+			long now = System.currentTimeMillis();
+			append(path, TYPE_DATA, now, now, new byte[0], 0);
+		}
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String uri, InputStream is, String contentType,
+			String characterEncoding) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		LOG.debug("PackedFileSystemStore.setResourceContent(" + path + ")");
+		ByteArrayOutputStream head = new ByteArrayOutputStream(Math.min(_threshold + 1, 8192));
+		try {
+			byte[] buffer = new byte[Math.min(_threshold + 1, 8192)];
+			int read;
+			while (head.size() <= _threshold && (read = is.read(buffer, 0, Math.min(buffer.length, _threshold + 1 - head.size()))) != -1) {
+				head.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			LOG.error("PackedFileSystemStore.setResourceContent(" + path + ") failed");
+			throw new WebDAVException(e);
+		}
+		File file = new File(_root, path);
+		if (head.size() > _threshold) {
+			// too large, store as a regular file
+			long length = super.setResourceContent(transaction, path,
+					new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), is), contentType,
+					characterEncoding);
+			synchronized (_appendLock) {
+				PackedEntry entry = _index.get(path);
+				if (entry != null) {
+					append(path, TYPE_TOMBSTONE, System.currentTimeMillis(), entry.creationDate, new byte[0], 0);
+				}
+			}
+			return length;
+		}
+		try {
+			is.close();
+		} catch (IOException e) {
+			LOG.debug("PackedFileSystemStore.setResourceContent(" + path + ") close failed", e);
+		}
+		byte[] data = head.toByteArray();
+		forget(transaction, path);
+		synchronized (_appendLock) {
+			PackedEntry entry = _index.get(path);
+			long now = System.currentTimeMillis();
+			long creationDate = entry != null ? entry.creationDate : now;
+			append(path, TYPE_DATA, now, creationDate, data, data.length);
+			if (file.isFile() && !file.delete()) {
+				LOG.warn("PackedFileSystemStore.setResourceContent(" + path + ") could not remove regular file");
+			}
+		}
+		return data.length;
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		String[] names = super.getChildrenNames(transaction, path);
+		if (names == null) {
+			return null;
+		}
+		Set<String> packed = _children.get(path);
+		boolean isRoot = "/".equals(path);
+		if ((packed == null || packed.isEmpty()) && !isRoot) {
+			return names;
+		}
+		Set<String> result = new LinkedHashSet<>(Arrays.asList(names));
+		if (isRoot) {
+			result.remove(SEGMENT_FOLDER);
+		}
+		if (packed != null) {
+			result.addAll(packed);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		synchronized (_appendLock) {
+			PackedEntry entry = _index.get(path);
+			if (entry != null) {
+				LOG.debug("PackedFileSystemStore.removeObject(" + path + ")");
+				forget(transaction, path);
+				append(path, TYPE_TOMBSTONE, System.currentTimeMillis(), entry.creationDate, new byte[0], 0);
+				return;
+			}
+		}
+		super.removeObject(transaction, path);
+	}
+
+	@Override
+	public boolean copyResource(ITransaction transaction, String sourceUri, String destinationUri) throws WebDAVException {
+		// packed resources are no files, and small copies should be packed too
+		return false;
+	}
+
+	@Override
+	public boolean moveToTrash(ITransaction transaction, String uri) throws WebDAVException {
+		// packed members would stay in the index, remove them one by one
+		return false;
+	}
+
+	@Override
+	public void createSnapshot(String name) throws WebDAVException {
+		// links to append-only segments would change with the tree
+		throw new AccessDeniedException("snapshots cannot hold packed resources");
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		_segmentLock.readLock().lock();
+		try {
+			PackedEntry entry = _index.get(path);
+			if (entry != null) {
+				LOG.debug("PackedFileSystemStore.getResourceContent(" + path + ")");
+				return new ByteArrayInputStream(read(entry));
+			}
+		} catch (IOException e) {
+			LOG.error("PackedFileSystemStore.getResourceContent(" + path + ") failed");
+			throw new WebDAVException(e);
+		} finally {
+			_segmentLock.readLock().unlock();
+		}
+		return super.getResourceContent(transaction, path);
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String uri) {
+		PackedEntry entry = _index.get(URLUtil.getCleanPath(uri));
+		if (entry != null) {
+			return entry.length;
+		}
+		return super.getResourceLength(transaction, uri);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri, Set<String> properties) {
+		String path = URLUtil.getCleanPath(uri);
+		if (_index.containsKey(path) || isSegmentPath(path)) {
+			return getStoredObject(transaction, path);
+		}
+		return super.getStoredObject(transaction, path, properties);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		PackedEntry entry = _index.get(path);
+		if (entry != null) {
+			StoredObject so = new StoredObject(path);
+			so.setFolder(false);
+			so.setResourceLength(entry.length);
+			so.setLastModified(new Date(entry.lastModified));
+			so.setCreationDate(new Date(entry.creationDate));
+			so.setMimeType(MimeTypeResolver.getDefault().getMimeType(path));
+			return so;
+		}
+		if (isSegmentPath(path)) {
+			return null;
+		}
+		return super.getStoredObject(transaction, path);
+	}
+
+	private static boolean isSegmentPath(String path) {
+		return path.equals("/" + SEGMENT_FOLDER) || path.startsWith("/" + SEGMENT_FOLDER + "/");
+	}
+
+	/**
+	 * @return number of packed resources
+	 */
+	public int getPackedCount() {
+		return _index.size();
+	}
+
+	/**
+	 * @return number of segment files
+	 */
+	public int getSegmentCount() {
+		return _segments.size();
+	}
+
+	/**
+	 * @return bytes used by all segment files
+	 */
+	public long getSegmentBytes() {
+		long bytes = 0;
+		for (Segment segment : _segments.values()) {
+			bytes += segment.size.get();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return bytes in segment files that belong to overwritten or removed
+	 *         resources
+	 */
+	public long getGarbageBytes() {
+		long bytes = 0;
+		for (Segment segment : _segments.values()) {
+			bytes += segment.garbage.get();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Compacts all segments that exceed the garbage threshold, the active
+	 * segment is sealed first if it qualifies.
+	 */
+	public void compact() {
+		synchronized (_appendLock) {
+			if (_activeSegment.needsCompaction() && _activeSegment.size.get() > 0) {
+				rollSegment();
+			}
+		}
+		for (Segment segment : _segments.values()) {
+			if (segment != _activeSegment && segment.needsCompaction()) {
+				compact(segment);
+			}
+		}
+	}
+
+	/**
+	 * Appends a record to the active segment, forces it to disk and updates
+	 * the index. Must be called with the append lock held.
+	 */
+	private void append(String path, byte type, long lastModified, long creationDate, byte[] data, int length) {
+		append(path, type, lastModified, creationDate, data, length, true);
+	}
+
+	/**
+	 * @param force
+	 *            <code>false</code> if the caller forces the segment itself
+	 */
+	private void append(String path, byte type, long lastModified, long creationDate, byte[] data, int length,
+			boolean force) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		int recordSize = HEADER_SIZE + pathBytes.length + length;
+		if (_activeSegment.size.get() > 0 && _activeSegment.size.get() + recordSize > _maxSegmentSize) {
+			rollSegment();
+		}
+		ByteBuffer record = ByteBuffer.allocate(recordSize);
+		record.putInt(MAGIC);
+		record.putInt(0);
+		record.put(type);
+		record.putLong(lastModified);
+		record.putLong(creationDate);
+		record.putInt(pathBytes.length);
+		record.putInt(length);
+		record.put(pathBytes);
+		record.put(data, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, recordSize - 8);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+
+		Segment segment = _activeSegment;
+		long offset = segment.size.get();
+		try {
+			while (record.hasRemaining()) {
+				segment.channel.write(record, offset + record.position());
+			}
+			if (force) {
+				segment.channel.force(false);
+			}
+		} catch (IOException e) {
+			LOG.error("PackedFileSystemStore.append(" + path + ") failed");
+			throw new WebDAVException(e);
+		}
+		segment.size.addAndGet(recordSize);
+
+		PackedEntry previous;
+		if (type == TYPE_DATA) {
+			previous = _index.put(path,
+					new PackedEntry(segment.id, offset, recordSize, length, lastModified, creationDate));
+			_children.computeIfAbsent(URLUtil.getParentPath(path), k -> ConcurrentHashMap.newKeySet())
+					.add(new StoredObject(path).getName());
+		} else {
+			previous = _index.remove(path);
+			removeChild(path);
+			// a tombstone is only needed until older segments are compacted
+			addGarbage(segment, recordSize);
+		}
+		if (previous != null) {
+			addGarbage(_segments.get(previous.segmentId), previous.recordSize);
+		}
+	}
+
+	private void removeChild(String path) {
+		String parent = URLUtil.getParentPath(path);
+		Set<String> names = _children.get(parent);
+		if (names != null) {
+			names.remove(new StoredObject(path).getName());
+			if (names.isEmpty()) {
+				_children.remove(parent, names);
+			}
+		}
+	}
+
+	private void addGarbage(Segment segment, long bytes) {
+		if (segment == null) {
+			return;
+		}
+		segment.garbage.addAndGet(bytes);
+		if (segment != _activeSegment && segment.needsCompaction() && _pendingCompactions.add(segment.id)
+				&& !_compactor.isShutdown()) {
+			_compactor.execute(() -> {
+				try {
+					compact(segment);
+				} finally {
+					_pendingCompactions.remove(segment.id);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies the live records of a sealed segment to the active segment and
+	 * deletes it. Records are read without the append lock, it is only taken
+	 * to check that a record is still live and to move its index entry.
+	 */
+	private void compact(Segment segment) {
+		synchronized (_compactionLock) {
+			if (!_segments.containsKey(segment.id)) {
+				return;
+			}
+			LOG.debug("PackedFileSystemStore.compact(" + segment.file.getName() + ")");
+			boolean hasOlderSegments = _segments.firstKey() < segment.id;
+			Set<Segment> targets = new LinkedHashSet<>();
+			try {
+				long offset = 0;
+				long size = segment.size.get();
+				while (offset < size) {
+					Record record = readRecord(segment, offset);
+					if (record == null) {
+						break;
+					}
+					synchronized (_appendLock) {
+						PackedEntry entry = _index.get(record.path);
+						if (record.type == TYPE_DATA) {
+							if (entry != null && entry.segmentId == segment.id && entry.offset == offset) {
+								append(record.path, TYPE_DATA, record.lastModified, record.creationDate, record.data,
+										record.data.length, false);
+								targets.add(_activeSegment);
+							}
+						} else if (entry == null && hasOlderSegments) {
+							// still hides a record in an older segment
+							append(record.path, TYPE_TOMBSTONE, record.lastModified, record.creationDate, new byte[0],
+									0, false);
+							targets.add(_activeSegment);
+						}
+					}
+					offset += record.recordSize;
+				}
+				// the copies must be on disk before the originals are gone
+				for (Segment target : targets) {
+					target.channel.force(false);
+				}
+			} catch (IOException e) {
+				LOG.error("PackedFileSystemStore.compact(" + segment.file.getName() + ") failed", e);
+				return;
+			}
+			_segmentLock.writeLock().lock();
+			try {
+				_segments.remove(segment.id);
+				segment.close();
+				if (!segment.file.delete()) {
+					LOG.warn("PackedFileSystemStore.compact() could not delete " + segment.file.getAbsolutePath());
+				}
+			} finally {
+				_segmentLock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void rollSegment() {
+		if (_activeSegment != null) {
+			_activeSegment.force();
+		}
+		long id = _segments.isEmpty() ? 1 : _segments.lastKey() + 1;
+		try {
+			_activeSegment = openSegment(id);
+		} catch (IOException e) {
+			LOG.error("PackedFileSystemStore could not create segment " + id);
+			throw new WebDAVException(e);
+		}
+		_segments.put(id, _activeSegment);
+		// sealed segments may have been waiting for this
+		for (Segment segment : _segments.values()) {
+			if (segment != _activeSegment) {
+				addGarbage(segment, 0);
+			}
+		}
+	}
+
+	private byte[] read(PackedEntry entry) throws IOException {
+		Segment segment = _segments.get(entry.segmentId);
+		ByteBuffer data = ByteBuffer.allocate((int) entry.length);
+		long position = entry.offset + entry.recordSize - entry.length;
+		while (data.hasRemaining()) {
+			if (segment.channel.read(data, position + data.position()) < 0) {
+				throw new IOException("unexpected end of segment " + segment.file.getName());
+			}
+		}
+		return data.array();
+	}
+
+	/**
+	 * Opens all segments and rebuilds the index.
+	 */
+	private void openSegments() {
+		if (!_segmentFolder.isDirectory() && !_segmentFolder.mkdirs()) {
+			throw new WebDAVException("segment folder '" + _segmentFolder.getAbsolutePath() + "' could not be created");
+		}
+		File[] files = _segmentFolder.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		Map<Long, File> sorted = new TreeMap<>();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				try {
+					sorted.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+				} catch (NumberFormatException e) {
+					LOG.warn("PackedFileSystemStore ignoring " + file.getAbsolutePath());
+				}
+			}
+		}
+		try {
+			for (Long id : sorted.keySet()) {
+				Segment segment = openSegment(id);
+				_segments.put(id, segment);
+				_activeSegment = segment;
+				replay(segment);
+			}
+		} catch (IOException e) {
+			LOG.error("PackedFileSystemStore could not open segments");
+			throw new WebDAVException(e);
+		}
+		List<String> superseded = new ArrayList<>();
+		for (Map.Entry<String, PackedEntry> e : _index.entrySet()) {
+			// interrupted conversion between regular and packed file, newest wins
+			File file = new File(_root, e.getKey());
+			if (file.isFile() && file.lastModified() >= e.getValue().lastModified) {
+				superseded.add(e.getKey());
+			}
+		}
+		synchronized (_appendLock) {
+			if (_activeSegment == null) {
+				rollSegment();
+			}
+			for (String path : superseded) {
+				append(path, TYPE_TOMBSTONE, System.currentTimeMillis(), 0, new byte[0], 0);
+			}
+		}
+		LOG.info("PackedFileSystemStore opened " + _segments.size() + " segments with " + _index.size()
+				+ " resources");
+	}
+
+	private void replay(Segment segment) throws IOException {
+		long offset = 0;
+		long size = segment.channel.size();
+		while (offset < size) {
+			Record record = readRecord(segment, offset);
+			if (record == null) {
+				LOG.warn("PackedFileSystemStore truncating " + segment.file.getName() + " at " + offset);
+				segment.channel.truncate(offset);
+				break;
+			}
+			PackedEntry previous;
+			if (record.type == TYPE_DATA) {
+				previous = _index.put(record.path, new PackedEntry(segment.id, offset, record.recordSize,
+						record.data.length, record.lastModified, record.creationDate));
+				_children.computeIfAbsent(URLUtil.getParentPath(record.path), k -> ConcurrentHashMap.newKeySet())
+						.add(new StoredObject(record.path).getName());
+			} else {
+				previous = _index.remove(record.path);
+				removeChild(record.path);
+				segment.garbage.addAndGet(record.recordSize);
+			}
+			if (previous != null) {
+				_segments.get(previous.segmentId).garbage.addAndGet(previous.recordSize);
+			}
+			offset += record.recordSize;
+		}
+		segment.size.set(offset);
+	}
+
+	/**
+	 * @return the record at offset or <code>null</code> if it is incomplete or
+	 *         corrupt
+	 */
+	private Record readRecord(Segment segment, long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (!readFully(segment.channel, header, offset) || header.getInt(0) != MAGIC) {
+			return null;
+		}
+		int pathLength = header.getInt(25);
+		int dataLength = header.getInt(29);
+		if (pathLength < 0 || dataLength < 0 || offset + HEADER_SIZE + pathLength + dataLength > segment.channel.size()) {
+			return null;
+		}
+		ByteBuffer body = ByteBuffer.allocate(pathLength + dataLength);
+		if (!readFully(segment.channel, body, offset + HEADER_SIZE)) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 8, HEADER_SIZE - 8);
+		crc.update(body.array(), 0, body.capacity());
+		if ((int) crc.getValue() != header.getInt(4)) {
+			return null;
+		}
+		Record record = new Record();
+		record.type = header.get(8);
+		record.lastModified = header.getLong(9);
+		record.creationDate = header.getLong(17);
+		record.path = new String(body.array(), 0, pathLength, StandardCharsets.UTF_8);
+		record.data = Arrays.copyOfRange(body.array(), pathLength, pathLength + dataLength);
+		record.recordSize = HEADER_SIZE + pathLength + dataLength;
+		return record;
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Segment openSegment(long id) throws IOException {
+		File file = new File(_segmentFolder, String.format("%016d", id) + SEGMENT_SUFFIX);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		return new Segment(id, file, channel);
+	}
+
+	private final class Segment {
+		private final long id;
+		private final File file;
+		private final FileChannel channel;
+		private final AtomicLong size = new AtomicLong();
+		private final AtomicLong garbage = new AtomicLong();
+
+		private Segment(long id, File file, FileChannel channel) {
+			this.id = id;
+			this.file = file;
+			this.channel = channel;
+		}
+
+		private boolean needsCompaction() {
+			long s = size.get();
+			return s > 0 && garbage.get() * 100 >= s * _compactionPercent;
+		}
+
+		private void force() {
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				LOG.warn("PackedFileSystemStore could not force " + file.getAbsolutePath(), e);
+			}
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("PackedFileSystemStore could not close " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	private static final class PackedEntry {
+		private final long segmentId;
+		private final long offset;
+		private final int recordSize;
+		private final long length;
+		private final long lastModified;
+		private final long creationDate;
+
+		private PackedEntry(long segmentId, long offset, int recordSize, long length, long lastModified,
+				long creationDate) {
+			this.segmentId = segmentId;
+			this.offset = offset;
+			this.recordSize = recordSize;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.creationDate = creationDate;
+		}
+	}
+
+	private static final class Record {
+		private byte type;
+		private long lastModified;
+		private long creationDate;
+		private String path;
+		private byte[] data;
+		private int recordSize;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Minimal client for the S3 REST API using path-style addressing and
+ * AWS Signature Version 4.
+ */
+class S3Client {
+
+	private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+	private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * time until the response headers arrived, sending the request body
+	 * included
+	 */
+	private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+	private final HttpClient _httpClient;
+	private final URI _endpoint;
+	private final String _bucket;
+	private final String _region;
+	private final String _accessKey;
+	private final String _secretKey;
+
+	S3Client(URI endpoint, String bucket, String region, String accessKey, String secretKey) {
+		_endpoint = endpoint;
+		_bucket = bucket;
+		_region = region;
+		_accessKey = accessKey;
+		_secretKey = secretKey;
+		_httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+	}
+
+	/**
+	 * Sends a request for an object key of the bucket.
+	 *
+	 * @param method
+	 *            HTTP method
+	 * @param key
+	 *            object key, empty for the bucket itself
+	 * @param query
+	 *            query parameters, may be <code>null</code>
+	 * @param headers
+	 *            additional headers, may be <code>null</code>
+	 * @param body
+	 *            request body, may be <code>null</code>
+	 */
+	HttpResponse<InputStream> send(String method, String key, Map<String, String> query, Map<String, String> headers,
+			byte[] body) throws IOException {
+		if (query == null) {
+			query = Collections.emptyMap();
+		}
+		String canonicalUri = "/" + encode(_bucket, false) + "/" + encode(key, true);
+		StringBuilder canonicalQuery = new StringBuilder();
+		for (Map.Entry<String, String> e : new TreeMap<>(query).entrySet()) {
+			if (canonicalQuery.length() > 0) {
+				canonicalQuery.append('&');
+			}
+			canonicalQuery.append(encode(e.getKey(), false)).append('=').append(encode(e.getValue(), false));
+		}
+		String payloadHash = body == null || body.length == 0 ? EMPTY_SHA256 : hex(sha256(body));
+		ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+		String amzDate = AMZ_DATE.format(now);
+		String dateStamp = amzDate.substring(0, 8);
+		String host = _endpoint.getHost() + (_endpoint.getPort() != -1 ? ":" + _endpoint.getPort() : "");
+
+		String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\nhost:" + host
+				+ "\nx-amz-content-sha256:" + payloadHash + "\nx-amz-date:" + amzDate
+				+ "\n\nhost;x-amz-content-sha256;x-amz-date\n" + payloadHash;
+		String scope = dateStamp + "/" + _region + "/s3/aws4_request";
+		String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+				+ hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+		byte[] signingKey = hmac(("AWS4" + _secretKey).getBytes(StandardCharsets.UTF_8), dateStamp);
+		signingKey = hmac(signingKey, _region);
+		signingKey = hmac(signingKey, "s3");
+		signingKey = hmac(signingKey, "aws4_request");
+		String signature = hex(hmac(signingKey, stringToSign));
+
+		String base = _endpoint.toString();
+		if (base.endsWith("/")) {
+			base = base.substring(0, base.length() - 1);
+		}
+		URI uri = URI.create(base + canonicalUri + (canonicalQuery.length() > 0 ? "?" + canonicalQuery : ""));
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+				.timeout(REQUEST_TIMEOUT)
+				.header("x-amz-date", amzDate)
+				.header("x-amz-content-sha256", payloadHash)
+				.header("Authorization", "AWS4-HMAC-SHA256 Credential=" + _accessKey + "/" + scope
+						+ ", SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=" + signature)
+				.method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+						: HttpRequest.BodyPublishers.ofByteArray(body));
+		if (headers != null) {
+			for (Map.Entry<String, String> e : headers.entrySet()) {
+				builder.header(e.getKey(), e.getValue());
+			}
+		}
+		try {
+			return _httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while sending " + method + " " + uri, e);
+		}
+	}
+
+	/**
+	 * Parses an XML response body and closes it.
+	 */
+	static Document parse(InputStream in) throws IOException {
+		try (InputStream is = in) {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setExpandEntityReferences(false);
+			return factory.newDocumentBuilder().parse(is);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("invalid response", e);
+		}
+	}
+
+	/**
+	 * Reads and discards a response body so the connection can be reused.
+	 */
+	static void discard(HttpResponse<InputStream> response) throws IOException {
+		try (InputStream in = response.body()) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	/**
+	 * URI encoding as required by Signature Version 4.
+	 */
+	static String encode(String value, boolean keepSlash) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xff);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+					|| c == '.' || c == '~' || (keepSlash && c == '/')) {
+				sb.append(c);
+			} else {
+				sb.append('%').append(Character.toUpperCase(HEX[(b >> 4) & 0xf]))
+						.append(Character.toUpperCase(HEX[b & 0xf]));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static byte[] sha256(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] data) {
+		char[] chars = new char[data.length * 2];
+		for (int i = 0; i < data.length; i++) {
+			chars[i * 2] = HEX[(data[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[data[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
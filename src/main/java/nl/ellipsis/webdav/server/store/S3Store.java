@@ -0,0 +1,674 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import nl.ellipsis.webdav.server.IRangeAwareStore;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.ObjectNotFoundException;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.MimeTypeResolver;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * Store that keeps its resources in an S3 compatible object storage.
+ * <p>
+ * Every resource is an object whose key is its path without the leading
+ * slash. Collections are emulated: a collection exists when an object with
+ * its key plus a trailing slash (created by MKCOL) or any object below that
+ * prefix exists, and its children are listed with a delimited prefix
+ * listing.
+ * <p>
+ * Uploads larger than {@link #WEBDAV_S3_PART_SIZE_PROPERTY} are sent as a
+ * multipart upload with up to {@link #WEBDAV_S3_PARALLELISM_PROPERTY} parts in
+ * flight. Content streams are opened lazily, so a skip() before the first
+ * read becomes a ranged GET, and a range read through
+ * {@link IRangeAwareStore} asks for the end of the range as well. Metadata from HEAD requests and listings is
+ * cached for {@link #WEBDAV_S3_METADATA_TTL_PROPERTY} milliseconds.
+ * <p>
+ * The connection is configured through system properties, the
+ * <code>rootpath</code> passed by the servlet is not used.
+ */
+public class S3Store implements IWebDAVStore, IRangeAwareStore {
+
+	public static final String WEBDAV_S3_ENDPOINT_PROPERTY = "webdavS3Endpoint";
+	public static final String WEBDAV_S3_BUCKET_PROPERTY = "webdavS3Bucket";
+	public static final String WEBDAV_S3_REGION_PROPERTY = "webdavS3Region";
+	public static final String WEBDAV_S3_ACCESS_KEY_PROPERTY = "webdavS3AccessKey";
+	public static final String WEBDAV_S3_SECRET_KEY_PROPERTY = "webdavS3SecretKey";
+	public static final String WEBDAV_S3_PART_SIZE_PROPERTY = "webdavS3PartSize";
+	public static final String WEBDAV_S3_PARALLELISM_PROPERTY = "webdavS3Parallelism";
+	public static final String WEBDAV_S3_METADATA_TTL_PROPERTY = "webdavS3MetadataTtl";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(S3Store.class);
+
+	private static final int MAX_CACHED_METADATA = 100000;
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final S3Client _client;
+	private final int _partSize;
+	private final int _parallelism;
+	private final long _metadataTtl;
+	private final ExecutorService _uploadExecutor;
+
+	/**
+	 * keys: path value: cached metadata, also for paths that do not exist
+	 */
+	private final Map<String, Metadata> _metadata = new ConcurrentHashMap<>();
+
+	public S3Store(File root) {
+		this(URI.create(getRequiredProperty(WEBDAV_S3_ENDPOINT_PROPERTY)),
+				getRequiredProperty(WEBDAV_S3_BUCKET_PROPERTY),
+				System.getProperty(WEBDAV_S3_REGION_PROPERTY, "us-east-1"),
+				getRequiredProperty(WEBDAV_S3_ACCESS_KEY_PROPERTY),
+				getRequiredProperty(WEBDAV_S3_SECRET_KEY_PROPERTY),
+				Integer.getInteger(WEBDAV_S3_PART_SIZE_PROPERTY, 8 * 1024 * 1024),
+				Integer.getInteger(WEBDAV_S3_PARALLELISM_PROPERTY, 4),
+				Long.getLong(WEBDAV_S3_METADATA_TTL_PROPERTY, 5000));
+	}
+
+	/**
+	 * @param endpoint
+	 *            base URI of the service, the bucket is addressed path-style
+	 * @param partSize
+	 *            size of a multipart upload part, S3 requires at least 5 MiB
+	 * @param parallelism
+	 *            number of parts uploaded concurrently
+	 * @param metadataTtl
+	 *            milliseconds metadata is cached, <code>0</code> disables
+	 *            caching
+	 */
+	public S3Store(URI endpoint, String bucket, String region, String accessKey, String secretKey, int partSize,
+			int parallelism, long metadataTtl) {
+		_client = new S3Client(endpoint, bucket, region, accessKey, secretKey);
+		_partSize = partSize;
+		_parallelism = Math.max(1, parallelism);
+		_metadataTtl = metadataTtl;
+		AtomicInteger threadCount = new AtomicInteger();
+		_uploadExecutor = Executors.newFixedThreadPool(_parallelism, r -> {
+			Thread t = new Thread(r, "webdav-s3-upload-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public void destroy() {
+		LOG.debug("S3Store.destroy()");
+		_uploadExecutor.shutdownNow();
+	}
+
+	@Override
+	public ITransaction begin(Principal principal) throws WebDAVException {
+		LOG.debug("S3Store.begin()");
+		return null;
+	}
+
+	@Override
+	public void checkAuthentication(ITransaction transaction) throws SecurityException {
+		// do nothing
+	}
+
+	@Override
+	public void commit(ITransaction transaction) throws WebDAVException {
+		// do nothing
+	}
+
+	@Override
+	public void rollback(ITransaction transaction) throws WebDAVException {
+		// do nothing
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(folderUri);
+		LOG.debug("S3Store.createFolder(" + path + ")");
+		invalidate(path);
+		putObject(toKey(path) + "/", new byte[0], null);
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(resourceUri);
+		LOG.debug("S3Store.createResource(" + path + ")");
+		invalidate(path);
+		putObject(toKey(path), new byte[0], null);
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(resourceUri);
+		LOG.debug("S3Store.getResourceContent(" + path + ")");
+		return new RangedInputStream(toKey(path), 0, -1);
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri, long start, long end)
+			throws WebDAVException {
+		String path = URLUtil.getCleanPath(resourceUri);
+		LOG.debug("S3Store.getResourceContent(" + path + ", " + start + ", " + end + ")");
+		if (end <= start) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		return new RangedInputStream(toKey(path), start, end);
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) throws WebDAVException {
+		String path = URLUtil.getCleanPath(resourceUri);
+		String key = toKey(path);
+		LOG.debug("S3Store.setResourceContent(" + path + ")");
+		invalidate(path);
+		try (InputStream in = content) {
+			byte[] chunk = readChunk(in);
+			if (chunk.length < _partSize) {
+				putObject(key, chunk, contentType);
+				return chunk.length;
+			}
+			return multipartUpload(key, chunk, in, contentType);
+		} catch (IOException e) {
+			LOG.error("S3Store.setResourceContent(" + path + ") failed");
+			throw new WebDAVException(e);
+		} finally {
+			invalidate(path);
+		}
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String folderUri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(folderUri);
+		LOG.debug("S3Store.getChildrenNames(" + path + ")");
+		String prefix = "/".equals(path) ? "" : toKey(path) + "/";
+		TreeSet<String> names = new TreeSet<>();
+		boolean exists = prefix.isEmpty();
+		String continuationToken = null;
+		long expiresAt = System.currentTimeMillis() + _metadataTtl;
+		try {
+			do {
+				Map<String, String> query = new HashMap<>();
+				query.put("list-type", "2");
+				query.put("prefix", prefix);
+				query.put("delimiter", "/");
+				if (continuationToken != null) {
+					query.put("continuation-token", continuationToken);
+				}
+				HttpResponse<InputStream> response = _client.send("GET", "", query, null, null);
+				checkStatus(response, path);
+				Document doc = S3Client.parse(response.body());
+				NodeList contents = doc.getElementsByTagNameNS("*", "Contents");
+				for (int i = 0; i < contents.getLength(); i++) {
+					Element element = (Element) contents.item(i);
+					String key = getText(element, "Key");
+					exists = true;
+					if (key.equals(prefix)) {
+						// folder marker
+						continue;
+					}
+					String name = key.substring(prefix.length());
+					names.add(name);
+					cache(URLUtil.getCleanPath(path, name), new Metadata(true, false,
+							Long.parseLong(getText(element, "Size")), parseIsoDate(getText(element, "LastModified")),
+							expiresAt));
+				}
+				NodeList prefixes = doc.getElementsByTagNameNS("*", "CommonPrefixes");
+				for (int i = 0; i < prefixes.getLength(); i++) {
+					String commonPrefix = getText((Element) prefixes.item(i), "Prefix");
+					String name = commonPrefix.substring(prefix.length(), commonPrefix.length() - 1);
+					exists = true;
+					if (name.isEmpty()) {
+						continue;
+					}
+					names.add(name);
+					cacheIfAbsent(URLUtil.getCleanPath(path, name), new Metadata(true, true, 0, 0, expiresAt));
+				}
+				continuationToken = "true".equals(getText(doc.getDocumentElement(), "IsTruncated"))
+						? getText(doc.getDocumentElement(), "NextContinuationToken")
+						: null;
+			} while (continuationToken != null);
+		} catch (IOException e) {
+			LOG.error("S3Store.getChildrenNames(" + path + ") failed");
+			throw new WebDAVException(e);
+		}
+		if (!exists) {
+			return null;
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String path) throws WebDAVException {
+		StoredObject so = getStoredObject(transaction, path);
+		return so != null ? so.getResourceLength() : -1;
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(uri);
+		LOG.debug("S3Store.removeObject(" + path + ")");
+		StoredObject so = getStoredObject(transaction, path);
+		if (so == null) {
+			throw new ObjectNotFoundException(path);
+		}
+		String key = so.isFolder() ? toKey(path) + "/" : toKey(path);
+		invalidate(path);
+		try {
+			HttpResponse<InputStream> response = _client.send("DELETE", key, null, null, null);
+			checkStatus(response, path);
+			S3Client.discard(response);
+		} catch (IOException e) {
+			LOG.error("S3Store.removeObject(" + path + ") failed");
+			throw new WebDAVException(e);
+		}
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		if ("/".equals(path)) {
+			StoredObject so = new StoredObject(path);
+			so.setFolder(true);
+			so.setLastModified(new Date(0));
+			so.setCreationDate(new Date(0));
+			return so;
+		}
+		Metadata metadata = _metadata.get(path);
+		if (metadata == null || metadata.expiresAt < System.currentTimeMillis()) {
+			LOG.debug("S3Store.getStoredObject(" + path + ")");
+			try {
+				metadata = fetchMetadata(path);
+			} catch (IOException e) {
+				// not knowing is not the same as not found
+				LOG.error("S3Store.getStoredObject(" + path + ") failed");
+				throw new WebDAVException(e);
+			}
+			cache(path, metadata);
+		}
+		return metadata.toStoredObject(path);
+	}
+
+	/**
+	 * Removes all cached metadata.
+	 */
+	public void clearMetadataCache() {
+		_metadata.clear();
+	}
+
+	private Metadata fetchMetadata(String path) throws IOException {
+		long expiresAt = System.currentTimeMillis() + _metadataTtl;
+		String key = toKey(path);
+		HttpResponse<InputStream> response = _client.send("HEAD", key, null, null, null);
+		S3Client.discard(response);
+		if (response.statusCode() == 200) {
+			long length = response.headers().firstValueAsLong("Content-Length").orElse(0);
+			long lastModified = response.headers().firstValue("Last-Modified")
+					.map(v -> ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli())
+					.orElse(0L);
+			return new Metadata(true, false, length, lastModified, expiresAt);
+		}
+		if (response.statusCode() != 404) {
+			checkStatus(response, path);
+		}
+		// a folder exists when anything with its prefix exists
+		Map<String, String> query = new HashMap<>();
+		query.put("list-type", "2");
+		query.put("prefix", key + "/");
+		query.put("max-keys", "1");
+		response = _client.send("GET", "", query, null, null);
+		checkStatus(response, path);
+		Document doc = S3Client.parse(response.body());
+		NodeList contents = doc.getElementsByTagNameNS("*", "Contents");
+		if (contents.getLength() == 0) {
+			return new Metadata(false, false, 0, 0, expiresAt);
+		}
+		Element first = (Element) contents.item(0);
+		long lastModified = getText(first, "Key").equals(key + "/") ? parseIsoDate(getText(first, "LastModified"))
+				: 0;
+		return new Metadata(true, true, 0, lastModified, expiresAt);
+	}
+
+	private void putObject(String key, byte[] data, String contentType) {
+		Map<String, String> headers = contentType != null ? Collections.singletonMap("Content-Type", contentType)
+				: null;
+		try {
+			HttpResponse<InputStream> response = sendWithRetry("PUT", key, null, headers, data);
+			checkStatus(response, key);
+			S3Client.discard(response);
+		} catch (IOException e) {
+			LOG.error("S3Store.putObject(" + key + ") failed");
+			throw new WebDAVException(e);
+		}
+	}
+
+	/**
+	 * Uploads the content in parts, at most {@link #_parallelism} parts are
+	 * uploaded (and buffered) at the same time.
+	 *
+	 * @return the number of bytes uploaded
+	 */
+	private long multipartUpload(String key, byte[] firstChunk, InputStream in, String contentType)
+			throws IOException {
+		Map<String, String> headers = contentType != null ? Collections.singletonMap("Content-Type", contentType)
+				: null;
+		HttpResponse<InputStream> response = _client.send("POST", key, Collections.singletonMap("uploads", ""),
+				headers, null);
+		checkStatus(response, key);
+		String uploadId = getText(S3Client.parse(response.body()).getDocumentElement(), "UploadId");
+		LOG.debug("S3Store.multipartUpload(" + key + ") uploadId=" + uploadId);
+
+		Semaphore inFlight = new Semaphore(_parallelism);
+		List<Future<String>> parts = new ArrayList<>();
+		long length = 0;
+		boolean completed = false;
+		try {
+			byte[] chunk = firstChunk;
+			while (chunk.length > 0) {
+				inFlight.acquire();
+				int partNumber = parts.size() + 1;
+				byte[] data = chunk;
+				parts.add(_uploadExecutor.submit(() -> {
+					try {
+						return uploadPart(key, uploadId, partNumber, data);
+					} finally {
+						inFlight.release();
+					}
+				}));
+				length += chunk.length;
+				if (chunk.length < _partSize) {
+					break;
+				}
+				chunk = readChunk(in);
+			}
+
+			StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+			for (int i = 0; i < parts.size(); i++) {
+				body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+						.append(parts.get(i).get()).append("</ETag></Part>");
+			}
+			body.append("</CompleteMultipartUpload>");
+			response = _client.send("POST", key, Collections.singletonMap("uploadId", uploadId), null,
+					body.toString().getBytes(StandardCharsets.UTF_8));
+			checkStatus(response, key);
+			Document doc = S3Client.parse(response.body());
+			if ("Error".equals(doc.getDocumentElement().getLocalName())) {
+				// errors after the upload started are reported with status 200
+				throw new IOException("completing upload of " + key + " failed: "
+						+ getText(doc.getDocumentElement(), "Message"));
+			}
+			completed = true;
+			return length;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while uploading " + key, e);
+		} catch (ExecutionException e) {
+			throw new IOException("uploading a part of " + key + " failed", e.getCause());
+		} finally {
+			if (!completed) {
+				for (Future<String> part : parts) {
+					part.cancel(true);
+				}
+				try {
+					S3Client.discard(_client.send("DELETE", key, Collections.singletonMap("uploadId", uploadId), null,
+							null));
+				} catch (IOException e) {
+					LOG.warn("S3Store could not abort upload " + uploadId + " of " + key, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the ETag of the uploaded part
+	 */
+	private String uploadPart(String key, String uploadId, int partNumber, byte[] data) throws IOException {
+		Map<String, String> query = new HashMap<>();
+		query.put("partNumber", Integer.toString(partNumber));
+		query.put("uploadId", uploadId);
+		HttpResponse<InputStream> response = sendWithRetry("PUT", key, query, null, data);
+		checkStatus(response, key);
+		S3Client.discard(response);
+		return response.headers().firstValue("ETag")
+				.orElseThrow(() -> new IOException("no ETag for part " + partNumber + " of " + key));
+	}
+
+	private HttpResponse<InputStream> sendWithRetry(String method, String key, Map<String, String> query,
+			Map<String, String> headers, byte[] body) throws IOException {
+		IOException failure = null;
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			try {
+				HttpResponse<InputStream> response = _client.send(method, key, query, headers, body);
+				if (response.statusCode() < 500 || attempt == MAX_ATTEMPTS) {
+					return response;
+				}
+				S3Client.discard(response);
+			} catch (IOException e) {
+				failure = e;
+			}
+			LOG.debug("S3Store " + method + " " + key + " failed, attempt " + attempt);
+		}
+		throw failure;
+	}
+
+	private byte[] readChunk(InputStream in) throws IOException {
+		return in.readNBytes(_partSize);
+	}
+
+	private void checkStatus(HttpResponse<InputStream> response, String path) throws IOException {
+		int status = response.statusCode();
+		if (status >= 200 && status < 300) {
+			return;
+		}
+		S3Client.discard(response);
+		if (status == 403) {
+			throw new AccessDeniedException(path);
+		}
+		if (status == 404) {
+			throw new ObjectNotFoundException(path);
+		}
+		throw new IOException("unexpected status " + status + " for " + path);
+	}
+
+	private void cache(String path, Metadata metadata) {
+		if (_metadataTtl <= 0) {
+			return;
+		}
+		if (_metadata.size() >= MAX_CACHED_METADATA) {
+			long now = System.currentTimeMillis();
+			_metadata.values().removeIf(m -> m.expiresAt < now);
+			if (_metadata.size() >= MAX_CACHED_METADATA) {
+				_metadata.clear();
+			}
+		}
+		_metadata.put(path, metadata);
+	}
+
+	private void cacheIfAbsent(String path, Metadata metadata) {
+		Metadata current = _metadata.get(path);
+		if (current == null || current.expiresAt < System.currentTimeMillis()) {
+			cache(path, metadata);
+		}
+	}
+
+	/**
+	 * Drops the cached metadata of a path and its parent folders, which may
+	 * have come into existence implicitly.
+	 */
+	private void invalidate(String path) {
+		for (String p = path; p != null; p = URLUtil.getParentPath(p)) {
+			_metadata.remove(p);
+		}
+	}
+
+	private static String toKey(String path) {
+		return path.substring(1);
+	}
+
+	private static String getText(Element parent, String localName) {
+		NodeList nodes = parent.getElementsByTagNameNS("*", localName);
+		return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+	}
+
+	private static long parseIsoDate(String value) {
+		return value != null ? Instant.parse(value).toEpochMilli() : 0;
+	}
+
+	private static String getRequiredProperty(String name) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			throw new WebDAVException("missing system property: " + name);
+		}
+		return value;
+	}
+
+	private static final class Metadata {
+		private final boolean exists;
+		private final boolean folder;
+		private final long length;
+		private final long lastModified;
+		private final long expiresAt;
+
+		private Metadata(boolean exists, boolean folder, long length, long lastModified, long expiresAt) {
+			this.exists = exists;
+			this.folder = folder;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.expiresAt = expiresAt;
+		}
+
+		private StoredObject toStoredObject(String path) {
+			if (!exists) {
+				return null;
+			}
+			StoredObject so = new StoredObject(path);
+			so.setFolder(folder);
+			so.setResourceLength(length);
+			so.setLastModified(new Date(lastModified));
+			so.setCreationDate(new Date(lastModified));
+			if (!folder) {
+				so.setMimeType(MimeTypeResolver.getDefault().getMimeType(path));
+			}
+			return so;
+		}
+	}
+
+	/**
+	 * Content stream that sends the GET on the first read, skipping before
+	 * that moves the start of the requested range.
+	 */
+	private final class RangedInputStream extends InputStream {
+		private final String _key;
+		/**
+		 * end of the requested range (exclusive), -1 for the end of the object
+		 */
+		private final long _end;
+		private long _offset;
+		private InputStream _in;
+
+		private RangedInputStream(String key, long offset, long end) {
+			_key = key;
+			_offset = offset;
+			_end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return open().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return open().read(b, off, len);
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (_in != null) {
+				return _in.skip(n);
+			}
+			if (n <= 0) {
+				return 0;
+			}
+			_offset += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (_in != null) {
+				_in.close();
+			}
+		}
+
+		private InputStream open() throws IOException {
+			if (_in == null) {
+				Map<String, String> headers = null;
+				if (_end >= 0 && _end <= _offset) {
+					// skipped beyond the requested range
+					_in = new ByteArrayInputStream(new byte[0]);
+					return _in;
+				} else if (_end >= 0) {
+					headers = Collections.singletonMap("Range", "bytes=" + _offset + "-" + (_end - 1));
+				} else if (_offset > 0) {
+					headers = Collections.singletonMap("Range", "bytes=" + _offset + "-");
+				}
+				HttpResponse<InputStream> response = _client.send("GET", _key, null, headers, null);
+				if (response.statusCode() == 416) {
+					// skipped beyond the end
+					S3Client.discard(response);
+					_in = new ByteArrayInputStream(new byte[0]);
+				} else {
+					checkStatus(response, _key);
+					_in = response.body();
+					if (_offset > 0 && response.statusCode() == 200) {
+						// range not supported by the service
+						_in.skipNBytes(_offset);
+					}
+				}
+			}
+			return _in;
+		}
+	}
+}
@@ -0,0 +1,813 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * Store that keeps a bounded working set of resources on a fast local "hot"
+ * tier (typically an SSD) in front of a slow capacity tier (HDD, NFS).
+ * <p>
+ * Resources are promoted into the hot tier when they are read and have been
+ * requested at least {@link #WEBDAV_HOT_TIER_ADMISSION_PROPERTY} times.
+ * When the hot tier grows beyond its byte budget, resources are evicted using
+ * either a least recently used or a least frequently used policy. Collections
+ * are always served by the capacity tier.
+ * <p>
+ * A resource on the hot tier is checked against the capacity tier at most
+ * once every {@link #WEBDAV_HOT_TIER_VALIDATION_INTERVAL_PROPERTY} ms, in
+ * between its content and metadata are served without touching the capacity
+ * tier. Writes through this store invalidate the entry right away, changes
+ * made to the capacity tier directly show up after at most one interval.
+ * <p>
+ * Writes go through to the capacity tier. In write-back mode the content is
+ * stored on the hot tier first and flushed to the capacity tier by a
+ * background thread. A failed flush is retried with a growing delay; once
+ * it is given up the content stays on the hot tier only, see
+ * {@link #getFailedFlushes()}.
+ * <p>
+ * The hot tier is a cache: its directory is cleared on startup, so every
+ * store needs a directory of its own ({@link #WEBDAV_HOT_TIER_PATH_PROPERTY}
+ * is required).
+ */
+public class TieredStore implements IWebDAVStore {
+
+	public static final String WEBDAV_HOT_TIER_PATH_PROPERTY = "webdavHotTierPath";
+	public static final String WEBDAV_HOT_TIER_MAX_BYTES_PROPERTY = "webdavHotTierMaxBytes";
+	public static final String WEBDAV_HOT_TIER_POLICY_PROPERTY = "webdavHotTierPolicy";
+	public static final String WEBDAV_HOT_TIER_ADMISSION_PROPERTY = "webdavHotTierAdmission";
+	public static final String WEBDAV_HOT_TIER_WRITE_BACK_PROPERTY = "webdavHotTierWriteBack";
+	public static final String WEBDAV_HOT_TIER_VALIDATION_INTERVAL_PROPERTY = "webdavHotTierValidationInterval";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(TieredStore.class);
+
+	private static int BUF_SIZE = 65536;
+
+	private static final String HOT_FILE_SUFFIX = ".hot";
+
+	/**
+	 * Number of paths for which access counts are remembered while they are
+	 * not (yet) admitted to the hot tier.
+	 */
+	private static final int MAX_TRACKED_CANDIDATES = 10000;
+
+	private static final long DEFAULT_VALIDATION_INTERVAL = 5000;
+
+	/**
+	 * A failed flush is retried after 1, 2, 4, ... seconds, at most
+	 * {@link #MAX_FLUSH_ATTEMPTS} times.
+	 */
+	private static final int MAX_FLUSH_ATTEMPTS = 10;
+	private static final long FLUSH_RETRY_DELAY = 1000;
+	private static final long MAX_FLUSH_RETRY_DELAY = 60000;
+
+	public enum EvictionPolicy {
+		/**
+		 * Evict the resource that was not read for the longest time
+		 */
+		LRU,
+		/**
+		 * Evict the resource that was read least often
+		 */
+		LFU
+	}
+
+	private final IWebDAVStore _capacityTier;
+	private final File _hotRoot;
+	private final long _maxHotBytes;
+	private final EvictionPolicy _policy;
+	private final int _admissionCount;
+	private final boolean _writeBack;
+	private final long _validationInterval;
+
+	/**
+	 * keys: uri value: entry on the hot tier, ordered by last access
+	 */
+	private final LinkedHashMap<String, HotEntry> _hotEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * keys: number of hits value: clean entries with that many hits, least
+	 * recently added first. Only kept for {@link EvictionPolicy#LFU}, the
+	 * victim is the first entry of the first bucket.
+	 */
+	private final TreeMap<Long, LinkedHashSet<HotEntry>> _frequencies = new TreeMap<>();
+
+	/**
+	 * keys: uri value: number of reads of resources not on the hot tier
+	 */
+	private final LinkedHashMap<String, Integer> _candidates = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_TRACKED_CANDIDATES;
+		}
+	};
+
+	private final ScheduledExecutorService _flushExecutor;
+	private final AtomicLong _fileCounter = new AtomicLong();
+
+	private long _hotBytes = 0;
+
+	private final LongAdder _hotHits = new LongAdder();
+	private final LongAdder _capacityHits = new LongAdder();
+	private final LongAdder _hotBytesServed = new LongAdder();
+	private final LongAdder _capacityBytesServed = new LongAdder();
+	private final LongAdder _promotions = new LongAdder();
+	private final LongAdder _evictions = new LongAdder();
+	private final LongAdder _flushes = new LongAdder();
+	private final LongAdder _failedFlushes = new LongAdder();
+
+	/**
+	 * Constructor used by the WebDAVServlet, the capacity tier is a
+	 * {@link LocalFileSystemStore} on <code>root</code>, the hot tier is
+	 * configured through system properties.
+	 */
+	public TieredStore(File root) {
+		this(new LocalFileSystemStore(root), getHotRootProperty(), getMaxHotBytesProperty(), getPolicyProperty(),
+				Integer.getInteger(WEBDAV_HOT_TIER_ADMISSION_PROPERTY, 2),
+				Boolean.getBoolean(WEBDAV_HOT_TIER_WRITE_BACK_PROPERTY),
+				Long.getLong(WEBDAV_HOT_TIER_VALIDATION_INTERVAL_PROPERTY, DEFAULT_VALIDATION_INTERVAL));
+	}
+
+	public TieredStore(IWebDAVStore capacityTier, File hotRoot, long maxHotBytes, EvictionPolicy policy,
+			int admissionCount, boolean writeBack) {
+		this(capacityTier, hotRoot, maxHotBytes, policy, admissionCount, writeBack, DEFAULT_VALIDATION_INTERVAL);
+	}
+
+	/**
+	 * @param capacityTier
+	 *            the store holding all data
+	 * @param hotRoot
+	 *            directory of the hot tier, it is cleared on startup
+	 * @param maxHotBytes
+	 *            number of bytes the hot tier may hold
+	 * @param policy
+	 *            how resources are selected for eviction
+	 * @param admissionCount
+	 *            number of reads after which a resource is promoted
+	 * @param writeBack
+	 *            <code>true</code> to store written content on the hot tier and
+	 *            flush it to the capacity tier in the background
+	 * @param validationInterval
+	 *            ms a hot resource is served without checking the capacity tier,
+	 *            <code>0</code> to check on every read
+	 */
+	public TieredStore(IWebDAVStore capacityTier, File hotRoot, long maxHotBytes, EvictionPolicy policy,
+			int admissionCount, boolean writeBack, long validationInterval) {
+		_capacityTier = capacityTier;
+		_hotRoot = hotRoot;
+		_maxHotBytes = maxHotBytes;
+		_policy = policy;
+		_admissionCount = Math.max(1, admissionCount);
+		_writeBack = writeBack;
+		_validationInterval = validationInterval;
+		_flushExecutor = writeBack ? Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "webdav-hot-tier-flush");
+			t.setDaemon(true);
+			return t;
+		}) : null;
+		initHotRoot();
+	}
+
+	@Override
+	public void destroy() {
+		LOG.debug("TieredStore.destroy()");
+		if (_flushExecutor != null) {
+			_flushExecutor.shutdown();
+			try {
+				if (!_flushExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
+					LOG.error("TieredStore.destroy() timed out while flushing the hot tier");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		LOG.info("TieredStore statistics: " + getStatistics());
+		_capacityTier.destroy();
+	}
+
+	@Override
+	public ITransaction begin(Principal principal) {
+		return _capacityTier.begin(principal);
+	}
+
+	@Override
+	public void checkAuthentication(ITransaction transaction) {
+		_capacityTier.checkAuthentication(transaction);
+	}
+
+	@Override
+	public void commit(ITransaction transaction) {
+		_capacityTier.commit(transaction);
+	}
+
+	@Override
+	public void rollback(ITransaction transaction) {
+		_capacityTier.rollback(transaction);
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) {
+		_capacityTier.createFolder(transaction, folderUri);
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) {
+		invalidate(URLUtil.getCleanPath(resourceUri));
+		_capacityTier.createResource(transaction, resourceUri);
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) {
+		String uri = URLUtil.getCleanPath(resourceUri);
+		LOG.debug("TieredStore.getResourceContent(" + uri + ")");
+
+		HotEntry entry = lookup(transaction, uri);
+		if (entry == null && isAdmitted(uri)) {
+			entry = promote(transaction, uri);
+		}
+		if (entry != null) {
+			try {
+				InputStream in = new BufferedInputStream(new FileInputStream(entry.file), BUF_SIZE);
+				_hotHits.increment();
+				return new CountingInputStream(in, _hotBytesServed);
+			} catch (IOException e) {
+				// evicted between lookup and open, fall back to the capacity tier
+				LOG.debug("TieredStore.getResourceContent(" + uri + ") hot file vanished");
+			}
+		}
+		_capacityHits.increment();
+		return new CountingInputStream(_capacityTier.getResourceContent(transaction, uri), _capacityBytesServed);
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) {
+		String uri = URLUtil.getCleanPath(resourceUri);
+		if (!_writeBack) {
+			invalidate(uri);
+			return _capacityTier.setResourceContent(transaction, uri, content, contentType, characterEncoding);
+		}
+		LOG.debug("TieredStore.setResourceContent(" + uri + ") write-back");
+		File file = newHotFile();
+		long length;
+		try {
+			length = copy(content, file);
+		} catch (IOException e) {
+			file.delete();
+			LOG.error("TieredStore.setResourceContent(" + uri + ") failed");
+			throw new WebDAVException(e);
+		}
+		HotEntry entry = new HotEntry(uri, file, length, System.currentTimeMillis());
+		entry.dirty = true;
+		insert(entry);
+		_flushExecutor.execute(() -> flush(entry));
+		return length;
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String folderUri) {
+		return _capacityTier.getChildrenNames(transaction, folderUri);
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String path) {
+		HotEntry entry = getDirtyEntry(URLUtil.getCleanPath(path));
+		if (entry != null) {
+			return entry.length;
+		}
+		return _capacityTier.getResourceLength(transaction, path);
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		if (!invalidate(path)) {
+			// a hot entry is a resource, without one this may be a folder
+			invalidateMembers(path);
+		}
+		_capacityTier.removeObject(transaction, uri);
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		StoredObject hot = getHotStoredObject(URLUtil.getCleanPath(uri));
+		if (hot != null) {
+			return hot;
+		}
+		// looked up first, a flush might be running while the capacity tier is
+		// read
+		HotEntry entry = getDirtyEntry(URLUtil.getCleanPath(uri));
+		StoredObject so = _capacityTier.getStoredObject(transaction, uri);
+		if (so != null && so.isResource()) {
+			// content that is not yet flushed is newer than the capacity tier
+			if (entry != null && !entry.removed) {
+				so.setResourceLength(entry.length);
+				so.setLastModified(new Date(entry.lastModified));
+			}
+		}
+		return so;
+	}
+
+	/**
+	 * @return number of reads served by the hot tier
+	 */
+	public long getHotTierHits() {
+		return _hotHits.sum();
+	}
+
+	/**
+	 * @return number of reads served by the capacity tier
+	 */
+	public long getCapacityTierHits() {
+		return _capacityHits.sum();
+	}
+
+	/**
+	 * @return fraction of reads served by the hot tier, <code>0</code> if
+	 *         nothing was read yet
+	 */
+	public double getHotTierHitRate() {
+		long hot = getHotTierHits();
+		long total = hot + getCapacityTierHits();
+		return total == 0 ? 0 : (double) hot / total;
+	}
+
+	/**
+	 * @return number of content bytes read from the hot tier
+	 */
+	public long getHotTierBytesServed() {
+		return _hotBytesServed.sum();
+	}
+
+	/**
+	 * @return number of content bytes read from the capacity tier, including
+	 *         reads done to promote resources
+	 */
+	public long getCapacityTierBytesServed() {
+		return _capacityBytesServed.sum();
+	}
+
+	/**
+	 * @return number of bytes currently held by the hot tier
+	 */
+	public synchronized long getHotTierBytesStored() {
+		return _hotBytes;
+	}
+
+	/**
+	 * @return number of resources currently held by the hot tier
+	 */
+	public synchronized int getHotTierEntries() {
+		return _hotEntries.size();
+	}
+
+	public long getPromotions() {
+		return _promotions.sum();
+	}
+
+	public long getEvictions() {
+		return _evictions.sum();
+	}
+
+	public long getFlushes() {
+		return _flushes.sum();
+	}
+
+	/**
+	 * @return number of written resources whose flush was given up, their
+	 *         content is only on the hot tier
+	 */
+	public long getFailedFlushes() {
+		return _failedFlushes.sum();
+	}
+
+	/**
+	 * Removes all entries of the hot tier, dirty entries are kept.
+	 */
+	public void clearHotTier() {
+		List<HotEntry> dropped = new ArrayList<>();
+		synchronized (this) {
+			for (Iterator<HotEntry> it = _hotEntries.values().iterator(); it.hasNext();) {
+				HotEntry e = it.next();
+				if (!e.dirty) {
+					it.remove();
+					removeFrequency(e);
+					e.removed = true;
+					_hotBytes -= e.length;
+					dropped.add(e);
+				}
+			}
+		}
+		for (HotEntry e : dropped) {
+			deleteHotFile(e);
+		}
+	}
+
+	public String getStatistics() {
+		return "hotHits=" + getHotTierHits() + ", capacityHits=" + getCapacityTierHits()
+				+ ", hotBytesServed=" + getHotTierBytesServed() + ", capacityBytesServed="
+				+ getCapacityTierBytesServed() + ", hotBytesStored=" + getHotTierBytesStored() + "/" + _maxHotBytes
+				+ ", promotions=" + getPromotions() + ", evictions=" + getEvictions() + ", flushes=" + getFlushes()
+				+ ", failedFlushes=" + getFailedFlushes();
+	}
+
+	/**
+	 * Returns the hot tier entry for uri if it is still valid, otherwise drops
+	 * it.
+	 */
+	private HotEntry lookup(ITransaction transaction, String uri) {
+		HotEntry entry;
+		synchronized (this) {
+			entry = _hotEntries.get(uri);
+			if (entry == null) {
+				return null;
+			}
+			removeFrequency(entry);
+			entry.hits++;
+			addFrequency(entry);
+			if (entry.dirty || !isValidationDue(entry)) {
+				return entry;
+			}
+		}
+		// the capacity tier might have been modified by somebody else
+		StoredObject so = _capacityTier.getStoredObject(transaction, uri);
+		if (so != null && so.isResource() && so.getResourceLength() == entry.length && so.getLastModified() != null
+				&& so.getLastModified().getTime() == entry.lastModified) {
+			synchronized (this) {
+				entry.storedObject = so;
+				entry.validatedAt = System.currentTimeMillis();
+			}
+			return entry;
+		}
+		LOG.debug("TieredStore.lookup(" + uri + ") stale hot entry");
+		invalidate(uri);
+		return null;
+	}
+
+	private synchronized boolean isAdmitted(String uri) {
+		int count = _candidates.getOrDefault(uri, 0) + 1;
+		if (count >= _admissionCount) {
+			_candidates.remove(uri);
+			return true;
+		}
+		_candidates.put(uri, count);
+		return false;
+	}
+
+	/**
+	 * Copies the resource from the capacity tier to the hot tier.
+	 *
+	 * @return the new entry or <code>null</code> if the resource can't be
+	 *         promoted
+	 */
+	private HotEntry promote(ITransaction transaction, String uri) {
+		StoredObject so = _capacityTier.getStoredObject(transaction, uri);
+		if (so == null || !so.isResource() || so.getLastModified() == null
+				|| so.getResourceLength() > _maxHotBytes / 4) {
+			// a single resource must not flush the whole tier
+			return null;
+		}
+		File file = newHotFile();
+		try {
+			InputStream in = new CountingInputStream(_capacityTier.getResourceContent(transaction, uri),
+					_capacityBytesServed);
+			long length = copy(in, file);
+			if (length != so.getResourceLength()) {
+				// modified while copying
+				file.delete();
+				return null;
+			}
+		} catch (IOException | WebDAVException e) {
+			LOG.warn("TieredStore.promote(" + uri + ") failed", e);
+			file.delete();
+			return null;
+		}
+		HotEntry entry = new HotEntry(uri, file, so.getResourceLength(), so.getLastModified().getTime());
+		entry.storedObject = so;
+		entry.validatedAt = System.currentTimeMillis();
+		_promotions.increment();
+		LOG.debug("TieredStore.promote(" + uri + ")");
+		insert(entry);
+		return entry;
+	}
+
+	private void insert(HotEntry entry) {
+		List<HotEntry> dropped = new ArrayList<>();
+		synchronized (this) {
+			HotEntry previous = _hotEntries.put(entry.uri, entry);
+			if (previous != null) {
+				removeFrequency(previous);
+				previous.removed = true;
+				_hotBytes -= previous.length;
+				dropped.add(previous);
+			}
+			_hotBytes += entry.length;
+			while (_hotBytes > _maxHotBytes) {
+				HotEntry victim = selectVictim(entry);
+				if (victim == null) {
+					// only dirty entries left, they are flushed soon
+					break;
+				}
+				_hotEntries.remove(victim.uri);
+				removeFrequency(victim);
+				victim.removed = true;
+				_hotBytes -= victim.length;
+				dropped.add(victim);
+				_evictions.increment();
+			}
+			// added last, so it is not evicted to make room for itself
+			addFrequency(entry);
+		}
+		for (HotEntry e : dropped) {
+			deleteHotFile(e);
+		}
+	}
+
+	private HotEntry selectVictim(HotEntry inserted) {
+		if (_policy == EvictionPolicy.LFU) {
+			Map.Entry<Long, LinkedHashSet<HotEntry>> least = _frequencies.firstEntry();
+			return least != null ? least.getValue().iterator().next() : null;
+		}
+		for (HotEntry e : _hotEntries.values()) {
+			if (!e.dirty && e != inserted) {
+				// iteration order of the map is the access order
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a clean entry to the bucket of its number of hits, must be called
+	 * with the monitor held.
+	 */
+	private void addFrequency(HotEntry entry) {
+		if (_policy == EvictionPolicy.LFU && !entry.dirty) {
+			_frequencies.computeIfAbsent(entry.hits, k -> new LinkedHashSet<>()).add(entry);
+		}
+	}
+
+	private void removeFrequency(HotEntry entry) {
+		if (_policy == EvictionPolicy.LFU) {
+			LinkedHashSet<HotEntry> bucket = _frequencies.get(entry.hits);
+			if (bucket != null && bucket.remove(entry) && bucket.isEmpty()) {
+				_frequencies.remove(entry.hits);
+			}
+		}
+	}
+
+	private boolean isValidationDue(HotEntry entry) {
+		return System.currentTimeMillis() - entry.validatedAt >= _validationInterval;
+	}
+
+	/**
+	 * @return metadata of a clean hot entry that does not need validation yet,
+	 *         <code>null</code> if the capacity tier has to be asked
+	 */
+	private synchronized StoredObject getHotStoredObject(String uri) {
+		HotEntry entry = _hotEntries.get(uri);
+		if (entry == null || entry.dirty || entry.storedObject == null || isValidationDue(entry)) {
+			return null;
+		}
+		return new StoredObject(entry.storedObject);
+	}
+
+	/**
+	 * @return whether the uri had an entry on the hot tier
+	 */
+	private boolean invalidate(String uri) {
+		HotEntry entry;
+		synchronized (this) {
+			entry = _hotEntries.remove(uri);
+			_candidates.remove(uri);
+			if (entry == null) {
+				return false;
+			}
+			_hotBytes -= entry.length;
+			removeFrequency(entry);
+		}
+		// wait for a running flush of this entry
+		synchronized (entry) {
+			entry.removed = true;
+		}
+		deleteHotFile(entry);
+		return true;
+	}
+
+	/**
+	 * Invalidates the entries below a folder.
+	 */
+	private void invalidateMembers(String folderUri) {
+		String prefix = folderUri.endsWith("/") ? folderUri : folderUri + "/";
+		List<String> members = new ArrayList<>();
+		synchronized (this) {
+			for (String uri : _hotEntries.keySet()) {
+				if (uri.startsWith(prefix)) {
+					members.add(uri);
+				}
+			}
+			_candidates.keySet().removeIf(uri -> uri.startsWith(prefix));
+		}
+		for (String uri : members) {
+			invalidate(uri);
+		}
+	}
+
+	private synchronized HotEntry getDirtyEntry(String uri) {
+		HotEntry entry = _hotEntries.get(uri);
+		return entry != null && entry.dirty ? entry : null;
+	}
+
+	/**
+	 * Writes a write-back entry to the capacity tier.
+	 */
+	private void flush(HotEntry entry) {
+		synchronized (entry) {
+			if (entry.removed || !entry.dirty) {
+				// superseded or deleted in the meantime
+				return;
+			}
+			ITransaction transaction = _capacityTier.begin(null);
+			try (InputStream in = new BufferedInputStream(new FileInputStream(entry.file), BUF_SIZE)) {
+				_capacityTier.setResourceContent(transaction, entry.uri, in, null, null);
+				_capacityTier.commit(transaction);
+				StoredObject so = _capacityTier.getStoredObject(transaction, entry.uri);
+				synchronized (this) {
+					entry.dirty = false;
+					if (so != null && so.getLastModified() != null) {
+						entry.lastModified = so.getLastModified().getTime();
+						entry.storedObject = so;
+						entry.validatedAt = System.currentTimeMillis();
+					}
+					if (_policy == EvictionPolicy.LFU && _hotEntries.get(entry.uri) == entry) {
+						// evictable from now on
+						addFrequency(entry);
+					}
+				}
+				_flushes.increment();
+				LOG.debug("TieredStore.flush(" + entry.uri + ")");
+			} catch (IOException | RuntimeException e) {
+				_capacityTier.rollback(transaction);
+				entry.flushAttempts++;
+				if (entry.flushAttempts >= MAX_FLUSH_ATTEMPTS || _flushExecutor.isShutdown()) {
+					// stays dirty, so it is neither evicted nor served stale, until written again
+					_failedFlushes.increment();
+					LOG.error("TieredStore.flush(" + entry.uri + ") failed " + entry.flushAttempts
+							+ " times, its content is only in " + entry.file.getAbsolutePath(), e);
+					return;
+				}
+				long delay = Math.min(FLUSH_RETRY_DELAY << (entry.flushAttempts - 1), MAX_FLUSH_RETRY_DELAY);
+				LOG.warn("TieredStore.flush(" + entry.uri + ") failed, retrying in " + delay + " ms", e);
+				_flushExecutor.schedule(() -> flush(entry), delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void initHotRoot() {
+		if (!_hotRoot.isDirectory() && !_hotRoot.mkdirs()) {
+			throw new WebDAVException("hot tier path '" + _hotRoot.getAbsolutePath() + "' could not be created");
+		}
+		File[] stale = _hotRoot.listFiles((dir, name) -> name.endsWith(HOT_FILE_SUFFIX));
+		if (stale != null) {
+			for (File f : stale) {
+				f.delete();
+			}
+		}
+	}
+
+	private File newHotFile() {
+		return new File(_hotRoot, _fileCounter.incrementAndGet() + "-" + System.nanoTime() + HOT_FILE_SUFFIX);
+	}
+
+	private void deleteHotFile(HotEntry entry) {
+		if (!entry.file.delete() && entry.file.exists()) {
+			LOG.warn("TieredStore could not delete " + entry.file.getAbsolutePath());
+		}
+	}
+
+	private static long copy(InputStream in, File file) throws IOException {
+		long length = 0;
+		try (InputStream is = in; OutputStream os = new BufferedOutputStream(new FileOutputStream(file), BUF_SIZE)) {
+			byte[] copyBuffer = new byte[BUF_SIZE];
+			int read;
+			while ((read = is.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+				os.write(copyBuffer, 0, read);
+				length += read;
+			}
+		}
+		return length;
+	}
+
+	private static File getHotRootProperty() {
+		String path = System.getProperty(WEBDAV_HOT_TIER_PATH_PROPERTY);
+		if (path == null || path.isEmpty()) {
+			// the directory is cleared on startup, a shared default would let
+			// stores delete each other's files
+			throw new WebDAVException(WEBDAV_HOT_TIER_PATH_PROPERTY + " is not set");
+		}
+		return new File(path);
+	}
+
+	private static long getMaxHotBytesProperty() {
+		return Long.getLong(WEBDAV_HOT_TIER_MAX_BYTES_PROPERTY, 1024L * 1024 * 1024);
+	}
+
+	private static EvictionPolicy getPolicyProperty() {
+		return EvictionPolicy.valueOf(System.getProperty(WEBDAV_HOT_TIER_POLICY_PROPERTY, EvictionPolicy.LRU.name()));
+	}
+
+	private static final class HotEntry {
+		private final String uri;
+		private final File file;
+		private final long length;
+		private long lastModified;
+		private long hits;
+		private boolean dirty;
+		/**
+		 * metadata from the capacity tier as of validatedAt, null while dirty
+		 */
+		private StoredObject storedObject;
+		private long validatedAt;
+		private volatile boolean removed;
+		/**
+		 * failed flushes, guarded by the entry
+		 */
+		private int flushAttempts;
+
+		private HotEntry(String uri, File file, long length, long lastModified) {
+			this.uri = uri;
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		private final LongAdder _counter;
+
+		private CountingInputStream(InputStream in, LongAdder counter) {
+			super(in);
+			_counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				_counter.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				_counter.add(read);
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.store;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.ObjectNotFoundException;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.MimeTypeResolver;
+import nl.ellipsis.webdav.server.util.URLUtil;
+
+/**
+ * Read-only store that serves the contents of a ZIP archive without
+ * extracting it. Use the archive file as <code>rootpath</code>.
+ * <p>
+ * The central directory is read once into an in-memory tree, so PROPFIND
+ * never touches the archive. Folders that only exist implicitly as a prefix
+ * of entry names are synthesized. Content is streamed from the archive; for
+ * entries that are stored uncompressed, skipping to the start of a range is
+ * a seek instead of reading the skipped bytes.
+ * <p>
+ * All modifications are rejected with an {@link AccessDeniedException}.
+ */
+public class ZipArchiveStore implements IWebDAVStore {
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ZipArchiveStore.class);
+
+	private static int BUF_SIZE = 65536;
+
+	private final File _archive;
+	private final ZipFile _zipFile;
+
+	/**
+	 * keys: path value: node of the directory tree
+	 */
+	private final Map<String, Node> _nodes = new HashMap<>();
+
+	public ZipArchiveStore(File archive) {
+		if (archive == null || !archive.isFile()) {
+			throw new WebDAVException("archive '" + archive + "' does not exist");
+		}
+		_archive = archive;
+		try {
+			_zipFile = new ZipFile(archive);
+		} catch (IOException e) {
+			LOG.error("ZipArchiveStore could not open " + archive.getAbsolutePath());
+			throw new WebDAVException(e);
+		}
+		buildTree();
+	}
+
+	@Override
+	public void destroy() {
+		LOG.debug("ZipArchiveStore.destroy()");
+		try {
+			_zipFile.close();
+		} catch (IOException e) {
+			LOG.warn("ZipArchiveStore could not close " + _archive.getAbsolutePath(), e);
+		}
+	}
+
+	@Override
+	public ITransaction begin(Principal principal) throws WebDAVException {
+		LOG.debug("ZipArchiveStore.begin()");
+		return null;
+	}
+
+	@Override
+	public void checkAuthentication(ITransaction transaction) throws SecurityException {
+		// do nothing
+	}
+
+	@Override
+	public void commit(ITransaction transaction) throws WebDAVException {
+		// do nothing
+	}
+
+	@Override
+	public void rollback(ITransaction transaction) throws WebDAVException {
+		// do nothing
+	}
+
+	@Override
+	public void createFolder(ITransaction transaction, String folderUri) throws WebDAVException {
+		throw new AccessDeniedException("archive is read-only");
+	}
+
+	@Override
+	public void createResource(ITransaction transaction, String resourceUri) throws WebDAVException {
+		throw new AccessDeniedException("archive is read-only");
+	}
+
+	@Override
+	public InputStream getResourceContent(ITransaction transaction, String resourceUri) throws WebDAVException {
+		String path = URLUtil.getCleanPath(resourceUri);
+		LOG.debug("ZipArchiveStore.getResourceContent(" + path + ")");
+		Node node = _nodes.get(path);
+		if (node == null || node.entry == null) {
+			throw new ObjectNotFoundException(path);
+		}
+		try {
+			InputStream in = _zipFile.getInputStream(node.entry);
+			if (node.entry.getMethod() == ZipEntry.STORED) {
+				// the stream of a stored entry skips by moving its position,
+				// buffering would turn skip() into reads
+				return in;
+			}
+			return new BufferedInputStream(in, BUF_SIZE);
+		} catch (IOException e) {
+			LOG.error("ZipArchiveStore.getResourceContent(" + path + ") failed");
+			throw new WebDAVException(e);
+		}
+	}
+
+	@Override
+	public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+			String contentType, String characterEncoding) throws WebDAVException {
+		throw new AccessDeniedException("archive is read-only");
+	}
+
+	@Override
+	public String[] getChildrenNames(ITransaction transaction, String folderUri) throws WebDAVException {
+		Node node = _nodes.get(URLUtil.getCleanPath(folderUri));
+		if (node == null || node.children == null) {
+			return null;
+		}
+		return node.children.toArray(new String[node.children.size()]);
+	}
+
+	@Override
+	public long getResourceLength(ITransaction transaction, String path) throws WebDAVException {
+		Node node = _nodes.get(URLUtil.getCleanPath(path));
+		return node != null && node.entry != null ? node.entry.getSize() : -1;
+	}
+
+	@Override
+	public void removeObject(ITransaction transaction, String uri) throws WebDAVException {
+		throw new AccessDeniedException("archive is read-only");
+	}
+
+	@Override
+	public StoredObject getStoredObject(ITransaction transaction, String uri) {
+		String path = URLUtil.getCleanPath(uri);
+		LOG.debug("ZipArchiveStore.getStoredObject(" + path + ")");
+		Node node = _nodes.get(path);
+		if (node == null) {
+			return null;
+		}
+		StoredObject so = new StoredObject(path);
+		so.setFolder(node.children != null);
+		so.setLastModified(new Date(node.lastModified));
+		so.setCreationDate(new Date(node.creationDate));
+		if (node.entry != null) {
+			so.setResourceLength(node.entry.getSize());
+			so.setMimeType(MimeTypeResolver.getDefault().getMimeType(path));
+		}
+		return so;
+	}
+
+	/**
+	 * Reads the central directory into the node map.
+	 */
+	private void buildTree() {
+		long archiveModified = _archive.lastModified();
+		Node root = new Node(archiveModified, archiveModified);
+		root.children = new TreeSet<>();
+		_nodes.put("/", root);
+		int count = 0;
+		Enumeration<? extends ZipEntry> entries = _zipFile.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String path = URLUtil.getCleanPath(entry.getName());
+			if (path.contains("/../") || path.endsWith("/..") || "/".equals(path)) {
+				LOG.warn("ZipArchiveStore ignoring entry " + entry.getName());
+				continue;
+			}
+			long modified = entry.getTime() != -1 ? entry.getTime() : archiveModified;
+			long created = entry.getCreationTime() != null ? entry.getCreationTime().toMillis() : modified;
+			Node node = getOrCreateFolder(path, modified);
+			if (entry.isDirectory()) {
+				node.lastModified = modified;
+				node.creationDate = created;
+			} else {
+				if (node.children != null && !node.children.isEmpty()) {
+					LOG.warn("ZipArchiveStore ignoring entry " + entry.getName() + " which is also a folder");
+					continue;
+				}
+				node.children = null;
+				node.entry = entry;
+				node.lastModified = modified;
+				node.creationDate = created;
+				count++;
+			}
+		}
+		LOG.info("ZipArchiveStore opened " + _archive.getAbsolutePath() + " with " + count + " resources");
+	}
+
+	private Node getOrCreateFolder(String path, long modified) {
+		Node node = _nodes.get(path);
+		if (node == null) {
+			String parentPath = URLUtil.getParentPath(path);
+			Node parent = getOrCreateFolder(parentPath, modified);
+			if (parent.children == null) {
+				// parent was seen as a file, keep the folder
+				parent.children = new TreeSet<>();
+				parent.entry = null;
+			}
+			parent.children.add(new StoredObject(path).getName());
+			node = new Node(modified, modified);
+			node.children = new TreeSet<>();
+			_nodes.put(path, node);
+		}
+		return node;
+	}
+
+	private static final class Node {
+		private ZipEntry entry;
+		private TreeSet<String> children;
+		private long lastModified;
+		private long creationDate;
+
+		private Node(long lastModified, long creationDate) {
+			this.lastModified = lastModified;
+			this.creationDate = creationDate;
+		}
+	}
+}
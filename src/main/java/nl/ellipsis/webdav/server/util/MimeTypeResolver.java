@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolves MIME types from file names without touching the content.
+ * <p>
+ * The extension is looked up in a table loaded from
+ * {@link #WEBDAV_MIME_TYPES_PATH_PROPERTY} (<code>/etc/mime.types</code> by
+ * default), then handed to an optional fallback such as
+ * <code>ServletContext.getMimeType</code> and finally to the JDK's file name
+ * map. The outcome is cached per extension, so resolving is a hash lookup
+ * after the first file of a kind.
+ * <p>
+ * Looking at the content is only done on request through
+ * {@link #sniff(InputStream)}.
+ */
+public class MimeTypeResolver {
+
+	/**
+	 * file in <code>mime.types</code> format holding the extension table
+	 */
+	public static final String WEBDAV_MIME_TYPES_PATH_PROPERTY = "webdavMimeTypesPath";
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(MimeTypeResolver.class);
+
+	/**
+	 * caches beyond this number of extensions are cleared, the extensions are
+	 * chosen by clients
+	 */
+	private static final int MAX_CACHED_EXTENSIONS = 10000;
+
+	/**
+	 * cached marker for extensions without a known type
+	 */
+	private static final String UNKNOWN = "";
+
+	private static final Map<String, String> SYSTEM_TABLE = loadSystemTable();
+	private static final MimeTypeResolver DEFAULT = new MimeTypeResolver(null);
+
+	private final Map<String, String> _table;
+	private final Function<String, String> _fallback;
+
+	/**
+	 * keys: lower case extension value: MIME type or {@link #UNKNOWN}
+	 */
+	private final Map<String, String> _cache = new ConcurrentHashMap<>();
+
+	/**
+	 * @param fallback
+	 *            called with a file name for extensions missing in the table,
+	 *            may be <code>null</code>
+	 */
+	public MimeTypeResolver(Function<String, String> fallback) {
+		this(SYSTEM_TABLE, fallback);
+	}
+
+	/**
+	 * @param table
+	 *            keys: lower case extension value: MIME type
+	 * @param fallback
+	 *            called with a file name for extensions missing in the table,
+	 *            may be <code>null</code>
+	 */
+	public MimeTypeResolver(Map<String, String> table, Function<String, String> fallback) {
+		_table = table;
+		_fallback = fallback;
+	}
+
+	/**
+	 * @return the resolver used by stores, it has no fallback
+	 */
+	public static MimeTypeResolver getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return the MIME type derived from the extension of path or
+	 *         <code>null</code> if it is unknown
+	 */
+	public String getMimeType(String path) {
+		String extension = getExtension(path);
+		if (extension == null) {
+			return null;
+		}
+		String mimeType = _cache.get(extension);
+		if (mimeType == null) {
+			mimeType = resolve(extension);
+			if (_cache.size() >= MAX_CACHED_EXTENSIONS) {
+				_cache.clear();
+			}
+			_cache.put(extension, mimeType != null ? mimeType : UNKNOWN);
+			return mimeType;
+		}
+		return mimeType == UNKNOWN ? null : mimeType;
+	}
+
+	/**
+	 * Guesses the MIME type from the first bytes of the content, the stream is
+	 * not closed.
+	 *
+	 * @return the MIME type or <code>null</code> if it is not recognized
+	 */
+	public static String sniff(InputStream in) {
+		try {
+			return URLConnection.guessContentTypeFromStream(in.markSupported() ? in : new BufferedInputStream(in, 64));
+		} catch (IOException e) {
+			LOG.debug("MimeTypeResolver.sniff() failed: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a table in <code>mime.types</code> format: a MIME type followed
+	 * by its extensions on each line, <code>#</code> starts a comment.
+	 *
+	 * @return keys: lower case extension value: MIME type
+	 */
+	public static Map<String, String> parse(InputStream in) throws IOException {
+		Map<String, String> table = new HashMap<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int hash = line.indexOf('#');
+			if (hash >= 0) {
+				line = line.substring(0, hash);
+			}
+			String[] tokens = line.trim().split("\\s+");
+			for (int i = 1; i < tokens.length; i++) {
+				table.putIfAbsent(tokens[i].toLowerCase(Locale.ROOT), tokens[0]);
+			}
+		}
+		return table;
+	}
+
+	private String resolve(String extension) {
+		String mimeType = _table.get(extension);
+		String name = "file." + extension;
+		if (mimeType == null && _fallback != null) {
+			mimeType = _fallback.apply(name);
+		}
+		if (mimeType == null) {
+			mimeType = URLConnection.getFileNameMap().getContentTypeFor(name);
+		}
+		return mimeType;
+	}
+
+	private static String getExtension(String path) {
+		if (path == null) {
+			return null;
+		}
+		int slash = Math.max(path.lastIndexOf(CharsetUtil.CHAR_FORWARD_SLASH), path.lastIndexOf(CharsetUtil.CHAR_BACKSLASH));
+		int dot = path.lastIndexOf(CharsetUtil.CHAR_DOT);
+		if (dot <= slash + 1 || dot == path.length() - 1) {
+			return null;
+		}
+		return path.substring(dot + 1).toLowerCase(Locale.ROOT);
+	}
+
+	private static Map<String, String> loadSystemTable() {
+		File file = new File(System.getProperty(WEBDAV_MIME_TYPES_PATH_PROPERTY, "/etc/mime.types"));
+		if (!file.isFile()) {
+			return Collections.emptyMap();
+		}
+		try (InputStream in = new FileInputStream(file)) {
+			Map<String, String> table = parse(in);
+			LOG.debug("MimeTypeResolver loaded " + table.size() + " extensions from " + file.getAbsolutePath());
+			return table;
+		} catch (IOException e) {
+			LOG.warn("MimeTypeResolver could not read " + file.getAbsolutePath() + ": " + e);
+			return Collections.emptyMap();
+		}
+	}
+}
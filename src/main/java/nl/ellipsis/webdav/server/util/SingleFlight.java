@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one computation per key at a time, callers asking for a key
+ * that is already being computed wait for that computation and share its
+ * result or exception. Nothing is kept once the computation finished.
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> _flights = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the result of <code>computation</code>, run by this or a
+	 *         concurrent caller with an equal key
+	 */
+	public V execute(K key, Supplier<V> computation) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> running = _flights.putIfAbsent(key, flight);
+		if (running != null) {
+			return join(running);
+		}
+		try {
+			V value = computation.get();
+			flight.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			_flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return number of computations currently running
+	 */
+	public int getInFlight() {
+		return _flights.size();
+	}
+
+	private static <V> V join(CompletableFuture<V> flight) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return flight.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ellipsis.webdav.server.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps trashed objects in a folder and removes them in the background.
+ * <p>
+ * {@link #trash(Path, String)} renames an object into the trash folder, which
+ * is instant for a whole tree when the trash folder is on the same file
+ * system. Each entry is named after the time it was trashed and comes with a
+ * <code>.path</code> file holding its original path, so it can be recovered
+ * by hand until it is older than the retention time. Expired entries are
+ * removed by a daemon thread deleting at most a given number of files per
+ * second, so purging a huge tree does not starve the requests.
+ */
+public final class TrashPurger implements Closeable {
+
+	private static org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(TrashPurger.class);
+
+	private static final String PATH_SUFFIX = ".path";
+
+	/**
+	 * milliseconds between looks for expired entries when nothing wakes the
+	 * purger
+	 */
+	private static final long MAX_IDLE = 60000;
+
+	private final Path _trash;
+	private final long _retention;
+	private final int _rate;
+	private final Thread _thread;
+	private volatile boolean _closed = false;
+	private boolean _woken = false;
+
+	/**
+	 * files deleted and the time the current burst of deletions started
+	 */
+	private long _deleted = 0;
+	private long _burstStart = 0;
+
+	/**
+	 * @param trash
+	 *            folder holding the trashed objects
+	 * @param retention
+	 *            milliseconds trashed objects are kept
+	 * @param rate
+	 *            maximum number of files deleted per second
+	 */
+	public TrashPurger(File trash, long retention, int rate) throws IOException {
+		_trash = trash.toPath().toAbsolutePath();
+		_retention = Math.max(0, retention);
+		_rate = Math.max(1, rate);
+		Files.createDirectories(_trash);
+		_thread = new Thread(this::run, "webdav-trash-purger");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Moves an object into the trash.
+	 *
+	 * @param source
+	 *            file or folder to trash
+	 * @param originalPath
+	 *            path recorded for recovery
+	 * @return <code>false</code> if the object could not be renamed into the
+	 *         trash, e.g. because it is on another file system
+	 */
+	public boolean trash(Path source, String originalPath) {
+		String name = System.currentTimeMillis() + "-" + UUID.randomUUID();
+		Path target = _trash.resolve(name);
+		Path pathFile = _trash.resolve(name + PATH_SUFFIX);
+		try {
+			Files.write(pathFile, originalPath.getBytes(StandardCharsets.UTF_8));
+			Files.move(source, target);
+		} catch (IOException e) {
+			LOG.debug("TrashPurger.trash(" + originalPath + ") failed: " + e);
+			try {
+				Files.deleteIfExists(pathFile);
+			} catch (IOException e2) {
+				LOG.warn("TrashPurger.trash(" + originalPath + ") could not remove " + pathFile);
+			}
+			return false;
+		}
+		if (_retention == 0) {
+			wakeUp();
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of entries in the trash
+	 */
+	public int getSize() {
+		return listEntries().size();
+	}
+
+	@Override
+	public void close() {
+		_closed = true;
+		_thread.interrupt();
+	}
+
+	private synchronized void wakeUp() {
+		_woken = true;
+		notifyAll();
+	}
+
+	private void run() {
+		while (!_closed) {
+			try {
+				purgeExpired();
+				synchronized (this) {
+					if (!_woken) {
+						wait(_retention > 0 ? Math.min(_retention, MAX_IDLE) : MAX_IDLE);
+					}
+					_woken = false;
+				}
+			} catch (InterruptedException e) {
+				if (_closed) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				LOG.error("Purging the trash failed", e);
+			}
+		}
+	}
+
+	private void purgeExpired() {
+		long now = System.currentTimeMillis();
+		_burstStart = now;
+		_deleted = 0;
+		for (String name : listEntries()) {
+			if (_closed) {
+				return;
+			}
+			long trashed = getTrashTime(name);
+			if (trashed < 0 || trashed + _retention > now) {
+				continue;
+			}
+			try {
+				delete(_trash.resolve(name));
+				Files.deleteIfExists(_trash.resolve(name + PATH_SUFFIX));
+				LOG.debug("TrashPurger purged " + name);
+			} catch (IOException e) {
+				LOG.warn("TrashPurger could not purge " + name + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the trashed objects, oldest first
+	 */
+	private List<String> listEntries() {
+		List<String> names = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(_trash)) {
+			for (Path entry : stream) {
+				String name = entry.getFileName().toString();
+				if (name.endsWith(PATH_SUFFIX)) {
+					String entryName = name.substring(0, name.length() - PATH_SUFFIX.length());
+					if (!Files.exists(_trash.resolve(entryName)) && getTrashTime(entryName) + MAX_IDLE < System.currentTimeMillis()) {
+						// left behind by an interrupted trash
+						Files.deleteIfExists(entry);
+					}
+				} else {
+					names.add(name);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("TrashPurger could not list " + _trash + ": " + e);
+		}
+		Collections.sort(names, (a, b) -> Long.compare(getTrashTime(a), getTrashTime(b)));
+		return names;
+	}
+
+	private void delete(Path path) throws IOException {
+		try {
+			Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					throttle();
+					return _closed ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					if (e != null) {
+						throw e;
+					}
+					Files.delete(dir);
+					throttle();
+					return _closed ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (NoSuchFileException e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * Sleeps as long as deleting ran ahead of the rate.
+	 */
+	private void throttle() {
+		_deleted++;
+		long ahead = _burstStart + _deleted * 1000 / _rate - System.currentTimeMillis();
+		if (ahead > 0) {
+			try {
+				Thread.sleep(ahead);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				_closed = true;
+			}
+		}
+	}
+
+	private static long getTrashTime(String name) {
+		int dash = name.indexOf('-');
+		try {
+			return dash > 0 ? Long.parseLong(name.substring(0, dash)) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -18,6 +18,7 @@
 package nl.ellipsis.webdav.server.util;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -60,6 +61,11 @@ public class XMLWriter {
 	 */
 	protected Writer writer = null;
 
+	/**
+	 * Whether part of the data was sent already.
+	 */
+	protected boolean partiallySent = false;
+
 	// ----------------------------------------------------------- Constructors
 
 	/**
@@ -335,11 +341,47 @@ public class XMLWriter {
 		if (writer != null) {
 			String content = buffer.toString();
 			if(LOG.isDebugEnabled()) {
-				LOG.debug((!StringUtils.isEmpty(logInfo) ? logInfo : "")+XMLHelper.format(content));
+				// the rest of a partially sent document is no XML to format
+				LOG.debug((!StringUtils.isEmpty(logInfo) ? logInfo : "")+(partiallySent ? content : XMLHelper.format(content)));
 			}
 			writer.write(content);
 			buffer = new StringBuilder();
 		}
 	}
 
+	/**
+	 * Sends the data once at least the given number of characters were
+	 * generated, so a large document streams to the client instead of being
+	 * built in memory.
+	 *
+	 * @param size
+	 *           number of characters worth sending
+	 * @return <code>true</code> if data was sent
+	 */
+	public boolean sendData(int size) throws IOException {
+		if (writer == null || buffer.length() < size) {
+			return false;
+		}
+		writer.write(buffer.toString());
+		writer.flush();
+		buffer = new StringBuilder();
+		partiallySent = true;
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if part of the document was sent already
+	 */
+	public boolean isPartiallySent() {
+		return partiallySent;
+	}
+
+	/**
+	 * @return <code>true</code> if writing to the writer failed, e.g. because
+	 *         the client disconnected
+	 */
+	public boolean checkError() {
+		return writer instanceof PrintWriter && ((PrintWriter) writer).checkError();
+	}
+
 }
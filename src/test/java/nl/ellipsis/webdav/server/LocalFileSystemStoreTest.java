@@ -0,0 +1,133 @@
+package nl.ellipsis.webdav.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+
+public class LocalFileSystemStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testGetStoredObject() throws IOException {
+		File root = _folder.newFolder();
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createFolder(null, "/folder");
+		store.createResource(null, "/folder/file.txt");
+
+		StoredObject so = store.getStoredObject(null, "/folder/file.txt");
+		assertTrue(so.isResource());
+		assertEquals("text/plain", so.getMimeType());
+		assertNotNull(so.getCreationDate());
+		assertNotNull(so.getLastModified());
+
+		StoredObject folder = store.getStoredObject(null, "/folder");
+		assertTrue(folder.isFolder());
+		assertNull(folder.getMimeType());
+
+		assertNull(store.getStoredObject(null, "/missing"));
+	}
+
+	@Test
+	public void testGetStoredObjectForRequestedProperties() throws IOException {
+		File root = _folder.newFolder();
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createResource(null, "/file.txt");
+
+		StoredObject so = store.getStoredObject(null, "/file.txt",
+				Collections.singleton(WebDAVConstants.XMLTag.RESOURCETYPE));
+		assertTrue(so.isResource());
+		assertNull(so.getMimeType());
+		assertNull(so.getCreationDate());
+
+		so = store.getStoredObject(null, "/file.txt", Collections.singleton(WebDAVConstants.XMLTag.GET_CONTENTTYPE));
+		assertEquals("text/plain", so.getMimeType());
+		assertNull(store.getStoredObject(null, "/missing", Collections.<String>emptySet()));
+	}
+
+	@Test
+	public void testTransactionMemoizesLookups() throws IOException {
+		File root = _folder.newFolder();
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		ITransaction transaction = store.begin(null);
+		assertNull(store.getStoredObject(transaction, "/file"));
+		assertTrue(new File(root, "file").createNewFile());
+		// looked up once per transaction
+		assertNull(store.getStoredObject(transaction, "/file"));
+
+		store.setResourceContent(transaction, "/file", new ByteArrayInputStream(new byte[] { 1, 2 }), null, null);
+		StoredObject so = store.getStoredObject(transaction, "/file");
+		assertEquals(2, so.getResourceLength());
+		so.setResourceLength(5);
+		assertEquals(2, store.getResourceLength(transaction, "/file"));
+		assertEquals(2, store.getStoredObject(transaction, "/file", Collections.<String>emptySet()).getResourceLength());
+
+		assertTrue(new File(root, "file").delete());
+		assertNotNull(store.getStoredObject(transaction, "/file"));
+		store.commit(transaction);
+		assertNull(store.getStoredObject(transaction, "/file"));
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File root = _folder.newFolder();
+		File snapshots = _folder.newFolder();
+		LocalFileSystemStore store = new LocalFileSystemStore(root, snapshots, "/.snapshots");
+		store.setTrash(new File(root, "trash"), 3600000, 1000);
+		assertTrue(new File(root, ".webdav-index").mkdir());
+		assertTrue(new File(root, ".webdav-index/entries").createNewFile());
+		store.createFolder(null, "/deleted");
+		assertTrue(store.moveToTrash(null, "/deleted"));
+		assertEquals("/", store.getSnapshotSource("/.snapshots/first"));
+		assertNull(store.getSnapshotSource("/folder"));
+		store.createFolder(null, "/folder");
+		store.createResource(null, "/folder/file");
+		store.setResourceContent(null, "/folder/file", new ByteArrayInputStream(new byte[] { 1 }), null, null);
+
+		store.createFolder(null, "/.snapshots/first");
+		store.setResourceContent(null, "/folder/file", new ByteArrayInputStream(new byte[] { 1, 2, 3 }), null, null);
+
+		assertTrue(Arrays.asList(store.getChildrenNames(null, "/")).contains(".snapshots"));
+		assertArrayEquals(new String[] { "first" }, store.getSnapshotNames());
+		assertTrue(store.getStoredObject(null, "/.snapshots/first/folder").isFolder());
+		assertEquals(1, store.getStoredObject(null, "/.snapshots/first/folder/file").getResourceLength());
+		assertEquals(3, store.getStoredObject(null, "/folder/file").getResourceLength());
+		try (InputStream in = store.getResourceContent(null, "/.snapshots/first/folder/file")) {
+			assertEquals(1, in.read());
+			assertEquals(-1, in.read());
+		}
+		assertArrayEquals(new String[] { "file" }, store.getChildrenNames(null, "/folder"));
+
+		try {
+			store.removeObject(null, "/.snapshots/first/folder/file");
+			fail();
+		} catch (AccessDeniedException e) {
+			// read-only
+		}
+		assertArrayEquals(new String[] { "folder" }, store.getChildrenNames(null, "/.snapshots/first"));
+		assertFalse(new File(snapshots, "first/.webdav-index").exists());
+		try {
+			store.deleteSnapshot("first\\..");
+			fail();
+		} catch (WebDAVException e) {
+			// invalid name
+		}
+		assertTrue(store.moveToTrash(null, "/.snapshots/first"));
+		assertEquals(0, store.getSnapshotNames().length);
+		assertEquals(3, store.getStoredObject(null, "/folder/file").getResourceLength());
+		store.destroy();
+	}
+}
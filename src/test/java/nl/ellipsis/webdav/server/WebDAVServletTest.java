@@ -1,5 +1,10 @@
 package nl.ellipsis.webdav.server;
 
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletContext;
 
@@ -12,7 +17,9 @@ import nl.ellipsis.webdav.server.testutil.MockTest;
 
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
@@ -21,6 +28,9 @@ import org.springframework.mock.web.MockServletContext;
 
 public class WebDAVServletTest extends MockTest {
 
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
     // private static WebDAVServlet _servlet = new WebDAVServlet();
     static ServletConfig servletConfig;
     static ServletContext servletContext;
@@ -95,9 +105,24 @@ public class WebDAVServletTest extends MockTest {
                 oneOf(servletConfig).getInitParameter("createRootIfNotExists");
                 will(returnValue("1"));
 
+                oneOf(servletConfig).getInitParameter("coalesceReads");
+                will(returnValue(null));
+
+                oneOf(servletConfig).getInitParameter("metadataCache");
+                will(returnValue(null));
+
+                oneOf(servletConfig).getInitParameter("contentCache");
+                will(returnValue(null));
+
+                oneOf(servletConfig).getInitParameter("negativeCache");
+                will(returnValue(null));
+
                 oneOf(servletConfig).getInitParameter("lazyFolderCreationOnPut");
                 will(returnValue("1"));
 
+                oneOf(servletConfig).getInitParameter("hierarchicalLocks");
+                will(returnValue(null));
+
                 oneOf(servletConfig).getInitParameter("default-index-file");
                 will(returnValue("index.html"));
 
@@ -107,6 +132,9 @@ public class WebDAVServletTest extends MockTest {
                 oneOf(servletConfig).getInitParameter("no-content-length-headers");
                 will(returnValue("0"));
 
+                oneOf(servletConfig).getInitParameter("asyncJobs");
+                will(returnValue(null));
+
                 oneOf(servletConfig).getInitParameter("jakarta.servlet.http.legacyDoHead");
                 will(returnValue("FALSE"));
             }
@@ -119,6 +147,33 @@ public class WebDAVServletTest extends MockTest {
         _mockery.assertIsSatisfied();
     }
 
+    @Test
+    public void testCachedStoreResolvesPartialProperties() throws Exception {
+        File root = _folder.newFolder("root");
+        new File(root, "file.txt").createNewFile();
+
+        MockServletConfig config = new MockServletConfig(new MockServletContext());
+        config.addInitParameter("rootpath", root.getAbsolutePath());
+        config.addInitParameter("coalesceReads", "1");
+        config.addInitParameter("metadataCache", "1");
+        config.addInitParameter("contentCache", "1");
+        config.addInitParameter("negativeCache", "1");
+
+        WebDAVServlet servlet = new WebDAVServlet();
+        servlet.init(config);
+        try {
+            assertTrue(servlet._store instanceof IPropertyAwareStore);
+            StoredObject so = ((IPropertyAwareStore) servlet._store).getStoredObject(null, "/file.txt",
+                    Collections.singleton(WebDAVConstants.XMLTag.GET_LASTMODIFIED));
+            assertNotNull(so.getLastModified());
+            // not asked for, so the innermost store did not resolve it
+            assertNull(so.getMimeType());
+            assertNotNull(servlet._store.getStoredObject(null, "/file.txt").getMimeType());
+        } finally {
+            servlet.destroy();
+        }
+    }
+
     @Test
     public void testService() throws Exception {
 
@@ -0,0 +1,174 @@
+package nl.ellipsis.webdav.server.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+
+public class CachingStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _root;
+	private CachingStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = _folder.newFolder("root");
+	}
+
+	@After
+	public void tearDown() {
+		if (_store != null) {
+			_store.destroy();
+		}
+	}
+
+	@Test
+	public void testHitsReturnCopies() {
+		_store = new CachingStore(new LocalFileSystemStore(_root), 100, 60000);
+		_store.createResource(null, "/file");
+
+		StoredObject first = _store.getStoredObject(null, "/file");
+		first.setResourceLength(1234);
+		StoredObject second = _store.getStoredObject(null, "/file");
+
+		assertEquals(0, second.getResourceLength());
+		assertNotSame(first, second);
+		assertEquals(1, _store.getHits());
+		assertEquals(1, _store.getMisses());
+	}
+
+	@Test
+	public void testMutationsInvalidatePathAndParent() {
+		_store = new CachingStore(new LocalFileSystemStore(_root), 100, 60000);
+		_store.createFolder(null, "/folder");
+		_store.createResource(null, "/folder/file");
+		assertEquals(0, _store.getStoredObject(null, "/folder/file").getResourceLength());
+		_store.getStoredObject(null, "/folder");
+		assertEquals(2, _store.getSize());
+
+		_store.setResourceContent(null, "/folder/file", new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)),
+				null, null);
+		assertEquals(0, _store.getSize());
+		assertEquals(5, _store.getStoredObject(null, "/folder/file").getResourceLength());
+
+		_store.getStoredObject(null, "/folder");
+		_store.removeObject(null, "/folder/file");
+		assertNull(_store.getStoredObject(null, "/folder/file"));
+		_store.getStoredObject(null, "/folder");
+		_store.removeObject(null, "/folder");
+		assertNull(_store.getStoredObject(null, "/folder/file"));
+		assertNull(_store.getStoredObject(null, "/folder"));
+	}
+
+	@Test
+	public void testOnlyRacingInvalidationsPreventCaching() {
+		String[] racing = new String[1];
+		LocalFileSystemStore inner = new LocalFileSystemStore(_root) {
+			@Override
+			public StoredObject getStoredObject(ITransaction transaction, String uri) {
+				if (racing[0] != null) {
+					// a write finishing while the lookup runs
+					_store.invalidate(racing[0]);
+					racing[0] = null;
+				}
+				return super.getStoredObject(transaction, uri);
+			}
+		};
+		_store = new CachingStore(inner, 100, 60000);
+		inner.createFolder(null, "/a");
+		inner.createResource(null, "/a/file");
+		inner.createResource(null, "/a/other");
+
+		racing[0] = "/a/other";
+		_store.getStoredObject(null, "/a/file");
+		_store.getStoredObject(null, "/a/file");
+		assertEquals(1, _store.getHits());
+
+		racing[0] = "/a";
+		_store.getStoredObject(null, "/a/other");
+		_store.getStoredObject(null, "/a/other");
+		assertEquals(1, _store.getHits());
+	}
+
+	@Test
+	public void testEntriesExpire() throws InterruptedException {
+		_store = new CachingStore(new LocalFileSystemStore(_root), 100, 1);
+		_store.createResource(null, "/file");
+		_store.getStoredObject(null, "/file");
+		Thread.sleep(5);
+		_store.getStoredObject(null, "/file");
+
+		assertEquals(0, _store.getHits());
+		assertEquals(1, _store.getExpirations());
+	}
+
+	@Test
+	public void testEvictionKeepsFrequentlyReadEntries() {
+		_store = new CachingStore(new LocalFileSystemStore(_root), 3, 60000);
+		for (int i = 0; i < 10; i++) {
+			_store.createResource(null, "/file" + i);
+		}
+		for (int i = 0; i < 4; i++) {
+			_store.getStoredObject(null, "/file0");
+		}
+		for (int i = 1; i < 10; i++) {
+			_store.getStoredObject(null, "/file" + i);
+		}
+
+		assertEquals(3, _store.getSize());
+		assertEquals(7, _store.getEvictions());
+		long hits = _store.getHits();
+		_store.getStoredObject(null, "/file0");
+		assertEquals(hits + 1, _store.getHits());
+	}
+
+	@Test
+	public void testWarmUpAndSnapshot() throws IOException {
+		File snapshot = new File(_folder.getRoot(), "metadata.snapshot");
+		CachingStore first = new CachingStore(new LocalFileSystemStore(_root), 100, 60000);
+		first.createFolder(null, "/folder");
+		first.createResource(null, "/folder/a");
+		first.createResource(null, "/folder/b");
+		first.createResource(null, "/other");
+		first.setSnapshotFile(snapshot);
+		assertEquals(4, first.warmUp(Arrays.asList("/folder", "/other"), 2));
+		assertEquals(4, first.getSize());
+		first.destroy();
+		assertTrue(snapshot.exists());
+
+		// changed while the server was down
+		new File(_root, "folder/a").delete();
+		File b = new File(_root, "folder/b");
+		Files.write(b.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		b.setLastModified(b.lastModified() + 2000);
+
+		_store = new CachingStore(new LocalFileSystemStore(_root), 100, 60000);
+		_store.setSnapshotFile(snapshot);
+		assertEquals(4, _store.getSize());
+		assertNotNull(_store.getStoredObject(null, "/other"));
+		assertEquals(1, _store.getHits());
+		assertNull(_store.getStoredObject(null, "/folder/a"));
+		assertEquals(3, _store.getSize());
+		assertEquals(7, _store.getStoredObject(null, "/folder/b").getResourceLength());
+		assertEquals(2, _store.getMisses());
+		assertEquals(7, _store.getStoredObject(null, "/folder/b").getResourceLength());
+		assertEquals(2, _store.getHits());
+	}
+}
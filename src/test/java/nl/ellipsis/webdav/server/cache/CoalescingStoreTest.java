@@ -0,0 +1,133 @@
+package nl.ellipsis.webdav.server.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.util.SingleFlight;
+
+public class CoalescingStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testConcurrentLookupsShareOneStoreCall() throws Exception {
+		File root = _folder.newFolder("root");
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger storeCalls = new AtomicInteger();
+		CoalescingStore store = new CoalescingStore(new LocalFileSystemStore(root) {
+			@Override
+			public StoredObject getStoredObject(ITransaction transaction, String uri) {
+				storeCalls.incrementAndGet();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new WebDAVException(e);
+				}
+				return super.getStoredObject(transaction, uri);
+			}
+		}, 1024);
+		new File(root, "file").createNewFile();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<StoredObject>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> store.getStoredObject(null, "/file")));
+			}
+			while (store.getCalls() < 4) {
+				Thread.sleep(1);
+			}
+			// give the last caller time to join the flight
+			Thread.sleep(50);
+			release.countDown();
+			for (Future<StoredObject> result : results) {
+				assertTrue(result.get().isResource());
+			}
+			assertNotSame(results.get(0).get(), results.get(1).get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, storeCalls.get());
+		assertEquals(1, store.getStoreCalls());
+	}
+
+	@Test
+	public void testReadStartedBeforeWriteIsNotJoined() throws Exception {
+		File root = _folder.newFolder("root");
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger storeCalls = new AtomicInteger();
+		CoalescingStore store = new CoalescingStore(new LocalFileSystemStore(root) {
+			@Override
+			public StoredObject getStoredObject(ITransaction transaction, String uri) {
+				StoredObject so = super.getStoredObject(transaction, uri);
+				if (storeCalls.incrementAndGet() == 1) {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new WebDAVException(e);
+					}
+				}
+				return so;
+			}
+		}, 1024);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<StoredObject> before = executor.submit(() -> store.getStoredObject(null, "/file"));
+			while (storeCalls.get() < 1) {
+				Thread.sleep(1);
+			}
+			store.createResource(null, "/file");
+			assertNotNull(store.getStoredObject(null, "/file"));
+			release.countDown();
+			assertNull(before.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(2, storeCalls.get());
+	}
+
+	@Test
+	public void testContentReadCountsOnce() throws Exception {
+		File root = _folder.newFolder("root");
+		CoalescingStore store = new CoalescingStore(new LocalFileSystemStore(root), 1024);
+		store.createResource(null, "/file");
+		store.getResourceContent(null, "/file").close();
+		assertEquals(1, store.getCalls());
+		assertEquals(1, store.getStoreCalls());
+	}
+
+	@Test
+	public void testExceptionIsSharedAndFlightEnds() {
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		try {
+			flight.execute("key", () -> {
+				throw new WebDAVException("failed");
+			});
+			fail();
+		} catch (WebDAVException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(0, flight.getInFlight());
+		assertEquals("value", flight.execute("key", () -> "value"));
+	}
+}
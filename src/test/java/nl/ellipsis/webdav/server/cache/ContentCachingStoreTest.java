@@ -0,0 +1,84 @@
+package nl.ellipsis.webdav.server.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+
+public class ContentCachingStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private ContentCachingStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_store = new ContentCachingStore(new LocalFileSystemStore(_folder.newFolder("root")), 10, 5);
+	}
+
+	@After
+	public void tearDown() {
+		_store.destroy();
+	}
+
+	@Test
+	public void testSmallContentIsCachedUntilWritten() throws IOException {
+		write("/file", "abc");
+		assertEquals("abc", read("/file"));
+		assertEquals("abc", read("/file"));
+		assertEquals(1, _store.getHits());
+		assertEquals(3, _store.getBytes());
+
+		write("/file", "abcd");
+		assertEquals(0, _store.getSize());
+		assertEquals("abcd", read("/file"));
+		assertEquals(1, _store.getHits());
+
+		_store.removeObject(null, "/file");
+		assertEquals(0, _store.getBytes());
+	}
+
+	@Test
+	public void testLargeContentAndBudget() throws IOException {
+		write("/large", "abcdef");
+		assertEquals("abcdef", read("/large"));
+		assertEquals(0, _store.getSize());
+
+		for (int i = 0; i < 3; i++) {
+			write("/file" + i, "abcd");
+			read("/file" + i);
+		}
+		assertEquals(2, _store.getSize());
+		assertEquals(8, _store.getBytes());
+		assertEquals(1, _store.getEvictions());
+	}
+
+	private void write(String path, String content) {
+		if (_store.getStoredObject(null, path) == null) {
+			_store.createResource(null, path);
+		}
+		_store.setResourceContent(null, path, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), null,
+				null);
+	}
+
+	private String read(String path) throws IOException {
+		try (InputStream in = _store.getResourceContent(null, path)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			in.transferTo(out);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package nl.ellipsis.webdav.server.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+
+public class FileSystemChangeTrackerTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _root;
+	private CachingStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = _folder.newFolder("root");
+		_store = new CachingStore(new LocalFileSystemStore(_root), 100, 1);
+		_store.setChangeTracker(new FileSystemChangeTracker(_root, 100, 10), 3600000);
+	}
+
+	@After
+	public void tearDown() {
+		_store.destroy();
+	}
+
+	@Test
+	public void testExternalChangeInvalidatesEntry() throws Exception {
+		File file = new File(_root, "file");
+		write(file, "a");
+		assertEquals(1, _store.getStoredObject(null, "/file").getResourceLength());
+		Thread.sleep(20);
+		// still valid long after the short time to live
+		assertEquals(1, _store.getStoredObject(null, "/file").getResourceLength());
+		assertEquals(1, _store.getHits());
+
+		write(file, "abc");
+		assertTrue(waitForInvalidation("/file"));
+		assertEquals(3, _store.getStoredObject(null, "/file").getResourceLength());
+	}
+
+	@Test
+	public void testExternalDeleteOfFolderInvalidatesSubtree() throws Exception {
+		File dir = new File(_root, "dir");
+		assertTrue(dir.mkdir());
+		write(new File(dir, "file"), "a");
+		assertNotNull(_store.getStoredObject(null, "/dir/file"));
+		assertNotNull(_store.getStoredObject(null, "/dir"));
+
+		assertTrue(new File(dir, "file").delete());
+		assertTrue(dir.delete());
+		assertTrue(waitForInvalidation("/dir/file"));
+		assertNull(_store.getStoredObject(null, "/dir/file"));
+		assertNull(_store.getStoredObject(null, "/dir"));
+	}
+
+	private boolean waitForInvalidation(String path) throws InterruptedException {
+		// the polling watch service of some platforms needs a few seconds
+		long deadline = System.currentTimeMillis() + 30000;
+		while (System.currentTimeMillis() < deadline) {
+			long misses = _store.getMisses();
+			_store.getStoredObject(null, path);
+			if (_store.getMisses() > misses) {
+				return true;
+			}
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content.getBytes("UTF-8"));
+		}
+	}
+}
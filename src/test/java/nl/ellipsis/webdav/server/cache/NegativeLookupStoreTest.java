@@ -0,0 +1,57 @@
+package nl.ellipsis.webdav.server.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+
+public class NegativeLookupStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private NegativeLookupStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_store = new NegativeLookupStore(new LocalFileSystemStore(_folder.newFolder("root")), 100, 60000);
+	}
+
+	@Test
+	public void testMissingNamesAreRememberedUntilCreated() {
+		_store.createFolder(null, "/folder");
+		assertFalse(_store.isKnownMissing("/folder/desktop.ini"));
+		assertNull(_store.getStoredObject(null, "/folder/desktop.ini"));
+		assertTrue(_store.isKnownMissing("/folder/desktop.ini"));
+		assertNull(_store.getStoredObject(null, "/folder/desktop.ini"));
+		assertEquals(1, _store.getMisses());
+
+		_store.createResource(null, "/folder/other");
+		assertFalse(_store.isKnownMissing("/folder/desktop.ini"));
+		assertNull(_store.getStoredObject(null, "/folder/desktop.ini"));
+		_store.createResource(null, "/folder/desktop.ini");
+		assertNotNull(_store.getStoredObject(null, "/folder/desktop.ini"));
+	}
+
+	@Test
+	public void testInvalidation() throws InterruptedException {
+		assertNull(_store.getStoredObject(null, "/a/b/Thumbs.db"));
+		assertNull(_store.getStoredObject(null, "/a/._b"));
+		assertTrue(_store.isKnownMissing("/a/b/Thumbs.db"));
+
+		_store.invalidateSubtree("/a");
+		assertFalse(_store.isKnownMissing("/a/b/Thumbs.db"));
+		assertFalse(_store.isKnownMissing("/a/._b"));
+
+		_store = new NegativeLookupStore(_store.getStore(), 100, 1);
+		assertNull(_store.getStoredObject(null, "/autorun.inf"));
+		Thread.sleep(5);
+		assertFalse(_store.isKnownMissing("/autorun.inf"));
+	}
+}
@@ -0,0 +1,111 @@
+package nl.ellipsis.webdav.server.index;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataIndexTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testLogReplay() throws IOException {
+		File folder = _folder.newFolder();
+		MetadataIndex index = new MetadataIndex(folder, 1000);
+		index.put("/", new MetadataRecord(true, 0, 1, 1, null));
+		index.put("/a", new MetadataRecord(false, 10, 2, 2, "text/plain"));
+		index.put("/b", new MetadataRecord(false, 20, 3, 3, null));
+		index.remove("/b");
+		index.setComplete(true);
+
+		// not closed, the state has to come from the log
+		MetadataIndex reopened = new MetadataIndex(folder, 1000);
+		assertTrue(reopened.isComplete());
+		assertEquals(new MetadataRecord(false, 10, 2, 2, "text/plain"), reopened.get("/a"));
+		assertNull(reopened.get("/b"));
+		assertArrayEquals(new String[] { "a" }, reopened.getChildrenNames("/"));
+		index.close();
+		reopened.close();
+	}
+
+	@Test
+	public void testTornLogTailIgnored() throws IOException {
+		File folder = _folder.newFolder();
+		MetadataIndex index = new MetadataIndex(folder, 1000);
+		index.put("/a", new MetadataRecord(false, 10, 2, 2, null));
+		index.close();
+		try (FileOutputStream out = new FileOutputStream(new File(folder, "index.wal"), true)) {
+			out.write(new byte[] { 0, 0, 0, 50, 1, 2 });
+		}
+
+		MetadataIndex reopened = new MetadataIndex(folder, 1000);
+		assertNotNull(reopened.get("/a"));
+		reopened.put("/c", new MetadataRecord(false, 1, 1, 1, null));
+		reopened.close();
+
+		MetadataIndex again = new MetadataIndex(folder, 1000);
+		assertNotNull(again.get("/c"));
+		again.close();
+	}
+
+	@Test
+	public void testCheckpointAndRemoveSubtree() throws IOException {
+		File folder = _folder.newFolder();
+		MetadataIndex index = new MetadataIndex(folder, 2);
+		index.put("/", new MetadataRecord(true, 0, 1, 1, null));
+		index.put("/dir", new MetadataRecord(true, 0, 1, 1, null));
+		index.put("/dir/x", new MetadataRecord(false, 5, 1, 1, null));
+		index.put("/dir/y", new MetadataRecord(false, 6, 1, 1, null));
+		index.remove("/dir");
+		assertNull(index.get("/dir/x"));
+		index.close();
+
+		assertTrue(new File(folder, "index.snapshot").exists());
+		MetadataIndex reopened = new MetadataIndex(folder, 2);
+		assertEquals(1, reopened.size());
+		assertArrayEquals(new String[0], reopened.getChildrenNames("/"));
+		reopened.close();
+	}
+
+	@Test
+	public void testCorruptSnapshotIsDiscarded() throws IOException {
+		File folder = _folder.newFolder();
+		MetadataIndex index = new MetadataIndex(folder, 1000);
+		index.put("/a", new MetadataRecord(false, 10, 2, 2, null));
+		index.setComplete(true);
+		index.close();
+		File snapshot = new File(folder, "index.snapshot");
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+
+		MetadataIndex reopened = new MetadataIndex(folder, 1000);
+		assertFalse(reopened.isComplete());
+		assertEquals(0, reopened.size());
+		assertFalse(snapshot.exists());
+		reopened.close();
+	}
+
+	@Test
+	public void testBulkPutIsDurableAfterCheckpoint() throws IOException {
+		File folder = _folder.newFolder();
+		MetadataIndex index = new MetadataIndex(folder, 1000);
+		index.bulkPut("/a", new MetadataRecord(false, 10, 2, 2, null));
+		assertNotNull(index.get("/a"));
+		assertEquals(0, new File(folder, "index.wal").length());
+
+		index.checkpoint();
+		MetadataIndex reopened = new MetadataIndex(folder, 1000);
+		assertNotNull(reopened.get("/a"));
+		index.close();
+		reopened.close();
+	}
+}
@@ -0,0 +1,99 @@
+package nl.ellipsis.webdav.server.index;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nl.ellipsis.webdav.server.StoredObject;
+
+public class MetadataTrieTest {
+
+	@Test
+	public void testPutGetAndChildren() {
+		MetadataTrie trie = new MetadataTrie(4);
+		trie.put("/", new MetadataRecord(true, 0, 1, 1, null));
+		trie.put("/a/b/c.txt", new MetadataRecord(false, 3, 2, 2, "text/plain"));
+		trie.put("/a/b/d.txt", new MetadataRecord(false, 4, 3, 3, "text/plain"));
+		trie.put("/été", new MetadataRecord(true, 0, 4, 4, null));
+
+		assertEquals(4, trie.size());
+		assertEquals(new MetadataRecord(false, 3, 2, 2, "text/plain"), trie.get("/a/b/c.txt"));
+		assertEquals(new MetadataRecord(false, 3, 2, 2, "text/plain"), trie.get("/a/b/c.txt/"));
+		// ancestors created on the way are not present themselves
+		assertNull(trie.get("/a"));
+		assertArrayEquals(new String[] { "été" }, trie.getChildrenNames("/"));
+		String[] names = trie.getChildrenNames("/a/b");
+		Arrays.sort(names);
+		assertArrayEquals(new String[] { "c.txt", "d.txt" }, names);
+		assertNull(trie.getChildrenNames("/missing"));
+	}
+
+	@Test
+	public void testRemoveSubtreeAndReuse() {
+		MetadataTrie trie = new MetadataTrie(4);
+		for (int i = 0; i < 100; i++) {
+			trie.put("/dir/sub" + i + "/file", new MetadataRecord(false, i, i, i, null));
+		}
+		trie.put("/other", new MetadataRecord(false, 1, 1, 1, null));
+		assertEquals(101, trie.size());
+
+		assertTrue(trie.remove("/dir"));
+		assertEquals(1, trie.size());
+		assertNull(trie.get("/dir/sub5/file"));
+		assertArrayEquals(new String[] { "other" }, trie.getChildrenNames("/"));
+		assertFalse(trie.remove("/dir"));
+
+		for (int i = 0; i < 100; i++) {
+			trie.put("/again" + i, new MetadataRecord(false, i, i, i, null));
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, trie.get("/again" + i).getLength());
+		}
+		assertNotNull(trie.get("/other"));
+
+		Map<String, MetadataRecord> visited = new HashMap<>();
+		trie.forEach(visited::put);
+		assertEquals(101, visited.size());
+		assertEquals(7, visited.get("/again7").getLength());
+	}
+
+	@Test
+	public void testRemovingLastChildPrunesStructuralNodes() {
+		MetadataTrie trie = new MetadataTrie(4);
+		trie.put("/a/b/c", new MetadataRecord(false, 1, 1, 1, null));
+		trie.remove("/a/b/c");
+
+		assertEquals(0, trie.size());
+		assertArrayEquals(new String[0], trie.getChildrenNames("/"));
+		assertNull(trie.getChildrenNames("/a"));
+	}
+
+	@Test
+	public void testStoredObjectCopy() {
+		MetadataTrie trie = new MetadataTrie(4);
+		trie.put("/file.txt", new MetadataRecord(false, 5, 1000, 500, "text/plain"));
+
+		StoredObject so = trie.getStoredObject("/file.txt");
+		assertEquals("file.txt", so.getName());
+		assertTrue(so.isResource());
+		assertEquals(5, so.getResourceLength());
+		assertEquals(1000, so.getLastModified().getTime());
+		assertEquals("text/plain", so.getMimeType());
+
+		// copies are not affected by later updates
+		trie.put("/file.txt", new MetadataRecord(false, 7, 2000, 500, "text/plain"));
+		assertEquals(5, so.getResourceLength());
+		trie.remove("/file.txt");
+		assertTrue(so.isResource());
+		assertEquals(1000, so.getLastModified().getTime());
+		assertNull(trie.getStoredObject("/file.txt"));
+
+		so.setResourceLength(42);
+		trie.put("/file.txt", new MetadataRecord(false, 9, 3000, 500, null));
+		assertEquals(9, trie.get("/file.txt").getLength());
+	}
+}
@@ -0,0 +1,150 @@
+package nl.ellipsis.webdav.server.jobs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import nl.ellipsis.webdav.HttpHeaders;
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.locking.ResourceLocks;
+import nl.ellipsis.webdav.server.methods.AbstractMethod;
+import nl.ellipsis.webdav.server.methods.DoDelete;
+import nl.ellipsis.webdav.server.testutil.MockPrincipal;
+
+public class JobManagerTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testIsAsyncRequested() {
+		MockHttpServletRequest req = new MockHttpServletRequest("DELETE", "/folder");
+		assertFalse(JobManager.isAsyncRequested(req));
+		req.addHeader(HttpHeaders.PREFER, "return=minimal, Respond-Async; wait=10");
+		assertTrue(JobManager.isAsyncRequested(req));
+	}
+
+	@Test
+	public void testDeleteJob() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createFolder(null, "/folder");
+		for (int i = 0; i < 10; i++) {
+			store.createResource(null, "/folder/file" + i);
+		}
+
+		JobManager jobs = new JobManager(store, "/.jobs", 60000, 1, 10, 3600);
+		try {
+			int[] lockTimeout = new int[1];
+			DoDelete doDelete = new DoDelete(store, new ResourceLocks(), false) {
+				@Override
+				public void deleteResource(ITransaction transaction, String path, Map<String, Integer> errorList,
+						HttpServletRequest req, HttpServletResponse resp) throws IOException {
+					lockTimeout[0] = AbstractMethod.getTempTimeout();
+					super.deleteResource(transaction, path, errorList, req, resp);
+				}
+			};
+			MockHttpServletRequest req = new MockHttpServletRequest("DELETE", "/webdav/folder");
+			req.setServletPath("/webdav");
+			req.setPathInfo("/folder");
+			req.addHeader(HttpHeaders.PREFER, JobManager.RESPOND_ASYNC);
+			Job job = jobs.submit(doDelete, req, null);
+
+			MockHttpServletResponse resp = new MockHttpServletResponse();
+			jobs.sendAccepted(job, req, resp);
+			assertEquals(HttpServletResponse.SC_ACCEPTED, resp.getStatus());
+			assertEquals("/webdav/.jobs/" + job.getId(), resp.getHeader(HttpHeaders.LOCATION));
+			assertEquals(job.getId(), jobs.getJobId("/.jobs/" + job.getId()));
+			assertNull(jobs.getJobId("/folder"));
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (job.getState() != Job.State.FINISHED && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			resp = new MockHttpServletResponse();
+			jobs.sendStatus(jobs.getJob(job.getId(), null), resp);
+			assertEquals(HttpServletResponse.SC_NO_CONTENT, resp.getStatus());
+			assertEquals(11, job.getProcessed());
+			assertEquals(3600, lockTimeout[0]);
+			assertNull(store.getStoredObject(null, "/folder"));
+			assertEquals(10, AbstractMethod.getTempTimeout());
+		} finally {
+			jobs.close();
+		}
+	}
+
+	@Test
+	public void testFullQueueRefusesJobs() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		JobManager jobs = new JobManager(store, "/.jobs", 60000, 1, 1, 3600);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			MockHttpServletRequest req = new MockHttpServletRequest("DELETE", "/folder");
+			req.setPathInfo("/folder");
+			jobs.submit((transaction, request, response) -> {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, req, null);
+			assertTrue(running.await(10, TimeUnit.SECONDS));
+			jobs.submit(new DoDelete(store, new ResourceLocks(), false), req, null);
+			try {
+				jobs.submit(new DoDelete(store, new ResourceLocks(), false), req, null);
+				fail("job queued beyond the queue size");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			assertEquals(2, jobs.getSize());
+
+			MockHttpServletResponse resp = new MockHttpServletResponse();
+			jobs.sendQueueFull(resp);
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, resp.getStatus());
+			assertNotNull(resp.getHeader(HttpHeaders.RETRY_AFTER));
+		} finally {
+			release.countDown();
+			jobs.close();
+		}
+	}
+
+	@Test
+	public void testJobIsSeenByItsPrincipalOnly() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		JobManager jobs = new JobManager(store, "/.jobs", 60000, 1, 10, 3600);
+		try {
+			DoDelete doDelete = new DoDelete(store, new ResourceLocks(), false);
+			MockHttpServletRequest req = new MockHttpServletRequest("DELETE", "/folder");
+			req.setPathInfo("/folder");
+			Job anonymous = jobs.submit(doDelete, req, null);
+			Job admin = jobs.submit(doDelete, req, new MockPrincipal("Admin"));
+
+			assertSame(anonymous, jobs.getJob(anonymous.getId(), null));
+			assertNull(jobs.getJob(anonymous.getId(), new MockPrincipal("Admin")));
+			assertSame(admin, jobs.getJob(admin.getId(), new MockPrincipal("Admin")));
+			assertNull(jobs.getJob(admin.getId(), new MockPrincipal("Other")));
+			assertNull(jobs.getJob(admin.getId(), null));
+		} finally {
+			jobs.close();
+		}
+	}
+}
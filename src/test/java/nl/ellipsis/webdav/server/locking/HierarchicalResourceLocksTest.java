@@ -0,0 +1,96 @@
+package nl.ellipsis.webdav.server.locking;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HierarchicalResourceLocksTest {
+
+	private static final boolean TEMPORARY = true;
+
+	@Test
+	public void testCollectionsAreIndependent() {
+		HierarchicalResourceLocks locks = new HierarchicalResourceLocks();
+		assertTrue(locks.lock(null, "/a/file", "owner1", true, 0, 60, !TEMPORARY));
+		assertTrue(locks.lock(null, "/b/file", "owner2", true, 0, 60, !TEMPORARY));
+		assertFalse(locks.lock(null, "/a/file", "owner3", true, 0, 60, !TEMPORARY));
+		assertFalse(locks.lock(null, "/a", "owner3", true, -1, 60, !TEMPORARY));
+		assertEquals(2, locks.getPartitionCount());
+
+		LockedObject lo = locks.getLockedObjectByPath(null, "/a/file");
+		assertSame(lo, locks.getLockedObjectByID(null, lo.getID()));
+		assertTrue(locks.unlock(null, lo.getID(), "owner1"));
+		assertNull(locks.getLockedObjectByPath(null, "/a/file"));
+		assertTrue(locks.lock(null, "/a", "owner3", true, -1, 60, !TEMPORARY));
+	}
+
+	@Test
+	public void testDeeperPartitions() {
+		HierarchicalResourceLocks locks = new HierarchicalResourceLocks(2);
+		assertTrue(locks.lock(null, "/home/alice/file", "alice", true, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/home/bob", "bob", true, 0, 60, TEMPORARY));
+		assertEquals(2, locks.getPartitionCount());
+
+		assertFalse(locks.lock(null, "/home", "admin", true, -1, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/other", "admin", true, -1, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/home", "reader", false, 0, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/home/carol", "carol", true, 0, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/other/dave/file", "dave", false, 0, 60, TEMPORARY));
+
+		locks.unlockTemporaryLockedObjects(null, "/home", "reader");
+		assertTrue(locks.lock(null, "/home/carol", "carol", true, 0, 60, TEMPORARY));
+		locks.unlockTemporaryLockedObjects(null, "/home/alice/file", "alice");
+		locks.unlockTemporaryLockedObjects(null, "/home/bob", "bob");
+		locks.unlockTemporaryLockedObjects(null, "/home/carol", "carol");
+		assertEquals(0, locks.getPartitionCount());
+		assertTrue(locks.lock(null, "/home", "admin", true, -1, 60, TEMPORARY));
+	}
+
+	@Test
+	public void testEmptyCollectionsAreDropped() throws InterruptedException {
+		HierarchicalResourceLocks locks = new HierarchicalResourceLocks();
+		assertTrue(locks.lock(null, "/a/file", "owner1", true, 0, 60, !TEMPORARY));
+		assertTrue(locks.lock(null, "/b/file", "owner2", false, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/c/file", "owner3", true, 0, 0, !TEMPORARY));
+		assertTrue(locks.lock(null, "/d", "owner4", true, 0, 60, TEMPORARY));
+		assertEquals(4, locks.getPartitionCount());
+
+		LockedObject lo = locks.getLockedObjectByPath(null, "/a/file");
+		assertTrue(locks.unlock(null, lo.getID(), "owner1"));
+		locks.unlockTemporaryLockedObjects(null, "/b/file", "owner2");
+		locks.unlockTemporaryLockedObjects(null, "/d", "owner4");
+		locks.unlockTemporaryLockedObjects(null, "/e", "owner5");
+		assertEquals(1, locks.getPartitionCount());
+
+		Thread.sleep(5);
+		locks.checkTimeouts(null, !TEMPORARY);
+		assertEquals(0, locks.getPartitionCount());
+	}
+
+	@Test
+	public void testRootLockSeesAllCollections() {
+		HierarchicalResourceLocks locks = new HierarchicalResourceLocks();
+		assertTrue(locks.lock(null, "/a/file", "owner1", true, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/", "owner2", true, 0, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/", "owner3", false, -1, 60, TEMPORARY));
+
+		locks.unlockTemporaryLockedObjects(null, "/", "owner2");
+		assertFalse(locks.lock(null, "/", "owner3", false, -1, 60, TEMPORARY));
+		locks.unlockTemporaryLockedObjects(null, "/a/file", "owner1");
+		assertTrue(locks.lock(null, "/", "owner3", false, -1, 60, TEMPORARY));
+		assertNotNull(locks.getTempLockedObjectByPath(null, "/"));
+	}
+
+	@Test
+	public void testExclusiveRootLockBlocksCollections() {
+		HierarchicalResourceLocks locks = new HierarchicalResourceLocks();
+		assertTrue(locks.lock(null, "/", "root", true, -1, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/a/file", "writer", false, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/a/file", "owner1", true, 0, 60, !TEMPORARY));
+
+		locks.unlockTemporaryLockedObjects(null, "/", "root");
+		assertTrue(locks.lock(null, "/a/file", "writer", false, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/", "reader", false, 0, 60, TEMPORARY));
+		assertTrue(locks.lock(null, "/b", "writer", false, 0, 60, TEMPORARY));
+	}
+}
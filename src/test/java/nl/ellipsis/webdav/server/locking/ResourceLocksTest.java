@@ -0,0 +1,105 @@
+package nl.ellipsis.webdav.server.locking;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ResourceLocksTest {
+
+	private static final boolean TEMPORARY = true;
+
+	@Test
+	public void testExpiredLocksAreRemoved() throws InterruptedException {
+		ResourceLocks locks = new ResourceLocks();
+		assertTrue(locks.lock(null, "/expiring", "owner1", true, 0, 0, !TEMPORARY));
+		assertTrue(locks.lock(null, "/refreshed", "owner1", true, 0, 0, !TEMPORARY));
+		assertTrue(locks.lock(null, "/temporary", "owner1", true, 0, 0, TEMPORARY));
+		locks.getLockedObjectByPath(null, "/refreshed").refreshTimeout(60);
+		Thread.sleep(5);
+
+		assertTrue(locks.lock(null, "/other", "owner2", true, 0, 60, !TEMPORARY));
+		assertNull(locks.getLockedObjectByPath(null, "/expiring"));
+		assertNull(locks.getTempLockedObjectByPath(null, "/temporary"));
+		assertNotNull(locks.getLockedObjectByPath(null, "/refreshed"));
+		assertFalse(locks.lock(null, "/refreshed", "owner2", true, 0, 60, !TEMPORARY));
+		assertTrue(locks.lock(null, "/expiring", "owner2", true, 0, 60, !TEMPORARY));
+	}
+
+	@Test
+	public void testOutdatedExpiriesLetGo() {
+		ResourceLocks locks = new ResourceLocks();
+		assertTrue(locks.lock(null, "/file", "owner1", false, 0, 60, !TEMPORARY));
+		LockedObject lo = locks.getLockedObjectByPath(null, "/file");
+		long expiresAt = lo._expiresAt;
+		ResourceLocks.Expiry first = lo._expiry;
+
+		// the owner is there already, nothing changes
+		assertFalse(locks.lock(null, "/file", "owner1", false, 0, 0, !TEMPORARY));
+		assertEquals(expiresAt, lo._expiresAt);
+		assertSame(first, lo._expiry);
+
+		lo.refreshTimeout(120);
+		assertNull(first.lockedObject);
+		assertSame(lo, lo._expiry.lockedObject);
+		ResourceLocks.Expiry second = lo._expiry;
+		assertTrue(locks.unlock(null, lo.getID(), "owner1"));
+		assertNull(second.lockedObject);
+	}
+
+	@Test
+	public void testTemporaryLocksInvalidateReads() {
+		ResourceLocks locks = new ResourceLocks();
+		long folder = locks.getReadStamp("/folder");
+		long other = locks.getReadStamp("/other");
+
+		assertTrue(locks.lock(null, "/folder/file", "writer", false, 0, 10, TEMPORARY));
+		assertEquals(VersionStamps.WRITING, locks.getReadStamp("/folder"));
+		assertEquals(VersionStamps.WRITING, locks.getReadStamp("/folder/file/member"));
+		assertFalse(locks.validateReadStamp("/folder", folder));
+		locks.unlockTemporaryLockedObjects(null, "/folder/file", "writer");
+
+		assertFalse(locks.validateReadStamp("/folder", folder));
+		assertTrue(locks.validateReadStamp("/other", other));
+		folder = locks.getReadStamp("/folder");
+		assertTrue(locks.validateReadStamp("/folder", folder));
+
+		long member = locks.getReadStamp("/folder/file");
+		assertTrue(locks.lock(null, "/folder", "mover", false, 0, 10, TEMPORARY));
+		locks.unlockTemporaryLockedObjects(null, "/folder", "mover");
+		assertFalse(locks.validateReadStamp("/folder/file", member));
+	}
+
+	@Test
+	public void testExclusiveRootLockBlocksBelow() {
+		ResourceLocks locks = new ResourceLocks();
+		assertTrue(locks.lock(null, "/", "root", true, -1, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/folder/file", "writer", false, 0, 60, TEMPORARY));
+		locks.unlockTemporaryLockedObjects(null, "/", "root");
+		assertTrue(locks.lock(null, "/folder/file", "writer", false, 0, 60, TEMPORARY));
+		assertFalse(locks.lock(null, "/", "root", true, -1, 60, TEMPORARY));
+	}
+
+	@Test
+	public void testUnusedLocksAreRemovedAtOnce() {
+		ResourceLocks locks = new ResourceLocks();
+		assertTrue(locks.lock(null, "/a/b/c", "owner1", true, 0, 60, !TEMPORARY));
+		assertTrue(locks.lock(null, "/a/b/d", "owner2", true, 0, 60, !TEMPORARY));
+		LockedObject c = locks.getLockedObjectByPath(null, "/a/b/c");
+		assertTrue(locks.unlock(null, c.getID(), "owner1"));
+		assertNull(locks.getLockedObjectByPath(null, "/a/b/c"));
+		assertNotNull(locks.getLockedObjectByPath(null, "/a/b"));
+
+		LockedObject d = locks.getLockedObjectByPath(null, "/a/b/d");
+		assertTrue(locks.unlock(null, d.getID(), "owner2"));
+		assertNull(locks.getLockedObjectByPath(null, "/a/b"));
+		assertNull(locks.getLockedObjectByPath(null, "/a"));
+		assertEquals(1, locks._locks.size());
+		assertEquals(1, locks._locksByID.size());
+
+		assertTrue(locks.lock(null, "/x/y", "writer", false, 0, 10, TEMPORARY));
+		assertFalse(locks.lock(null, "/x", "mover", true, -1, 10, TEMPORARY));
+		locks.unlockTemporaryLockedObjects(null, "/x/y", "writer");
+		assertEquals(1, locks._tempLocks.size());
+		assertEquals(1, locks._tempLocksByID.size());
+	}
+}
@@ -1,6 +1,7 @@
 package nl.ellipsis.webdav.server.methods;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.PrintWriter;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,8 +10,10 @@ import jakarta.servlet.http.HttpServletResponse;
 import nl.ellipsis.webdav.HttpHeaders;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.WebDAVConstants;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
 import nl.ellipsis.webdav.server.locking.LockedObject;
 import nl.ellipsis.webdav.server.locking.ResourceLocks;
 import nl.ellipsis.webdav.server.methods.AbstractMethod;
@@ -21,12 +24,19 @@ import nl.ellipsis.webdav.server.util.URLUtil;
 
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoCopyTest extends MockTest {
 
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
 	static IWebDAVStore mockStore;
 	static HttpServletRequest mockReq;
 	static HttpServletResponse mockRes;
@@ -762,4 +772,67 @@ public class DoCopyTest extends MockTest {
 		_mockery.assertIsSatisfied();
 
 	}
+	@Test
+	public void testParallelCopyOfFolder() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createFolder(null, "/folder");
+		for (int i = 0; i < 5; i++) {
+			store.createFolder(null, "/folder/sub" + i);
+			for (int j = 0; j < 20; j++) {
+				store.createResource(null, "/folder/sub" + i + "/file" + j);
+				store.setResourceContent(null, "/folder/sub" + i + "/file" + j,
+						new ByteArrayInputStream(resourceContent), null, null);
+			}
+		}
+
+		ResourceLocks resLocks = new ResourceLocks();
+		DoDelete doDelete = new DoDelete(store, resLocks, !readOnly);
+		DoCopy doCopy = new DoCopy(store, resLocks, doDelete, !readOnly);
+		doCopy.setParallelism(4);
+		MockHttpServletRequest req = new MockHttpServletRequest("COPY", "/folder");
+		req.setPathInfo("/folder");
+		req.addHeader(HttpHeaders.DESTINATION, "/copy");
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		assertTrue(doCopy.copyResource(null, req, resp));
+
+		assertEquals(HttpServletResponse.SC_CREATED, resp.getStatus());
+		assertEquals(5, store.getChildrenNames(null, "/copy").length);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(20, store.getChildrenNames(null, "/copy/sub" + i).length);
+			assertEquals(resourceContent.length, store.getResourceLength(null, "/copy/sub" + i + "/file19"));
+		}
+		doCopy.close();
+	}
+
+	@Test
+	public void testParallelCopyReportsUnlistableFolder() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root) {
+			@Override
+			public String[] getChildrenNames(ITransaction transaction, String uri) {
+				if (uri.equals("/folder/denied")) {
+					throw new AccessDeniedException(uri);
+				}
+				return super.getChildrenNames(transaction, uri);
+			}
+		};
+		store.createFolder(null, "/folder");
+		store.createFolder(null, "/folder/denied");
+		store.createFolder(null, "/folder/sub");
+		store.createResource(null, "/folder/sub/file");
+
+		ResourceLocks resLocks = new ResourceLocks();
+		DoCopy doCopy = new DoCopy(store, resLocks, new DoDelete(store, resLocks, !readOnly), !readOnly);
+		doCopy.setParallelism(4);
+		MockHttpServletRequest req = new MockHttpServletRequest("COPY", "/folder");
+		req.setPathInfo("/folder");
+		req.addHeader(HttpHeaders.DESTINATION, "/copy");
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		assertTrue(doCopy.copyResource(null, req, resp));
+		doCopy.close();
+
+		assertEquals(HttpServletResponse.SC_FORBIDDEN, resp.getStatus());
+		assertNotNull(store.getStoredObject(null, "/copy/sub/file"));
+	}
 }
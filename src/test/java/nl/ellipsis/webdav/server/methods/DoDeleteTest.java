@@ -1,12 +1,17 @@
 package nl.ellipsis.webdav.server.methods;
 
+import java.io.File;
 import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import nl.ellipsis.webdav.HttpHeaders;
 import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
 import nl.ellipsis.webdav.server.IWebDAVStore;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.WebDAVConstants;
@@ -19,11 +24,18 @@ import nl.ellipsis.webdav.server.util.URLUtil;
 
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoDeleteTest extends MockTest {
 
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
 	static IWebDAVStore mockStore;
 	static HttpServletRequest mockReq;
 	static HttpServletResponse mockRes;
@@ -349,4 +361,58 @@ public class DoDeleteTest extends MockTest {
 		_mockery.assertIsSatisfied();
 	}
 
+	@Test
+	public void testParallelDeleteOfFolder() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createFolder(null, "/folder");
+		for (int i = 0; i < 5; i++) {
+			store.createFolder(null, "/folder/sub" + i);
+			for (int j = 0; j < 20; j++) {
+				store.createResource(null, "/folder/sub" + i + "/file" + j);
+			}
+		}
+
+		DoDelete doDelete = new DoDelete(store, new ResourceLocks(), !readOnly);
+		doDelete.setParallelism(4);
+		Map<String, Integer> errorList = new HashMap<>();
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		doDelete.deleteResource(null, "/folder", errorList, new MockHttpServletRequest(), resp);
+
+		assertTrue(errorList.isEmpty());
+		assertEquals(HttpServletResponse.SC_NO_CONTENT, resp.getStatus());
+		assertNull(store.getStoredObject(null, "/folder"));
+		assertEquals(0, root.list().length);
+		doDelete.close();
+	}
+
+	@Test
+	public void testDeleteSkipsVanishedMembers() throws Exception {
+		File root = _folder.newFolder("root");
+		// lists a member that is gone by the time it is looked up
+		LocalFileSystemStore store = new LocalFileSystemStore(root) {
+			@Override
+			public String[] getChildrenNames(ITransaction transaction, String uri) {
+				String[] names = super.getChildrenNames(transaction, uri);
+				String[] result = Arrays.copyOf(names, names.length + 1);
+				result[names.length] = "vanished";
+				return result;
+			}
+		};
+		for (int parallelism : new int[] { 1, 4 }) {
+			store.createFolder(null, "/folder");
+			store.createFolder(null, "/folder/sub");
+			store.createResource(null, "/folder/sub/file");
+
+			DoDelete doDelete = new DoDelete(store, new ResourceLocks(), !readOnly);
+			doDelete.setParallelism(parallelism);
+			Map<String, Integer> errorList = new HashMap<>();
+			doDelete.deleteResource(null, "/folder", errorList, new MockHttpServletRequest(), new MockHttpServletResponse());
+			doDelete.close();
+
+			assertTrue(errorList.isEmpty());
+			assertNull(store.getStoredObject(null, "/folder"));
+		}
+	}
+
 }
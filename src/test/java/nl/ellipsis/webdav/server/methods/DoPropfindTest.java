@@ -1,6 +1,10 @@
 package nl.ellipsis.webdav.server.methods;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -9,8 +13,10 @@ import nl.ellipsis.webdav.HttpHeaders;
 import nl.ellipsis.webdav.server.IMimeTyper;
 import nl.ellipsis.webdav.server.ITransaction;
 import nl.ellipsis.webdav.server.IWebDAVStore;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
 import nl.ellipsis.webdav.server.StoredObject;
 import nl.ellipsis.webdav.server.WebDAVConstants;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
 import nl.ellipsis.webdav.server.locking.ResourceLocks;
 import nl.ellipsis.webdav.server.methods.AbstractMethod;
 import nl.ellipsis.webdav.server.methods.DoPropfind;
@@ -19,10 +25,18 @@ import nl.ellipsis.webdav.server.util.URLUtil;
 
 import org.jmock.Expectations;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DoPropfindTest extends MockTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
 	static IWebDAVStore mockStore;
 	static IMimeTyper mockMimeTyper;
 	static HttpServletRequest mockReq;
@@ -78,9 +92,6 @@ public class DoPropfindTest extends MockTest {
 				oneOf(mockRes).getWriter();
 				will(returnValue(pw));
 
-				oneOf(mockStore).getStoredObject(mockTransaction, path);
-				will(returnValue(rootSo));
-
 				oneOf(mockReq).getContextPath();
 				will(returnValue(""));
 
@@ -165,9 +176,6 @@ public class DoPropfindTest extends MockTest {
 				oneOf(mockRes).getWriter();
 				will(returnValue(pw));
 
-				oneOf(mockStore).getStoredObject(mockTransaction, path);
-				will(returnValue(fileSo));
-
 				oneOf(mockReq).getContextPath();
 				will(returnValue(""));
 
@@ -219,4 +227,108 @@ public class DoPropfindTest extends MockTest {
 		_mockery.assertIsSatisfied();
 	}
 
+	@Test
+	public void testPropfindStopsWhenClientDisconnects() throws Exception {
+		File root = _folder.newFolder("root");
+		int[] listings = new int[1];
+		LocalFileSystemStore store = new LocalFileSystemStore(root) {
+			@Override
+			public String[] getChildrenNames(ITransaction transaction, String uri) {
+				listings[0]++;
+				return super.getChildrenNames(transaction, uri);
+			}
+		};
+		for (int i = 0; i < 50; i++) {
+			store.createFolder(null, "/folder" + i);
+			for (int j = 0; j < 20; j++) {
+				store.createResource(null, "/folder" + i + "/file" + j);
+			}
+		}
+
+		ResourceLocks resLocks = new ResourceLocks();
+		DoPropfind doPropfind = new DoPropfind(store, resLocks, (transaction, path) -> null);
+		MockHttpServletRequest req = new MockHttpServletRequest("PROPFIND", "/");
+		req.setPathInfo("/");
+		MockHttpServletResponse resp = new MockHttpServletResponse() {
+			private final PrintWriter _writer = new PrintWriter(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("Broken pipe");
+				}
+			});
+
+			@Override
+			public PrintWriter getWriter() {
+				return _writer;
+			}
+		};
+		doPropfind.execute(null, req, resp);
+
+		assertTrue(listings[0] < 50);
+		// the temporary lock is released
+		assertTrue(resLocks.lock(null, "/", "other", true, -1, 10, true));
+	}
+
+	@Test
+	public void testPropfindFailingAfterPartialSendIsAborted() throws Exception {
+		File root = _folder.newFolder("root");
+		int[] lookups = new int[1];
+		LocalFileSystemStore store = new LocalFileSystemStore(root) {
+			@Override
+			public StoredObject getStoredObject(ITransaction transaction, String uri) {
+				if (++lookups[0] == 150) {
+					throw new WebDAVException("disk gone");
+				}
+				return super.getStoredObject(transaction, uri);
+			}
+		};
+		for (int i = 0; i < 200; i++) {
+			store.createResource(null, "/file" + i);
+		}
+		lookups[0] = 0;
+
+		DoPropfind doPropfind = new DoPropfind(store, new ResourceLocks(), (transaction, path) -> null);
+		MockHttpServletRequest req = new MockHttpServletRequest("PROPFIND", "/");
+		req.setPathInfo("/");
+		req.addHeader(HttpHeaders.DEPTH, "1");
+		req.setContent(new byte[0]);
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		try {
+			doPropfind.execute(null, req, resp);
+			fail("a truncated multistatus was completed");
+		} catch (IOException e) {
+			assertTrue(resp.isCommitted());
+			assertEquals(HttpStatus.MULTI_STATUS.value(), resp.getStatus());
+			assertFalse(resp.getContentAsString().endsWith("multistatus>\n"));
+		}
+	}
+
+	@Test
+	public void testPropfindRetryKeepsRequestedProperties() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.createResource(null, "/file");
+
+		int[] validations = new int[1];
+		ResourceLocks resLocks = new ResourceLocks() {
+			@Override
+			public boolean validateReadStamp(String path, long stamp) {
+				// a write raced with the first attempt
+				return ++validations[0] > 1;
+			}
+		};
+		DoPropfind doPropfind = new DoPropfind(store, resLocks, (transaction, path) -> null);
+		MockHttpServletRequest req = new MockHttpServletRequest("PROPFIND", "/file");
+		req.setPathInfo("/file");
+		req.addHeader(HttpHeaders.DEPTH, "0");
+		req.setContent(("<?xml version=\"1.0\" encoding=\"utf-8\"?><D:propfind xmlns:D=\"DAV:\">"
+				+ "<D:prop><D:getcontentlength/></D:prop></D:propfind>").getBytes(StandardCharsets.UTF_8));
+		MockHttpServletResponse resp = new MockHttpServletResponse();
+		doPropfind.execute(null, req, resp);
+
+		assertEquals(2, validations[0]);
+		assertEquals(HttpStatus.MULTI_STATUS.value(), resp.getStatus());
+		assertTrue(resp.getContentAsString().contains("getcontentlength"));
+		assertFalse(resp.getContentAsString().contains("getlastmodified"));
+	}
 }
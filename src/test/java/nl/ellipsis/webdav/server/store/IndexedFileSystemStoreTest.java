@@ -0,0 +1,118 @@
+package nl.ellipsis.webdav.server.store;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.StoredObject;
+
+public class IndexedFileSystemStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _root;
+	private File _indexFolder;
+	private IndexedFileSystemStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = _folder.newFolder("root");
+		_indexFolder = new File(_root, IndexedFileSystemStore.INDEX_FOLDER);
+		new File(_root, "existing").mkdir();
+		Files.write(new File(_root, "existing/file.txt").toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		_store = new IndexedFileSystemStore(_root, _indexFolder, 1000, 0, false);
+	}
+
+	@After
+	public void tearDown() {
+		if (_store != null) {
+			_store.destroy();
+		}
+	}
+
+	@Test
+	public void testScanMakesIndexAuthoritative() {
+		assertFalse(_store.getIndex().isComplete());
+		assertTrue(_store.scan());
+		assertTrue(_store.getIndex().isComplete());
+
+		// served from the index, the file system is no longer consulted
+		new File(_root, "existing/file.txt").delete();
+		StoredObject so = _store.getStoredObject(null, "/existing/file.txt");
+		assertNotNull(so);
+		assertEquals(3, so.getResourceLength());
+		assertArrayEquals(new String[] { "existing" }, _store.getChildrenNames(null, "/"));
+		assertNull(_store.getStoredObject(null, "/" + IndexedFileSystemStore.INDEX_FOLDER));
+	}
+
+	@Test
+	public void testMutationsUpdateIndex() {
+		_store.scan();
+		_store.createFolder(null, "/folder");
+		_store.createResource(null, "/folder/new.txt");
+		_store.setResourceContent(null, "/folder/new.txt", new ByteArrayInputStream(new byte[42]), null, null);
+
+		assertEquals(42, _store.getStoredObject(null, "/folder/new.txt").getResourceLength());
+		assertEquals(new HashSet<>(Arrays.asList("existing", "folder")),
+				new HashSet<>(Arrays.asList(_store.getChildrenNames(null, "/"))));
+
+		_store.removeObject(null, "/folder/new.txt");
+		assertNull(_store.getStoredObject(null, "/folder/new.txt"));
+		assertArrayEquals(new String[0], _store.getChildrenNames(null, "/folder"));
+	}
+
+	@Test
+	public void testIndexSurvivesRestart() {
+		_store.scan();
+		_store.createResource(null, "/created.txt");
+		_store.destroy();
+		_store = null;
+
+		IndexedFileSystemStore reopened = new IndexedFileSystemStore(_root, _indexFolder, 1000, 0, false);
+		try {
+			assertTrue(reopened.getIndex().isComplete());
+			assertNotNull(reopened.getStoredObject(null, "/created.txt"));
+			assertNotNull(reopened.getStoredObject(null, "/existing/file.txt"));
+		} finally {
+			reopened.destroy();
+		}
+	}
+
+	@Test
+	public void testStartupScanDistrustsRestoredIndex() throws IOException {
+		_store.scan();
+		_store.destroy();
+		_store = null;
+		Files.write(new File(_root, "offline.txt").toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+
+		IndexedFileSystemStore reopened = new IndexedFileSystemStore(_root, _indexFolder, 1000, 0, true);
+		try {
+			// found on disk or by the scan, never reported missing
+			assertNotNull(reopened.getStoredObject(null, "/offline.txt"));
+		} finally {
+			reopened.destroy();
+		}
+	}
+
+	@Test
+	public void testScanRemovesStaleEntries() {
+		_store.scan();
+		new File(_root, "existing/file.txt").delete();
+		_store.scan();
+
+		assertNull(_store.getStoredObject(null, "/existing/file.txt"));
+	}
+}
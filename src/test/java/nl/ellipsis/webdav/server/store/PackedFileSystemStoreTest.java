@@ -0,0 +1,147 @@
+package nl.ellipsis.webdav.server.store;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.WebDAVConstants;
+
+public class PackedFileSystemStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _root;
+	private PackedFileSystemStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = _folder.newFolder("root");
+		_store = new PackedFileSystemStore(_root, 16, 1024, 50);
+	}
+
+	@After
+	public void tearDown() {
+		_store.destroy();
+	}
+
+	@Test
+	public void testSmallFileIsPacked() throws IOException {
+		_store.createFolder(null, "/folder");
+		_store.createResource(null, "/folder/small");
+		assertEquals(5, _store.setResourceContent(null, "/folder/small", stream("small"), null, null));
+
+		assertFalse(new File(_root, "folder/small").exists());
+		assertEquals(1, _store.getPackedCount());
+		assertEquals("small", read("/folder/small"));
+		StoredObject so = _store.getStoredObject(null, "/folder/small");
+		assertTrue(so.isResource());
+		assertEquals(5, so.getResourceLength());
+		assertEquals(5, _store.getResourceLength(null, "/folder/small"));
+	}
+
+	@Test
+	public void testLargeFileStaysRegular() throws IOException {
+		_store.createResource(null, "/large");
+		_store.setResourceContent(null, "/large", stream("small"), null, null);
+		assertEquals(27, _store.setResourceContent(null, "/large", stream("this is a larger resource.."), null, null));
+
+		assertTrue(new File(_root, "large").isFile());
+		assertEquals(0, _store.getPackedCount());
+		assertEquals("this is a larger resource..", read("/large"));
+
+		_store.setResourceContent(null, "/large", stream("small again"), null, null);
+		assertFalse(new File(_root, "large").exists());
+		assertEquals("small again", read("/large"));
+	}
+
+	@Test
+	public void testChildrenNamesMerged() {
+		_store.createFolder(null, "/folder");
+		_store.createResource(null, "/folder/packed");
+		_store.setResourceContent(null, "/folder/regular", stream("this is a larger resource.."), null, null);
+
+		assertEquals(new HashSet<>(Arrays.asList("packed", "regular")),
+				new HashSet<>(Arrays.asList(_store.getChildrenNames(null, "/folder"))));
+		assertEquals(new HashSet<>(Arrays.asList("folder")),
+				new HashSet<>(Arrays.asList(_store.getChildrenNames(null, "/"))));
+		assertNull(_store.getStoredObject(null, "/" + PackedFileSystemStore.SEGMENT_FOLDER));
+	}
+
+	@Test
+	public void testRemove() {
+		_store.createResource(null, "/file");
+		_store.removeObject(null, "/file");
+
+		assertNull(_store.getStoredObject(null, "/file"));
+		assertEquals(0, _store.getChildrenNames(null, "/").length);
+	}
+
+	@Test
+	public void testIndexRebuiltOnStartup() throws IOException {
+		_store.setResourceContent(null, "/a", stream("first"), null, null);
+		_store.setResourceContent(null, "/b", stream("second"), null, null);
+		_store.setResourceContent(null, "/a", stream("third"), null, null);
+		_store.removeObject(null, "/b");
+		_store.destroy();
+
+		_store = new PackedFileSystemStore(_root, 16, 1024, 50);
+		assertEquals(1, _store.getPackedCount());
+		assertEquals("third", read("/a"));
+		assertNull(_store.getStoredObject(null, "/b"));
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			_store.setResourceContent(null, "/file", stream("content " + i), null, null);
+		}
+		_store.compact();
+
+		assertTrue(_store.getSegmentBytes() < 1024);
+		assertEquals("content 99", read("/file"));
+		_store.destroy();
+
+		_store = new PackedFileSystemStore(_root, 16, 1024, 50);
+		assertEquals("content 99", read("/file"));
+	}
+
+	@Test
+	public void testPropertyLookups() {
+		_store.setResourceContent(null, "/small", stream("small"), null, null);
+		_store.setResourceContent(null, "/large.txt", stream("more than sixteen bytes"), null, null);
+		Set<String> properties = Collections.singleton(WebDAVConstants.XMLTag.GET_CONTENTLENGTH);
+
+		StoredObject large = _store.getStoredObject(null, "/large.txt", properties);
+		assertEquals(23, large.getResourceLength());
+		assertNull(large.getMimeType());
+		StoredObject small = _store.getStoredObject(null, "/small", properties);
+		assertEquals(5, small.getResourceLength());
+		assertNull(_store.getStoredObject(null, "/" + PackedFileSystemStore.SEGMENT_FOLDER, properties));
+	}
+
+	private String read(String uri) throws IOException {
+		try (InputStream in = _store.getResourceContent(null, uri)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,351 @@
+package nl.ellipsis.webdav.server.store;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+
+public class S3StoreTest {
+
+	private static final String BUCKET = "bucket";
+
+	private FakeS3 _s3;
+	private HttpServer _server;
+	private S3Store _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_s3 = new FakeS3();
+		_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		_server.createContext("/", _s3::handle);
+		_server.setExecutor(Executors.newCachedThreadPool());
+		_server.start();
+		URI endpoint = URI.create("http://127.0.0.1:" + _server.getAddress().getPort());
+		_store = new S3Store(endpoint, BUCKET, "us-east-1", "access", "secret", 16, 3, 60000);
+	}
+
+	@After
+	public void tearDown() {
+		_store.destroy();
+		_server.stop(0);
+	}
+
+	@Test
+	public void testFoldersAndResources() throws IOException {
+		_store.createFolder(null, "/folder");
+		_store.createResource(null, "/folder/file.txt");
+		assertEquals(5, _store.setResourceContent(null, "/folder/file.txt", stream("hello"), "text/plain", null));
+
+		assertTrue(_store.getStoredObject(null, "/folder").isFolder());
+		StoredObject so = _store.getStoredObject(null, "/folder/file.txt");
+		assertTrue(so.isResource());
+		assertEquals(5, so.getResourceLength());
+		assertEquals("hello", read("/folder/file.txt"));
+		assertArrayEquals(new String[] { "folder" }, _store.getChildrenNames(null, "/"));
+		assertArrayEquals(new String[] { "file.txt" }, _store.getChildrenNames(null, "/folder"));
+		assertNull(_store.getStoredObject(null, "/missing"));
+
+		_store.removeObject(null, "/folder/file.txt");
+		assertNull(_store.getStoredObject(null, "/folder/file.txt"));
+		assertArrayEquals(new String[0], _store.getChildrenNames(null, "/folder"));
+	}
+
+	@Test
+	public void testImplicitFolder() {
+		_s3.objects.put("a/b/c.txt", new byte[3]);
+
+		assertTrue(_store.getStoredObject(null, "/a").isFolder());
+		assertTrue(_store.getStoredObject(null, "/a/b").isFolder());
+		assertArrayEquals(new String[] { "b" }, _store.getChildrenNames(null, "/a"));
+	}
+
+	@Test
+	public void testMultipartUpload() throws IOException {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ!";
+		assertEquals(content.length(), _store.setResourceContent(null, "/large", stream(content), null, null));
+
+		assertEquals(4, _s3.partUploads.get());
+		assertTrue(_s3.uploads.isEmpty());
+		assertEquals(content, new String(_s3.objects.get("large"), StandardCharsets.UTF_8));
+		assertEquals(content, read("/large"));
+	}
+
+	@Test
+	public void testSkipBecomesRangedGet() throws IOException {
+		_store.setResourceContent(null, "/file", stream("0123456789"), null, null);
+
+		try (InputStream in = _store.getResourceContent(null, "/file")) {
+			assertEquals(6, in.skip(6));
+			assertEquals("6789", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		assertEquals("bytes=6-", _s3.lastRange);
+	}
+
+	@Test
+	public void testRangeReadAsksForEnd() throws IOException {
+		_store.setResourceContent(null, "/file", stream("0123456789"), null, null);
+
+		try (InputStream in = _store.getResourceContent(null, "/file", 2, 5)) {
+			assertEquals("234", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		assertEquals("bytes=2-4", _s3.lastRange);
+	}
+
+	@Test
+	public void testOutageIsNotNotFound() {
+		_s3.failing = true;
+		try {
+			_store.getStoredObject(null, "/file");
+			fail("outage reported as a missing object");
+		} catch (WebDAVException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testListingPopulatesMetadataCache() {
+		for (int i = 0; i < 5; i++) {
+			_s3.objects.put("dir/file" + i, new byte[i]);
+		}
+		assertEquals(5, _store.getChildrenNames(null, "/dir").length);
+		int heads = _s3.heads.get();
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, _store.getStoredObject(null, "/dir/file" + i).getResourceLength());
+		}
+		assertEquals(heads, _s3.heads.get());
+	}
+
+	private String read(String uri) throws IOException {
+		try (InputStream in = _store.getResourceContent(null, uri)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * In-process stand-in for the parts of the S3 API used by the store.
+	 * Listings are returned in pages of two keys.
+	 */
+	private static class FakeS3 {
+		private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+		final NavigableMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+		final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+		final AtomicInteger heads = new AtomicInteger();
+		final AtomicInteger partUploads = new AtomicInteger();
+		volatile String lastRange;
+		volatile boolean failing;
+		private final AtomicInteger _uploadIds = new AtomicInteger();
+
+		void handle(HttpExchange exchange) throws IOException {
+			try (HttpExchange e = exchange) {
+				if (e.getRequestHeaders().getFirst("Authorization") == null) {
+					send(e, 403, null);
+					return;
+				}
+				if (failing) {
+					e.sendResponseHeaders(500, -1);
+					return;
+				}
+				String path = URLDecoder.decode(e.getRequestURI().getRawPath(), "UTF-8");
+				String key = path.substring(BUCKET.length() + 2);
+				Map<String, String> query = parseQuery(e.getRequestURI().getRawQuery());
+				byte[] body = e.getRequestBody().readAllBytes();
+				switch (e.getRequestMethod()) {
+				case "GET":
+					if (query.containsKey("list-type")) {
+						list(e, query);
+					} else {
+						get(e, key);
+					}
+					break;
+				case "HEAD":
+					heads.incrementAndGet();
+					byte[] data = objects.get(key);
+					if (data == null) {
+						e.sendResponseHeaders(404, -1);
+					} else {
+						e.getResponseHeaders().set("Last-Modified",
+								DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().atZone(ZoneOffset.UTC)));
+						e.getResponseHeaders().set("Content-Length", Integer.toString(data.length));
+						e.sendResponseHeaders(200, -1);
+					}
+					break;
+				case "PUT":
+					if (query.containsKey("uploadId")) {
+						partUploads.incrementAndGet();
+						uploads.get(query.get("uploadId")).put(Integer.parseInt(query.get("partNumber")), body);
+						e.getResponseHeaders().set("ETag", "\"part" + query.get("partNumber") + "\"");
+					} else {
+						objects.put(key, body);
+					}
+					send(e, 200, null);
+					break;
+				case "POST":
+					if (query.containsKey("uploads")) {
+						String uploadId = "upload" + _uploadIds.incrementAndGet();
+						uploads.put(uploadId, new TreeMap<>());
+						send(e, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId
+								+ "</UploadId></InitiateMultipartUploadResult>");
+					} else {
+						Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+						ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+						for (byte[] part : parts.values()) {
+							assembled.write(part);
+						}
+						objects.put(key, assembled.toByteArray());
+						send(e, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+					}
+					break;
+				case "DELETE":
+					if (query.containsKey("uploadId")) {
+						uploads.remove(query.get("uploadId"));
+					} else {
+						objects.remove(key);
+					}
+					e.sendResponseHeaders(204, -1);
+					break;
+				default:
+					send(e, 405, null);
+				}
+			}
+		}
+
+		private void get(HttpExchange e, String key) throws IOException {
+			byte[] data = objects.get(key);
+			if (data == null) {
+				send(e, 404, "<Error><Code>NoSuchKey</Code></Error>");
+				return;
+			}
+			String range = e.getRequestHeaders().getFirst("Range");
+			lastRange = range;
+			int start = 0;
+			int end = data.length;
+			if (range != null) {
+				Matcher m = RANGE.matcher(range);
+				assertTrue(m.matches());
+				start = Integer.parseInt(m.group(1));
+				if (!m.group(2).isEmpty()) {
+					end = Math.min(end, Integer.parseInt(m.group(2)) + 1);
+				}
+				if (start >= data.length) {
+					send(e, 416, null);
+					return;
+				}
+			}
+			e.sendResponseHeaders(range != null ? 206 : 200, end - start);
+			try (OutputStream os = e.getResponseBody()) {
+				os.write(data, start, end - start);
+			}
+		}
+
+		private void list(HttpExchange e, Map<String, String> query) throws IOException {
+			String prefix = query.getOrDefault("prefix", "");
+			String delimiter = query.get("delimiter");
+			int maxKeys = Math.min(2, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+			String after = query.get("continuation-token");
+			StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+			TreeSet<String> prefixes = new TreeSet<>();
+			int count = 0;
+			String last = null;
+			boolean truncated = false;
+			for (Map.Entry<String, byte[]> entry : objects.tailMap(prefix, true).entrySet()) {
+				String key = entry.getKey();
+				if (!key.startsWith(prefix)) {
+					break;
+				}
+				String item = key;
+				int idx = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+				if (idx >= 0) {
+					item = key.substring(0, idx + 1);
+				}
+				if (after != null && item.compareTo(after) <= 0) {
+					continue;
+				}
+				if (item.equals(last)) {
+					continue;
+				}
+				if (count == maxKeys) {
+					truncated = true;
+					break;
+				}
+				if (idx >= 0) {
+					prefixes.add(item);
+				} else {
+					xml.append("<Contents><Key>").append(key).append("</Key><LastModified>")
+							.append(Instant.now().toString()).append("</LastModified><Size>")
+							.append(entry.getValue().length).append("</Size></Contents>");
+				}
+				last = item;
+				count++;
+			}
+			for (String p : prefixes) {
+				xml.append("<CommonPrefixes><Prefix>").append(p).append("</Prefix></CommonPrefixes>");
+			}
+			xml.append("<KeyCount>").append(count).append("</KeyCount>");
+			xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+			if (truncated) {
+				xml.append("<NextContinuationToken>").append(last).append("</NextContinuationToken>");
+			}
+			xml.append("</ListBucketResult>");
+			send(e, 200, xml.toString());
+		}
+
+		private static void send(HttpExchange e, int status, String body) throws IOException {
+			byte[] data = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+			e.sendResponseHeaders(status, data.length == 0 ? -1 : data.length);
+			if (data.length > 0) {
+				try (OutputStream os = e.getResponseBody()) {
+					os.write(data);
+				}
+			}
+		}
+
+		private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+			Map<String, String> query = new HashMap<>();
+			if (rawQuery != null) {
+				for (String pair : rawQuery.split("&")) {
+					int idx = pair.indexOf('=');
+					String name = idx >= 0 ? pair.substring(0, idx) : pair;
+					String value = idx >= 0 ? pair.substring(idx + 1) : "";
+					query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+				}
+			}
+			return query;
+		}
+	}
+}
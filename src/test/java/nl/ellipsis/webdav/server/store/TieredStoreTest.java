@@ -0,0 +1,237 @@
+package nl.ellipsis.webdav.server.store;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.ITransaction;
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.WebDAVException;
+import nl.ellipsis.webdav.server.store.TieredStore.EvictionPolicy;
+
+public class TieredStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _capacityRoot;
+	private File _hotRoot;
+	private TieredStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		_capacityRoot = _folder.newFolder("capacity");
+		_hotRoot = _folder.newFolder("hot");
+	}
+
+	@After
+	public void tearDown() {
+		if (_store != null) {
+			_store.destroy();
+		}
+	}
+
+	@Test
+	public void testPromotionAfterAdmissionCount() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 2, false);
+		put("/file", "content");
+
+		assertEquals("content", read("/file"));
+		assertEquals(0, _store.getHotTierEntries());
+		assertEquals("content", read("/file"));
+		assertEquals(1, _store.getPromotions());
+		assertEquals("content", read("/file"));
+
+		assertEquals(2, _store.getHotTierHits());
+		assertEquals(1, _store.getCapacityTierHits());
+		assertEquals(7, _store.getHotTierBytesStored());
+		assertTrue(_store.getHotTierBytesServed() >= 7);
+	}
+
+	@Test
+	public void testStaleEntryIsDropped() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 1, false);
+		put("/file", "old");
+		assertEquals("old", read("/file"));
+		assertEquals(1, _store.getHotTierEntries());
+
+		put("/file", "changed");
+		assertEquals(0, _store.getHotTierEntries());
+		assertEquals("changed", read("/file"));
+	}
+
+	@Test
+	public void testValidationInterval() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 1, false,
+				60000);
+		put("/file", "content");
+		assertEquals("content", read("/file"));
+		File file = new File(_capacityRoot, "file");
+		assertTrue(file.delete());
+
+		// served from the hot tier without asking the capacity tier
+		assertEquals(7, _store.getStoredObject(null, "/file").getResourceLength());
+		assertEquals("content", read("/file"));
+		_store.destroy();
+
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 1, false,
+				0);
+		put("/file", "content");
+		assertEquals("content", read("/file"));
+		assertTrue(file.delete());
+		assertNull(_store.getStoredObject(null, "/file"));
+		assertEquals(1, _store.getHotTierEntries());
+		try {
+			read("/file");
+			fail("stale hot entry served");
+		} catch (WebDAVException e) {
+			assertEquals(0, _store.getHotTierEntries());
+		}
+	}
+
+	@Test(expected = WebDAVException.class)
+	public void testHotTierPathIsRequired() {
+		System.clearProperty(TieredStore.WEBDAV_HOT_TIER_PATH_PROPERTY);
+		new TieredStore(_capacityRoot);
+	}
+
+	@Test
+	public void testLruEviction() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 40, EvictionPolicy.LRU, 1, false);
+		put("/a", "0123456789");
+		put("/b", "0123456789");
+		put("/c", "0123456789");
+		put("/d", "0123456789");
+		put("/e", "0123456789");
+		read("/a");
+		read("/b");
+		read("/c");
+		read("/d");
+		read("/a");
+		read("/e");
+
+		assertEquals(1, _store.getEvictions());
+		assertEquals(40, _store.getHotTierBytesStored());
+		long promotions = _store.getPromotions();
+		read("/a");
+		assertEquals(promotions, _store.getPromotions());
+		read("/b");
+		assertEquals(promotions + 1, _store.getPromotions());
+	}
+
+	@Test
+	public void testLfuEviction() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 40, EvictionPolicy.LFU, 1, false);
+		put("/a", "0123456789");
+		put("/b", "0123456789");
+		put("/c", "0123456789");
+		put("/d", "0123456789");
+		put("/e", "0123456789");
+		read("/a");
+		read("/b");
+		read("/c");
+		read("/d");
+		read("/a");
+		read("/b");
+		read("/c");
+		read("/d");
+		read("/a");
+		read("/b");
+		read("/d");
+		read("/e");
+
+		assertEquals(1, _store.getEvictions());
+		long promotions = _store.getPromotions();
+		read("/a");
+		read("/b");
+		read("/d");
+		assertEquals(promotions, _store.getPromotions());
+		read("/c");
+		assertEquals(promotions + 1, _store.getPromotions());
+	}
+
+	@Test
+	public void testWriteBack() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 2, true);
+		new File(_capacityRoot, "file").createNewFile();
+
+		assertEquals(7, _store.setResourceContent(null, "/file", stream("content"), null, null));
+		StoredObject so = _store.getStoredObject(null, "/file");
+		assertEquals(7, so.getResourceLength());
+		assertEquals("content", read("/file"));
+
+		_store.destroy();
+		_store = null;
+		assertEquals(7, new File(_capacityRoot, "file").length());
+	}
+
+	@Test
+	public void testRemovedFolderDropsMembers() throws IOException {
+		_store = new TieredStore(new LocalFileSystemStore(_capacityRoot), _hotRoot, 1024, EvictionPolicy.LRU, 1, false,
+				60000);
+		_store.createFolder(null, "/folder");
+		put("/folder/file", "content");
+		put("/folder2", "other");
+		assertEquals("content", read("/folder/file"));
+		assertEquals("other", read("/folder2"));
+		assertEquals(2, _store.getHotTierEntries());
+
+		// removed behind the store's back, the hot entry is not validated yet
+		assertTrue(new File(_capacityRoot, "folder/file").delete());
+		_store.removeObject(null, "/folder");
+		assertEquals(1, _store.getHotTierEntries());
+		assertNull(_store.getStoredObject(null, "/folder/file"));
+	}
+
+	@Test
+	public void testFailedFlushIsRetried() throws IOException, InterruptedException {
+		int[] writes = new int[1];
+		LocalFileSystemStore capacityTier = new LocalFileSystemStore(_capacityRoot) {
+			@Override
+			public long setResourceContent(ITransaction transaction, String resourceUri, InputStream content,
+					String contentType, String characterEncoding) {
+				if (++writes[0] == 1) {
+					throw new WebDAVException("capacity tier unavailable");
+				}
+				return super.setResourceContent(transaction, resourceUri, content, contentType, characterEncoding);
+			}
+		};
+		_store = new TieredStore(capacityTier, _hotRoot, 1024, EvictionPolicy.LRU, 2, true);
+		new File(_capacityRoot, "file").createNewFile();
+		_store.setResourceContent(null, "/file", stream("content"), null, null);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (_store.getFlushes() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, _store.getFlushes());
+		assertEquals(2, writes[0]);
+		assertEquals(0, _store.getFailedFlushes());
+		assertEquals(7, new File(_capacityRoot, "file").length());
+	}
+
+	private void put(String uri, String content) {
+		_store.setResourceContent(null, uri, stream(content), null, null);
+	}
+
+	private String read(String uri) throws IOException {
+		try (InputStream in = _store.getResourceContent(null, uri)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
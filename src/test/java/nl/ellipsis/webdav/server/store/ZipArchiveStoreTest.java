@@ -0,0 +1,91 @@
+package nl.ellipsis.webdav.server.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.StoredObject;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+
+public class ZipArchiveStoreTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private ZipArchiveStore _store;
+
+	@Before
+	public void setUp() throws IOException {
+		File archive = _folder.newFile("archive.zip");
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive))) {
+			byte[] stored = "0123456789".getBytes(StandardCharsets.UTF_8);
+			ZipEntry entry = new ZipEntry("data/stored.txt");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(stored.length);
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			entry.setCrc(crc.getValue());
+			zos.putNextEntry(entry);
+			zos.write(stored);
+			zos.closeEntry();
+
+			zos.putNextEntry(new ZipEntry("data/sub/deflated.txt"));
+			zos.write("compressed content".getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+
+			zos.putNextEntry(new ZipEntry("empty/"));
+			zos.closeEntry();
+		}
+		_store = new ZipArchiveStore(archive);
+	}
+
+	@After
+	public void tearDown() {
+		_store.destroy();
+	}
+
+	@Test
+	public void testDirectoryTree() {
+		assertArrayEquals(new String[] { "data", "empty" }, _store.getChildrenNames(null, "/"));
+		assertArrayEquals(new String[] { "stored.txt", "sub" }, _store.getChildrenNames(null, "/data"));
+		assertArrayEquals(new String[0], _store.getChildrenNames(null, "/empty"));
+		assertNull(_store.getChildrenNames(null, "/data/stored.txt"));
+
+		StoredObject folder = _store.getStoredObject(null, "/data/sub");
+		assertTrue(folder.isFolder());
+		StoredObject file = _store.getStoredObject(null, "/data/sub/deflated.txt");
+		assertTrue(file.isResource());
+		assertEquals(18, file.getResourceLength());
+		assertEquals("text/plain", file.getMimeType());
+		assertNull(_store.getStoredObject(null, "/missing"));
+	}
+
+	@Test
+	public void testContent() throws IOException {
+		try (InputStream in = _store.getResourceContent(null, "/data/sub/deflated.txt")) {
+			assertEquals("compressed content", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		try (InputStream in = _store.getResourceContent(null, "/data/stored.txt")) {
+			assertEquals(6, in.skip(6));
+			assertEquals("6789", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test(expected = AccessDeniedException.class)
+	public void testReadOnly() {
+		_store.createFolder(null, "/new");
+	}
+}
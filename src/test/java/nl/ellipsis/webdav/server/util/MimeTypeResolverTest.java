@@ -0,0 +1,51 @@
+package nl.ellipsis.webdav.server.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MimeTypeResolverTest {
+
+	@Test
+	public void testParseMimeTypes() throws IOException {
+		String content = "# comment\ntext/plain\ttxt text\n\napplication/x-thing  thg # trailing\n";
+		Map<String, String> table = MimeTypeResolver.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals(3, table.size());
+		assertEquals("text/plain", table.get("text"));
+		assertEquals("application/x-thing", table.get("thg"));
+	}
+
+	@Test
+	public void testLookupOrderAndCaching() throws IOException {
+		Map<String, String> table = MimeTypeResolver.parse(
+				new ByteArrayInputStream("application/x-thing thg".getBytes(StandardCharsets.UTF_8)));
+		AtomicInteger fallbackCalls = new AtomicInteger();
+		MimeTypeResolver resolver = new MimeTypeResolver(table, name -> {
+			fallbackCalls.incrementAndGet();
+			return name.endsWith(".custom") ? "application/x-custom" : null;
+		});
+
+		assertEquals("application/x-thing", resolver.getMimeType("/folder/a.THG"));
+		assertEquals("application/x-custom", resolver.getMimeType("/b.custom"));
+		assertEquals("application/x-custom", resolver.getMimeType("/c.custom"));
+		assertNull(resolver.getMimeType("/d.unknownext"));
+		assertNull(resolver.getMimeType("/e.unknownext"));
+		assertEquals(2, fallbackCalls.get());
+
+		assertNull(resolver.getMimeType("/folder.d/noextension"));
+		assertNull(resolver.getMimeType("/.hidden"));
+	}
+
+	@Test
+	public void testSniff() {
+		byte[] png = new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0 };
+		assertEquals("image/png", MimeTypeResolver.sniff(new ByteArrayInputStream(png)));
+	}
+}
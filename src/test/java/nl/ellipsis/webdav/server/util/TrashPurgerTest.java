@@ -0,0 +1,81 @@
+package nl.ellipsis.webdav.server.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.ellipsis.webdav.server.LocalFileSystemStore;
+import nl.ellipsis.webdav.server.exceptions.AccessDeniedException;
+
+public class TrashPurgerTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void testTrashedFolderIsPurged() throws Exception {
+		File root = _folder.newFolder("root");
+		File trash = new File(_folder.getRoot(), "trash");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.setTrash(trash, 0, 100000);
+		try {
+			store.createFolder(null, "/folder");
+			store.createFolder(null, "/folder/sub");
+			store.createResource(null, "/folder/sub/file");
+
+			assertTrue(store.moveToTrash(null, "/folder"));
+			assertNull(store.getStoredObject(null, "/folder"));
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (trash.list().length > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, trash.list().length);
+		} finally {
+			store.destroy();
+		}
+	}
+
+	@Test
+	public void testTrashBelowRootIsHidden() throws Exception {
+		File root = _folder.newFolder("root");
+		LocalFileSystemStore store = new LocalFileSystemStore(root);
+		store.setTrash(new File(root, "trash"), 3600000, 1000);
+		try {
+			store.createFolder(null, "/folder");
+			assertTrue(store.moveToTrash(null, "/folder"));
+
+			assertEquals(0, store.getChildrenNames(null, "/").length);
+			assertNull(store.getStoredObject(null, "/trash"));
+			assertTrue(new File(root, "trash").list().length > 0);
+			try {
+				store.createFolder(null, "/trash/folder");
+				fail();
+			} catch (AccessDeniedException e) {
+				// expected
+			}
+		} finally {
+			store.destroy();
+		}
+	}
+
+	@Test
+	public void testRetentionKeepsEntries() throws IOException {
+		File source = _folder.newFolder("source");
+		TrashPurger purger = new TrashPurger(new File(_folder.getRoot(), "trash"), 3600000, 1000);
+		try {
+			assertTrue(purger.trash(source.toPath(), "/source"));
+			assertFalse(source.exists());
+			assertEquals(1, purger.getSize());
+			assertFalse(purger.trash(source.toPath(), "/source"));
+			assertEquals(1, purger.getSize());
+		} finally {
+			purger.close();
+		}
+	}
+}